@@ -3,19 +3,20 @@ package com.example.carmusic;
 import android.Manifest;
 import android.animation.ObjectAnimator;
 import android.content.ComponentName;
-import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.animation.LinearInterpolator;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.TextView;
@@ -27,10 +28,19 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.carmusic.adapter.MusicAdapter;
 import com.example.carmusic.bean.MusicBean;
+import com.example.carmusic.bean.MusicLibrary;
 import com.example.carmusic.service.MusicService;
-import com.example.carmusic.utils.MusicUtils;
-
-import java.util.List;
+import com.example.carmusic.service.PlaybackEngine;
+import com.example.carmusic.utils.AlbumArtLoader;
+import com.example.carmusic.utils.MusicScanner;
+import com.example.carmusic.utils.MusicSearch;
+import com.example.carmusic.utils.PerfMetrics;
+import com.example.carmusic.utils.ResourceGovernor;
+import com.example.carmusic.utils.WaveformDrawable;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MainActivity extends AppCompatActivity {
     private MusicService musicService;
@@ -38,21 +48,30 @@ public class MainActivity extends AppCompatActivity {
     private TextView tvTitle, tvArtist;
     private Button btnPlay;
     private SeekBar seekBar;
+    private WaveformDrawable waveform;
+    private String waveformPath; // 已经拿到波形的歌；没分析完的歌每次状态变化再查一次
+    private String waveformLoading; // 正在后台读波形的歌
+    private Future<?> waveformTask;
     private ImageView ivAlbumCover;
+    private boolean coverWaitingForLayout; // 第一次布局前控件宽度还是 0
     private ObjectAnimator rotateAnimator;
     private boolean isBound = false;
     private boolean isUserTouchingSeekBar = false;
+    private MusicScanner scanner;
+    private MusicSearch search;
+    private MusicLibrary library = MusicLibrary.EMPTY; // 最新的扫描快照
+    private String query = "";
 
-    private Handler handler = new Handler(Looper.getMainLooper());
-    private Runnable progressRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (isBound && musicService.isPlaying() && !isUserTouchingSeekBar) {
-                seekBar.setProgress(musicService.getCurrentProgress());
-            }
-            handler.postDelayed(this, 1000);
-        }
-    };
+    // 进度条不再每秒轮询：Service 在开始/seek/暂停/继续时推送带时间锚点的位置，
+    // 两次推送之间由动画按帧插值，只在界面可见且正在播放时运行
+    private static final int POSITION_TICK_MS = 5000;
+    private static final ExecutorService WAVEFORM_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ObjectAnimator progressAnimator;
+    private boolean isStarted = false;
+    private final PlaybackEngine.PositionListener positionListener =
+            status -> runOnUiThread(() -> syncSeekBar(status));
+
+    private final PlaybackEngine.Listener playbackListener = status -> runOnUiThread(() -> updateUI());
 
     private ServiceConnection connection = new ServiceConnection() {
         @Override
@@ -63,8 +82,9 @@ public class MainActivity extends AppCompatActivity {
             // 绑定成功后，检查权限并开始扫描（保留原本逻辑）
             checkPermission();
 
-            // 设置状态回调
-            musicService.setOnStateChange(() -> runOnUiThread(() -> updateUI()));
+            // 设置状态回调（引擎线程回调，切回主线程更新界面）
+            musicService.addListener(playbackListener);
+            if (isStarted) musicService.addPositionListener(positionListener, POSITION_TICK_MS);
 
             // 【修复报错】：删除了 setOnPlaylistLoaded，因为我们用原本的 scan() 方法
         }
@@ -77,11 +97,41 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         initView();
         initAnimation();
+        recordFirstFrame();
 
         Intent intent = new Intent(this, MusicService.class);
         startService(intent);
         bindService(intent, connection, Context.BIND_AUTO_CREATE);
-        handler.post(progressRunnable);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isStarted = true;
+        PerfMetrics.startFrameMonitor(this);
+        if (isBound) musicService.addPositionListener(positionListener, POSITION_TICK_MS);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        isStarted = false;
+        PerfMetrics.stopFrameMonitor(this);
+        if (isBound) musicService.removePositionListener(positionListener);
+        if (progressAnimator != null) progressAnimator.cancel();
+    }
+
+    // 冷启动到第一帧：第一次 onPreDraw 时记录，之后移除监听
+    private void recordFirstFrame() {
+        View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                PerfMetrics.recordFirstFrame();
+                return true;
+            }
+        });
     }
 
     private void initView() {
@@ -92,13 +142,34 @@ public class MainActivity extends AppCompatActivity {
         Button btnNext = findViewById(R.id.btn_next);
         Button btnPrev = findViewById(R.id.btn_prev);
         seekBar = findViewById(R.id.seek_bar);
+        waveform = new WaveformDrawable(getColor(R.color.waveform_played), getColor(R.color.waveform_rest),
+                Math.round(4 * getResources().getDisplayMetrics().density));
+        seekBar.setProgressDrawable(waveform);
         ivAlbumCover = findViewById(R.id.iv_album_cover);
 
         rv.setLayoutManager(new LinearLayoutManager(this));
         adapter = new MusicAdapter();
         rv.setAdapter(adapter);
 
-        adapter.setOnItemClick(pos -> { if (isBound) musicService.play(pos); });
+        // 搜索过滤时列表位置和曲库下标不同，先换算
+        adapter.setOnItemClick(pos -> { if (isBound) musicService.play(adapter.getLibraryIndex(pos)); });
+
+        // 边打字边搜索，结果直接交给 adapter
+        search = new MusicSearch((lib, rows) -> {
+            // 扫描期间快照只会在末尾追加，旧快照上的下标依然有效
+            if (library.isExtensionOf(lib)) adapter.setLibrary(lib, rows);
+        });
+        EditText etSearch = findViewById(R.id.et_search);
+        // 搜索索引只给界面用，退到后台就可以丢
+        ResourceGovernor.get(this).register("search", ResourceGovernor.Tier.UI, search::indexBytes, search::trim);
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override public void afterTextChanged(Editable s) {
+                query = s.toString();
+                search.query(library, query);
+            }
+        });
 
         btnPlay.setOnClickListener(v -> {
             if (!isBound) return;
@@ -110,7 +181,10 @@ public class MainActivity extends AppCompatActivity {
 
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override public void onProgressChanged(SeekBar s, int p, boolean f) {}
-            @Override public void onStartTrackingTouch(SeekBar s) { isUserTouchingSeekBar = true; }
+            @Override public void onStartTrackingTouch(SeekBar s) {
+                isUserTouchingSeekBar = true;
+                if (progressAnimator != null) progressAnimator.cancel();
+            }
             @Override public void onStopTrackingTouch(SeekBar s) {
                 isUserTouchingSeekBar = false;
                 if (isBound) musicService.seekTo(s.getProgress());
@@ -118,6 +192,22 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    // 收到位置事件后从锚点重新起一段线性动画，一直走到歌曲结尾，下一次事件再校准
+    private void syncSeekBar(PlaybackEngine.Status status) {
+        if (isUserTouchingSeekBar) return;
+        if (progressAnimator != null) progressAnimator.cancel();
+        int duration = status.durationMs;
+        int position = status.currentPosition();
+        seekBar.setMax(duration);
+        seekBar.setProgress(position);
+        if (!status.isPlaying() || !isStarted || position >= duration) return;
+
+        progressAnimator = ObjectAnimator.ofInt(seekBar, "progress", position, duration);
+        progressAnimator.setDuration(duration - position);
+        progressAnimator.setInterpolator(new LinearInterpolator());
+        progressAnimator.start();
+    }
+
     private void initAnimation() {
         rotateAnimator = ObjectAnimator.ofFloat(ivAlbumCover, "rotation", 0f, 360f);
         rotateAnimator.setDuration(15000);
@@ -131,21 +221,12 @@ public class MainActivity extends AppCompatActivity {
         if (current != null) {
             tvTitle.setText(current.getTitle());
             tvArtist.setText(current.getArtist());
-            seekBar.setMax(musicService.getDuration());
-
-            // --- 优化：使用系统相册ID加载封面 (比原来的 MetadataRetriever 更快更稳) ---
-            try {
-                // 先重置默认图
-                ivAlbumCover.setImageResource(android.R.drawable.ic_menu_gallery);
-
-                if (current.getAlbumResId() > 0) {
-                    Uri albumArtUri = Uri.parse("content://media/external/audio/albumart");
-                    Uri imgUri = ContentUris.withAppendedId(albumArtUri, current.getAlbumResId());
-                    ivAlbumCover.setImageURI(imgUri);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+            adapter.setPlayingId(MusicAdapter.stableId(current));
+            if (!current.getPath().equals(waveformPath) && !current.getPath().equals(waveformLoading)) {
+                loadWaveform(current.getPath());
             }
+
+            loadCover(current);
         }
 
         if (musicService.isPlaying()) {
@@ -158,6 +239,54 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // 波形被丢掉过时要从文件读回来，放到后台；先清掉上一首的，切歌后才回来的结果不用
+    private void loadWaveform(String path) {
+        waveform.setPeaks(null);
+        waveformPath = null;
+        waveformLoading = path;
+        if (waveformTask != null) waveformTask.cancel(false);
+        waveformTask = WAVEFORM_EXECUTOR.submit(readWaveform(new WeakReference<>(this), musicService, path));
+    }
+
+    // 静态方法：后台任务只弱引用 Activity，排队中的任务不会让销毁的 Activity 留在内存里
+    private static Runnable readWaveform(WeakReference<MainActivity> ref, MusicService service, String path) {
+        return () -> {
+            byte[] peaks = service.getWaveform(path);
+            MainActivity activity = ref.get();
+            if (activity == null || activity.isDestroyed()) return;
+            activity.runOnUiThread(() -> activity.onWaveformLoaded(path, peaks));
+        };
+    }
+
+    private void onWaveformLoaded(String path, byte[] peaks) {
+        if (isDestroyed() || !path.equals(waveformLoading)) return;
+        waveformLoading = null;
+        waveformTask = null;
+        waveform.setPeaks(peaks);
+        waveformPath = peaks == null ? null : path;
+    }
+
+    // 封面在后台按控件尺寸解码，切歌时不阻塞主线程；同专辑命中内存缓存。
+    // 还没布局时宽度是 0，等布局完成再按实际尺寸加载当时正在播的歌
+    private void loadCover(MusicBean current) {
+        if (ivAlbumCover.getWidth() == 0) {
+            if (coverWaitingForLayout) return;
+            coverWaitingForLayout = true;
+            ivAlbumCover.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int l, int t, int r, int b, int ol, int ot, int or, int ob) {
+                    v.removeOnLayoutChangeListener(this);
+                    coverWaitingForLayout = false;
+                    MusicBean playing = musicService != null ? musicService.getCurrentMusic() : null;
+                    if (playing != null) loadCover(playing);
+                }
+            });
+            return;
+        }
+        AlbumArtLoader.get(this).load(ivAlbumCover, current.getAlbumResId(), current.getArtist(), current.getAlbum(),
+                current.getPath(), current.getArtOffset(), current.getArtLength(), ivAlbumCover.getWidth(), android.R.drawable.ic_menu_gallery);
+    }
+
     private void checkPermission() {
         String permission = (Build.VERSION.SDK_INT >= 33) ?
                 Manifest.permission.READ_MEDIA_AUDIO : Manifest.permission.READ_EXTERNAL_STORAGE;
@@ -175,23 +304,49 @@ public class MainActivity extends AppCompatActivity {
         if (g.length > 0 && g[0] == PackageManager.PERMISSION_GRANTED) scan();
     }
 
-    // 保留原本的扫描逻辑
+    // 流式扫描：第一批到达就能显示，不用等全部扫完
     private void scan() {
-        new Thread(() -> {
-            List<MusicBean> list = MusicUtils.getMusicData(this);
-            runOnUiThread(() -> {
-                adapter.setList(list);
-                if (isBound) musicService.setPlaylist(list); // 把数据传给 Service
-                Toast.makeText(this, "扫描到 " + list.size() + " 首歌", Toast.LENGTH_SHORT).show();
-            });
-        }).start();
+        if (scanner != null) scanner.cancel();
+
+        scanner = new MusicScanner(this, MusicScanner.DEFAULT_BATCH_SIZE, new MusicScanner.Listener() {
+            @Override
+            public void onBatch(MusicLibrary snapshot) {
+                library = snapshot;
+                // 快照不可变，界面和 Service 共用同一份，不需要复制
+                // 正在搜索时等扫描完成再统一刷新结果，避免每批都重建搜索索引
+                if (query.isEmpty()) adapter.setLibrary(snapshot);
+                if (isBound) musicService.setPlaylist(snapshot); // 把数据传给 Service
+            }
+
+            @Override
+            public void onFinish(MusicLibrary result) {
+                if (!query.isEmpty()) search.query(result, query);
+                Toast.makeText(MainActivity.this, "扫描到 " + result.size() + " 首歌", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onChanged(MusicLibrary updated) {
+                // U 盘上的歌有增删：只有新增时是末尾追加，adapter 和播放队列都走增量；有删除时 adapter 在后台算差异
+                library = updated;
+                if (query.isEmpty()) adapter.setLibrary(updated);
+                else search.query(updated, query);
+                if (isBound) musicService.setPlaylist(updated);
+            }
+        });
+        scanner.start();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        handler.removeCallbacks(progressRunnable);
+        if (scanner != null) scanner.cancel();
+        if (waveformTask != null) waveformTask.cancel(false);
+        ResourceGovernor.get(this).unregister("search");
+        search.release();
         if (rotateAnimator != null) rotateAnimator.cancel();
-        if (isBound) unbindService(connection);
+        if (isBound) {
+            musicService.removeListener(playbackListener);
+            unbindService(connection);
+        }
     }
 }
\ No newline at end of file
@@ -1,68 +1,267 @@
 package com.example.carmusic.adapter;
 
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.carmusic.R;
 import com.example.carmusic.bean.MusicBean;
-import java.util.ArrayList;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.utils.AlbumArtLoader;
 import java.util.List;
-import android.content.ContentUris;
-import android.net.Uri;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MusicAdapter extends RecyclerView.Adapter<MusicAdapter.VH> {
-    private List<MusicBean> data = new ArrayList<>();
+    // 只刷新"正在播放"高亮，不重新绑定整行
+    private static final Object PAYLOAD_PLAYING = new Object();
+    private static final int COLOR_PLAYING = Color.parseColor("#1DB954");
+    private static final int COLOR_NORMAL = Color.WHITE;
+
+    // 差异在后台线程计算，只把变化的行派发给 RecyclerView
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile int diffGeneration = 0; // 后台也读，排队的旧任务直接跳过
+
+    private MusicLibrary library = MusicLibrary.EMPTY;
+    private int[] rows; // 搜索过滤后显示的曲库下标，null 表示显示全部
     private OnItemClick listener;
+    private long playingId = Long.MIN_VALUE;
+    private PositionIndex positions = PositionIndex.EMPTY; // stableId -> 列表位置，在后台和差异一起建
 
     public interface OnItemClick { void onClick(int pos); }
+
+    public MusicAdapter() {
+        setHasStableIds(true);
+    }
+
     public void setOnItemClick(OnItemClick l) { this.listener = l; }
-    public void setList(List<MusicBean> list) { this.data = list; notifyDataSetChanged(); }
+
+    public void setLibrary(MusicLibrary newLibrary) { setLibrary(newLibrary, null); }
+
+    // 扫描过程中的快照只是在末尾追加，直接通知插入区间；搜索过滤变了直接换列表（稳定 ID 保证动画不乱），
+    // 不拿 4 万行去和过滤结果算差异；只有曲库换成曲库时在后台算差异
+    public void setLibrary(MusicLibrary newLibrary, int[] newRows) {
+        int generation = ++diffGeneration;
+        MusicLibrary old = library;
+        int[] oldRows = rows;
+        if (oldRows == null && newRows == null && newLibrary.isExtensionOf(old)) {
+            library = newLibrary;
+            if (newLibrary.size() > old.size()) notifyItemRangeInserted(old.size(), newLibrary.size() - old.size());
+            // 已有的位置不变，旧索引继续可用，新追加的行由 positionOf 补查，后台建好后替换
+            buildPositions(generation, newLibrary, null);
+            return;
+        }
+        if (oldRows != null || newRows != null) {
+            library = newLibrary;
+            rows = newRows;
+            positions = PositionIndex.EMPTY; // 索引建好之前 positionOf 逐行比较
+            notifyDataSetChanged();
+            buildPositions(generation, newLibrary, newRows);
+            return;
+        }
+        DIFF_EXECUTOR.execute(() -> {
+            // 排队期间又提交了新列表，不用再算
+            if (generation != diffGeneration) return;
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new LibraryDiff(old, oldRows, newLibrary, newRows));
+            PositionIndex index = PositionIndex.build(newLibrary, newRows);
+            mainHandler.post(() -> {
+                // 期间又提交了新列表，这次结果作废
+                if (generation != diffGeneration) return;
+                library = newLibrary;
+                rows = newRows;
+                positions = index;
+                result.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    private void buildPositions(int generation, MusicLibrary newLibrary, int[] newRows) {
+        DIFF_EXECUTOR.execute(() -> {
+            if (generation != diffGeneration) return;
+            PositionIndex index = PositionIndex.build(newLibrary, newRows);
+            mainHandler.post(() -> { if (generation == diffGeneration) positions = index; });
+        });
+    }
+
+    public MusicLibrary getLibrary() { return library; }
+
+    // 列表位置 -> 曲库下标（搜索过滤时两者不同）
+    public int getLibraryIndex(int position) { return rows == null ? position : rows[position]; }
+
+    // 切歌时只刷新旧的和新的两行
+    public void setPlayingId(long id) {
+        if (id == playingId) return;
+        int oldPos = positionOf(playingId);
+        playingId = id;
+        int newPos = positionOf(id);
+        if (oldPos >= 0) notifyItemChanged(oldPos, PAYLOAD_PLAYING);
+        if (newPos >= 0) notifyItemChanged(newPos, PAYLOAD_PLAYING);
+    }
+
+    // 先查索引；扫描中追加、索引还没建好的末尾几行逐行比较
+    private int positionOf(long stableId) {
+        if (stableId == Long.MIN_VALUE) return -1;
+        int pos = positions.get(stableId);
+        if (pos >= 0) return pos;
+        for (pos = positions.size; pos < getItemCount(); pos++) {
+            if (library.getStableId(getLibraryIndex(pos)) == stableId) return pos;
+        }
+        return -1;
+    }
+
+    public static long stableId(MusicBean bean) {
+        return MusicLibrary.stableId(bean.getId(), bean.getPath());
+    }
+
+    @Override
+    public long getItemId(int position) { return library.getStableId(getLibraryIndex(position)); }
 
     @NonNull @Override
     public VH onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_music, parent, false);
-        return new VH(v);
+        VH holder = new VH(v);
+        // 点击时再取位置，列表经过差异更新后绑定时的 position 可能已经过期
+        v.setOnClickListener(view -> {
+            int pos = holder.getBindingAdapterPosition();
+            if (listener != null && pos != RecyclerView.NO_POSITION) listener.onClick(pos);
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull VH holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_PLAYING)) {
+            bindPlaying(holder, position);
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
 
     @Override
     public void onBindViewHolder(@NonNull VH holder, int position) {
-        MusicBean bean = data.get(position);
-        holder.title.setText(bean.getTitle());
-        holder.artist.setText(bean.getArtist());
-
-        // --- 新增：加载专辑图片逻辑 开始 ---
-
-        // 1. 生成专辑封面的 URI
-        Uri albumUri = ContentUris.withAppendedId(
-                Uri.parse("content://media/external/audio/albumart"),
-                bean.getAlbumResId()
-        );
-
-        // 2. 设置图片
-        // 注意：holder.albumIcon 要改成你 ViewHolder 里实际定义的 ImageView 名字
-        try {
-            // 先设置一个默认图 (防止没图的时候显示空白，或者显示上一张的缓存)
-            holder.albumIcon.setImageResource(R.drawable.ic_launcher_background); // 改成你自己的默认图资源ID
-
-            // 如果有有效的 ID，尝试设置图片
-            if (bean.getAlbumResId() > 0) {
-                holder.albumIcon.setImageURI(albumUri);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        // 按下标直接读列，不创建 MusicBean
+        int index = getLibraryIndex(position);
+        holder.title.setText(library.getTitle(index));
+        holder.artist.setText(library.getArtist(index));
+        bindPlaying(holder, position);
+
+        // 专辑封面交给 AlbumArtLoader 在后台解码，滑动时不卡主线程
+        int sizePx = holder.albumIcon.getLayoutParams().width;
+        AlbumArtLoader.get(holder.itemView.getContext())
+                .load(holder.albumIcon, library.getAlbumResId(index), library.getArtist(index), library.getAlbum(index),
+                        library.getPath(index), library.getArtOffset(index), library.getArtLength(index), sizePx,
+                        R.drawable.ic_launcher_background);
+    }
+
+    private void bindPlaying(VH holder, int position) {
+        boolean playing = library.getStableId(getLibraryIndex(position)) == playingId;
+        holder.title.setTextColor(playing ? COLOR_PLAYING : COLOR_NORMAL);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull VH holder) {
+        // 回收的行不再需要封面，取消还没完成的解码
+        AlbumArtLoader.get(holder.itemView.getContext()).cancel(holder.albumIcon);
+    }
+
+    @Override public int getItemCount() { return rows == null ? library.size() : rows.length; }
+
+    // 按下标比较两份快照，不创建 MusicBean
+    private static class LibraryDiff extends DiffUtil.Callback {
+        private final MusicLibrary oldLib;
+        private final int[] oldRows;
+        private final MusicLibrary newLib;
+        private final int[] newRows;
+
+        LibraryDiff(MusicLibrary oldLib, int[] oldRows, MusicLibrary newLib, int[] newRows) {
+            this.oldLib = oldLib;
+            this.oldRows = oldRows;
+            this.newLib = newLib;
+            this.newRows = newRows;
         }
-        // --- 新增：加载专辑图片逻辑 结束 ---
 
-        holder.itemView.setOnClickListener(v -> {
-            if (listener != null) listener.onClick(position);
-        });
+        @Override public int getOldListSize() { return oldRows == null ? oldLib.size() : oldRows.length; }
+        @Override public int getNewListSize() { return newRows == null ? newLib.size() : newRows.length; }
+
+        @Override
+        public boolean areItemsTheSame(int o, int n) {
+            return oldLib.getStableId(row(oldRows, o)) == newLib.getStableId(row(newRows, n));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int o, int n) {
+            o = row(oldRows, o);
+            n = row(newRows, n);
+            return Objects.equals(oldLib.getTitle(o), newLib.getTitle(n))
+                    && Objects.equals(oldLib.getArtist(o), newLib.getArtist(n))
+                    && Objects.equals(oldLib.getFileName(o), newLib.getFileName(n))
+                    && Objects.equals(oldLib.getFolder(o), newLib.getFolder(n))
+                    && oldLib.getDuration(o) == newLib.getDuration(n)
+                    && oldLib.getAlbumResId(o) == newLib.getAlbumResId(n);
+        }
+
+        private static int row(int[] rows, int pos) { return rows == null ? pos : rows[pos]; }
     }
 
-    @Override public int getItemCount() { return data.size(); }
+    // 开放寻址的 long -> int 表，不装箱；重复的 stableId 保留第一个位置
+    private static final class PositionIndex {
+        static final PositionIndex EMPTY = new PositionIndex(0);
+
+        final int size; // 建索引时的列表长度
+        private final long[] keys;
+        private final int[] slots; // 位置 + 1，0 表示空
+        private final int mask;
+
+        private PositionIndex(int size) {
+            this.size = size;
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+            keys = new long[capacity];
+            slots = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        static PositionIndex build(MusicLibrary library, int[] rows) {
+            int count = rows == null ? library.size() : rows.length;
+            PositionIndex index = new PositionIndex(count);
+            for (int pos = 0; pos < count; pos++) {
+                index.putIfAbsent(library.getStableId(rows == null ? pos : rows[pos]), pos);
+            }
+            return index;
+        }
+
+        private void putIfAbsent(long key, int pos) {
+            int i = hash(key) & mask;
+            while (slots[i] != 0) {
+                if (keys[i] == key) return;
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            slots[i] = pos + 1;
+        }
+
+        int get(long key) {
+            int i = hash(key) & mask;
+            while (slots[i] != 0) {
+                if (keys[i] == key) return slots[i] - 1;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
 
     static class VH extends RecyclerView.ViewHolder {
         TextView title, artist;
@@ -75,4 +274,4 @@ public class MusicAdapter extends RecyclerView.Adapter<MusicAdapter.VH> {
             albumIcon = v.findViewById(R.id.iv_item_icon); // 绑定 XML 里新加的图片
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,305 @@
+package com.example.carmusic.service;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.os.Process;
+import com.example.carmusic.audio.PcmRingBuffer;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+// CodecTrack 共用的输出端：一个 AudioTrack 加一个输出线程，从当前曲目的环形缓冲区取 PCM 写进去。
+// 接在后面的下一首在当前这首最后 crossfadeMs 里混进来；采样率不同时不交叉淡化，切换时重建 AudioTrack。
+// 混音缓冲区和环形缓冲区都是预先分配、循环使用的，输出线程上没有任何分配
+final class AudioSink {
+    private static final int CHUNK_FRAMES = 1024;
+    private static final int RING_FRAMES = 6 * 48000;    // 48kHz 下约 6 秒
+    private static final int HISTORY_FRAMES = 2 * 48000; // 其中 2 秒留给往回 seek
+    private static final int POOL_SIZE = 3;               // 当前、下一首，加一个给切歌时的新曲目
+    private static final long RING_BYTES = (long) RING_FRAMES * PcmRingBuffer.CHANNELS * 2;
+    private static final int UNDERRUN_WAIT_MS = 10;
+
+    private final int crossfadeMs;
+    private final short[] mix = new short[CHUNK_FRAMES * PcmRingBuffer.CHANNELS];
+    private final short[] mixNext = new short[CHUNK_FRAMES * PcmRingBuffer.CHANNELS];
+    private final Thread thread;
+
+    // 以下字段受 lock 保护
+    private final Object lock = new Object();
+    private final ArrayDeque<PcmRingBuffer> pool = new ArrayDeque<>();
+    // 已经释放的曲目的缓冲区，等输出线程不再引用它们时才回到 pool
+    private final ArrayDeque<PcmRingBuffer> retired = new ArrayDeque<>();
+    private CodecTrack current;
+    private CodecTrack next;
+    private boolean playing;
+    private boolean flushRequested;
+    private long framesWritten; // 上次 flush 以来写进 AudioTrack 的帧数
+    private boolean released;
+    private int underruns;
+    private int active; // 已经交给曲目、还没 detach 的缓冲区
+
+    // AudioTrack 在输出线程创建；暂停/继续也会在引擎线程调用，都在 lock 里
+    private AudioTrack audioTrack;
+    private int trackRate;
+
+    AudioSink(int crossfadeMs) {
+        this.crossfadeMs = crossfadeMs;
+        for (int i = 0; i < POOL_SIZE; i++) pool.add(new PcmRingBuffer(RING_FRAMES, HISTORY_FRAMES));
+        thread = new Thread(this::loop, "AudioSink");
+        thread.start();
+    }
+
+    // 池子里暂时没有空闲的（刚切歌，旧的还没回收）就新建一个，之后会留在池里复用
+    PcmRingBuffer acquire() {
+        synchronized (lock) {
+            PcmRingBuffer ring = pool.pollFirst();
+            if (ring == null) ring = new PcmRingBuffer(RING_FRAMES, HISTORY_FRAMES);
+            ring.reopen();
+            active++;
+            return ring;
+        }
+    }
+
+    // 开始播放 t：如果 t 不是正在输出的曲目（手动切歌），丢掉 AudioTrack 里旧歌的尾巴
+    void start(CodecTrack t) {
+        synchronized (lock) {
+            if (current != t) {
+                current = t;
+                next = null;
+                flushRequested = true;
+            }
+            playing = true;
+            if (audioTrack != null) audioTrack.play();
+            lock.notifyAll();
+        }
+    }
+
+    // 输出线程可能正阻塞在 write 里，AudioTrack 暂停后它会一直等到 play
+    void pause(CodecTrack t) {
+        synchronized (lock) {
+            if (current != t) return;
+            playing = false;
+            if (audioTrack != null) audioTrack.pause();
+        }
+    }
+
+    // seek 之后 AudioTrack 里还缓冲着旧位置的数据，清掉。暂停中先清一次，让阻塞的 write 写完手上这块，
+    // 输出线程回到循环开头时再清一次
+    void flush(CodecTrack t) {
+        synchronized (lock) {
+            if (current != t) return;
+            flushRequested = true;
+            if (!playing && audioTrack != null) audioTrack.flush();
+        }
+    }
+
+    boolean setNext(CodecTrack t, CodecTrack n) {
+        synchronized (lock) {
+            if (current != t) return false;
+            next = n;
+            return true;
+        }
+    }
+
+    void detach(CodecTrack t, PcmRingBuffer ring) {
+        synchronized (lock) {
+            if (next == t) next = null;
+            if (current == t) {
+                current = null;
+                next = null;
+                flushRequested = true;
+            }
+            if (ring != null) {
+                retired.add(ring);
+                active--;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // 还在 AudioTrack 里没播出去的帧数，用来从读指针推算真实播放位置
+    long latencyFrames(CodecTrack t) {
+        synchronized (lock) {
+            if (current != t || audioTrack == null) return 0;
+            long played = audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+            return Math.max(0, framesWritten - played);
+        }
+    }
+
+    // 资源统计：曲目正在用的缓冲区（包括预加载的下一首），和空闲等着复用的
+    long activeBytes() {
+        synchronized (lock) {
+            return active * RING_BYTES;
+        }
+    }
+
+    long pooledBytes() {
+        synchronized (lock) {
+            return (pool.size() + retired.size()) * RING_BYTES;
+        }
+    }
+
+    // 内存紧张时放掉空闲的缓冲区，之后切歌时再按需新建。还没回收的等输出线程放手后照常回到池里
+    void trimPool() {
+        synchronized (lock) {
+            pool.clear();
+        }
+    }
+
+    void release() {
+        synchronized (lock) {
+            released = true;
+            current = null;
+            next = null;
+            if (audioTrack != null) {
+                // 暂停并清空，阻塞中的 write 有了空间会马上返回
+                audioTrack.pause();
+                audioTrack.flush();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (lock) {
+            pw.println("AudioSink: crossfade=" + crossfadeMs + "ms rate=" + trackRate + " playing=" + playing
+                    + " underruns=" + underruns + " pooled=" + pool.size());
+        }
+    }
+
+    private void loop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        try {
+            while (true) {
+                CodecTrack cur;
+                CodecTrack nxt;
+                synchronized (lock) {
+                    while (!released && (current == null || !playing)) {
+                        recycleRetired();
+                        if (flushRequested && audioTrack != null) flushLocked();
+                        lock.wait();
+                    }
+                    if (released) break;
+                    recycleRetired();
+                    cur = current;
+                    nxt = next;
+                    if (audioTrack == null || trackRate != cur.sampleRate()) openTrackLocked(cur.sampleRate());
+                    if (flushRequested) flushLocked();
+                    if (audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) audioTrack.play();
+                }
+
+                PcmRingBuffer ring = cur.ring();
+                int n = ring.read(mix, 0, CHUNK_FRAMES);
+                if (n == 0) {
+                    if (ring.isDrained()) {
+                        finish(cur);
+                    } else {
+                        synchronized (lock) {
+                            underruns++;
+                        }
+                        ring.awaitData(UNDERRUN_WAIT_MS);
+                    }
+                    continue;
+                }
+                applyGain(mix, n, cur.gain());
+                if (nxt != null) crossfade(cur, nxt, n);
+                audioTrack.write(mix, 0, n * PcmRingBuffer.CHANNELS);
+                synchronized (lock) {
+                    framesWritten += n;
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            synchronized (lock) {
+                if (audioTrack != null) {
+                    audioTrack.release();
+                    audioTrack = null;
+                }
+            }
+        }
+    }
+
+    // 当前这首的最后 fade 帧里，按剩余帧数线性降低当前、提高下一首
+    private void crossfade(CodecTrack cur, CodecTrack nxt, int n) {
+        if (crossfadeMs <= 0 || !nxt.isPrepared() || nxt.sampleRate() != cur.sampleRate()) return;
+        long fade = (long) crossfadeMs * cur.sampleRate() / 1000;
+        long remaining = cur.remainingFrames(); // 这一块之后还剩的帧数
+        if (remaining >= fade) return;
+        int m = (int) Math.min(n, fade - remaining); // 这一块最后 m 帧落在淡化区间里
+        int got = nxt.ring().read(mixNext, 0, m);
+        applyGain(mixNext, got, nxt.gain());
+        int first = n - m;
+        for (int i = first; i < n; i++) {
+            float g = (float) (remaining + n - i) / fade;
+            int j = i - first;
+            for (int c = 0; c < PcmRingBuffer.CHANNELS; c++) {
+                int k = i * PcmRingBuffer.CHANNELS + c;
+                int other = j < got ? mixNext[j * PcmRingBuffer.CHANNELS + c] : 0;
+                int v = (int) (mix[k] * g + other * (1 - g));
+                mix[k] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+            }
+        }
+    }
+
+    private static void applyGain(short[] buffer, int frames, float gain) {
+        if (gain == 1f) return;
+        int n = frames * PcmRingBuffer.CHANNELS;
+        for (int i = 0; i < n; i++) {
+            int v = (int) (buffer[i] * gain);
+            buffer[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+        }
+    }
+
+    // 当前这首的数据全部写完：接着的下一首直接成为当前（淡化时已经播了开头），否则停下等新的 start
+    private void finish(CodecTrack cur) {
+        synchronized (lock) {
+            if (current != cur) return;
+            if (next != null) {
+                current = next;
+                next = null;
+                // 不 flush：AudioTrack 里上一首的尾巴和下一首的开头是连续的，
+                // 尾巴播完之前 latencyFrames 会大于下一首已读的帧数，位置按 0 算
+            } else {
+                current = null;
+                if (audioTrack != null) audioTrack.stop(); // 播完缓冲里剩下的再停
+            }
+        }
+        cur.onOutputFinished();
+    }
+
+    private void flushLocked() {
+        audioTrack.pause();
+        audioTrack.flush();
+        if (playing && current != null) audioTrack.play();
+        framesWritten = 0;
+        flushRequested = false;
+    }
+
+    private void openTrackLocked(int rate) {
+        if (audioTrack != null) audioTrack.release();
+        int minBytes = AudioTrack.getMinBufferSize(rate, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+        audioTrack = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(rate)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .build())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setBufferSizeInBytes(Math.max(minBytes, CHUNK_FRAMES * 4 * 4))
+                .build();
+        trackRate = rate;
+        framesWritten = 0;
+        flushRequested = false;
+    }
+
+    private void recycleRetired() {
+        PcmRingBuffer ring;
+        while ((ring = retired.pollFirst()) != null) {
+            if (pool.size() < POOL_SIZE) pool.add(ring);
+        }
+    }
+}
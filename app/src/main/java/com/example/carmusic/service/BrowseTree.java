@@ -0,0 +1,501 @@
+package com.example.carmusic.service;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaBrowserCompat.MediaItem;
+import android.support.v4.media.MediaDescriptionCompat;
+import androidx.media.MediaBrowserServiceCompat;
+import com.example.carmusic.bean.MusicBean;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.utils.BrowseIndex;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 给车机媒体中心（MediaBrowser）看的浏览树：全部歌曲、歌手 -> 专辑 -> 歌、专辑、文件夹、最近播放。
+// 所有请求都在自己的线程上异步回答，按 EXTRA_PAGE/EXTRA_PAGE_SIZE 只取一页：顶层列表直接按下标切曲库和 BrowseIndex，
+// 某个专辑/文件夹里的歌只排这一组，结果缓存几份给翻页用。MediaItem 和封面 Uri 建好后缓存，来回翻页不重复构建。
+// 没带分页参数的请求最多返回 MAX_UNPAGED 项：超过时歌手/专辑/文件夹列表换成 A-Z、# 的字母区段，
+// 其它列表（全部歌曲、大文件夹里的歌、很大的字母区段）按 MAX_UNPAGED 一段切开，每一项都还能点到
+final class BrowseTree {
+    static final String ROOT = "root";
+    private static final String TRACKS = "tracks";
+    private static final String ARTISTS = "artists";
+    private static final String ALBUMS = "albums";
+    private static final String FOLDERS = "folders";
+    private static final String RECENT = "recent";
+    private static final String TRACK_PREFIX = "track/"; // track/<行号>/<稳定 ID>
+    private static final String ARTIST_PREFIX = "artist/"; // artist/<歌手>，artist/<歌手>/<专辑>
+    private static final String ALBUM_PREFIX = "album/";
+    private static final String FOLDER_PREFIX = "folder/";
+    private static final String SECTION_PREFIX = "section/"; // section/<artists|albums|folders>/<区段>
+    private static final char RANGE_MARK = '@'; // <父节点>@<起始下标>，一段 MAX_UNPAGED 项
+
+    private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+    private static final int MAX_UNPAGED = 500;
+    private static final int RECENT_SIZE = 50;
+    private static final int ITEM_CACHE = 1024;
+    private static final int CHILDREN_CACHE = 8;
+    private static final long NOTIFY_DELAY_MS = 2000; // 扫描分批到达时合并成一次刷新
+    private static final int ITEM_BYTES = 512;  // 一个 MediaItem 连同描述和字符串，估算
+    private static final int GROUP_BYTES = 128; // 浏览索引里每组的排序键和下标，估算
+
+    interface Listener {
+        void onChildrenChanged(String parentId); // 任意线程回调
+    }
+
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Runnable notifyLibraryChanged = this::notifyLibraryChanged;
+    private final Runnable notifyRecentChanged = this::notifyRecentChanged;
+    private volatile MusicLibrary library = MusicLibrary.EMPTY;
+
+    // 以下字段只在浏览线程访问
+    private BrowseIndex index;
+    private final Map<String, MediaItem> items = new LinkedHashMap<String, MediaItem>(ITEM_CACHE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MediaItem> eldest) {
+            return size() > ITEM_CACHE;
+        }
+    };
+    private final Map<String, int[]> children = new LinkedHashMap<String, int[]>(CHILDREN_CACHE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > CHILDREN_CACHE;
+        }
+    };
+    private final Map<Long, Uri> artUris = new HashMap<>();
+    private final ArrayDeque<Recent> recent = new ArrayDeque<>();
+    // 统计，dump 时从别的线程读
+    private volatile int requests;
+    private volatile int itemsBuilt;
+    private volatile int recentCount;
+    private volatile long cacheBytes;
+
+    // 最近播放：稳定 ID 加上当时的行号，行号对不上时再按 ID 找
+    private static final class Recent {
+        final long stableId;
+        int row;
+
+        Recent(long stableId, int row) {
+            this.stableId = stableId;
+            this.row = row;
+        }
+    }
+
+    BrowseTree(Listener listener) {
+        this.listener = listener;
+        thread = new HandlerThread("BrowseTree", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    // 曲库换了：缓存作废，索引在下一次请求时增量更新
+    void setLibrary(MusicLibrary updated) {
+        handler.post(() -> {
+            if (updated == library) return;
+            library = updated;
+            items.clear();
+            children.clear();
+            updateCacheBytes();
+            handler.removeCallbacks(notifyLibraryChanged);
+            handler.postDelayed(notifyLibraryChanged, NOTIFY_DELAY_MS);
+        });
+    }
+
+    void onTrackStarted(MusicBean music) {
+        if (music == null) return;
+        long stableId = MusicLibrary.stableId(music.getId(), music.getPath());
+        handler.post(() -> {
+            for (Iterator<Recent> it = recent.iterator(); it.hasNext(); ) {
+                if (it.next().stableId == stableId) it.remove();
+            }
+            recent.addFirst(new Recent(stableId, -1));
+            while (recent.size() > RECENT_SIZE) recent.removeLast();
+            recentCount = recent.size();
+            handler.removeCallbacks(notifyRecentChanged);
+            handler.postDelayed(notifyRecentChanged, NOTIFY_DELAY_MS);
+        });
+    }
+
+    // 主线程调用，结果在浏览线程送回；options 为 null 或不带分页参数时超长的列表换成区段或分段节点
+    void load(String parentId, Bundle options, MediaBrowserServiceCompat.Result<List<MediaItem>> result) {
+        int page = options == null ? -1 : options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        int pageSize = options == null ? -1 : options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        result.detach();
+        handler.post(() -> {
+            requests++;
+            List<MediaItem> list;
+            try {
+                if (page >= 0 && pageSize > 0) {
+                    list = children(parentId, (int) Math.min(Integer.MAX_VALUE, (long) page * pageSize), pageSize);
+                } else {
+                    list = unpaged(parentId);
+                }
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                list = null; // 过期或伪造的 ID
+            }
+            result.sendResult(list);
+            updateCacheBytes();
+        });
+    }
+
+    // 播放请求里的 mediaId -> 当前曲库的行号；找不到返回 -1。任意线程调用
+    int resolveTrack(String mediaId) {
+        if (mediaId == null || !mediaId.startsWith(TRACK_PREFIX)) return -1;
+        String[] parts = mediaId.substring(TRACK_PREFIX.length()).split("/");
+        if (parts.length != 2) return -1;
+        try {
+            return locate(library, Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // 缓存大约占的字节数，资源统计用，任意线程调用
+    long cacheBytes() { return cacheBytes; }
+
+    // 内存紧张时丢掉所有缓存和浏览索引，下一次请求时再建
+    void trim() {
+        handler.post(() -> {
+            items.clear();
+            children.clear();
+            artUris.clear();
+            index = null;
+            updateCacheBytes();
+        });
+    }
+
+    void release() {
+        handler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("BrowseTree: library=" + library.size() + " requests=" + requests + " itemsBuilt=" + itemsBuilt
+                + " recent=" + recentCount + " cache=" + cacheBytes / 1024 + "KB");
+    }
+
+    private void updateCacheBytes() {
+        long bytes = (long) items.size() * ITEM_BYTES + artUris.size() * 64L;
+        for (int[] rows : children.values()) bytes += 16 + 4L * rows.length;
+        if (index != null) {
+            for (BrowseIndex.Kind kind : BrowseIndex.Kind.values()) bytes += (long) index.get(kind).size() * GROUP_BYTES;
+        }
+        cacheBytes = bytes;
+    }
+
+    private void notifyRecentChanged() {
+        listener.onChildrenChanged(RECENT);
+    }
+
+    private void notifyLibraryChanged() {
+        for (String id : new String[]{TRACKS, ARTISTS, ALBUMS, FOLDERS, RECENT}) listener.onChildrenChanged(id);
+    }
+
+    private BrowseIndex index() {
+        MusicLibrary current = library;
+        if (index == null) index = BrowseIndex.build(current);
+        else if (index.getLibrary() != current) index = index.update(current);
+        return index;
+    }
+
+    // 不分页：放得下就整个返回；放不下的歌手/专辑/文件夹列表给字母区段，其余按段切开
+    private List<MediaItem> unpaged(String parentId) {
+        if (parentId.indexOf(RANGE_MARK) >= 0) return children(parentId, 0, MAX_UNPAGED);
+        int size = childCount(parentId);
+        if (size < 0) return null;
+        if (size <= MAX_UNPAGED) return children(parentId, 0, MAX_UNPAGED);
+        BrowseIndex.Kind kind = kindOf(parentId);
+        return kind != null ? sections(parentId, kind) : ranges(parentId, size);
+    }
+
+    private static BrowseIndex.Kind kindOf(String listId) {
+        switch (listId) {
+            case ARTISTS: return BrowseIndex.Kind.ARTIST;
+            case ALBUMS: return BrowseIndex.Kind.ALBUM;
+            case FOLDERS: return BrowseIndex.Kind.FOLDER;
+            default: return null;
+        }
+    }
+
+    // 只列出有组的字母，副标题是组数
+    private List<MediaItem> sections(String listId, BrowseIndex.Kind kind) {
+        BrowseIndex.Groups groups = index().get(kind);
+        List<MediaItem> list = new ArrayList<>(BrowseIndex.SECTION_COUNT);
+        for (int section = 0; section < BrowseIndex.SECTION_COUNT; section++) {
+            if (groups.isSectionEmpty(section)) continue;
+            String id = SECTION_PREFIX + listId + "/" + section;
+            MediaItem item = items.get(id);
+            if (item == null) {
+                item = browsable(id, String.valueOf(BrowseIndex.sectionLabel(section)), groups.sectionSize(section) + " 项", null);
+                items.put(id, item);
+            }
+            list.add(item);
+        }
+        return list;
+    }
+
+    private List<MediaItem> ranges(String parentId, int size) {
+        List<MediaItem> list = new ArrayList<>((size + MAX_UNPAGED - 1) / MAX_UNPAGED);
+        for (int from = 0; from < size; from += MAX_UNPAGED) {
+            String id = parentId + RANGE_MARK + from;
+            MediaItem item = items.get(id);
+            if (item == null) {
+                item = browsable(id, (from + 1) + " - " + Math.min(size, from + MAX_UNPAGED), null, null);
+                items.put(id, item);
+            }
+            list.add(item);
+        }
+        return list;
+    }
+
+    // 子项个数，不建 MediaItem；不认识的 ID 返回 -1
+    private int childCount(String parentId) {
+        MusicLibrary lib = library;
+        switch (parentId) {
+            case ROOT: return 5;
+            case TRACKS: return lib.size();
+            case ARTISTS: return index().get(BrowseIndex.Kind.ARTIST).size();
+            case ALBUMS: return index().get(BrowseIndex.Kind.ALBUM).size();
+            case FOLDERS: return index().get(BrowseIndex.Kind.FOLDER).size();
+            case RECENT: return recent.size();
+        }
+        if (parentId.startsWith(SECTION_PREFIX)) {
+            int[] section = section(parentId);
+            return section == null ? -1 : index().get(BrowseIndex.Kind.values()[section[0]]).sectionSize(section[1]);
+        }
+        if (parentId.startsWith(ARTIST_PREFIX) && parentId.indexOf('/', ARTIST_PREFIX.length()) < 0) {
+            return index().albumsOf(Integer.parseInt(parentId.substring(ARTIST_PREFIX.length()))).length;
+        }
+        int[] rows = groupRows(lib, parentId);
+        return rows == null ? -1 : rows.length;
+    }
+
+    // section/<列表>/<区段> -> {Kind 序号, 区段}
+    private static int[] section(String sectionId) {
+        String rest = sectionId.substring(SECTION_PREFIX.length());
+        int slash = rest.indexOf('/');
+        BrowseIndex.Kind kind = slash < 0 ? null : kindOf(rest.substring(0, slash));
+        if (kind == null) return null;
+        int section = Integer.parseInt(rest.substring(slash + 1));
+        if (section < 0 || section >= BrowseIndex.SECTION_COUNT) return null;
+        return new int[]{kind.ordinal(), section};
+    }
+
+    private List<MediaItem> children(String parentId, int from, int count) {
+        int mark = parentId.lastIndexOf(RANGE_MARK);
+        if (mark >= 0) {
+            // 分段节点：父列表里从起始下标开始的 MAX_UNPAGED 项，也可以再分页
+            if (from >= MAX_UNPAGED) return Collections.emptyList();
+            int start = Integer.parseInt(parentId.substring(mark + 1));
+            return children(parentId.substring(0, mark), start + from, Math.min(count, MAX_UNPAGED - from));
+        }
+        MusicLibrary lib = library;
+        switch (parentId) {
+            case ROOT: return page(rootItems(), from, count);
+            case TRACKS: {
+                List<MediaItem> list = new ArrayList<>(Math.max(0, Math.min(count, lib.size() - from)));
+                for (int row = from; row < lib.size() && row < from + count; row++) list.add(trackItem(lib, row));
+                return list;
+            }
+            case ARTISTS: return groups(BrowseIndex.Kind.ARTIST, from, count);
+            case ALBUMS: return groups(BrowseIndex.Kind.ALBUM, from, count);
+            case FOLDERS: return groups(BrowseIndex.Kind.FOLDER, from, count);
+            case RECENT: return page(recentItems(lib), from, count);
+        }
+        if (parentId.startsWith(SECTION_PREFIX)) {
+            int[] section = section(parentId);
+            if (section == null) return null;
+            BrowseIndex.Kind kind = BrowseIndex.Kind.values()[section[0]];
+            int size = index().get(kind).sectionSize(section[1]);
+            if (from >= size) return Collections.emptyList();
+            return groups(kind, index().get(kind).positionForSection(section[1]) + from, Math.min(count, size - from));
+        }
+        if (parentId.startsWith(ARTIST_PREFIX) && parentId.indexOf('/', ARTIST_PREFIX.length()) < 0) {
+            return artistAlbums(lib, Integer.parseInt(parentId.substring(ARTIST_PREFIX.length())), from, count);
+        }
+        int[] rows = groupRows(lib, parentId);
+        if (rows == null) return null;
+        List<MediaItem> list = new ArrayList<>(Math.max(0, Math.min(count, rows.length - from)));
+        for (int i = from; i < rows.length && i < from + count; i++) list.add(trackItem(lib, rows[i]));
+        return list;
+    }
+
+    // 某个专辑/文件夹/歌手的某张专辑里的歌，排好后缓存给翻页用；不是这类 ID 返回 null
+    private int[] groupRows(MusicLibrary lib, String parentId) {
+        if (parentId.startsWith(ARTIST_PREFIX)) {
+            String[] parts = parentId.substring(ARTIST_PREFIX.length()).split("/");
+            if (parts.length != 2) return null;
+            int artist = Integer.parseInt(parts[0]);
+            int album = Integer.parseInt(parts[1]);
+            return rows(parentId, () -> {
+                int[] rows = index().tracksOf(BrowseIndex.Kind.ALBUM, album);
+                int n = 0;
+                for (int row : rows) if (lib.getArtistRef(row) == artist) rows[n++] = row;
+                int[] own = new int[n];
+                System.arraycopy(rows, 0, own, 0, n);
+                return own;
+            });
+        }
+        if (parentId.startsWith(ALBUM_PREFIX)) {
+            int album = Integer.parseInt(parentId.substring(ALBUM_PREFIX.length()));
+            return rows(parentId, () -> index().tracksOf(BrowseIndex.Kind.ALBUM, album));
+        }
+        if (parentId.startsWith(FOLDER_PREFIX)) {
+            int folder = Integer.parseInt(parentId.substring(FOLDER_PREFIX.length()));
+            return rows(parentId, () -> index().tracksOf(BrowseIndex.Kind.FOLDER, folder));
+        }
+        return null;
+    }
+
+    private interface RowsSource {
+        int[] rows();
+    }
+
+    private int[] rows(String parentId, RowsSource source) {
+        int[] rows = children.get(parentId);
+        if (rows == null) {
+            rows = source.rows();
+            children.put(parentId, rows);
+        }
+        return rows;
+    }
+
+    private List<MediaItem> groups(BrowseIndex.Kind kind, int from, int count) {
+        BrowseIndex.Groups groups = index().get(kind);
+        List<MediaItem> list = new ArrayList<>(Math.max(0, Math.min(count, groups.size() - from)));
+        for (int p = from; p < groups.size() && p < from + count; p++) list.add(groupItem(kind, groups, p));
+        return list;
+    }
+
+    private List<MediaItem> artistAlbums(MusicLibrary lib, int artist, int from, int count) {
+        int[] albums = index().albumsOf(artist);
+        List<MediaItem> list = new ArrayList<>(Math.max(0, Math.min(count, albums.length - from)));
+        for (int i = from; i < albums.length && i < from + count; i++) {
+            String id = ARTIST_PREFIX + artist + "/" + albums[i];
+            MediaItem item = items.get(id);
+            if (item == null) {
+                item = browsable(id, lib.getAlbumByRef(albums[i]), lib.getArtistByRef(artist), null);
+                items.put(id, item);
+            }
+            list.add(item);
+        }
+        return list;
+    }
+
+    private List<MediaItem> rootItems() {
+        List<MediaItem> list = new ArrayList<>(5);
+        list.add(category(TRACKS, "全部歌曲"));
+        list.add(category(ARTISTS, "歌手"));
+        list.add(category(ALBUMS, "专辑"));
+        list.add(category(FOLDERS, "文件夹"));
+        list.add(category(RECENT, "最近播放"));
+        return list;
+    }
+
+    private List<MediaItem> recentItems(MusicLibrary lib) {
+        List<MediaItem> list = new ArrayList<>(recent.size());
+        for (Recent r : recent) {
+            r.row = locate(lib, r.row, r.stableId);
+            if (r.row >= 0) list.add(trackItem(lib, r.row));
+        }
+        return list;
+    }
+
+    private static List<MediaItem> page(List<MediaItem> all, int from, int count) {
+        if (from >= all.size()) return Collections.emptyList();
+        return new ArrayList<>(all.subList(from, Math.min(all.size(), from + count)));
+    }
+
+    private static int locate(MusicLibrary lib, int row, long stableId) {
+        if (row >= 0 && row < lib.size() && lib.getStableId(row) == stableId) return row;
+        return lib.indexOfStableId(stableId);
+    }
+
+    private MediaItem category(String id, String title) {
+        MediaItem item = items.get(id);
+        if (item == null) {
+            item = browsable(id, title, null, null);
+            items.put(id, item);
+        }
+        return item;
+    }
+
+    private MediaItem groupItem(BrowseIndex.Kind kind, BrowseIndex.Groups groups, int position) {
+        int ref = groups.refAt(position);
+        String prefix = kind == BrowseIndex.Kind.ARTIST ? ARTIST_PREFIX : kind == BrowseIndex.Kind.ALBUM ? ALBUM_PREFIX : FOLDER_PREFIX;
+        String id = prefix + ref;
+        MediaItem item = items.get(id);
+        if (item == null) {
+            MusicLibrary lib = library;
+            int first = groupFirstRow(lib, kind, ref);
+            String subtitle = kind == BrowseIndex.Kind.FOLDER ? lib.getFolderByRef(ref)
+                    : kind == BrowseIndex.Kind.ALBUM ? lib.getArtist(first)
+                    : groups.trackCountAt(position) + " 首";
+            item = browsable(id, groups.nameAt(position), subtitle,
+                    kind == BrowseIndex.Kind.ALBUM ? artUri(lib.getAlbumResId(first)) : null);
+            items.put(id, item);
+        }
+        return item;
+    }
+
+    private static int groupFirstRow(MusicLibrary lib, BrowseIndex.Kind kind, int ref) {
+        switch (kind) {
+            case ARTIST: return lib.getArtistGroups().row(ref, 0);
+            case ALBUM: return lib.getAlbumGroups().row(ref, 0);
+            default: return lib.getFolderGroups().row(ref, 0);
+        }
+    }
+
+    private MediaItem trackItem(MusicLibrary lib, int row) {
+        String id = TRACK_PREFIX + row + "/" + lib.getStableId(row);
+        MediaItem item = items.get(id);
+        if (item == null) {
+            MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                    .setMediaId(id)
+                    .setTitle(lib.getTitle(row))
+                    .setSubtitle(lib.getArtist(row))
+                    .setIconUri(artUri(lib.getAlbumResId(row)))
+                    .build();
+            item = new MediaItem(description, MediaItem.FLAG_PLAYABLE);
+            items.put(id, item);
+            itemsBuilt++;
+        }
+        return item;
+    }
+
+    private MediaItem browsable(String id, String title, String subtitle, Uri icon) {
+        itemsBuilt++;
+        MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                .setMediaId(id)
+                .setTitle(title)
+                .setSubtitle(subtitle)
+                .setIconUri(icon)
+                .build();
+        return new MediaItem(description, MediaItem.FLAG_BROWSABLE);
+    }
+
+    // 系统专辑封面；内置音乐和文件夹扫描的歌没有专辑 ID
+    private Uri artUri(long albumResId) {
+        if (albumResId <= 0) return null;
+        Uri uri = artUris.get(albumResId);
+        if (uri == null) {
+            uri = ContentUris.withAppendedId(ALBUM_ART_URI, albumResId);
+            artUris.put(albumResId, uri);
+        }
+        return uri;
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.carmusic.service;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Process;
+import com.example.carmusic.audio.PcmRingBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+// MediaExtractor + MediaCodec 解码到环形缓冲区，由 AudioSink 写进 AudioTrack。
+// prepareAsync 后解码线程一直解到缓冲区满为止，所以预加载的下一首在切换前就已经有几秒 PCM 在手上
+final class CodecTrack implements TrackPlayer {
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+
+    // crossfadeMs 为 0 时是无缝衔接
+    static Factory factory(int crossfadeMs) {
+        return new Factory() {
+            private volatile AudioSink sink; // 引擎线程创建，资源统计时在别的线程读
+
+            @Override
+            public TrackPlayer create(Context context, Handler handler) {
+                if (sink == null) sink = new AudioSink(crossfadeMs);
+                return new CodecTrack(context, handler, sink);
+            }
+
+            @Override
+            public void release() {
+                if (sink != null) sink.release();
+            }
+
+            @Override
+            public void dump(PrintWriter pw) {
+                if (sink != null) sink.dump(pw);
+            }
+
+            @Override
+            public long activeBytes() {
+                AudioSink s = sink;
+                return s == null ? 0 : s.activeBytes();
+            }
+
+            @Override
+            public long pooledBytes() {
+                AudioSink s = sink;
+                return s == null ? 0 : s.pooledBytes();
+            }
+
+            @Override
+            public void trimPool() {
+                AudioSink s = sink;
+                if (s != null) s.trimPool();
+            }
+        };
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final AudioSink sink;
+    private Listener onPrepared;
+    private Listener onCompletion;
+    private Listener onError;
+    private String path;
+    private PcmRingBuffer ring;
+    // 需要解码线程重新定位的时间（微秒），-1 表示没有
+    private final AtomicLong pendingSeekUs = new AtomicLong(-1);
+    private volatile boolean prepared;
+    private volatile boolean released;
+    private volatile int sampleRate = 44100;
+    private volatile long durationUs;
+    private volatile float gain = 1f;
+
+    private CodecTrack(Context context, Handler handler, AudioSink sink) {
+        this.context = context;
+        this.handler = handler;
+        this.sink = sink;
+    }
+
+    @Override public void setOnPreparedListener(Listener l) { onPrepared = l; }
+    @Override public void setOnCompletionListener(Listener l) { onCompletion = l; }
+    @Override public void setOnErrorListener(Listener l) { onError = l; }
+
+    @Override
+    public void setDataSource(String path) throws IOException {
+        if (!path.startsWith("android.resource://") && !new File(path).isFile()) {
+            throw new IOException("not found: " + path);
+        }
+        this.path = path;
+    }
+
+    @Override
+    public void prepareAsync() {
+        ring = sink.acquire();
+        new Thread(this::decode, "CodecTrack").start();
+    }
+
+    @Override public void start() { sink.start(this); }
+    @Override public void pause() { sink.pause(this); }
+
+    // 目标还在缓冲区里只移动读指针；否则先清空缓冲区（输出端不会再读到旧数据，解码线程手上的旧数据也写不进去），
+    // 再让解码线程重新定位
+    @Override
+    public void seekTo(int ms) {
+        if (ring == null) return;
+        long frame = (long) ms * sampleRate / 1000;
+        if (!ring.seekWithin(frame)) {
+            ring.reset(frame);
+            pendingSeekUs.set(ms * 1000L);
+        }
+        sink.flush(this);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        if (ring == null) return 0;
+        long frame = Math.max(0, ring.readPosition() - sink.latencyFrames(this));
+        return (int) (frame * 1000 / sampleRate);
+    }
+
+    @Override public int getDuration() { return (int) (durationUs / 1000); }
+
+    // 在 AudioSink 混音时乘上，可以大于 1（增益已经按峰值限制过）
+    @Override public void setVolume(float gain) { this.gain = gain; }
+
+    @Override
+    public boolean setNext(TrackPlayer next) {
+        if (next != null && !(next instanceof CodecTrack)) return false;
+        return sink.setNext(this, (CodecTrack) next);
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        if (ring != null) ring.close(); // 解码线程从等待中醒来后自己退出
+        sink.detach(this, ring);
+    }
+
+    PcmRingBuffer ring() { return ring; }
+    int sampleRate() { return sampleRate; }
+    float gain() { return gain; }
+    boolean isPrepared() { return prepared; }
+
+    // 读指针之后还剩多少帧；还没解码到结尾时按文件头里的时长估算
+    long remainingFrames() {
+        if (ring.isEndOfStream()) return ring.available();
+        if (durationUs <= 0) return Long.MAX_VALUE;
+        return Math.max(0, durationUs * sampleRate / 1_000_000 - ring.readPosition());
+    }
+
+    // 输出线程调用：这首的数据已经全部写进 AudioTrack
+    void onOutputFinished() {
+        handler.post(() -> {
+            if (!released && onCompletion != null) onCompletion.onEvent(this);
+        });
+    }
+
+    private void decode() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            if (path.startsWith("android.resource://")) {
+                extractor.setDataSource(context, Uri.parse(path), null);
+            } else {
+                extractor.setDataSource(path);
+            }
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat f = extractor.getTrackFormat(i);
+                String mime = f.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = f;
+                    break;
+                }
+            }
+            if (format == null) throw new IOException("no audio track: " + path);
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            if (format.containsKey(MediaFormat.KEY_DURATION)) durationUs = format.getLong(MediaFormat.KEY_DURATION);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int generation = ring.generation();
+            long trimUntilUs = -1; // seek 从前一个关键帧开始解码，目标时间之前的采样丢掉
+            boolean inputDone = false;
+            while (!released) {
+                long seekUs = pendingSeekUs.getAndSet(-1);
+                if (seekUs >= 0) {
+                    generation = ring.generation();
+                    extractor.seekTo(seekUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    codec.flush();
+                    inputDone = false;
+                    trimUntilUs = seekUs;
+                }
+                if (!inputDone) {
+                    int in = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (in >= 0) {
+                        int size = extractor.readSampleData(codec.getInputBuffer(in), 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(in, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int out = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat f = codec.getOutputFormat();
+                    if (f.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                            && f.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT) {
+                        throw new IOException("unsupported pcm encoding");
+                    }
+                    channels = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    continue;
+                }
+                if (out < 0) continue;
+
+                boolean eos = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                int offset = info.offset;
+                int size = info.size;
+                if (trimUntilUs >= 0 && size > 0) {
+                    long skipFrames = (trimUntilUs - info.presentationTimeUs) * sampleRate / 1_000_000;
+                    if (skipFrames > 0) {
+                        int skip = (int) Math.min(size, skipFrames * 2 * channels);
+                        offset += skip;
+                        size -= skip;
+                    }
+                    if (size > 0) trimUntilUs = -1;
+                }
+                boolean written = true;
+                if (size > 0) {
+                    ByteBuffer buffer = codec.getOutputBuffer(out);
+                    buffer.order(ByteOrder.nativeOrder());
+                    written = ring.write(buffer, offset, size, channels, generation);
+                }
+                codec.releaseOutputBuffer(out, false);
+                if (!written) continue; // 期间 seek 或释放了，回到开头处理
+
+                if (!prepared && (size > 0 || eos)) {
+                    prepared = true;
+                    handler.post(() -> {
+                        if (!released && onPrepared != null) onPrepared.onEvent(this);
+                    });
+                }
+                if (eos) {
+                    ring.markEndOfStream(generation);
+                    ring.awaitReset(generation); // 播完之前还可能往回 seek
+                }
+            }
+        } catch (Exception e) {
+            if (!released) {
+                e.printStackTrace();
+                handler.post(() -> {
+                    if (!released && onError != null) onError.onEvent(this);
+                });
+            }
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (Exception ignored) {
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
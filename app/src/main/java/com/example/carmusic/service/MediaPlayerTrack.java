@@ -0,0 +1,73 @@
+package com.example.carmusic.service;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Handler;
+import java.io.IOException;
+
+// 系统 MediaPlayer：MediaPlayer 在引擎线程创建，回调自然回到引擎线程的 Looper 上
+final class MediaPlayerTrack implements TrackPlayer {
+    static final Factory FACTORY = MediaPlayerTrack::new;
+
+    private final Context context;
+    private final MediaPlayer player = new MediaPlayer();
+
+    private MediaPlayerTrack(Context context, Handler handler) {
+        this.context = context;
+    }
+
+    @Override
+    public void setOnPreparedListener(Listener l) {
+        player.setOnPreparedListener(mp -> l.onEvent(this));
+    }
+
+    @Override
+    public void setOnCompletionListener(Listener l) {
+        player.setOnCompletionListener(mp -> l.onEvent(this));
+    }
+
+    @Override
+    public void setOnErrorListener(Listener l) {
+        player.setOnErrorListener((mp, what, extra) -> {
+            l.onEvent(this);
+            return true;
+        });
+    }
+
+    @Override
+    public void setDataSource(String path) throws IOException {
+        if (path.startsWith("android.resource://")) {
+            player.setDataSource(context, Uri.parse(path));
+        } else {
+            player.setDataSource(path);
+        }
+    }
+
+    @Override public void prepareAsync() { player.prepareAsync(); }
+    @Override public void start() { player.start(); }
+    @Override public void pause() { player.pause(); }
+    @Override public void seekTo(int ms) { player.seekTo(ms); }
+    @Override public int getCurrentPosition() { return player.getCurrentPosition(); }
+    @Override public int getDuration() { return player.getDuration(); }
+
+    @Override
+    public void setVolume(float gain) {
+        float v = Math.min(1f, gain);
+        player.setVolume(v, v);
+    }
+
+    @Override
+    public boolean setNext(TrackPlayer next) {
+        if (next != null && !(next instanceof MediaPlayerTrack)) return false;
+        try {
+            player.setNextMediaPlayer(next == null ? null : ((MediaPlayerTrack) next).player);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override public void release() { player.release(); }
+}
@@ -1,161 +1,341 @@
 package com.example.carmusic.service;
 
-import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
-import android.media.MediaPlayer;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.IBinder;
-import androidx.core.app.NotificationCompat;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import androidx.media.MediaBrowserServiceCompat;
+import androidx.media.session.MediaButtonReceiver;
 import com.example.carmusic.bean.MusicBean;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.bean.PlayQueue;
+import com.example.carmusic.utils.AnalysisCache;
+import com.example.carmusic.utils.LoudnessAnalyzer;
+import com.example.carmusic.utils.PerfMetrics;
+import com.example.carmusic.utils.PinyinHelper;
+import com.example.carmusic.utils.ResourceGovernor;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
 
-public class MusicService extends Service {
-    // 1. 修改：不再直接 new，而是声明为 null，在 play 中动态创建
-    private MediaPlayer mediaPlayer;
-    private List<MusicBean> playlist = new ArrayList<>();
-    private int currentPosition = -1;
+public class MusicService extends MediaBrowserServiceCompat {
+    // 所有播放器操作都交给独立线程上的引擎，这里的控制方法只投递命令，不会阻塞主线程
+    private PlaybackEngine engine;
+    private PlaybackSnapshot snapshot;
+    private volatile PlaybackSnapshot.State restored; // 启动时恢复的快照，曲库到齐之前保存时沿用它的队列字段
+    // 响度和波形：后台分析写缓存，播放时只查缓存
+    private AnalysisCache analysisCache;
+    private LoudnessAnalyzer analyzer;
+    // MediaSession + 通知，合并高频状态变化后再发布
+    private NowPlayingPublisher nowPlaying;
+    // U 盘/SD 卡上接下来要播的歌提前读进页缓存
+    private TrackPrefetcher prefetcher;
+    // 车机媒体中心通过 MediaBrowser 浏览曲库
+    private BrowseTree browseTree;
+    private ResourceGovernor governor;
+    private final List<String> resources = new ArrayList<>(); // 登记过的名字，销毁时注销
+    private static final int SNAPSHOT_TICK_MS = 10000; // 播放中每 10 秒记一次位置
+    // 播放器实现：默认系统 MediaPlayer；codec 为 MediaCodec + AudioTrack，支持交叉淡化
+    private static final String PREFS = "playback";
+    private static final String KEY_ENGINE = "engine";
+    private static final String KEY_CROSSFADE_MS = "crossfade_ms";
+    public static final String ENGINE_MEDIA_PLAYER = "media_player";
+    public static final String ENGINE_CODEC = "codec";
     private final IBinder binder = new MusicBinder();
-    private Runnable onStateChange;
+    // 车机媒体中心、Android Auto、语音助手和系统界面
+    private static final Set<String> MEDIA_HOSTS = Set.of(
+            "com.android.car.media",
+            "com.google.android.projection.gearhead",
+            "com.google.android.carassistant",
+            "com.android.systemui");
 
     public class MusicBinder extends Binder {
         public MusicService getService() { return MusicService.this; }
     }
 
     @Override
-    public IBinder onBind(Intent intent) { return binder; }
+    public IBinder onBind(Intent intent) {
+        // 系统的 MediaBrowser 走父类；应用内的界面拿本地 Binder
+        if (intent != null && SERVICE_INTERFACE.equals(intent.getAction())) return super.onBind(intent);
+        return binder;
+    }
 
     @Override
-    public void onCreate() {
-        super.onCreate();
-        createNotificationChannel();
-        // 原来的 setOnCompletionListener 移到了 play() 里
+    public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
+        // 服务是导出的：只给自己、系统/平台签名的进程和已知的媒体中心浏览曲库
+        return isTrustedCaller(clientPackageName, clientUid) ? new BrowserRoot(BrowseTree.ROOT, null) : null;
     }
 
-    // 保留原本的设置列表功能
-    public void setPlaylist(List<MusicBean> list) {
-        this.playlist = list;
+    private boolean isTrustedCaller(String packageName, int uid) {
+        if (uid == Process.myUid() || uid == Process.SYSTEM_UID) return true;
+        PackageManager pm = getPackageManager();
+        // 包名是调用方自己报的，先确认它确实属于这个 uid
+        String[] packages = pm.getPackagesForUid(uid);
+        if (packages == null || !Arrays.asList(packages).contains(packageName)) return false;
+        if (pm.checkSignatures(Process.myUid(), uid) == PackageManager.SIGNATURE_MATCH) return true;
+        if (pm.checkSignatures("android", packageName) == PackageManager.SIGNATURE_MATCH) return true; // 平台签名
+        return MEDIA_HOSTS.contains(packageName);
     }
 
-    public void play(int pos) {
-        if (playlist.isEmpty() || pos < 0 || pos >= playlist.size()) return;
-        currentPosition = pos;
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowserCompat.MediaItem>> result) {
+        browseTree.load(parentId, null, result);
+    }
 
-        try {
-            // ==========================================
-            // 【核心修复】防止倍速播放/变调
-            // ==========================================
-            // 每次播放都销毁旧对象，创建新对象，强制重置系统音频时钟
-            if (mediaPlayer != null) {
-                mediaPlayer.release();
-                mediaPlayer = null;
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowserCompat.MediaItem>> result, Bundle options) {
+        browseTree.load(parentId, options, result);
+    }
+
+    // 通知按钮和方向盘按键经 MediaButtonReceiver 转到这里，再交给会话回调
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        MediaButtonReceiver.handleIntent(nowPlaying.getSession(), intent);
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        createNotificationChannel();
+        engine = new PlaybackEngine(this, playerFactory(this));
+        analysisCache = new AnalysisCache(this);
+        analyzer = new LoudnessAnalyzer(this, analysisCache);
+        prefetcher = new TrackPrefetcher(this);
+        browseTree = new BrowseTree(this::notifyChildrenChanged);
+        engine.setGainLookup(analysisCache::gain);
+        snapshot = PlaybackSnapshot.open(this);
+        nowPlaying = new NowPlayingPublisher(this, new MediaSessionCompat.Callback() {
+            @Override public void onPlay() { resume(); }
+            @Override public void onPause() { pause(); }
+            @Override public void onSkipToNext() { playNext(); }
+            @Override public void onSkipToPrevious() { playPrev(); }
+            @Override public void onSeekTo(long pos) { seekTo((int) pos); }
+            @Override public void onSetRepeatMode(int repeatMode) {
+                switch (repeatMode) {
+                    case PlaybackStateCompat.REPEAT_MODE_NONE: setRepeat(PlayQueue.Repeat.OFF); break;
+                    case PlaybackStateCompat.REPEAT_MODE_ONE: setRepeat(PlayQueue.Repeat.ONE); break;
+                    default: setRepeat(PlayQueue.Repeat.ALL); break; // ALL、GROUP
+                }
             }
-            mediaPlayer = new MediaPlayer();
-
-            // 因为是新对象，必须重新绑定监听器
-            mediaPlayer.setOnCompletionListener(mp -> playNext());
-            mediaPlayer.setOnErrorListener((mp, what, extra) -> {
-                playNext(); // 遇到坏文件自动下一首，防止闪退
-                return true;
-            });
-
-            // 设置数据源（保留您原本的兼容逻辑）
-            String path = playlist.get(pos).getPath();
-            if (path.startsWith("android.resource://")) {
-                mediaPlayer.setDataSource(getApplicationContext(), android.net.Uri.parse(path));
-            } else {
-                mediaPlayer.setDataSource(path);
+            @Override public void onSetShuffleMode(int shuffleMode) {
+                setShuffle(shuffleMode != PlaybackStateCompat.SHUFFLE_MODE_NONE);
             }
+            @Override public void onPlayFromMediaId(String mediaId, Bundle extras) {
+                int row = browseTree.resolveTrack(mediaId);
+                if (row >= 0) play(row);
+            }
+        });
+        setSessionToken(nowPlaying.getSession().getSessionToken());
+        engine.addListener(status -> {
+            saveSnapshot(status, true);
+            analyzer.setPlaybackState(status.state == PlaybackEngine.State.PREPARING, status.isPlaying(),
+                    status.music != null ? status.music.getPath() : null);
+            prefetcher.onStatus(status, engine.getQueue());
+            nowPlaying.onStatus(status, engine.getQueue());
+        });
+        engine.addListener(new PlaybackEngine.Listener() {
+            @Override public void onStatusChanged(PlaybackEngine.Status status) {}
+            @Override public void onTrackStarted(PlaybackEngine.Status status) { browseTree.onTrackStarted(status.music); }
+        });
+        governor = ResourceGovernor.get(this);
+        registerResources();
+        if (snapshot != null) {
+            engine.addPositionListener(status -> saveSnapshot(status, false), SNAPSHOT_TICK_MS);
+            restoreSnapshot();
+        }
+    }
 
-            mediaPlayer.setOnPreparedListener(mp -> {
-                mp.start();
-                showNotification(playlist.get(pos));
-                if (onStateChange != null) onStateChange.run();
-            });
-
-            mediaPlayer.prepareAsync();
+    // 服务这边的内存登记到 ResourceGovernor，封面缓存和搜索索引由各自的持有者登记。
+    // 曲库、当前播放的缓冲区只统计不回收：界面退到后台后这些就是继续播放需要的全部
+    private void registerResources() {
+        register("library", ResourceGovernor.Tier.ESSENTIAL,
+                () -> engine.getQueue().getLibrary().estimatedBytes(), null);
+        register("playback", ResourceGovernor.Tier.ESSENTIAL, engine::bufferBytes, null);
+        register("analysis", ResourceGovernor.Tier.ESSENTIAL, analysisCache::entryBytes, null);
+        register("waveforms", ResourceGovernor.Tier.UI, analysisCache::waveformBytes, analysisCache::trimWaveforms);
+        register("browse", ResourceGovernor.Tier.CACHE, browseTree::cacheBytes, browseTree::trim);
+        register("pinyin", ResourceGovernor.Tier.CACHE, PinyinHelper::cacheBytes, PinyinHelper::clearCache);
+        register("playbackSpare", ResourceGovernor.Tier.SPARE, engine::spareBufferBytes, engine::trimSpare);
+        register("prefetch", ResourceGovernor.Tier.SPARE, prefetcher::bufferBytes, prefetcher::trim);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private void register(String name, ResourceGovernor.Tier tier, LongSupplier bytes, Runnable trim) {
+        governor.register(name, tier, bytes, trim);
+        resources.add(name);
     }
 
-    public void pause() {
-        if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-            mediaPlayer.pause();
-            if (onStateChange != null) onStateChange.run();
-        }
+    // 下次创建服务时生效；crossfadeMs 只对 codec 有效，0 为无缝衔接
+    public static void setEngine(Context context, String engine, int crossfadeMs) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putString(KEY_ENGINE, engine)
+                .putInt(KEY_CROSSFADE_MS, Math.max(0, crossfadeMs))
+                .apply();
     }
 
-    public void resume() {
-        if (mediaPlayer != null && !mediaPlayer.isPlaying()) {
-            mediaPlayer.start();
-            if (onStateChange != null) onStateChange.run();
+    private static TrackPlayer.Factory playerFactory(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        if (ENGINE_CODEC.equals(prefs.getString(KEY_ENGINE, ENGINE_MEDIA_PLAYER))) {
+            return CodecTrack.factory(prefs.getInt(KEY_CROSSFADE_MS, 0));
         }
+        return MediaPlayerTrack.FACTORY;
     }
 
-    public void playNext() {
-        if (playlist.isEmpty()) return;
-        play((currentPosition + 1) % playlist.size());
+    // 进程被杀（熄火）后重启：不等扫描，直接按快照里的路径恢复上次的歌和位置
+    private void restoreSnapshot() {
+        PlaybackSnapshot.State saved = snapshot.read();
+        if (saved == null) return;
+        restored = saved;
+        MusicLibrary single = new MusicLibrary.Builder(1)
+                .add(saved.id, saved.title, saved.artist, null, saved.path, 0, saved.albumResId)
+                .snapshot();
+        engine.restore(single, saved.positionMs, saved.playing, saved.repeat, saved.shuffleSeed, saved.anchorId,
+                saved.queuePosition, saved.librarySize);
     }
 
-    public void playPrev() {
-        if (playlist.isEmpty()) return;
-        int pos = currentPosition - 1;
-        if (pos < 0) pos = playlist.size() - 1;
-        play(pos);
+    // 通常在引擎线程调用，只写内存映射，刷盘由快照自己的后台线程做。
+    // 准备中的位置还不可信，不写，避免覆盖掉上次保存的进度
+    private void saveSnapshot(PlaybackEngine.Status status, boolean sync) {
+        MusicBean music = status.music;
+        if (snapshot == null || music == null || status.state == PlaybackEngine.State.PREPARING
+                || status.state == PlaybackEngine.State.IDLE) return;
+        PlayQueue queue = engine.getQueue();
+        PlaybackSnapshot.State saved = restored;
+        if (saved != null && queue.getLibrary().size() < saved.librarySize) {
+            // 扫描还没完成，队列只是临时的，别把上次的顺序覆盖掉
+            snapshot.write(new PlaybackSnapshot.State(music.getId(), music.getPath(), music.getTitle(),
+                    music.getArtist(), music.getAlbumResId(), status.currentPosition(), status.isPlaying(),
+                    queue.getRepeat(), saved.shuffleSeed, saved.anchorId, saved.queuePosition, saved.librarySize),
+                    sync);
+            return;
+        }
+        restored = null;
+        long anchorId = queue.isShuffled() && queue.size() > 0 ? queue.getLibrary().getStableId(queue.rowAt(0)) : 0;
+        snapshot.write(new PlaybackSnapshot.State(music.getId(), music.getPath(), music.getTitle(),
+                music.getArtist(), music.getAlbumResId(), status.currentPosition(), status.isPlaying(),
+                queue.getRepeat(), queue.getShuffleSeed(), anchorId, queue.getPosition(), queue.getLibrary().size()),
+                sync);
     }
 
-    public int getCurrentProgress() {
-        if (mediaPlayer != null && (mediaPlayer.isPlaying() || currentPosition != -1)) {
-            return mediaPlayer.getCurrentPosition();
-        }
-        return 0;
+    // adb shell dumpsys activity service com.example.carmusic/.service.MusicService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        PlaybackEngine.Status status = engine.getStatus();
+        pw.println("Playback: " + status.state + " index=" + status.index + " position=" + status.currentPosition());
+        engine.dump(pw);
+        analyzer.dump(pw);
+        prefetcher.dump(pw);
+        browseTree.dump(pw);
+        nowPlaying.dump(pw);
+        governor.dump(pw);
+        PerfMetrics.dump(pw);
     }
 
-    public int getDuration() {
-        if (mediaPlayer != null && (mediaPlayer.isPlaying() || currentPosition != -1)) {
-            return mediaPlayer.getDuration();
+    // 从最近任务里划掉：进程可能随后被杀，先把快照刷到存储
+    @Override
+    public void onTaskRemoved(Intent rootIntent) {
+        if (snapshot != null) {
+            saveSnapshot(engine.getStatus(), false);
+            snapshot.sync();
         }
-        return 0;
+        super.onTaskRemoved(rootIntent);
     }
 
-    public void seekTo(int progress) {
-        if (mediaPlayer != null) {
-            mediaPlayer.seekTo(progress);
+    @Override
+    public void onDestroy() {
+        if (snapshot != null) {
+            saveSnapshot(engine.getStatus(), false);
+            snapshot.close();
         }
+        for (String name : resources) governor.unregister(name);
+        nowPlaying.release();
+        analyzer.release();
+        prefetcher.release();
+        browseTree.release();
+        engine.release();
+        super.onDestroy();
     }
 
-    public boolean isPlaying() {
-        return mediaPlayer != null && mediaPlayer.isPlaying();
+    // 保留原本的设置列表功能；快照不可变，和界面共用同一份也不会互相影响
+    public void setPlaylist(MusicLibrary library) {
+        engine.setPlaylist(library);
+        browseTree.setLibrary(library);
+        analyzer.submit(library);
     }
 
-    public MusicBean getCurrentMusic() {
-        return (currentPosition != -1 && currentPosition < playlist.size()) ? playlist.get(currentPosition) : null;
+    public void play(int pos) { engine.play(pos); }
+
+    public void pause() { engine.pause(); }
+
+    public void resume() { engine.resume(); }
+
+    // 连续多次点击会在引擎队列里合并成一次跳转
+    public void playNext() { engine.skip(1); }
+
+    public void playPrev() { engine.skip(-1); }
+
+    // 播放队列：row 为曲库行号，index 为 getQueue() 里的下标
+    public PlayQueue getQueue() { return engine.getQueue(); }
+
+    public void queueNext(int row) { engine.playNext(row); }
+
+    public void addToQueue(int row) { engine.addToQueue(row); }
+
+    public void moveInQueue(int from, int to) { engine.moveQueueItem(from, to); }
+
+    public void removeFromQueue(int index) { engine.removeQueueItem(index); }
+
+    public void setShuffle(boolean shuffle) { engine.setShuffle(shuffle); }
+
+    public void setRepeat(PlayQueue.Repeat repeat) { engine.setRepeat(repeat); }
+
+    public void seekTo(int progress) { engine.seekTo(progress); }
+
+    public int getCurrentProgress() { return engine.getStatus().currentPosition(); }
+
+    public int getDuration() { return engine.getStatus().durationMs; }
+
+    public boolean isPlaying() { return engine.getStatus().isPlaying(); }
+
+    public MusicBean getCurrentMusic() { return engine.getStatus().music; }
+
+    public PlaybackEngine.Status getStatus() { return engine.getStatus(); }
+
+    // 缓存里的峰值波形（0..255），还没分析时返回 null。被丢掉过的要从文件读回来，在后台线程调用
+    public byte[] getWaveform(String path) {
+        byte[] waveform = analysisCache.waveform(path);
+        return waveform == null || waveform.length == 0 ? null : waveform;
     }
 
-    public void setOnStateChange(Runnable action) { this.onStateChange = action; }
+    // 监听器在引擎线程回调，需要更新界面时自行切到主线程
+    public void addListener(PlaybackEngine.Listener l) { engine.addListener(l); }
+    public void removeListener(PlaybackEngine.Listener l) { engine.removeListener(l); }
+
+    // 界面可见时才注册，不可见时不产生任何定时唤醒
+    public void addPositionListener(PlaybackEngine.PositionListener l, int tickMs) { engine.addPositionListener(l, tickMs); }
+    public void removePositionListener(PlaybackEngine.PositionListener l) { engine.removePositionListener(l); }
 
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationManager manager = getSystemService(NotificationManager.class);
             if (manager != null) {
-                manager.createNotificationChannel(new NotificationChannel("music_ch", "Music", NotificationManager.IMPORTANCE_LOW));
+                manager.createNotificationChannel(new NotificationChannel(NowPlayingPublisher.CHANNEL_ID, "Music",
+                        NotificationManager.IMPORTANCE_LOW));
             }
         }
     }
-
-    private void showNotification(MusicBean music) {
-        Notification notification = new NotificationCompat.Builder(this, "music_ch")
-                .setContentTitle(music.getTitle())
-                .setContentText(music.getArtist())
-                .setSmallIcon(android.R.drawable.ic_media_play) // 确保这里有图标
-                .setOngoing(true)
-                .build();
-        startForeground(1, notification);
-    }
 }
\ No newline at end of file
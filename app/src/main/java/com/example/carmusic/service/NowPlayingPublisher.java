@@ -0,0 +1,241 @@
+package com.example.carmusic.service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.media.session.MediaButtonReceiver;
+import com.example.carmusic.MainActivity;
+import com.example.carmusic.bean.MusicBean;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.bean.PlayQueue;
+import com.example.carmusic.utils.AlbumArtLoader;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 把播放状态发布到 MediaSession（方向盘按键、仪表盘、系统媒体中心）和前台通知。
+// 引擎线程的状态变化先合并，主线程上最多每 MIN_INTERVAL_MS 发布一次；元数据、播放状态、通知各自和上次发布的比较，
+// 没变的部分不发。通知和元数据的 Builder、通知按钮都是预先建好的，封面按固定尺寸经 AlbumArtLoader 的缓存缩放一次
+final class NowPlayingPublisher {
+    static final String CHANNEL_ID = "music_ch";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long MIN_INTERVAL_MS = 250; // 连续切歌时每秒最多 4 次
+    private static final int ART_SIZE_PX = 320;
+    private static final int POSITION_SLACK_MS = 500; // 位置和上次发布的推算值相差不到这么多就不重发
+    private static final long ACTIONS = PlaybackStateCompat.ACTION_PLAY | PlaybackStateCompat.ACTION_PAUSE
+            | PlaybackStateCompat.ACTION_PLAY_PAUSE | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
+            | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS | PlaybackStateCompat.ACTION_SEEK_TO
+            | PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID | PlaybackStateCompat.ACTION_SET_REPEAT_MODE
+            | PlaybackStateCompat.ACTION_SET_SHUFFLE_MODE;
+
+    private final Service service;
+    private final MediaSessionCompat session;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable publishRunnable = this::publish;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile PlaybackEngine.Status pending;
+    private volatile PlayQueue pendingQueue;
+    private volatile long lastPublishAt;
+
+    // 预先建好的模板，只在主线程使用
+    private final MediaMetadataCompat.Builder metadataBuilder = new MediaMetadataCompat.Builder();
+    private final PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder().setActions(ACTIONS);
+    private final NotificationCompat.Builder notificationBuilder;
+    private final NotificationCompat.Action prevAction;
+    private final NotificationCompat.Action playAction;
+    private final NotificationCompat.Action pauseAction;
+    private final NotificationCompat.Action nextAction;
+
+    // 上次发布的内容，只在主线程访问
+    private long shownId;          // MusicLibrary.stableId，0 表示还没发布过
+    private int shownDuration = -1;
+    private Bitmap shownArt;
+    private long artRequestId;     // 正在等封面的歌
+    private int shownState = -1;
+    private int shownPosition;
+    private long shownAnchor;
+    private boolean shownPlaying;
+    private int shownRepeat = -1;
+    private int shownShuffle = -1;
+    private long notifiedId;
+    private Bitmap notifiedArt;
+    private boolean foreground;
+    private int published;
+    private int skipped;
+
+    NowPlayingPublisher(Service service, MediaSessionCompat.Callback callback) {
+        this.service = service;
+        PendingIntent contentIntent = PendingIntent.getActivity(service, 0,
+                new Intent(service, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP),
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        session = new MediaSessionCompat(service, "CarMusic");
+        session.setCallback(callback, mainHandler);
+        session.setSessionActivity(contentIntent);
+        session.setActive(true);
+
+        prevAction = action(android.R.drawable.ic_media_previous, "上一曲", PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS);
+        playAction = action(android.R.drawable.ic_media_play, "播放", PlaybackStateCompat.ACTION_PLAY);
+        pauseAction = action(android.R.drawable.ic_media_pause, "暂停", PlaybackStateCompat.ACTION_PAUSE);
+        nextAction = action(android.R.drawable.ic_media_next, "下一曲", PlaybackStateCompat.ACTION_SKIP_TO_NEXT);
+        notificationBuilder = new NotificationCompat.Builder(service, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false)
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                .setStyle(new androidx.media.app.NotificationCompat.MediaStyle()
+                        .setMediaSession(session.getSessionToken())
+                        .setShowActionsInCompactView(0, 1, 2));
+    }
+
+    MediaSessionCompat getSession() { return session; }
+
+    // 任意线程调用：只记下最新状态，按间隔投递一次发布
+    void onStatus(PlaybackEngine.Status status, PlayQueue queue) {
+        pending = status;
+        pendingQueue = queue;
+        if (!scheduled.compareAndSet(false, true)) return;
+        long delay = Math.max(0, lastPublishAt + MIN_INTERVAL_MS - SystemClock.uptimeMillis());
+        mainHandler.postDelayed(publishRunnable, delay);
+    }
+
+    void release() {
+        mainHandler.removeCallbacks(publishRunnable);
+        session.setActive(false);
+        session.release();
+        if (foreground) service.stopForeground(Service.STOP_FOREGROUND_REMOVE);
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("NowPlaying: published=" + published + " skipped=" + skipped + " foreground=" + foreground);
+    }
+
+    private NotificationCompat.Action action(int icon, String title, long action) {
+        return new NotificationCompat.Action(icon, title, MediaButtonReceiver.buildMediaButtonPendingIntent(service, action));
+    }
+
+    private void publish() {
+        scheduled.set(false);
+        lastPublishAt = SystemClock.uptimeMillis();
+        PlaybackEngine.Status s = pending;
+        publishModes(pendingQueue);
+        MusicBean music = s == null ? null : s.music;
+        if (music == null) return;
+
+        long id = MusicLibrary.stableId(music.getId(), music.getPath());
+        boolean changed = false;
+        if (id != shownId) {
+            shownId = id;
+            shownArt = null;
+            requestArt(music, id);
+            changed |= publishMetadata(music, s.durationMs);
+        } else if (s.durationMs != shownDuration) {
+            changed |= publishMetadata(music, s.durationMs);
+        }
+        changed |= publishState(s);
+        changed |= publishNotification(music);
+        if (changed) published++;
+        else skipped++;
+    }
+
+    // 缓存命中时同步回调；异步回来时歌已经换了就丢掉
+    private void requestArt(MusicBean music, long id) {
+        artRequestId = id;
+        AlbumArtLoader.get(service).load(music.getAlbumResId(), music.getArtist(), music.getAlbum(), music.getPath(),
+                music.getArtOffset(), music.getArtLength(), ART_SIZE_PX, bitmap -> {
+                    if (artRequestId != id || bitmap == null || bitmap == shownArt) return;
+                    shownArt = bitmap;
+                    PlaybackEngine.Status s = pending;
+                    if (s == null || s.music == null || shownId != id) return;
+                    publishMetadata(s.music, s.durationMs);
+                    publishNotification(s.music);
+                });
+    }
+
+    private boolean publishMetadata(MusicBean music, int durationMs) {
+        shownDuration = durationMs;
+        session.setMetadata(metadataBuilder
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, Long.toString(shownId))
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, music.getTitle())
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, music.getArtist())
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, music.getAlbum())
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durationMs)
+                .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, shownArt)
+                .build());
+        return true;
+    }
+
+    // 循环和随机模式，车机界面据此显示按钮状态
+    private void publishModes(PlayQueue queue) {
+        if (queue == null) return;
+        int repeat;
+        switch (queue.getRepeat()) {
+            case OFF: repeat = PlaybackStateCompat.REPEAT_MODE_NONE; break;
+            case ONE: repeat = PlaybackStateCompat.REPEAT_MODE_ONE; break;
+            default: repeat = PlaybackStateCompat.REPEAT_MODE_ALL; break;
+        }
+        int shuffle = queue.isShuffled() ? PlaybackStateCompat.SHUFFLE_MODE_ALL : PlaybackStateCompat.SHUFFLE_MODE_NONE;
+        if (repeat != shownRepeat) session.setRepeatMode(shownRepeat = repeat);
+        if (shuffle != shownShuffle) session.setShuffleMode(shownShuffle = shuffle);
+    }
+
+    // 播放中控制端按 updateTime 自己推算位置，定时校准带来的微小变化不用重发
+    private boolean publishState(PlaybackEngine.Status s) {
+        int state;
+        switch (s.state) {
+            case PLAYING: state = PlaybackStateCompat.STATE_PLAYING; break;
+            case PAUSED: state = PlaybackStateCompat.STATE_PAUSED; break;
+            case PREPARING: state = PlaybackStateCompat.STATE_BUFFERING; break;
+            default: state = PlaybackStateCompat.STATE_STOPPED; break;
+        }
+        if (state == shownState) {
+            long expected = state == PlaybackStateCompat.STATE_PLAYING
+                    ? shownPosition + (s.anchorRealtime - shownAnchor) : shownPosition;
+            if (Math.abs(s.positionMs - expected) < POSITION_SLACK_MS) return false;
+        }
+        shownState = state;
+        shownPosition = s.positionMs;
+        shownAnchor = s.anchorRealtime;
+        session.setPlaybackState(stateBuilder
+                .setState(state, s.positionMs, state == PlaybackStateCompat.STATE_PLAYING ? 1f : 0f, s.anchorRealtime)
+                .build());
+        return true;
+    }
+
+    // 准备中按"正在播放"显示，连续切歌时通知按钮不来回跳
+    private boolean publishNotification(MusicBean music) {
+        boolean playing = shownState == PlaybackStateCompat.STATE_PLAYING
+                || shownState == PlaybackStateCompat.STATE_BUFFERING;
+        if (foreground && notifiedId == shownId && notifiedArt == shownArt && shownPlaying == playing) return false;
+        notifiedId = shownId;
+        notifiedArt = shownArt;
+        shownPlaying = playing;
+        Notification notification = notificationBuilder
+                .setContentTitle(music.getTitle())
+                .setContentText(music.getArtist())
+                .setLargeIcon(shownArt)
+                .clearActions()
+                .addAction(prevAction)
+                .addAction(playing ? pauseAction : playAction)
+                .addAction(nextAction)
+                .build();
+        if (!foreground) {
+            service.startForeground(NOTIFICATION_ID, notification);
+            foreground = true;
+        } else {
+            NotificationManager manager = service.getSystemService(NotificationManager.class);
+            if (manager != null) manager.notify(NOTIFICATION_ID, notification);
+        }
+        return true;
+    }
+}
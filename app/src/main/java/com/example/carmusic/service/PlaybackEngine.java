@@ -0,0 +1,664 @@
+package com.example.carmusic.service;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import com.example.carmusic.bean.MusicBean;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.bean.PlayQueue;
+import com.example.carmusic.utils.PerfMetrics;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+// 播放引擎：所有播放器调用都在独立线程上执行，主线程只负责投递命令
+// 命令进入队列时会合并：连续"下一首"合并成一次跳转，连续 seek 只保留最后一次
+// 播放顺序由 PlayQueue 决定（随机、循环、插队、调整顺序），引擎线程修改后整体替换，其它线程随时读到完整快照
+public class PlaybackEngine {
+
+    public enum State { IDLE, PREPARING, PLAYING, PAUSED }
+
+    // 状态快照，不可变，任何线程都可以直接读
+    public static final class Status {
+        public final State state;
+        public final int index;
+        public final MusicBean music;
+        public final int durationMs;
+        public final int positionMs;      // anchorRealtime 时刻的播放位置
+        public final long anchorRealtime; // SystemClock.elapsedRealtime()
+
+        Status(State state, int index, MusicBean music, int durationMs, int positionMs, long anchorRealtime) {
+            this.state = state;
+            this.index = index;
+            this.music = music;
+            this.durationMs = durationMs;
+            this.positionMs = positionMs;
+            this.anchorRealtime = anchorRealtime;
+        }
+
+        public boolean isPlaying() { return state == State.PLAYING; }
+
+        // 播放中按锚点推算当前位置，不需要访问播放器
+        public int currentPosition() {
+            if (state != State.PLAYING) return positionMs;
+            long pos = positionMs + (SystemClock.elapsedRealtime() - anchorRealtime);
+            return (int) Math.min(pos, durationMs > 0 ? durationMs : pos);
+        }
+    }
+
+    public interface Listener {
+        // 在引擎线程回调，需要更新界面时自行切到主线程
+        void onStatusChanged(Status status);
+
+        // 新的一首开始播放（包括无缝切换）
+        default void onTrackStarted(Status status) {}
+    }
+
+    // 按路径给出播放音量（线性增益，1 为原始音量），在引擎线程调用，只能查缓存，不能做分析
+    public interface GainLookup {
+        float gainFor(String path);
+    }
+
+    // 播放位置事件：开始、seek、暂停/继续时立即推送，播放中按 tick 间隔校准一次。
+    // 没有位置监听者时不跑定时器，界面根据 Status 的锚点自己插值
+    public interface PositionListener {
+        void onPosition(Status status); // 引擎线程回调
+    }
+
+    private static final int CMD_PLAY = 0;
+    private static final int CMD_SKIP = 1;
+    private static final int CMD_SEEK = 2;
+    private static final int CMD_PAUSE = 3;
+    private static final int CMD_RESUME = 4;
+    private static final int CMD_SET_PLAYLIST = 5;
+    private static final int CMD_RESTORE_PLAYING = 6;
+    private static final int CMD_RESTORE_PAUSED = 7;
+    private static final int CMD_EDIT_QUEUE = 8;
+
+    private static final class Command {
+        int type;
+        int arg;
+        MusicLibrary library;
+        UnaryOperator<PlayQueue> edit;
+        SavedOrder order;
+
+        Command(int type, int arg, MusicLibrary library, UnaryOperator<PlayQueue> edit, SavedOrder order) {
+            this.type = type;
+            this.arg = arg;
+            this.library = library;
+            this.edit = edit;
+            this.order = order;
+        }
+    }
+
+    // 熄火前的播放顺序，见 restore
+    private static final class SavedOrder {
+        final long shuffleSeed;
+        final long anchorId;
+        final int queuePosition;
+        final int librarySize;
+
+        SavedOrder(long shuffleSeed, long anchorId, int queuePosition, int librarySize) {
+            this.shuffleSeed = shuffleSeed;
+            this.anchorId = anchorId;
+            this.queuePosition = queuePosition;
+            this.librarySize = librarySize;
+        }
+    }
+
+    private final Context context;
+    private final TrackPlayer.Factory playerFactory;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final ArrayDeque<Command> queue = new ArrayDeque<>();
+    private boolean drainScheduled = false; // 受 queue 锁保护
+    private final Runnable drainRunnable = this::drain;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    // 监听者 -> 它要求的校准间隔，实际间隔取最小值
+    private final ConcurrentHashMap<PositionListener, Integer> positionListeners = new ConcurrentHashMap<>();
+    private final Runnable tickRunnable = this::tick;
+    private volatile Status status = new Status(State.IDLE, -1, null, 0, 0, 0);
+    // 最早一次还没出声的播放/切歌请求时间，用于统计切歌到出声的延迟；0 表示没有
+    private final AtomicLong skipRequestedAt = new AtomicLong();
+    // 正在 prepare 的播放器 -> 开始时间，只在引擎线程访问；准备完成前被释放或出错时也要结束 trace 区间
+    private final Map<TrackPlayer, Long> preparing = new IdentityHashMap<>();
+    private volatile GainLookup gainLookup = path -> 1f;
+    // 只在引擎线程替换
+    private volatile PlayQueue playQueue = PlayQueue.EMPTY;
+
+    // 以下字段只在引擎线程访问
+    private State state = State.IDLE;
+    private TrackPlayer mediaPlayer;
+    // 预先准备好的下一首，通过 setNext 接在当前播放器后面实现无缝切换
+    private TrackPlayer nextPlayer;
+    private int nextPosition = -1; // 下一首在 playQueue 里的下标
+    private int nextRow = -1;      // 下一首在曲库里的行号
+    private boolean nextPrepared = false;
+    private boolean nextChained = false; // setNext 成功，完成时播放器会自动切过去
+    private int currentPosition = -1; // 当前歌在曲库里的行号，即 Status.index
+    // 当前歌曲；恢复播放时它可能还不在曲库里（currentPosition 为 -1）
+    private MusicBean currentMusic;
+    private boolean playWhenReady = true; // 准备期间按了暂停，准备好后不自动开始
+    // 恢复播放后还没排回去的顺序：曲库扫到保存时的大小之前，每来一份快照都按它重排；用户动了队列就作废
+    private SavedOrder savedOrder;
+
+    public PlaybackEngine(Context context) {
+        this(context, MediaPlayerTrack.FACTORY);
+    }
+
+    public PlaybackEngine(Context context, TrackPlayer.Factory playerFactory) {
+        this.context = context.getApplicationContext();
+        this.playerFactory = playerFactory;
+        thread = new HandlerThread("PlaybackEngine", Process.THREAD_PRIORITY_AUDIO);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public void addListener(Listener l) { listeners.addIfAbsent(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+    public Status getStatus() { return status; }
+    public PlayQueue getQueue() { return playQueue; }
+
+    // 只对之后创建的播放器生效
+    public void setGainLookup(GainLookup lookup) { gainLookup = lookup; }
+
+    // 播放器实现自己的状态，例如 AudioSink 的欠载次数
+    public void dump(PrintWriter pw) { playerFactory.dump(pw); }
+
+    // 资源统计：播放器正在用的缓冲区（含预加载的下一首）和空闲的缓冲区，任意线程调用
+    public long bufferBytes() { return playerFactory.activeBytes(); }
+    public long spareBufferBytes() { return playerFactory.pooledBytes(); }
+
+    // 内存紧张时放掉预加载的下一首和空闲缓冲区，当前这首不受影响。
+    // 下一首在下次切歌或队列变化时照常重新准备，这一次的衔接退回到播完再加载
+    public void trimSpare() {
+        handler.post(() -> {
+            releaseNext();
+            playerFactory.trimPool();
+        });
+    }
+
+    // tickMs 为播放中的校准间隔；注册后立即推送一次当前位置
+    public void addPositionListener(PositionListener l, int tickMs) {
+        positionListeners.put(l, tickMs);
+        handler.post(() -> {
+            l.onPosition(status);
+            scheduleTick();
+        });
+    }
+
+    // 最后一个监听者移除后，定时器在下一次触发时自行停止
+    public void removePositionListener(PositionListener l) { positionListeners.remove(l); }
+
+    // ===== 以下方法可在任意线程调用，只入队不阻塞 =====
+
+    // pos 为曲库行号：从这首开始按曲库顺序播放（随机模式下重新打乱）
+    public void play(int pos) {
+        skipRequestedAt.compareAndSet(0, SystemClock.elapsedRealtimeNanos());
+        enqueue(CMD_PLAY, pos, null);
+    }
+
+    public void skip(int delta) {
+        skipRequestedAt.compareAndSet(0, SystemClock.elapsedRealtimeNanos());
+        enqueue(CMD_SKIP, delta, null);
+    }
+    public void seekTo(int ms) { enqueue(CMD_SEEK, ms, null); }
+    public void pause() { enqueue(CMD_PAUSE, 0, null); }
+    public void resume() { enqueue(CMD_RESUME, 0, null); }
+    // 快照不可变，直接传引用，不复制
+    public void setPlaylist(MusicLibrary library) { enqueue(CMD_SET_PLAYLIST, 0, library); }
+
+    // 冷启动恢复：扫描结果还没出来时，先用只含当前歌的临时列表从上次的位置开始，
+    // 之后 setPlaylist 会按 ID 把它对回完整列表，并用保存的随机种子、锚点（stableId）和下标排回原来的顺序
+    public void restore(MusicLibrary single, int positionMs, boolean play, PlayQueue.Repeat repeat,
+                        long shuffleSeed, long anchorId, int queuePosition, int librarySize) {
+        SavedOrder order = new SavedOrder(shuffleSeed, anchorId, queuePosition, librarySize);
+        enqueue(play ? CMD_RESTORE_PLAYING : CMD_RESTORE_PAUSED, positionMs, single, q -> q.withRepeat(repeat), order);
+    }
+
+    // 队列编辑：row 为曲库行号，index 为队列下标。下标按调用方看到的快照给出，
+    // 执行时已经失效（越界）的编辑直接丢弃
+    public void setShuffle(boolean shuffle) { editQueue(q -> q.withShuffle(shuffle)); }
+    public void setRepeat(PlayQueue.Repeat repeat) { editQueue(q -> q.withRepeat(repeat)); }
+    public void playNext(int row) { editQueue(q -> q.playNext(row)); }
+    public void addToQueue(int row) { editQueue(q -> q.enqueue(row)); }
+    public void moveQueueItem(int from, int to) { editQueue(q -> q.move(from, to)); }
+    public void removeQueueItem(int index) { editQueue(q -> q.remove(index)); }
+
+    private void editQueue(UnaryOperator<PlayQueue> edit) { enqueue(CMD_EDIT_QUEUE, 0, null, edit, null); }
+
+    public void release() {
+        synchronized (queue) {
+            queue.clear();
+        }
+        positionListeners.clear();
+        handler.post(() -> {
+            handler.removeCallbacks(tickRunnable);
+            releaseNext();
+            if (mediaPlayer != null) {
+                releasePlayer(mediaPlayer);
+                mediaPlayer = null;
+            }
+            playerFactory.release();
+        });
+        thread.quitSafely();
+    }
+
+    private void enqueue(int type, int arg, MusicLibrary library) { enqueue(type, arg, library, null, null); }
+
+    private void enqueue(int type, int arg, MusicLibrary library, UnaryOperator<PlayQueue> edit, SavedOrder order) {
+        synchronized (queue) {
+            Command last = queue.peekLast();
+            if (last != null && coalesce(last, type, arg, library)) return;
+            queue.addLast(new Command(type, arg, library, edit, order));
+            if (!drainScheduled) {
+                drainScheduled = true;
+                handler.post(drainRunnable);
+            }
+        }
+    }
+
+    // 能和队尾命令合并时返回 true
+    private boolean coalesce(Command last, int type, int arg, MusicLibrary library) {
+        switch (type) {
+            case CMD_SET_PLAYLIST:
+                // 扫描时连续到达的快照只需要最后一份
+                if (last.type == CMD_SET_PLAYLIST) {
+                    last.library = library;
+                    return true;
+                }
+                return false;
+            case CMD_SKIP:
+                if (last.type == CMD_SKIP) {
+                    last.arg += arg;
+                    return true;
+                }
+                return false;
+            case CMD_SEEK:
+                if (last.type == CMD_SEEK) {
+                    last.arg = arg;
+                    return true;
+                }
+                return false;
+            case CMD_PLAY:
+                if (last.type == CMD_PLAY || last.type == CMD_SKIP || last.type == CMD_SEEK) {
+                    // 新的目标覆盖还没执行的跳转和 seek
+                    last.type = CMD_PLAY;
+                    last.arg = arg;
+                    return true;
+                }
+                return false;
+            case CMD_PAUSE:
+            case CMD_RESUME:
+                if (last.type == CMD_PAUSE || last.type == CMD_RESUME) {
+                    last.type = type;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Command cmd;
+            synchronized (queue) {
+                cmd = queue.pollFirst();
+                if (cmd == null) {
+                    drainScheduled = false;
+                    return;
+                }
+            }
+            execute(cmd);
+        }
+    }
+
+    // ===== 以下方法只在引擎线程执行 =====
+
+    private void execute(Command cmd) {
+        switch (cmd.type) {
+            case CMD_PLAY:
+                doPlay(cmd.arg);
+                break;
+            case CMD_SKIP:
+                doPlayIndex(playQueue.stepIndex(cmd.arg));
+                break;
+            case CMD_SEEK:
+                doSeek(cmd.arg);
+                break;
+            case CMD_PAUSE:
+                doPause();
+                break;
+            case CMD_RESUME:
+                doResume();
+                break;
+            case CMD_SET_PLAYLIST:
+                doSetPlaylist(cmd.library);
+                break;
+            case CMD_RESTORE_PLAYING:
+            case CMD_RESTORE_PAUSED:
+                // 用户已经开始操作或者已经在播放，就不再恢复
+                if (state != State.IDLE || currentMusic != null) break;
+                playQueue = cmd.edit.apply(PlayQueue.of(cmd.library));
+                savedOrder = cmd.order;
+                doPlayIndex(0, cmd.arg, cmd.type == CMD_RESTORE_PLAYING);
+                break;
+            case CMD_EDIT_QUEUE:
+                doEditQueue(cmd.edit);
+                break;
+        }
+    }
+
+    private void doSetPlaylist(MusicLibrary library) {
+        boolean extension = library.isExtensionOf(playQueue.getLibrary());
+        if (!extension) releaseNext();
+        // 整个列表换了，或者当前歌还没对上（恢复播放时）：按 ID 找回当前歌的新位置
+        int found = extension ? currentPosition : -1;
+        if (currentMusic != null && (!extension || currentPosition < 0)) {
+            found = library.indexOfStableId(MusicLibrary.stableId(currentMusic.getId(), currentMusic.getPath()));
+        }
+        if (savedOrder != null && found >= 0) {
+            // 曲库还在分批到达时每一份都按保存的顺序重排，到齐了才算恢复完成
+            SavedOrder order = savedOrder;
+            if (library.size() >= order.librarySize) savedOrder = null;
+            int anchor = order.anchorId == 0 ? -1 : library.indexOfStableId(order.anchorId);
+            playQueue = PlayQueue.restore(library, found, playQueue.getRepeat(), order.shuffleSeed, anchor,
+                    order.queuePosition);
+        } else {
+            playQueue = playQueue.withLibrary(library, found);
+        }
+        if (found != currentPosition) {
+            currentPosition = found;
+            setState(state, status.currentPosition());
+        }
+        // 当前是最后一首时，"下一首"会因为追加而改变
+        refreshNext();
+    }
+
+    private void doEditQueue(UnaryOperator<PlayQueue> edit) {
+        PlayQueue edited;
+        try {
+            edited = edit.apply(playQueue);
+        } catch (IndexOutOfBoundsException e) {
+            return;
+        }
+        if (edited == playQueue) return;
+        playQueue = edited;
+        savedOrder = null;
+        refreshNext();
+        // 随机、循环和队列下标也要记进快照，状态不变也通知一次
+        if (state == State.PLAYING || state == State.PAUSED) setState(state, status.currentPosition());
+    }
+
+    // 队列变了之后核对预加载的下一首：还是同一首只更新下标，否则重新准备
+    private void refreshNext() {
+        if (mediaPlayer == null || currentPosition < 0 || state == State.PREPARING) return;
+        int index = playQueue.autoNextIndex();
+        int row = index < 0 ? -1 : playQueue.rowAt(index);
+        if (index == playQueue.getPosition() || row != nextRow) {
+            prepareNext();
+        } else {
+            nextPosition = index;
+        }
+    }
+
+    // 从曲库第 row 首开始播放，队列回到曲库顺序
+    private void doPlay(int row) {
+        MusicLibrary library = playQueue.getLibrary();
+        if (row < 0 || row >= library.size()) return;
+        savedOrder = null;
+        playQueue = playQueue.playRow(row);
+        doPlayIndex(playQueue.getPosition());
+    }
+
+    private void doPlayIndex(int index) { doPlayIndex(index, 0, true); }
+
+    private void doPlayIndex(int index, int startMs, boolean play) {
+        if (index < 0 || index >= playQueue.size()) return;
+        playQueue = playQueue.withPosition(index);
+        int pos = playQueue.rowAt(index);
+        currentMusic = playQueue.getLibrary().get(pos);
+
+        // 手动切到已经准备好的下一首：直接开始，不再走一遍 prepare
+        if (nextPrepared && pos == nextRow) {
+            TrackPlayer old = mediaPlayer;
+            mediaPlayer = nextPlayer;
+            nextPlayer = null;
+            nextPosition = -1;
+            nextRow = -1;
+            nextPrepared = false;
+            nextChained = false;
+            if (old != null) releasePlayer(old);
+            currentPosition = pos;
+            mediaPlayer.start();
+            recordSkipToAudio();
+            onTrackStarted(0);
+            return;
+        }
+
+        currentPosition = pos;
+        releaseNext();
+
+        // ==========================================
+        // 【核心修复】防止倍速播放/变调
+        // ==========================================
+        // 每次播放都销毁旧对象，创建新对象，强制重置系统音频时钟
+        // 预加载的下一首同样是全新对象，播放器从不 reset() 复用
+        if (mediaPlayer != null) {
+            releasePlayer(mediaPlayer);
+            mediaPlayer = null;
+        }
+        TrackPlayer player = createPlayer(pos);
+        if (player == null) {
+            skipRequestedAt.set(0); // 这次切歌没有出声，不能让下一次从这个时间算起
+            setState(State.IDLE, 0);
+            return;
+        }
+        mediaPlayer = player;
+
+        beginPrepare(player);
+        player.setOnPreparedListener(mp -> {
+            endPrepare(mp);
+            if (mp != mediaPlayer) return;
+            if (startMs > 0) mp.seekTo(startMs);
+            if (playWhenReady) {
+                mp.start();
+                recordSkipToAudio();
+                onTrackStarted(startMs);
+            } else {
+                setState(State.PAUSED, startMs);
+                prepareNext();
+            }
+        });
+        playWhenReady = play;
+        setState(State.PREPARING, 0);
+        player.prepareAsync();
+    }
+
+    private void doSeek(int ms) {
+        if (mediaPlayer == null || state == State.PREPARING || state == State.IDLE) return;
+        mediaPlayer.seekTo(ms);
+        setState(state, ms);
+    }
+
+    private void doPause() {
+        if (state == State.PREPARING) playWhenReady = false;
+        if (state != State.PLAYING) return;
+        mediaPlayer.pause();
+        setState(State.PAUSED, mediaPlayer.getCurrentPosition());
+    }
+
+    private void doResume() {
+        if (state == State.PREPARING) playWhenReady = true;
+        // 不循环时整个队列播完会停下，再按播放从当前这首重新开始
+        if (state == State.IDLE && currentMusic != null) {
+            doPlayIndex(playQueue.getPosition());
+            return;
+        }
+        if (state != State.PAUSED) return;
+        mediaPlayer.start();
+        setState(State.PLAYING, mediaPlayer.getCurrentPosition());
+    }
+
+    // 创建并绑定监听器，调用方负责 prepareAsync；回调在引擎线程的 Looper 上执行
+    private TrackPlayer createPlayer(int pos) {
+        TrackPlayer player = playerFactory.create(context, handler);
+        player.setOnCompletionListener(this::onCompletion);
+        player.setOnErrorListener(mp -> {
+            abandonPrepare(mp);
+            if (mp == nextPlayer) {
+                releaseNext(); // 预加载失败不影响当前播放，轮到它时再正常加载
+            } else if (mp == mediaPlayer) {
+                // 遇到坏文件自动下一首，防止闪退；这次切歌的计时作废，自动跳过也不计入切歌耗时
+                skipRequestedAt.set(0);
+                enqueue(CMD_SKIP, 1, null);
+            }
+        });
+
+        try {
+            // 数据源：文件路径或 android.resource:// 地址，由播放器实现区分
+            String path = playQueue.getLibrary().getPath(pos);
+            player.setDataSource(path);
+            player.setVolume(gainLookup.gainFor(path));
+            return player;
+        } catch (Exception e) {
+            e.printStackTrace();
+            releasePlayer(player);
+            return null;
+        }
+    }
+
+    private void onCompletion(TrackPlayer mp) {
+        if (mp != mediaPlayer) return;
+        if (nextChained && nextPlayer != null) {
+            // 播放器已经无缝切到 nextPlayer，这里只需要交接状态
+            mediaPlayer = nextPlayer;
+            playQueue = playQueue.withPosition(nextPosition);
+            currentPosition = nextRow;
+            currentMusic = playQueue.getLibrary().get(currentPosition);
+            nextPlayer = null;
+            nextPosition = -1;
+            nextRow = -1;
+            nextPrepared = false;
+            nextChained = false;
+            releasePlayer(mp);
+            onTrackStarted(0);
+        } else if (playQueue.autoNextIndex() >= 0) {
+            doPlayIndex(playQueue.autoNextIndex());
+        } else {
+            // 不循环，队列播完了
+            releasePlayer(mediaPlayer);
+            mediaPlayer = null;
+            setState(State.IDLE, 0);
+        }
+    }
+
+    private void recordSkipToAudio() {
+        long requestedAt = skipRequestedAt.getAndSet(0);
+        if (requestedAt != 0) {
+            PerfMetrics.Metric.SKIP_TO_AUDIO.record(SystemClock.elapsedRealtimeNanos() - requestedAt);
+        }
+    }
+
+    private void onTrackStarted(int positionMs) {
+        PerfMetrics.recordFirstAudio();
+        setState(State.PLAYING, positionMs);
+        Status s = status;
+        for (Listener l : listeners) l.onTrackStarted(s);
+        prepareNext();
+    }
+
+    private void setState(State newState, int positionMs) {
+        state = newState;
+        MusicBean music = currentMusic;
+        int duration = newState == State.PLAYING || newState == State.PAUSED ? mediaPlayer.getDuration() : 0;
+        status = new Status(newState, currentPosition, music, duration, positionMs, SystemClock.elapsedRealtime());
+        Status s = status;
+        for (Listener l : listeners) l.onStatusChanged(s);
+        for (PositionListener l : positionListeners.keySet()) l.onPosition(s);
+        scheduleTick();
+    }
+
+    private void scheduleTick() {
+        handler.removeCallbacks(tickRunnable);
+        if (state != State.PLAYING || positionListeners.isEmpty()) return;
+        int tickMs = Integer.MAX_VALUE;
+        for (int t : positionListeners.values()) tickMs = Math.min(tickMs, t);
+        handler.postDelayed(tickRunnable, tickMs);
+    }
+
+    // 用播放器的真实位置重新打锚点，修正插值累积的误差
+    private void tick() {
+        if (state != State.PLAYING || positionListeners.isEmpty()) return;
+        Status old = status;
+        status = new Status(old.state, old.index, old.music, old.durationMs,
+                mediaPlayer.getCurrentPosition(), SystemClock.elapsedRealtime());
+        Status s = status;
+        for (PositionListener l : positionListeners.keySet()) l.onPosition(s);
+        scheduleTick();
+    }
+
+    // 当前歌播放时在后台准备下一首
+    private void prepareNext() {
+        releaseNext();
+        if (currentPosition < 0) return; // 恢复播放时当前歌还没对上完整列表
+        int index = playQueue.autoNextIndex();
+        // 单曲循环或只有一首歌时不能把播放器接到自己后面，播完后重新加载
+        if (index < 0 || index == playQueue.getPosition()) return;
+        int pos = playQueue.rowAt(index);
+
+        TrackPlayer player = createPlayer(pos);
+        if (player == null) return;
+        nextPlayer = player;
+        nextPosition = index;
+        nextRow = pos;
+        beginPrepare(player);
+        player.setOnPreparedListener(mp -> {
+            endPrepare(mp);
+            if (mp != nextPlayer) return;
+            nextPrepared = true;
+            // 接不上时退回到完成后再 skip
+            if (mediaPlayer != null && mediaPlayer.setNext(mp)) nextChained = true;
+        });
+        player.prepareAsync();
+    }
+
+    private void releaseNext() {
+        if (nextPlayer != null) {
+            if (mediaPlayer != null) mediaPlayer.setNext(null);
+            releasePlayer(nextPlayer);
+            nextPlayer = null;
+        }
+        nextPosition = -1;
+        nextRow = -1;
+        nextPrepared = false;
+        nextChained = false;
+    }
+
+    private void beginPrepare(TrackPlayer player) {
+        preparing.put(player, PerfMetrics.beginAsync(PerfMetrics.Metric.PREPARE, System.identityHashCode(player)));
+    }
+
+    private void endPrepare(TrackPlayer player) {
+        Long start = preparing.remove(player);
+        if (start != null) PerfMetrics.endAsync(PerfMetrics.Metric.PREPARE, System.identityHashCode(player), start);
+    }
+
+    // 没准备完就被释放或出错：只结束 trace 区间，不计入直方图
+    private void abandonPrepare(TrackPlayer player) {
+        if (preparing.remove(player) != null) PerfMetrics.abandonAsync(PerfMetrics.Metric.PREPARE, System.identityHashCode(player));
+    }
+
+    private void releasePlayer(TrackPlayer player) {
+        abandonPrepare(player);
+        player.release();
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.carmusic.service;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import com.example.carmusic.bean.PlayQueue;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+// 播放现场快照：当前歌曲、位置、是否在播放，以及循环模式、随机种子和队列下标。熄火断电后重启，
+// 可以在扫描完成之前就恢复播放，扫描完再排回原来的顺序。
+// 文件做内存映射，分两个槽交替写入，每个槽带序号和 CRC：写到一半进程被杀，另一个槽仍然完整。
+// 写入只改内存映射；刷到存储（msync）在自己的后台线程做，不占用调用方的音频优先级线程
+public class PlaybackSnapshot {
+    private static final String FILE_NAME = "playback.snap";
+    private static final int SLOT_SIZE = 2048;
+    private static final int MAGIC = 0x434D5032; // "CMP2"，加了队列字段，旧格式的槽直接忽略
+    private static final int HEADER = 4 + 8 + 8 + 4; // magic, seq, crc, payload 长度
+
+    public static final class State {
+        public final long id;
+        public final String path;
+        public final String title;
+        public final String artist;
+        public final long albumResId;
+        public final int positionMs;
+        public final boolean playing;
+        public final PlayQueue.Repeat repeat;
+        public final long shuffleSeed;   // 0 表示不随机
+        public final long anchorId;      // 随机时排在队列最前面那首的 stableId，0 表示没有
+        public final int queuePosition;  // 当前歌在队列里的下标
+        public final int librarySize;    // 保存时曲库的行数，恢复时曲库扫到这么多才算完整
+
+        public State(long id, String path, String title, String artist, long albumResId, int positionMs,
+                     boolean playing, PlayQueue.Repeat repeat, long shuffleSeed, long anchorId, int queuePosition,
+                     int librarySize) {
+            this.id = id;
+            this.path = path;
+            this.title = title;
+            this.artist = artist;
+            this.albumResId = albumResId;
+            this.positionMs = positionMs;
+            this.playing = playing;
+            this.repeat = repeat;
+            this.shuffleSeed = shuffleSeed;
+            this.anchorId = anchorId;
+            this.queuePosition = queuePosition;
+            this.librarySize = librarySize;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private long seq;
+    private final HandlerThread syncThread;
+    private final Handler syncHandler;
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+    private final Runnable syncRunnable = this::sync;
+
+    private PlaybackSnapshot(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        syncThread = new HandlerThread("PlaybackSnapshot", Process.THREAD_PRIORITY_BACKGROUND);
+        syncThread.start();
+        syncHandler = new Handler(syncThread.getLooper());
+    }
+
+    // 打开失败时返回 null，只是少了恢复功能，不影响正常播放
+    public static PlaybackSnapshot open(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SLOT_SIZE * 2);
+            PlaybackSnapshot snapshot = new PlaybackSnapshot(buffer);
+            snapshot.seq = Math.max(snapshot.slotSeq(0), snapshot.slotSeq(1));
+            return snapshot;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // 读出最新的完整快照；两个槽都损坏或从没写过时返回 null
+    public synchronized State read() {
+        int slot = slotSeq(0) >= slotSeq(1) ? 0 : 1;
+        State state = readSlot(slot);
+        return state != null ? state : readSlot(1 - slot);
+    }
+
+    // 只写内存映射，任意线程调用。sync 为 true 时（状态切换）请后台线程尽快刷到存储，
+    // 周期性的位置更新不请求，由系统回写
+    public void write(State state, boolean sync) {
+        writeSlot(state);
+        if (sync && syncScheduled.compareAndSet(false, true)) syncHandler.post(syncRunnable);
+    }
+
+    // 把内存映射刷到存储。后台线程，以及服务销毁、任务被划掉时调用
+    public void sync() {
+        syncScheduled.set(false);
+        buffer.force();
+    }
+
+    // 服务销毁时调用：最后刷一次，停掉后台线程
+    public void close() {
+        syncHandler.removeCallbacks(syncRunnable);
+        sync();
+        syncThread.quitSafely();
+    }
+
+    private synchronized void writeSlot(State state) {
+        byte[] path = bytes(state.path);
+        byte[] title = bytes(state.title);
+        byte[] artist = bytes(state.artist);
+        int payloadLength = 8 + 8 + 4 + 1 + 1 + 8 + 8 + 4 + 4 + 6 + path.length + title.length + artist.length;
+        if (HEADER + payloadLength > SLOT_SIZE) return; // 路径异常长，放弃这次写入
+
+        long next = seq + 1;
+        int base = (int) (next & 1) * SLOT_SIZE;
+        ByteBuffer b = buffer.duplicate();
+        b.position(base + HEADER);
+        b.putLong(state.id).putLong(state.albumResId).putInt(state.positionMs).put((byte) (state.playing ? 1 : 0));
+        b.put((byte) state.repeat.ordinal()).putLong(state.shuffleSeed).putLong(state.anchorId)
+                .putInt(state.queuePosition).putInt(state.librarySize);
+        putBytes(b, path);
+        putBytes(b, title);
+        putBytes(b, artist);
+
+        crc.reset();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(base + HEADER).limit(base + HEADER + payloadLength);
+        crc.update(payload);
+
+        // 头部最后写，CRC 对不上的槽在读取时会被忽略
+        b.position(base);
+        b.putInt(MAGIC).putLong(next).putLong(crc.getValue()).putInt(payloadLength);
+        seq = next;
+    }
+
+    private long slotSeq(int slot) {
+        int base = slot * SLOT_SIZE;
+        return buffer.getInt(base) == MAGIC ? buffer.getLong(base + 4) : 0;
+    }
+
+    private State readSlot(int slot) {
+        int base = slot * SLOT_SIZE;
+        if (buffer.getInt(base) != MAGIC) return null;
+        long expectedCrc = buffer.getLong(base + 12);
+        int length = buffer.getInt(base + 20);
+        if (length <= 0 || HEADER + length > SLOT_SIZE) return null;
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(base + HEADER).limit(base + HEADER + length);
+        CRC32 check = new CRC32();
+        check.update(payload.duplicate());
+        if (check.getValue() != expectedCrc) return null;
+
+        try {
+            long id = payload.getLong();
+            long albumResId = payload.getLong();
+            int positionMs = payload.getInt();
+            boolean playing = payload.get() == 1;
+            PlayQueue.Repeat repeat = PlayQueue.Repeat.values()[payload.get()];
+            long shuffleSeed = payload.getLong();
+            long anchorId = payload.getLong();
+            int queuePosition = payload.getInt();
+            int librarySize = payload.getInt();
+            String path = getString(payload);
+            String title = getString(payload);
+            String artist = getString(payload);
+            if (path.isEmpty()) return null;
+            return new State(id, path, title, artist, albumResId, positionMs, playing, repeat, shuffleSeed, anchorId,
+                    queuePosition, librarySize);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer b, byte[] bytes) {
+        b.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer b) {
+        int length = b.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
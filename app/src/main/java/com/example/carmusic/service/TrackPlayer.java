@@ -0,0 +1,54 @@
+package com.example.carmusic.service;
+
+import android.content.Context;
+import android.os.Handler;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+// 引擎对单首歌播放器的要求：接口照着 MediaPlayer 的用法裁剪，所有方法都在引擎线程调用，
+// 回调也回到引擎线程。MediaPlayer 和 MediaCodec + AudioTrack 两种实现可以在 MusicService 里切换
+public interface TrackPlayer {
+
+    interface Listener {
+        void onEvent(TrackPlayer player);
+    }
+
+    interface Factory {
+        // handler 是引擎线程的 Handler，实现需要从其它线程回调时投递到这里
+        TrackPlayer create(Context context, Handler handler);
+
+        // 引擎释放时调用，关闭共享的输出线程等
+        default void release() {}
+
+        default void dump(PrintWriter pw) {}
+
+        // 共用缓冲区的字节数，资源统计用，任意线程调用：active 是播放器正在用的，pooled 是空闲待复用的。
+        // MediaPlayer 的缓冲在 native 层，看不到，都是 0
+        default long activeBytes() { return 0; }
+        default long pooledBytes() { return 0; }
+
+        // 内存紧张时放掉空闲的缓冲区，在引擎线程调用
+        default void trimPool() {}
+    }
+
+    void setOnPreparedListener(Listener l);
+    void setOnCompletionListener(Listener l);
+    void setOnErrorListener(Listener l);
+
+    // path 是文件路径或 android.resource:// 地址
+    void setDataSource(String path) throws IOException;
+    void prepareAsync();
+    void start();
+    void pause();
+    void seekTo(int ms);
+    int getCurrentPosition();
+    int getDuration();
+
+    // 响度归一化的线性增益，1 为原始音量；MediaPlayer 只能衰减，大于 1 的部分被截掉
+    void setVolume(float gain);
+
+    // 当前这首播完后无缝接上 next（next 已准备好），传 null 取消；接不上时返回 false
+    boolean setNext(TrackPlayer next);
+
+    void release();
+}
@@ -0,0 +1,286 @@
+package com.example.carmusic.service;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+import com.example.carmusic.bean.MusicBean;
+import com.example.carmusic.bean.PlayQueue;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// U 盘/SD 卡上的预读：按播放队列（已经包含随机顺序）和最近的切歌习惯猜接下来的一两首，
+// 提前顺序读一遍它们的文件头、开头一段和末尾的标签，让数据进系统页缓存。
+// 换歌时 setDataSource + prepare 的头几次读取就不用等休眠或限速的 U 盘。
+// 只有一个 64KB 的读缓冲，读取量按每分钟的额度限速；当前歌还在准备、或者刚开始播放的几秒内不读，
+// 不和正在缓冲的当前歌抢存储带宽。内部存储上的歌不需要预读，直接跳过
+class TrackPrefetcher {
+    private static final int HEAD_BYTES = 512 * 1024;  // 文件头和开头的音频帧，够 prepare 和起播
+    private static final int TAIL_BYTES = 64 * 1024;   // ID3v1/APE 标签、放在末尾的 MP4 moov
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final long BUDGET_BYTES = 8L * 1024 * 1024; // 每分钟最多读这么多
+    private static final long BUDGET_WINDOW_MS = 60_000;
+    private static final long SETTLE_MS = 2000;        // 新歌开始播放后先让它把缓冲填满
+    private static final long SKIP_THRESHOLD_MS = 30_000; // 播放不到这么久就换走算跳过
+    private static final int HISTORY = 8;              // 记最近几次换歌
+    private static final int REMEMBERED = 16;          // 最近预读过的文件，不重复读
+    private static final long TRIM_PAUSE_MS = 60_000;  // 内存紧张后暂停预读，页缓存留给别人
+
+    private final Context context;
+    private final Thread worker;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+    // 以下两个只在工作线程访问
+    private final Map<String, Boolean> removableByFolder = new HashMap<>();
+    private StorageManager storage;
+
+    // 以下字段受 lock 保护
+    private final Object lock = new Object();
+    private List<String> targets = new ArrayList<>();
+    private int generation;        // targets 每换一次加一，正在读的文件不在新目标里就放弃
+    private boolean preparing;
+    private long settleUntil;      // elapsedRealtime
+    private long pausedUntil;      // elapsedRealtime，trim 之后
+    private long budget = BUDGET_BYTES;
+    private long budgetAt;
+    private boolean released;
+    private final LinkedHashMap<String, Boolean> warmed = new LinkedHashMap<String, Boolean>(REMEMBERED, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > REMEMBERED;
+        }
+    };
+    // 换歌历史，环形记录
+    private final boolean[] skipped = new boolean[HISTORY];
+    private final boolean[] backward = new boolean[HISTORY];
+    private int historyCount;
+    private MusicBean lastMusic;
+    private PlaybackEngine.Status lastStatus;
+    private int lastQueuePosition = -1;
+    // 统计
+    private int warmedCount;
+    private int hits;
+    private int skippedInternal;
+    private long bytesRead;
+
+    TrackPrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+        worker = new Thread(this::work, "TrackPrefetcher");
+        worker.start();
+    }
+
+    // 引擎线程调用：记录换歌方式，重新预测要预读的歌
+    void onStatus(PlaybackEngine.Status status, PlayQueue queue) {
+        synchronized (lock) {
+            boolean wasPreparing = preparing;
+            preparing = status.state == PlaybackEngine.State.PREPARING;
+            if (wasPreparing && status.isPlaying()) settleUntil = SystemClock.elapsedRealtime() + SETTLE_MS;
+            if (status.music != lastMusic) {
+                if (lastMusic != null && status.music != null) recordChangeLocked(queue.getPosition());
+                if (status.music != null && Boolean.TRUE.equals(warmed.get(status.music.getPath()))) hits++;
+                lastMusic = status.music;
+                lastQueuePosition = queue.getPosition();
+                setTargetsLocked(predict(queue));
+            }
+            lastStatus = status;
+            lock.notifyAll();
+        }
+    }
+
+    // 资源统计用：固定的一块读缓冲
+    long bufferBytes() { return CHUNK_BYTES; }
+
+    // 内存紧张时放弃正在预读的目标并暂停一阵。预读进来的页缓存会挤掉别人的内存，这时候不值得
+    void trim() {
+        synchronized (lock) {
+            pausedUntil = SystemClock.elapsedRealtime() + TRIM_PAUSE_MS;
+            setTargetsLocked(new ArrayList<>());
+            lock.notifyAll();
+        }
+    }
+
+    void release() {
+        synchronized (lock) {
+            released = true;
+            lock.notifyAll();
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (lock) {
+            pw.println("TrackPrefetcher: targets=" + targets + " warmed=" + warmedCount + " hits=" + hits
+                    + " internal=" + skippedInternal + " read=" + bytesRead / 1024 + "KB"
+                    + " skipRate=" + skipCountLocked() + "/" + Math.min(historyCount, HISTORY));
+        }
+    }
+
+    private void recordChangeLocked(int queuePosition) {
+        PlaybackEngine.Status previous = lastStatus;
+        int played = previous == null ? 0 : previous.currentPosition();
+        int duration = previous == null ? 0 : previous.durationMs;
+        int slot = historyCount % HISTORY;
+        skipped[slot] = duration > 0 && played < Math.min(SKIP_THRESHOLD_MS, duration - 5000);
+        backward[slot] = lastQueuePosition >= 0 && queuePosition == lastQueuePosition - 1;
+        historyCount++;
+    }
+
+    private int skipCountLocked() {
+        int n = 0;
+        for (int i = 0; i < Math.min(historyCount, HISTORY); i++) if (skipped[i]) n++;
+        return n;
+    }
+
+    // 自动续播的下一首总是要；经常跳过时再加上后面一首，最近往回切过时加上前一首，最多两首
+    private List<String> predict(PlayQueue queue) {
+        List<String> paths = new ArrayList<>(2);
+        int position = queue.getPosition();
+        if (position < 0 || queue.size() <= 1) return paths;
+        int next = queue.autoNextIndex();
+        if (next < 0 || next == position) next = queue.stepIndex(1); // 单曲循环时手动下一首还是会换歌
+        add(paths, queue, next, position);
+        int recent = Math.min(historyCount, HISTORY);
+        boolean back = false;
+        for (int i = 0; i < recent; i++) back |= backward[i];
+        if (recent >= 2 && skipCountLocked() * 2 >= recent) add(paths, queue, queue.stepIndex(2), position);
+        if (back) add(paths, queue, queue.stepIndex(-1), position);
+        return paths.size() > 2 ? new ArrayList<>(paths.subList(0, 2)) : paths;
+    }
+
+    private static void add(List<String> paths, PlayQueue queue, int index, int position) {
+        if (index < 0 || index == position) return;
+        String path = queue.getLibrary().getPath(queue.rowAt(index));
+        if (!paths.contains(path)) paths.add(path);
+    }
+
+    private void setTargetsLocked(List<String> paths) {
+        if (paths.equals(targets)) return;
+        targets = paths;
+        generation++;
+    }
+
+    private void work() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        storage = context.getSystemService(StorageManager.class);
+        try {
+            while (true) {
+                String path = null;
+                int gen;
+                synchronized (lock) {
+                    while (!released) {
+                        path = nextTargetLocked();
+                        if (path != null) {
+                            long wait = waitLocked(0);
+                            if (wait == 0) break;
+                            lock.wait(wait);
+                        } else {
+                            lock.wait();
+                        }
+                    }
+                    if (released) return;
+                    gen = generation;
+                }
+                if (!isRemovable(path)) {
+                    synchronized (lock) {
+                        skippedInternal++;
+                        warmed.put(path, Boolean.FALSE); // 记下来，不再检查
+                    }
+                    continue;
+                }
+                warm(path, gen);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private String nextTargetLocked() {
+        for (String path : targets) {
+            if (!warmed.containsKey(path)) return path;
+        }
+        return null;
+    }
+
+    // 现在可以读 bytes 字节时返回 0，否则返回要等的毫秒数。当前歌在准备时等状态变化的通知，超时只是兜底
+    private long waitLocked(long bytes) {
+        if (preparing) return BUDGET_WINDOW_MS;
+        long now = SystemClock.elapsedRealtime();
+        if (now < pausedUntil) return pausedUntil - now;
+        if (now < settleUntil) return settleUntil - now;
+        budget = Math.min(BUDGET_BYTES, budget + (now - budgetAt) * BUDGET_BYTES / BUDGET_WINDOW_MS);
+        budgetAt = now;
+        if (budget >= bytes) return 0;
+        return Math.max(1, (bytes - budget) * BUDGET_WINDOW_MS / BUDGET_BYTES);
+    }
+
+    // 每块读之前检查：目标换了就放弃，当前歌在准备或额度不够就等
+    private boolean acquire(String path, int gen, int bytes) throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (released || (gen != generation && !targets.contains(path))) return false;
+                long wait = waitLocked(bytes);
+                if (wait == 0) break;
+                lock.wait(wait);
+            }
+            budget -= bytes;
+            bytesRead += bytes;
+            return true;
+        }
+    }
+
+    private void warm(String path, int gen) throws InterruptedException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long head = Math.min(size, HEAD_BYTES);
+            if (!read(channel, path, gen, 0, head)) return;
+            long tail = Math.max(head, size - TAIL_BYTES);
+            if (!read(channel, path, gen, tail, size - tail)) return;
+            synchronized (lock) {
+                warmed.put(path, Boolean.TRUE);
+                warmedCount++;
+            }
+        } catch (IOException e) {
+            // 文件没了（拔卡）或读不了：记下来不再重试，轮到它时播放器自己报错
+            synchronized (lock) {
+                warmed.put(path, Boolean.FALSE);
+            }
+        }
+    }
+
+    private boolean read(FileChannel channel, String path, int gen, long offset, long length)
+            throws IOException, InterruptedException {
+        long end = offset + length;
+        while (offset < end) {
+            int n = (int) Math.min(CHUNK_BYTES, end - offset);
+            if (!acquire(path, gen, n)) return false;
+            buffer.clear();
+            buffer.limit(n);
+            int got = channel.read(buffer, offset);
+            if (got <= 0) break;
+            offset += got;
+        }
+        return true;
+    }
+
+    // 按目录缓存：同一个目录下的歌只查一次存储卷
+    private boolean isRemovable(String path) {
+        if (path.startsWith("android.resource://") || storage == null) return false;
+        File file = new File(path);
+        String folder = file.getParent();
+        Boolean removable = removableByFolder.get(folder);
+        if (removable == null) {
+            StorageVolume volume = storage.getStorageVolume(file);
+            removable = volume != null && volume.isRemovable();
+            removableByFolder.put(folder, removable);
+        }
+        return removable;
+    }
+}
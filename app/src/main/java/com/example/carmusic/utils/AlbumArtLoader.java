@@ -0,0 +1,382 @@
+package com.example.carmusic.utils;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.LruCache;
+import android.widget.ImageView;
+import com.example.carmusic.R;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// 专辑封面加载器：内存 LRU（按字节计） + 磁盘缩略图缓存 + 后台线程降采样解码
+// 缓存按专辑记（MediaStore 的专辑 ID；内嵌封面按歌手 + 专辑 + 图片长度的摘要），不分尺寸：留下请求过的最大一张，
+// 小控件直接用它缩小显示，只有要更大的图时才重新解码。列表、播放页、通知里同专辑的封面共用一张图。
+// 磁盘缩略图总量超过 DISK_CACHE_BYTES 时按最近使用时间删掉旧的
+public class AlbumArtLoader {
+    private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+    private static final int THREADS = 2;
+    private static final long DISK_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final String UNKNOWN = MediaStore.UNKNOWN_STRING;
+
+    private static AlbumArtLoader instance;
+
+    private final Context context;
+    private final LruCache<String, Art> memoryCache;
+    private final File diskDir;
+    private final ExecutorService executor;
+    private final ResourceGovernor governor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 正在解码的任务，只在主线程访问
+    private final Map<String, Task> inFlight = new HashMap<>();
+    private long diskBytes = -1; // 磁盘缓存总字节数，第一次写入时统计；持有 diskDir 锁访问
+
+    // 不绑定控件的加载结果，在主线程回调；没有封面或解码失败时 bitmap 为 null
+    public interface Callback {
+        void onLoaded(Bitmap bitmap);
+    }
+
+    public static synchronized AlbumArtLoader get(Context context) {
+        if (instance == null) instance = new AlbumArtLoader(context.getApplicationContext());
+        return instance;
+    }
+
+    private AlbumArtLoader(Context context) {
+        this.context = context;
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memoryCache = new LruCache<String, Art>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Art value) {
+                return value.bitmap.getAllocationByteCount();
+            }
+        };
+        diskDir = new File(context.getCacheDir(), "albumart");
+        executor = Executors.newFixedThreadPool(THREADS, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "AlbumArtLoader"));
+        // 内存缓存只是给界面省解码，界面一退到后台就可以丢，磁盘缩略图还在
+        governor = ResourceGovernor.get(context);
+        governor.register("albumArt", ResourceGovernor.Tier.UI, memoryCache::size, this::clearMemory);
+    }
+
+    // 主线程调用。sizePx 为目标控件的边长，解码结果不会大于它
+    public void load(ImageView view, long albumResId, int sizePx, int placeholderRes) {
+        load(view, albumResId, null, null, null, -1, 0, sizePx, placeholderRes);
+    }
+
+    // MediaStore 没有专辑封面（albumResId <= 0）时，用 TagReader 找到的内嵌封面：直接从文件的 artOffset 处读，
+    // 同专辑的文件只解码一次
+    public void load(ImageView view, long albumResId, String artist, String album, String path, long artOffset,
+                     int artLength, int sizePx, int placeholderRes) {
+        cancel(view);
+        String key = key(albumResId, artist, album, path, artOffset, artLength, sizePx);
+        if (key == null) {
+            view.setImageResource(placeholderRes);
+            return;
+        }
+        Art cached = memoryCache.get(key);
+        if (cached != null && cached.covers(sizePx)) {
+            view.setImageBitmap(cached.bitmap);
+            return;
+        }
+
+        // 缓存里只有小图时先顶上，大图解码完再换
+        if (cached != null) view.setImageBitmap(cached.bitmap);
+        else view.setImageResource(placeholderRes);
+        Task task = submit(key, albumResId, path, artOffset, artLength, sizePx);
+        task.targets.add(view);
+        view.setTag(R.id.tag_album_art, task);
+    }
+
+    // 主线程调用，给通知栏、媒体会话这类没有 ImageView 的地方用；和控件共用同一套缓存。
+    // 内存缓存命中时同步回调
+    public void load(long albumResId, String artist, String album, String path, long artOffset, int artLength,
+                     int sizePx, Callback callback) {
+        String key = key(albumResId, artist, album, path, artOffset, artLength, sizePx);
+        if (key == null) {
+            callback.onLoaded(null);
+            return;
+        }
+        Art cached = memoryCache.get(key);
+        if (cached != null && cached.covers(sizePx)) {
+            callback.onLoaded(cached.bitmap);
+            return;
+        }
+        submit(key, albumResId, path, artOffset, artLength, sizePx).callbacks.add(callback);
+    }
+
+    // 没有可用封面时返回 null。key 里不带尺寸；内嵌封面没有专辑名时只能按文件和位置记
+    private static String key(long albumResId, String artist, String album, String path, long artOffset,
+                              int artLength, int sizePx) {
+        boolean embedded = albumResId <= 0 && path != null && artOffset >= 0 && artLength > 0;
+        if ((albumResId <= 0 && !embedded) || sizePx <= 0) return null;
+        if (!embedded) return String.valueOf(albumResId);
+        if (album == null || album.isEmpty() || UNKNOWN.equals(album)) return "f" + digest(path + '\0' + artOffset + '\0' + artLength);
+        return "e" + digest(artist + '\0' + album + '\0' + artLength);
+    }
+
+    private static String digest(String s) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 平台保证有 SHA-1
+        }
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    // 同一张图正在按不小于 sizePx 的尺寸解码时复用同一个任务；要更大的图另起一个，之后它替换缓存里的小图
+    private Task submit(String key, long albumResId, String path, long artOffset, int artLength, int sizePx) {
+        Task task = inFlight.get(key);
+        if (task == null || task.sizePx < sizePx) {
+            task = albumResId <= 0
+                    ? new Task(key, 0, path, artOffset, artLength, sizePx)
+                    : new Task(key, albumResId, null, -1, 0, sizePx);
+            inFlight.put(key, task);
+            task.future = executor.submit(task);
+        }
+        return task;
+    }
+
+    // ViewHolder 被回收或重新绑定时调用；没有控件再等这张图就取消解码
+    public void cancel(ImageView view) {
+        Object tag = view.getTag(R.id.tag_album_art);
+        if (!(tag instanceof Task)) return;
+        Task task = (Task) tag;
+        view.setTag(R.id.tag_album_art, null);
+        task.targets.remove(view);
+        if (task.targets.isEmpty() && task.callbacks.isEmpty() && task.future != null) {
+            task.future.cancel(false);
+            if (inFlight.get(task.key) == task) inFlight.remove(task.key);
+        }
+    }
+
+    public void clearMemory() {
+        memoryCache.evictAll();
+    }
+
+    private void deliver(Task task, Art art) {
+        if (inFlight.get(task.key) == task) inFlight.remove(task.key);
+        Bitmap bitmap = art != null ? art.bitmap : null;
+        for (Callback callback : task.callbacks) callback.onLoaded(bitmap);
+        task.callbacks.clear();
+        if (bitmap == null) return;
+        // 先后完成的两个任务，缓存里只留大的那张
+        Art cached = memoryCache.get(task.key);
+        if (cached == null || art.complete || shortSide(cached.bitmap) < shortSide(bitmap)) {
+            memoryCache.put(task.key, art);
+            governor.check();
+        }
+        for (ImageView view : task.targets) {
+            if (view.getTag(R.id.tag_album_art) == task) {
+                view.setImageBitmap(bitmap);
+                view.setTag(R.id.tag_album_art, null);
+            }
+        }
+        task.targets.clear();
+    }
+
+    // 磁盘缓存里存的是已缩放好的缩略图，够大时直接读取并缩到需要的尺寸，不再访问 MediaStore；
+    // 不够大时从原图重新解码，覆盖掉小的那张
+    private Art decode(Task task) {
+        File cacheFile = new File(diskDir, task.key + ".webp");
+        if (cacheFile.exists()) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(cacheFile.getAbsolutePath(), options);
+            if (Math.min(options.outWidth, options.outHeight) >= task.sizePx) {
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = sampleSize(options, task.sizePx);
+                Bitmap bitmap = scaleTo(BitmapFactory.decodeFile(cacheFile.getAbsolutePath(), options), task.sizePx);
+                if (bitmap != null) {
+                    cacheFile.setLastModified(System.currentTimeMillis()); // 磁盘 LRU 按修改时间
+                    return new Art(bitmap, false);
+                }
+            }
+        }
+
+        Art art = task.path != null ? decodeEmbedded(task) : decodeAlbumArt(task.albumResId, task.sizePx);
+        if (art != null) writeDiskCache(cacheFile, art.bitmap);
+        return art;
+    }
+
+    private Art decodeAlbumArt(long albumResId, int sizePx) {
+        Uri uri = ContentUris.withAppendedId(ALBUM_ART_URI, albumResId);
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r")) {
+            if (pfd == null) return null;
+            // 先只读尺寸，算出 2 的幂次降采样倍数，避免整张原图进内存
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(pfd.getFileDescriptor(), null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+            boolean complete = Math.min(options.outWidth, options.outHeight) <= sizePx;
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize(options, sizePx);
+            return Art.of(scaleTo(BitmapFactory.decodeFileDescriptor(pfd.getFileDescriptor(), null, options), sizePx),
+                    complete);
+        } catch (Exception e) {
+            // 没有封面的专辑会抛 FileNotFoundException，属于正常情况
+            return null;
+        }
+    }
+
+    // 内嵌封面只读图片本身那一段字节，不读音频数据
+    private Art decodeEmbedded(Task task) {
+        byte[] data = new byte[task.artLength];
+        try (RandomAccessFile file = new RandomAccessFile(task.path, "r")) {
+            file.seek(task.artOffset);
+            file.readFully(data);
+        } catch (Exception e) {
+            // 文件已删除或 SD 卡已拔出
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        boolean complete = Math.min(options.outWidth, options.outHeight) <= task.sizePx;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options, task.sizePx);
+        return Art.of(scaleTo(BitmapFactory.decodeByteArray(data, 0, data.length, options), task.sizePx), complete);
+    }
+
+    private static int shortSide(Bitmap bitmap) {
+        return Math.min(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    private static int sampleSize(BitmapFactory.Options bounds, int sizePx) {
+        int sample = 1;
+        while (Math.min(bounds.outWidth, bounds.outHeight) / (sample * 2) >= sizePx) sample *= 2;
+        return sample;
+    }
+
+    // 再精确缩放到目标尺寸（短边 = sizePx）
+    private static Bitmap scaleTo(Bitmap bitmap, int sizePx) {
+        if (bitmap == null) return null;
+        int shortSide = shortSide(bitmap);
+        if (shortSide <= sizePx) return bitmap;
+        float scale = (float) sizePx / shortSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    private void writeDiskCache(File cacheFile, Bitmap bitmap) {
+        if (!diskDir.exists() && !diskDir.mkdirs()) return;
+        File tmp = new File(diskDir, cacheFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.WEBP_LOSSY, 85, out);
+        } catch (Exception e) {
+            tmp.delete();
+            return;
+        }
+        long replaced = cacheFile.length();
+        long written = tmp.length();
+        if (!tmp.renameTo(cacheFile)) {
+            tmp.delete();
+            return;
+        }
+        trimDiskCache(written - replaced);
+    }
+
+    // 超出上限时按修改时间从旧到新删，删到上限的 3/4，免得每写一张都要列一遍目录
+    private void trimDiskCache(long added) {
+        synchronized (diskDir) {
+            if (diskBytes >= 0) {
+                diskBytes += added;
+                if (diskBytes <= DISK_CACHE_BYTES) return;
+            }
+            File[] files = diskDir.listFiles();
+            if (files == null) return;
+            long[] modified = new long[files.length];
+            Integer[] order = new Integer[files.length];
+            long total = 0;
+            for (int i = 0; i < files.length; i++) {
+                modified[i] = files[i].lastModified();
+                order[i] = i;
+                total += files[i].length();
+            }
+            diskBytes = total;
+            if (total <= DISK_CACHE_BYTES) return;
+            Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+            for (int i = 0; i < files.length && diskBytes > DISK_CACHE_BYTES * 3 / 4; i++) {
+                File f = files[order[i]];
+                long length = f.length();
+                if (f.delete()) diskBytes -= length;
+            }
+        }
+    }
+
+    // 解码结果。complete 表示原图本身就不比它大，再大的请求也只能拿到这张
+    private static final class Art {
+        final Bitmap bitmap;
+        final boolean complete;
+
+        Art(Bitmap bitmap, boolean complete) {
+            this.bitmap = bitmap;
+            this.complete = complete;
+        }
+
+        static Art of(Bitmap bitmap, boolean complete) {
+            return bitmap != null ? new Art(bitmap, complete) : null;
+        }
+
+        boolean covers(int sizePx) {
+            return complete || shortSide(bitmap) >= sizePx;
+        }
+    }
+
+    private class Task implements Runnable {
+        final String key;
+        final long albumResId;
+        final String path;     // 不为 null 时解码文件里的内嵌封面
+        final long artOffset;
+        final int artLength;
+        final int sizePx;
+        final List<ImageView> targets = new ArrayList<>(1);
+        final List<Callback> callbacks = new ArrayList<>(1);
+        Future<?> future;
+
+        Task(String key, long albumResId, String path, long artOffset, int artLength, int sizePx) {
+            this.key = key;
+            this.albumResId = albumResId;
+            this.path = path;
+            this.artOffset = artOffset;
+            this.artLength = artLength;
+            this.sizePx = sizePx;
+        }
+
+        @Override
+        public void run() {
+            long start = PerfMetrics.begin(PerfMetrics.Metric.ART_DECODE);
+            Art art = decode(this);
+            PerfMetrics.end(PerfMetrics.Metric.ART_DECODE, start);
+            mainHandler.post(() -> deliver(this, art));
+        }
+    }
+}
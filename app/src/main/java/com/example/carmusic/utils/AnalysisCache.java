@@ -0,0 +1,326 @@
+package com.example.carmusic.utils;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import com.example.carmusic.audio.LoudnessMeter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// 响度和波形分析结果：按路径 + 修改时间索引，文件改过就当没分析过。
+// 文件是只追加的记录日志，每条带长度和 CRC，分析完一首写一条，进程随时被杀也只丢正在分析的那首；
+// 读取时遇到截断或损坏的记录就从那里截掉。同一路径的旧记录太多时整体重写一次。
+// 波形只有界面用，内存紧张时可以丢掉（trimWaveforms），之后按记录在文件里的位置读回来。
+// 查询（播放线程取增益、主线程丢波形）只读并发 Map，不加锁也不 stat 文件；文件读写都在分析线程和后台线程，
+// 用单独的 fileLock 串行。文件改没改过由分析线程遍历曲库时检查（validate），改过的旧结果当场丢掉
+public class AnalysisCache {
+    private static final String FILE_NAME = "analysis.cache";
+    private static final int MAGIC = 0x434D4C41; // "CMLA"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 96; // 每条的对象头、数值字段和 HashMap 节点，估算
+    public static final double TARGET_LUFS = -18; // ReplayGain 2.0 的参考响度
+
+    public static final class Entry {
+        final long modified;
+        final float loudness; // LUFS；NaN 表示解码失败或全是静音
+        final float peak;
+        final byte[] waveform; // trimWaveforms 之后为 null
+        final long offset;     // 这条记录在文件里的位置，-1 表示不知道（没写成功）
+
+        Entry(long modified, float loudness, float peak, byte[] waveform, long offset) {
+            this.modified = modified;
+            this.loudness = loudness;
+            this.peak = peak;
+            this.waveform = waveform;
+            this.offset = offset;
+        }
+
+        Entry with(byte[] waveform, long offset) {
+            return new Entry(modified, loudness, peak, waveform, offset);
+        }
+
+        boolean sameResult(Entry other) {
+            return modified == other.modified && Float.compare(loudness, other.loudness) == 0 && peak == other.peak;
+        }
+
+        public float getLoudness() { return loudness; }
+        public float getPeak() { return peak; }
+        // 波形被丢掉时为 null，界面请用 AnalysisCache.waveform(path)
+        public byte[] getWaveform() { return waveform; }
+        public float getGain() { return LoudnessMeter.gainFor(loudness, peak, TARGET_LUFS); }
+    }
+
+    private final Context context;
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object fileLock = new Object(); // 读写 file 的都在后台线程，只有它们互相等
+    private int records;       // 文件里的记录数，包括被覆盖的旧记录；受 fileLock 保护
+    private volatile boolean loaded;
+    // 资源统计用
+    private final AtomicLong entryBytes = new AtomicLong();
+    private final AtomicLong waveformBytes = new AtomicLong();
+
+    public AnalysisCache(Context context) {
+        this.context = context.getApplicationContext();
+        file = new File(this.context.getFilesDir(), FILE_NAME);
+    }
+
+    // 文件路径取文件的修改时间；内置 raw 资源跟着 APK 走，取安装包的修改时间。文件不存在时返回 0。
+    // 要 stat 文件，只在分析线程里调用
+    public long modified(String path) {
+        if (path.startsWith("android.resource://")) return new File(context.getApplicationInfo().sourceDir).lastModified();
+        return new File(path).lastModified();
+    }
+
+    // 路径对应的结果，还没分析时返回 null；load 之前总是 null。任意线程调用，不加锁
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    // 分析线程遍历曲库时调用：结果和文件的修改时间对得上返回 true；
+    // 文件改过的旧结果直接丢掉，播放时不再用它的增益，等重新分析
+    public boolean validate(String path, long modified) {
+        Entry e = entries.get(path);
+        if (e == null) return false;
+        if (e.modified == modified) return true;
+        if (entries.remove(path, e)) {
+            entryBytes.addAndGet(-entryBytes(path));
+            if (e.waveform != null) waveformBytes.addAndGet(-e.waveform.length);
+        }
+        return false;
+    }
+
+    // 路径对应的波形，被丢掉过的从文件读回来，所以要在后台线程调用；还没分析时返回 null
+    public byte[] waveform(String path) {
+        Entry e = entries.get(path);
+        if (e == null) return null;
+        if (e.waveform != null) return e.waveform;
+        byte[] waveform;
+        synchronized (fileLock) {
+            waveform = readWaveform(path, e.offset);
+        }
+        if (entries.replace(path, e, e.with(waveform, e.offset))) waveformBytes.addAndGet(waveform.length);
+        return waveform;
+    }
+
+    // 内存紧张时丢掉所有波形，响度和增益保留。没有文件位置的留着，丢了就读不回来。
+    // 在主线程调用，只换内存里的条目，不碰文件
+    public void trimWaveforms() {
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            if (e.waveform == null || e.offset < 0) continue;
+            if (entries.replace(me.getKey(), e, e.with(null, e.offset))) waveformBytes.addAndGet(-e.waveform.length);
+        }
+    }
+
+    // 资源统计用的估算，任意线程调用，不等锁
+    public long entryBytes() { return entryBytes.get(); }
+    public long waveformBytes() { return waveformBytes.get(); }
+
+    public boolean isLoaded() { return loaded; }
+    public int size() { return entries.size(); }
+
+    // 播放时用的线性增益，没分析过时为 1。在播放线程调用，只查内存
+    public float gain(String path) {
+        Entry e = entries.get(path);
+        return e == null ? 1f : e.getGain();
+    }
+
+    // 在后台线程调用一次。先读进局部的表，读完再一次放进去，期间的查询不用等
+    public void load() {
+        synchronized (fileLock) {
+            if (loaded) return;
+            Map<String, Entry> loadedEntries = readAll();
+            for (Map.Entry<String, Entry> me : loadedEntries.entrySet()) {
+                if (entries.putIfAbsent(me.getKey(), me.getValue()) == null) {
+                    account(me.getKey(), null, me.getValue().waveform.length);
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    private Map<String, Entry> readAll() {
+        Map<String, Entry> result = new HashMap<>();
+        if (!file.exists()) return result;
+        long valid = 0; // 文件头和完整记录的总长度
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("bad header");
+            valid = HEADER_BYTES;
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException end) {
+                    break;
+                }
+                if (length <= 0 || length > 1 << 20) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if (in.readInt() != (int) crc.getValue()) break;
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                String path = record.readUTF();
+                long modified = record.readLong();
+                float loudness = record.readFloat();
+                float peak = record.readFloat();
+                byte[] waveform = new byte[record.readUnsignedShort()];
+                record.readFully(waveform);
+                result.put(path, new Entry(modified, loudness, peak, waveform, valid));
+                records++;
+                valid += 4 + length + 4;
+            }
+        } catch (IOException e) {
+            // 截断的最后一条按损坏处理
+        }
+        if (valid == 0) {
+            file.delete(); // 版本不对或者文件头都不完整，从头再来
+        } else if (valid < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    // 分析线程调用：先更新内存，播放马上能用；再在 fileLock 里追加一条记录
+    public void put(String path, long modified, float loudness, float peak, byte[] waveform) {
+        Entry pending = new Entry(modified, loudness, peak, waveform, -1);
+        Entry old = entries.put(path, pending);
+        account(path, old, waveform.length);
+        ResourceGovernor.get(context).check();
+        synchronized (fileLock) {
+            if (records > 2 * entries.size() + 64) {
+                rewrite();
+                return;
+            }
+            boolean fresh = !file.exists();
+            long offset = fresh ? HEADER_BYTES : file.length();
+            try {
+                Entry entry = pending.with(waveform, offset);
+                try (FileOutputStream out = new FileOutputStream(file, true)) {
+                    out.write(encode(fresh, path, entry));
+                }
+                entries.replace(path, pending, entry);
+                records++;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void account(String path, Entry old, int waveformLength) {
+        if (old == null) {
+            entryBytes.addAndGet(entryBytes(path));
+        } else if (old.waveform != null) {
+            waveformBytes.addAndGet(-old.waveform.length);
+        }
+        waveformBytes.addAndGet(waveformLength);
+    }
+
+    private static long entryBytes(String path) {
+        return ENTRY_BYTES + 24 + 2L * path.length();
+    }
+
+    // 按 offset 读回一条记录里的波形；记录对不上或读不了时返回空数组（界面按没有波形处理）
+    private byte[] readWaveform(String path, long offset) {
+        if (offset < 0) return new byte[0];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offset);
+            int length = raf.readInt();
+            if (length <= 0 || length > 1 << 20) return new byte[0];
+            byte[] payload = new byte[length];
+            raf.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (raf.readInt() != (int) crc.getValue()) return new byte[0];
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            if (!path.equals(record.readUTF())) return new byte[0];
+            record.skipBytes(8 + 4 + 4);
+            byte[] waveform = new byte[record.readUnsignedShort()];
+            record.readFully(waveform);
+            return waveform;
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    // 持有 fileLock 时调用。查询照常进行，写完后只把新位置换到内容没变的条目上
+    private void rewrite() {
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            BufferedOutputStream out = new BufferedOutputStream(fos, 64 * 1024);
+            // 丢掉过的波形从旧文件读回来一起写；新文件里的位置写完后再换上
+            Map<String, Entry> rewritten = new HashMap<>(entries.size() * 2);
+            long offset = HEADER_BYTES;
+            boolean header = true;
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                byte[] waveform = e.waveform != null ? e.waveform : readWaveform(me.getKey(), e.offset);
+                byte[] bytes = encode(header, me.getKey(), e.with(waveform, offset));
+                out.write(bytes);
+                rewritten.put(me.getKey(), e.with(null, offset));
+                offset += header ? bytes.length - HEADER_BYTES : bytes.length;
+                header = false;
+            }
+            out.flush();
+            atomicFile.finishWrite(fos);
+            for (Map.Entry<String, Entry> me : rewritten.entrySet()) {
+                Entry written = me.getValue();
+                entries.computeIfPresent(me.getKey(),
+                        (path, current) -> current.sameResult(written) ? current.with(current.waveform, written.offset) : current);
+            }
+            records = rewritten.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (fos != null) atomicFile.failWrite(fos);
+        }
+    }
+
+    // 一条记录：长度、内容、CRC；header 为 true 时在前面加文件头
+    private static byte[] encode(boolean header, String path, Entry entry) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + entry.waveform.length);
+        DataOutputStream p = new DataOutputStream(payload);
+        p.writeUTF(path);
+        p.writeLong(entry.modified);
+        p.writeFloat(entry.loudness);
+        p.writeFloat(entry.peak);
+        p.writeShort(entry.waveform.length);
+        p.write(entry.waveform);
+        byte[] content = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (header) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        out.writeInt(content.length);
+        out.write(content);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+}
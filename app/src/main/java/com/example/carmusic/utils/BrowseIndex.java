@@ -0,0 +1,277 @@
+package com.example.carmusic.utils;
+
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.bean.RowGroups;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// 歌手/专辑/文件夹浏览索引。每组有哪些歌在 MusicLibrary.Builder 加歌时已经分好（RowGroups），
+// 这里只把组按名字排序并切出 A-Z、# 的字母区段，按字母跳转是 O(1)。
+// 目前只有 BrowseTree（车机媒体中心的字母区段）在用；应用内的列表还是按扫描顺序的单个列表，没有分组视图。
+// 排序键：汉字转拼音，其余小写；先按首字母分区，区内用 Collator 比较。
+// 曲库只在末尾追加时，已有组的排序键和顺序直接沿用，只给新出现的组算键再归并；
+// 整个换掉时按名字复用上一份的键，不重新转拼音
+public final class BrowseIndex {
+
+    public enum Kind { ARTIST, ALBUM, FOLDER }
+
+    public static final int SECTION_COUNT = 27; // A-Z 和 #
+    private static final int OTHER_SECTION = 26;
+
+    private final MusicLibrary library;
+    private final Groups artists;
+    private final Groups albums;
+    private final Groups folders;
+
+    private BrowseIndex(MusicLibrary library, Groups artists, Groups albums, Groups folders) {
+        this.library = library;
+        this.artists = artists;
+        this.albums = albums;
+        this.folders = folders;
+    }
+
+    public static BrowseIndex build(MusicLibrary library) {
+        return new BrowseIndex(library,
+                Groups.build(Kind.ARTIST, library, null),
+                Groups.build(Kind.ALBUM, library, null),
+                Groups.build(Kind.FOLDER, library, null));
+    }
+
+    // 换成新的曲库快照；和上一份相同时返回自己
+    public BrowseIndex update(MusicLibrary updated) {
+        if (updated == library) return this;
+        if (updated.isExtensionOf(library)) {
+            return new BrowseIndex(updated, artists.extend(updated), albums.extend(updated), folders.extend(updated));
+        }
+        return new BrowseIndex(updated,
+                Groups.build(Kind.ARTIST, updated, artists),
+                Groups.build(Kind.ALBUM, updated, albums),
+                Groups.build(Kind.FOLDER, updated, folders));
+    }
+
+    public MusicLibrary getLibrary() { return library; }
+
+    public Groups get(Kind kind) {
+        switch (kind) {
+            case ARTIST: return artists;
+            case ALBUM: return albums;
+            default: return folders;
+        }
+    }
+
+    public static char sectionLabel(int section) {
+        return section == OTHER_SECTION ? '#' : (char) ('A' + section);
+    }
+
+    // 歌手的专辑，按专辑列表里的顺序
+    public int[] albumsOf(int artistRef) {
+        RowGroups groups = library.getArtistGroups();
+        int n = groups.size(artistRef);
+        int[] refs = new int[n];
+        int count = 0;
+        boolean[] seen = new boolean[library.getAlbumCount()];
+        for (int k = 0; k < n; k++) {
+            int album = library.getAlbumRef(groups.row(artistRef, k));
+            if (!seen[album]) {
+                seen[album] = true;
+                refs[count++] = album;
+            }
+        }
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) keys[i] = ((long) albums.positionOf(refs[i]) << 32) | refs[i];
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) refs[i] = (int) keys[i];
+        return Arrays.copyOf(refs, count);
+    }
+
+    // 一组里的歌：专辑按音轨号，歌手按专辑顺序再按音轨号，文件夹按文件名；没有音轨号的排在后面
+    public int[] tracksOf(Kind kind, int ref) {
+        if (kind == Kind.FOLDER) {
+            int[] rows = library.getFolderGroups().rows(ref);
+            String[] names = new String[rows.length];
+            Integer[] order = new Integer[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                names[i] = library.getFileName(rows[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]));
+            int[] sorted = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) sorted[i] = rows[order[i]];
+            return sorted;
+        }
+        int[] rows = (kind == Kind.ARTIST ? library.getArtistGroups() : library.getAlbumGroups()).rows(ref);
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            int track = library.getTrackNumber(row);
+            long album = kind == Kind.ARTIST ? albums.positionOf(library.getAlbumRef(row)) : 0;
+            keys[i] = album << 44 | (long) (track <= 0 ? 0xFFF : Math.min(track, 0xFFE)) << 32 | row;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < rows.length; i++) rows[i] = (int) keys[i];
+        return rows;
+    }
+
+    // 一种分组排好序的列表。position 是列表里的位置，ref 是字典编号
+    public static final class Groups {
+        private final Kind kind;
+        private final MusicLibrary library;
+        private final int[] order;         // position -> ref
+        private final int[] positions;     // ref -> position
+        private final int[] sectionStarts; // 第 s 区是 [sectionStarts[s], sectionStarts[s + 1])
+        private final String[] keys;       // ref -> 排序键，增量更新时复用
+        private final CollationKey[] collationKeys;
+        private final byte[] sections;     // ref -> 区段
+
+        private Groups(Kind kind, MusicLibrary library, int[] order, String[] keys,
+                       CollationKey[] collationKeys, byte[] sections) {
+            this.kind = kind;
+            this.library = library;
+            this.order = order;
+            this.keys = keys;
+            this.collationKeys = collationKeys;
+            this.sections = sections;
+            positions = new int[keys.length];
+            sectionStarts = new int[SECTION_COUNT + 1];
+            for (int p = 0; p < order.length; p++) {
+                positions[order[p]] = p;
+                sectionStarts[sections[order[p]] + 1]++;
+            }
+            for (int s = 0; s < SECTION_COUNT; s++) sectionStarts[s + 1] += sectionStarts[s];
+        }
+
+        public int size() { return order.length; }
+        public int refAt(int position) { return order[position]; }
+        public int positionOf(int ref) { return positions[ref]; }
+        public String nameAt(int position) { return name(kind, library, order[position]); }
+        public int trackCountAt(int position) { return groups(kind, library).size(order[position]); }
+
+        // 某个字母的第一项；这个字母没有组时落在下一个有组的字母上
+        public int positionForSection(int section) {
+            return Math.min(sectionStarts[section], Math.max(0, order.length - 1));
+        }
+
+        public int sectionForPosition(int position) { return sections[order[position]]; }
+
+        // 区段里的组数；有组的区段从 positionForSection 开始连续排列
+        public int sectionSize(int section) {
+            return sectionStarts[section + 1] - sectionStarts[section];
+        }
+
+        public boolean isSectionEmpty(int section) { return sectionSize(section) == 0; }
+
+        static Groups build(Kind kind, MusicLibrary library, Groups previous) {
+            int count = groups(kind, library).groupCount();
+            Map<String, Integer> reuse = null;
+            if (previous != null) {
+                reuse = new HashMap<>(previous.keys.length * 2);
+                for (int ref = 0; ref < previous.keys.length; ref++) {
+                    reuse.put(name(kind, previous.library, ref), ref);
+                }
+            }
+            Collator collator = collator();
+            String[] keys = new String[count];
+            CollationKey[] collationKeys = new CollationKey[count];
+            byte[] sections = new byte[count];
+            Integer[] refs = new Integer[count];
+            for (int ref = 0; ref < count; ref++) {
+                Integer old = reuse == null ? null : reuse.get(name(kind, library, ref));
+                if (old != null) {
+                    keys[ref] = previous.keys[old];
+                    collationKeys[ref] = previous.collationKeys[old];
+                    sections[ref] = previous.sections[old];
+                } else {
+                    computeKey(kind, library, ref, collator, keys, collationKeys, sections);
+                }
+                refs[ref] = ref;
+            }
+            Arrays.sort(refs, (a, b) -> compare(a, b, collationKeys, sections));
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) order[i] = refs[i];
+            return new Groups(kind, library, order, keys, collationKeys, sections);
+        }
+
+        // 末尾追加的曲库：字典只会多出新编号，已有的组名字不变。新组单独排序后和原顺序归并
+        Groups extend(MusicLibrary updated) {
+            int oldCount = keys.length;
+            int count = groups(kind, updated).groupCount();
+            if (count == oldCount) return new Groups(kind, updated, order, keys, collationKeys, sections);
+            String[] newKeys = Arrays.copyOf(keys, count);
+            CollationKey[] newCollationKeys = Arrays.copyOf(collationKeys, count);
+            byte[] newSections = Arrays.copyOf(sections, count);
+            Collator collator = collator();
+            Integer[] added = new Integer[count - oldCount];
+            for (int ref = oldCount; ref < count; ref++) {
+                computeKey(kind, updated, ref, collator, newKeys, newCollationKeys, newSections);
+                added[ref - oldCount] = ref;
+            }
+            Arrays.sort(added, (a, b) -> compare(a, b, newCollationKeys, newSections));
+            int[] merged = new int[count];
+            int i = 0, j = 0, k = 0;
+            while (i < order.length && j < added.length) {
+                merged[k++] = compare(order[i], added[j], newCollationKeys, newSections) <= 0 ? order[i++] : added[j++];
+            }
+            while (i < order.length) merged[k++] = order[i++];
+            while (j < added.length) merged[k++] = added[j++];
+            return new Groups(kind, updated, merged, newKeys, newCollationKeys, newSections);
+        }
+
+        private static void computeKey(Kind kind, MusicLibrary library, int ref, Collator collator,
+                                       String[] keys, CollationKey[] collationKeys, byte[] sections) {
+            String key = sortKey(name(kind, library, ref));
+            keys[ref] = key;
+            collationKeys[ref] = collator.getCollationKey(key);
+            sections[ref] = (byte) sectionOf(key);
+        }
+
+        private static int compare(int a, int b, CollationKey[] collationKeys, byte[] sections) {
+            if (sections[a] != sections[b]) return sections[a] - sections[b];
+            int c = collationKeys[a].compareTo(collationKeys[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        }
+
+        private static RowGroups groups(Kind kind, MusicLibrary library) {
+            switch (kind) {
+                case ARTIST: return library.getArtistGroups();
+                case ALBUM: return library.getAlbumGroups();
+                default: return library.getFolderGroups();
+            }
+        }
+
+        // 文件夹显示最后一级目录名，排序也按它
+        private static String name(Kind kind, MusicLibrary library, int ref) {
+            switch (kind) {
+                case ARTIST: return library.getArtistByRef(ref);
+                case ALBUM: return library.getAlbumByRef(ref);
+                default:
+                    String folder = library.getFolderByRef(ref);
+                    return folder.substring(folder.lastIndexOf('/') + 1);
+            }
+        }
+    }
+
+    // Collator 不是线程安全的，每次构建单独取一个
+    private static Collator collator() {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    // 汉字转全拼（PinyinHelper），其余字母数字小写，标点和空白去掉
+    static String sortKey(String name) {
+        StringBuilder full = new StringBuilder(name.length() * 2);
+        PinyinHelper.appendPinyin(name, full, new StringBuilder());
+        return full.toString();
+    }
+
+    // 首字母去掉重音后是 a-z 的归到对应字母，其余（数字、假名等）归到 #
+    static int sectionOf(String key) {
+        if (key.isEmpty()) return OTHER_SECTION;
+        char c = Normalizer.normalize(key.substring(0, 1), Normalizer.Form.NFD).charAt(0);
+        return c >= 'a' && c <= 'z' ? c - 'a' : OTHER_SECTION;
+    }
+}
@@ -0,0 +1,502 @@
+package com.example.carmusic.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.tag.TagReader;
+import com.example.carmusic.tag.TrackTags;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+// 直接遍历文件夹找歌，不依赖 MediaStore：U 盘刚插上时 MediaStore 往往还没收录。
+// 第一次在 ForkJoin 池里并行遍历（子目录拆成子任务，空闲线程窃取），同时给每个目录挂 FileObserver。
+// 遍历只列文件、不读标签，扫描线程按路径顺序边遍历边追加（标题先用文件名），标签之后在后台按块补读；
+// 之后只重新扫描发生变化的目录，文件大小和修改时间没变的直接复用上次读到的标签
+public class FolderScanner {
+    private static final String PREFS = "folder_scanner";
+    private static final String KEY_ROOTS = "roots";
+    private static final long MIN_SIZE = 100 * 1024;   // 更小的多半是提示音
+    private static final long DEBOUNCE_MS = 1000;      // 拷贝文件时事件很密集，攒一秒再处理
+    private static final int TAG_CHUNK = 256;          // 补读标签时每块的文件数
+    private static final Set<String> EXTENSIONS = new HashSet<>(Arrays.asList(
+            "mp3", "flac", "m4a", "aac", "ogg", "opus", "wav"));
+    private static final int WATCH_MASK = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    // 目录有变化并已处理完、或者补读完标签时回调，在 FolderScanner 线程
+    public interface Listener {
+        void onFoldersChanged();
+    }
+
+    private static FolderScanner instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final Handler handler;
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // 按路径排序，追加进曲库时顺序稳定
+    private volatile ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final Map<String, DirObserver> observers = new ConcurrentHashMap<>();
+    private final Set<String> changedDirs = new HashSet<>(); // 只在 FolderScanner 线程访问
+    private final Runnable flushChanges = this::flushChanges;
+    private volatile List<File> roots;
+    private volatile boolean started = false;
+    private volatile Walk walk;               // 最近一次完整遍历，遍历进行中时扫描线程从这里按顺序取
+    private volatile boolean tagging = false; // 最近一次完整遍历的标签还没补读完
+    private volatile int version;             // 每通知一次加一
+
+    public static synchronized FolderScanner get(Context context) {
+        if (instance == null) instance = new FolderScanner(context.getApplicationContext());
+        return instance;
+    }
+
+    private FolderScanner(Context context) {
+        this.context = context;
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        HandlerThread thread = new HandlerThread("FolderScanner", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        roots = loadRoots();
+
+        // 没有手动设置过目录时跟随可移动存储：U 盘/SD 卡插拔后重新遍历
+        StorageManager storage = context.getSystemService(StorageManager.class);
+        if (storage != null) {
+            storage.registerStorageVolumeCallback(handler::post, new StorageManager.StorageVolumeCallback() {
+                @Override
+                public void onStateChanged(StorageVolume volume) {
+                    if (!prefs.contains(KEY_ROOTS) && volume.isRemovable()) reload();
+                }
+            });
+        }
+    }
+
+    public List<File> getRoots() { return roots; }
+
+    // 用户选择要扫描的目录；传 null 恢复默认（所有已挂载的可移动存储），传空集合关闭文件夹扫描
+    public void setRoots(Collection<String> paths) {
+        if (paths == null) {
+            prefs.edit().remove(KEY_ROOTS).apply();
+        } else {
+            prefs.edit().putStringSet(KEY_ROOTS, new HashSet<>(paths)).apply();
+        }
+        roots = loadRoots();
+        handler.post(this::rewalk);
+    }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+    public void removeListener(Listener listener) { listeners.remove(listener); }
+
+    public int getVersion() { return version; }
+
+    // 注册监听；getVersion() 返回 version 之后如果已经通知过（比如扫描期间补读完了标签），在 FolderScanner 线程补一次回调
+    public void addListener(Listener listener, int version) {
+        listeners.add(listener);
+        handler.post(() -> {
+            if (this.version != version && listeners.contains(listener)) listener.onFoldersChanged();
+        });
+    }
+
+    boolean isTagging() { return tagging; }
+
+    private List<File> loadRoots() {
+        List<File> result = new ArrayList<>();
+        Set<String> saved = prefs.getStringSet(KEY_ROOTS, null);
+        if (saved != null) {
+            for (String path : saved) result.add(new File(path));
+            return result;
+        }
+        StorageManager storage = context.getSystemService(StorageManager.class);
+        if (storage == null) return result;
+        for (StorageVolume volume : storage.getStorageVolumes()) {
+            File dir = volume.getDirectory();
+            if (volume.isRemovable() && Environment.MEDIA_MOUNTED.equals(volume.getState()) && dir != null) {
+                result.add(dir);
+            }
+        }
+        return result;
+    }
+
+    // 第一次调用时开始遍历，之后由 FileObserver 和存储挂载事件维持最新
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        handler.post(this::walkAll);
+    }
+
+    // 扫描线程调用：把 builder 里还没有的文件（MediaStore 已收录的按路径跳过）按路径顺序追加。
+    // 遍历还在进行时边等边追加，不必等整个遍历结束。返回 false 表示被取消
+    public boolean appendTo(MusicLibrary.Builder builder, int batchSize, MusicUtils.BatchCallback callback) {
+        List<File> currentRoots = roots;
+        if (currentRoots.isEmpty()) return true;
+        start();
+        if (!awaitQueued()) return false;
+
+        Set<String> known = knownPaths(builder.snapshot(), currentRoots);
+        int[] added = {0};
+        Predicate<Entry> append = entry -> {
+            if (known.contains(entry.path) || !entry.addTo(builder)) return true;
+            return ++added[0] % batchSize != 0 || callback.onBatch(builder.snapshot());
+        };
+        Walk current = walk;
+        if (current != null && !current.done) return current.forEach(append);
+        for (Entry entry : entries.values()) {
+            if (!append.test(entry)) return false;
+        }
+        return true;
+    }
+
+    // 文件夹扫描的行只有新增时，把新文件追加到 builder（它当前的快照是 base）上，新快照是 base 的延伸，返回 true；
+    // base 里有文件已被删除、或者内容变了（比如补读完标签），返回 false，由调用方重建
+    public boolean appendAdded(MusicLibrary.Builder builder, MusicLibrary base) {
+        if (!awaitQueued()) return false;
+        Walk current = walk;
+        if (current != null) current.forEach(entry -> true); // 等遍历完整结束，下面才能判断删除
+        for (int i = 0; i < base.size(); i++) {
+            if (base.getId(i) != 0) continue;
+            Entry entry = entries.get(base.getPath(i));
+            if (entry == null || !entry.matches(base, i)) return false;
+        }
+        return appendTo(builder, Integer.MAX_VALUE, snapshot -> true);
+    }
+
+    // 在 FolderScanner 线程排一个标记，执行到它时前面排队的工作都已开始或完成
+    private boolean awaitQueued() {
+        if (Looper.myLooper() == handler.getLooper()) return true;
+        CountDownLatch done = new CountDownLatch(1);
+        handler.post(done::countDown);
+        try {
+            done.await();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // 只对根目录下的行拼完整路径，其它行不分配
+    private static Set<String> knownPaths(MusicLibrary library, List<File> roots) {
+        Set<String> paths = new HashSet<>();
+        for (int i = 0; i < library.size(); i++) {
+            String folder = library.getFolder(i);
+            if (folder == null) continue;
+            for (File root : roots) {
+                if (folder.startsWith(root.getPath())) {
+                    paths.add(library.getPath(i));
+                    break;
+                }
+            }
+        }
+        return paths;
+    }
+
+    // ===== 遍历（FolderScanner 线程） =====
+
+    private void reload() {
+        roots = loadRoots();
+        rewalk();
+    }
+
+    private void rewalk() {
+        if (!started) return;
+        walkAll();
+    }
+
+    // 提交遍历后立即返回，等待和收尾单独排一条消息：这中间扫描线程的 appendTo 已经能拿到这次遍历
+    private void walkAll() {
+        ConcurrentSkipListMap<String, Entry> previous = entries;
+        ConcurrentSkipListMap<String, Entry> next = new ConcurrentSkipListMap<>();
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        List<WalkTask> tasks = new ArrayList<>();
+        for (File root : roots) {
+            WalkTask task = new WalkTask(root, previous, next, visited, false);
+            pool.execute(task);
+            tasks.add(task);
+        }
+        Walk current = new Walk(tasks);
+        tagging = true;
+        entries = next;
+        walk = current;
+        handler.post(() -> finishWalk(current, next, visited));
+    }
+
+    private void finishWalk(Walk current, ConcurrentSkipListMap<String, Entry> next, Set<String> visited) {
+        current.forEach(entry -> true);
+        current.done = true;
+        if (walk != current) return; // 已经开始了新的遍历，由它收尾
+        // 已经不在任何根目录下的目录不再监听
+        for (String dir : new ArrayList<>(observers.keySet())) {
+            if (!visited.contains(dir)) stopWatching(dir);
+        }
+        notifyListeners();
+        readTags(next, null);
+    }
+
+    // 遍历只列文件，标签在这里按块补读。每块之后让出 FolderScanner 线程，增量刷新和扫描线程的等待不会排在整个补读后面；
+    // 全部读完后通知一次，由监听方用真正的标题、时长重建文件夹扫描的行
+    private void readTags(ConcurrentSkipListMap<String, Entry> map, String after) {
+        if (map != entries) return; // 已经开始了新的遍历，由它补读
+        List<Entry> chunk = new ArrayList<>(TAG_CHUNK);
+        ConcurrentNavigableMap<String, Entry> rest = after == null ? map : map.tailMap(after, false);
+        for (Entry entry : rest.values()) {
+            if (entry.tagged) continue;
+            chunk.add(entry);
+            if (chunk.size() == TAG_CHUNK) break;
+        }
+        if (chunk.isEmpty()) {
+            tagging = false;
+            notifyListeners();
+            return;
+        }
+        readTags(chunk);
+        String last = chunk.get(chunk.size() - 1).path;
+        handler.post(() -> readTags(map, last));
+    }
+
+    private static void readTags(List<Entry> chunk) {
+        String[] paths = new String[chunk.size()];
+        for (int i = 0; i < paths.length; i++) paths[i] = chunk.get(i).path;
+        TrackTags[] tags = TagReader.readAll(paths, paths.length);
+        for (int i = 0; i < paths.length; i++) chunk.get(i).setTags(tags[i]);
+    }
+
+    // FileObserver 线程 -> FolderScanner 线程
+    private void onDirEvent(String dir) {
+        handler.post(() -> {
+            changedDirs.add(dir);
+            handler.removeCallbacks(flushChanges);
+            handler.postDelayed(flushChanges, DEBOUNCE_MS);
+        });
+    }
+
+    private void flushChanges() {
+        if (changedDirs.isEmpty()) return;
+        ConcurrentSkipListMap<String, Entry> current = entries;
+        List<Entry> fresh = new ArrayList<>();
+        for (String dir : changedDirs) {
+            String prefix = dir + '/';
+            // 被删除或移走的目录（包括下面所有子目录）
+            for (String watched : new ArrayList<>(observers.keySet())) {
+                if ((watched.equals(dir) || watched.startsWith(prefix)) && !new File(watched).isDirectory()) {
+                    stopWatching(watched);
+                    current.subMap(watched + '/', watched + '/' + Character.MAX_VALUE).clear();
+                }
+            }
+            if (!new File(dir).isDirectory()) continue;
+            // 这一层里已经不存在的文件
+            for (String path : current.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+                if (path.indexOf('/', prefix.length()) < 0 && !new File(path).isFile()) current.remove(path);
+            }
+            // 这一层的新文件和变化的文件；已在监听的子目录不再深入，新出现的子目录整个遍历
+            WalkTask task = new WalkTask(new File(dir), current, current, ConcurrentHashMap.newKeySet(), true);
+            pool.execute(task);
+            Walk.visit(task, entry -> entry.tagged || fresh.add(entry));
+        }
+        changedDirs.clear();
+        // 增量变化的文件不多，通知前就读好标签，新增的行直接带着真正的标题追加，不用之后再重建
+        for (int start = 0; start < fresh.size(); start += TAG_CHUNK) {
+            readTags(fresh.subList(start, Math.min(start + TAG_CHUNK, fresh.size())));
+        }
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        version++;
+        for (Listener listener : listeners) listener.onFoldersChanged();
+    }
+
+    private void watch(File dir) {
+        String path = dir.getPath();
+        if (observers.containsKey(path)) return;
+        DirObserver observer = new DirObserver(dir);
+        if (observers.putIfAbsent(path, observer) == null) observer.startWatching();
+    }
+
+    private void stopWatching(String dir) {
+        DirObserver observer = observers.remove(dir);
+        if (observer != null) observer.stopWatching();
+    }
+
+    static boolean isAudio(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // 一次完整遍历。开始时就发布出去，扫描线程按路径顺序逐个目录等它完成，不必等整个遍历结束
+    private static class Walk {
+        final List<WalkTask> roots;
+        volatile boolean done;
+
+        Walk(List<WalkTask> roots) {
+            this.roots = roots;
+        }
+
+        // 按路径顺序把文件交给 visitor，返回 false 时停止
+        boolean forEach(Predicate<Entry> visitor) {
+            for (WalkTask root : roots) {
+                if (!visit(root, visitor)) return false;
+            }
+            return true;
+        }
+
+        static boolean visit(WalkTask task, Predicate<Entry> visitor) {
+            task.join();
+            for (Object item : task.items) {
+                boolean more = item instanceof WalkTask ? visit((WalkTask) item, visitor) : visitor.test((Entry) item);
+                if (!more) return false;
+            }
+            return true;
+        }
+    }
+
+    // 排序用：文件按路径，子目录按 "路径/"，和 entries 里按完整路径排的顺序一致
+    private static final Comparator<Object> ITEM_ORDER = Comparator.comparing(
+            item -> item instanceof Entry ? ((Entry) item).path : ((WalkTask) item).prefix);
+
+    // 一个目录一个任务：只列文件不读标签，子目录拆成子任务 fork 出去并行，不在这里等它们
+    private class WalkTask extends RecursiveAction {
+        private final File dir;
+        private final String prefix;
+        private final Map<String, Entry> previous;
+        private final Map<String, Entry> target;
+        private final Set<String> visited;
+        private final boolean skipWatched; // 增量刷新时，已在监听的子目录说明之前遍历过
+        List<Object> items = Collections.emptyList(); // 这一层的文件和子目录任务，按路径排序；join 之后读
+
+        WalkTask(File dir, Map<String, Entry> previous, Map<String, Entry> target, Set<String> visited,
+                 boolean skipWatched) {
+            this.dir = dir;
+            this.prefix = dir.getPath() + '/';
+            this.previous = previous;
+            this.target = target;
+            this.visited = visited;
+            this.skipWatched = skipWatched;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = dir.listFiles();
+            if (children == null) return;
+            visited.add(dir.getPath());
+            watch(dir);
+
+            List<Object> found = new ArrayList<>(children.length);
+            for (File child : children) {
+                String name = child.getName();
+                if (name.startsWith(".")) continue; // .Trashes、.thumbnails 之类
+                if (child.isDirectory()) {
+                    if (skipWatched && observers.containsKey(child.getPath())) continue;
+                    WalkTask subtask = new WalkTask(child, previous, target, visited, false);
+                    subtask.fork();
+                    found.add(subtask);
+                } else if (isAudio(name)) {
+                    long size = child.length();
+                    if (size >= MIN_SIZE) found.add(addFile(child.getPath(), size, child.lastModified()));
+                }
+            }
+            found.sort(ITEM_ORDER);
+            items = found;
+        }
+
+        private Entry addFile(String path, long size, long modified) {
+            Entry old = previous.get(path);
+            Entry entry = old != null && old.size == size && old.modified == modified
+                    ? old : new Entry(path, size, modified);
+            target.put(path, entry);
+            return entry;
+        }
+    }
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long modified;
+        private volatile TrackTags tags; // 还没读或读不出标签时为 null
+        volatile boolean tagged;         // 标签读过了，不管读没读出来
+
+        Entry(String path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        void setTags(TrackTags tags) {
+            this.tags = tags;
+            tagged = true;
+        }
+
+        // 没有标签时标题用文件名、专辑用文件夹名，和 MediaStore 的做法一致
+        boolean addTo(MusicLibrary.Builder builder) {
+            TrackTags t = tags;
+            long duration = t != null ? t.getDurationMs() : 0;
+            if (duration > 0 && duration <= 10000) return false;
+            int slash = path.lastIndexOf('/');
+            String folder = path.substring(0, slash);
+            String fileName = path.substring(slash + 1);
+            String album = t != null && t.getAlbum() != null
+                    ? t.getAlbum() : folder.substring(folder.lastIndexOf('/') + 1);
+            // 没有 MediaStore ID，曲库按路径生成稳定 ID；也没有系统专辑封面，只能用内嵌封面
+            builder.add(0, title(t), artist(t), album, folder, fileName, duration, -1,
+                    t != null ? t.getTrackNumber() : 0,
+                    t != null ? t.getArtOffset() : -1,
+                    t != null ? t.getArtLength() : 0);
+            return true;
+        }
+
+        // library 的第 i 行是不是按这个文件现在的样子加进去的
+        boolean matches(MusicLibrary library, int i) {
+            TrackTags t = tags;
+            long duration = t != null ? t.getDurationMs() : 0;
+            return !(duration > 0 && duration <= 10000) && duration == library.getDuration(i)
+                    && title(t).equals(library.getTitle(i)) && artist(t).equals(library.getArtist(i));
+        }
+
+        private String title(TrackTags t) {
+            if (t != null && t.getTitle() != null) return t.getTitle();
+            return path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
+        }
+
+        private static String artist(TrackTags t) {
+            return t != null && t.getArtist() != null ? t.getArtist() : "未知歌手";
+        }
+    }
+
+    private class DirObserver extends FileObserver {
+        private final String dir;
+
+        DirObserver(File dir) {
+            super(dir, WATCH_MASK);
+            this.dir = dir.getPath();
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            if ((event & ALL_EVENTS) != 0) onDirEvent(dir);
+        }
+    }
+}
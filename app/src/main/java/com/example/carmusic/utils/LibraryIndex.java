@@ -0,0 +1,166 @@
+package com.example.carmusic.utils;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import com.example.carmusic.bean.MusicLibrary;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// 本地音乐库索引：把上次扫描结果存成紧凑的二进制文件，启动时直接读取，
+// 之后只向 MediaStore 查询增量（各个卷的 generation 变化 + 被删除的 ID）
+public class LibraryIndex {
+    private static final String FILE_NAME = "library.idx";
+    private static final int MAGIC = 0x434D4C49; // "CMLI"
+    private static final int VERSION = 4; // 2: 列式存储，歌手/专辑/文件夹按字典写入；3: 增加音轨号和内嵌封面位置；4: generation 按卷记录
+
+    private final String mediaStoreVersion; // MediaStore 数据库版本变化后 generation 不再可比
+    private final Map<String, Long> generations; // 建立索引时每个外部卷的 generation，各卷独立计数，互相不可比
+    private final MusicLibrary library;
+    private final int firstRow; // 从这一行开始写入，前面的内置音乐不进索引
+
+    public LibraryIndex(String mediaStoreVersion, Map<String, Long> generations, MusicLibrary library) {
+        this(mediaStoreVersion, generations, library, 0);
+    }
+
+    public LibraryIndex(String mediaStoreVersion, Map<String, Long> generations, MusicLibrary library, int firstRow) {
+        this.mediaStoreVersion = mediaStoreVersion;
+        this.generations = Collections.unmodifiableMap(new HashMap<>(generations));
+        this.library = library;
+        this.firstRow = firstRow;
+    }
+
+    public String getMediaStoreVersion() { return mediaStoreVersion; }
+    public Map<String, Long> getGenerations() { return generations; }
+    public MusicLibrary getLibrary() { return library; }
+
+    private static AtomicFile file(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    // 读取索引；文件不存在或已损坏时返回 null，由调用方做一次全量扫描
+    public static LibraryIndex load(Context context) {
+        AtomicFile atomicFile = file(context);
+        if (!atomicFile.getBaseFile().exists()) return null;
+
+        try (FileInputStream fis = atomicFile.openRead()) {
+            CRC32 crc = new CRC32();
+            BufferedInputStream buffered = new BufferedInputStream(fis, 64 * 1024);
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+            String version = in.readUTF();
+            int volumes = in.readInt();
+            if (volumes < 0) return null;
+            Map<String, Long> generations = new HashMap<>();
+            for (int i = 0; i < volumes; i++) generations.put(in.readUTF(), in.readLong());
+            String[] artists = readDict(in);
+            String[] albums = readDict(in);
+            String[] folders = readDict(in);
+            int count = in.readInt();
+            if (count < 0) return null;
+
+            MusicLibrary.Builder builder = new MusicLibrary.Builder(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long duration = in.readLong();
+                long albumResId = in.readLong();
+                int trackNumber = in.readInt();
+                long artOffset = in.readLong();
+                int artLength = in.readInt();
+                String title = in.readUTF();
+                String fileName = in.readUTF();
+                String artist = artists[in.readInt()];
+                String album = albums[in.readInt()];
+                int folderRef = in.readInt();
+                String folder = folderRef < 0 ? null : folders[folderRef];
+                builder.add(id, title, artist, album, folder, fileName, duration, albumResId,
+                        trackNumber, artOffset, artLength);
+            }
+
+            // 校验和放在末尾，读之前先取出已计算的值
+            long expected = crc.getValue();
+            long actual = new DataInputStream(buffered).readLong();
+            if (expected != actual) return null;
+
+            return new LibraryIndex(version, generations, builder.snapshot());
+        } catch (Exception e) {
+            // 截断、格式错误等一律视为损坏
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void save(Context context) {
+        AtomicFile atomicFile = file(context);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            CRC32 crc = new CRC32();
+            BufferedOutputStream buffered = new BufferedOutputStream(fos, 64 * 1024);
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mediaStoreVersion);
+            out.writeInt(generations.size());
+            for (Map.Entry<String, Long> e : generations.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+            MusicLibrary lib = library;
+            out.writeInt(lib.getArtistCount());
+            for (int i = 0; i < lib.getArtistCount(); i++) out.writeUTF(lib.getArtistByRef(i));
+            out.writeInt(lib.getAlbumCount());
+            for (int i = 0; i < lib.getAlbumCount(); i++) out.writeUTF(lib.getAlbumByRef(i));
+            out.writeInt(lib.getFolderCount());
+            for (int i = 0; i < lib.getFolderCount(); i++) out.writeUTF(lib.getFolderByRef(i));
+            out.writeInt(lib.size() - firstRow);
+            for (int i = firstRow; i < lib.size(); i++) {
+                out.writeLong(lib.getId(i));
+                out.writeLong(lib.getDuration(i));
+                out.writeLong(lib.getAlbumResId(i));
+                out.writeInt(lib.getTrackNumber(i));
+                out.writeLong(lib.getArtOffset(i));
+                out.writeInt(lib.getArtLength(i));
+                out.writeUTF(nonNull(lib.getTitle(i)));
+                out.writeUTF(nonNull(lib.getFileName(i)));
+                out.writeInt(lib.getArtistRef(i));
+                out.writeInt(lib.getAlbumRef(i));
+                out.writeInt(lib.getFolderRef(i));
+            }
+            out.flush();
+            // 校验和本身不参与计算，直接写到底层流
+            new DataOutputStream(buffered).writeLong(crc.getValue());
+            buffered.flush();
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (fos != null) atomicFile.failWrite(fos);
+        }
+    }
+
+    public static void delete(Context context) {
+        file(context).delete();
+    }
+
+    private static String[] readDict(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) throw new IOException("bad dictionary size " + count);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) values[i] = in.readUTF();
+        return values;
+    }
+
+    private static String nonNull(String s) { return s == null ? "" : s; }
+}
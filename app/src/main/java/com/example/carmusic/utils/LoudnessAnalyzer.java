@@ -0,0 +1,310 @@
+package com.example.carmusic.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+import androidx.core.content.ContextCompat;
+import com.example.carmusic.audio.LoudnessMeter;
+import com.example.carmusic.audio.PeakWaveform;
+import com.example.carmusic.bean.MusicLibrary;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 后台响度和波形分析：把最新的音乐库交给它，在外接供电（车机没有电池也算）且不在省电模式时，
+// 用一个最低优先级的线程逐首解码还没分析过的歌，结果写进 AnalysisCache。
+// 播放器准备/切歌期间整体暂停，播放中每解码一块就休息同样长的时间，不和播放抢 CPU；
+// 正在播放 U 盘/SD 卡上的歌时跳过同一个卷上的歌，不和播放抢这个卷的读带宽，停下来后再回头补。
+// 结果按路径 + 修改时间逐首持久化，进程重启后自然从还没分析的歌继续
+public class LoudnessAnalyzer {
+    private static final int WAVEFORM_BUCKETS = 256;
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+
+    private final Context context;
+    private final AnalysisCache cache;
+    private final StorageManager storage;
+    private final Thread worker;
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // 以下字段受 lock 保护
+    private final Object lock = new Object();
+    private MusicLibrary library;
+    private int cursor;         // 下一个要检查的行
+    private boolean preparing;  // 播放器正在准备，暂停分析
+    private boolean playing;    // 播放中，限速
+    private String playingPath; // 正在播放的歌
+    private int deferred = -1;  // 因为和播放同卷被跳过的第一行，-1 表示没有
+    private boolean powered = true;
+    private boolean released;
+
+    // 只在分析线程访问：playingPath 所在的可移动卷的根目录（带结尾的 /），不在可移动卷上时为 null
+    private String checkedPath;
+    private String busyVolume;
+
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context c, Intent intent) {
+            updatePower();
+        }
+    };
+
+    public LoudnessAnalyzer(Context context, AnalysisCache cache) {
+        this.context = context.getApplicationContext();
+        this.cache = cache;
+        storage = this.context.getSystemService(StorageManager.class);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        ContextCompat.registerReceiver(this.context, powerReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        updatePower();
+
+        worker = new Thread(this::work, "LoudnessAnalyzer");
+        worker.start();
+    }
+
+    // 扫描是分批追加的，新快照是旧快照的延伸时接着往下检查，否则从头检查一遍（已分析的只做一次 stat）
+    public void submit(MusicLibrary library) {
+        synchronized (lock) {
+            if (library == this.library) return;
+            if (this.library == null || !library.isExtensionOf(this.library)) {
+                cursor = 0;
+                deferred = -1;
+            }
+            this.library = library;
+            lock.notifyAll();
+        }
+    }
+
+    // 在播放线程调用，只记下状态；path 在哪个卷上由分析线程自己去查
+    public void setPlaybackState(boolean preparing, boolean playing, String path) {
+        synchronized (lock) {
+            this.preparing = preparing;
+            this.playing = playing;
+            this.playingPath = playing || preparing ? path : null;
+            // 停下来了，回头补之前跳过的歌
+            if (playingPath == null && deferred >= 0) {
+                cursor = Math.min(cursor, deferred);
+                deferred = -1;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public void release() {
+        synchronized (lock) {
+            released = true;
+            lock.notifyAll();
+        }
+        context.unregisterReceiver(powerReceiver);
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (lock) {
+            pw.println("LoudnessAnalyzer: cached=" + cache.size() + " analyzed=" + analyzed.get() + " failed=" + failed.get()
+                    + " cursor=" + cursor + "/" + (library == null ? 0 : library.size()) + " deferred=" + deferred
+                    + " powered=" + powered + " preparing=" + preparing + " playing=" + playing);
+        }
+    }
+
+    private void updatePower() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean plugged = battery == null
+                || !battery.getBooleanExtra(BatteryManager.EXTRA_PRESENT, true)
+                || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        PowerManager pm = context.getSystemService(PowerManager.class);
+        boolean powerSave = pm != null && pm.isPowerSaveMode();
+        synchronized (lock) {
+            powered = plugged && !powerSave;
+            lock.notifyAll();
+        }
+    }
+
+    private void work() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+        cache.load();
+        try {
+            while (true) {
+                String path;
+                String playing;
+                int row;
+                synchronized (lock) {
+                    while (!released && (!runnableLocked() || library == null || cursor >= library.size())) lock.wait();
+                    if (released) return;
+                    row = cursor++;
+                    path = library.getPath(row);
+                    playing = playingPath;
+                }
+                if (onBusyVolume(path, playing)) {
+                    defer(row);
+                    continue;
+                }
+                long modified = cache.modified(path);
+                if (modified == 0 || cache.validate(path, modified)) continue;
+                analyze(path, modified, row);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    // path 和正在播放的歌在同一个可移动卷上。卷只在播放的歌变了时查一次
+    private boolean onBusyVolume(String path, String playing) {
+        if (playing == null) return false;
+        if (!playing.equals(checkedPath)) {
+            checkedPath = playing;
+            busyVolume = null;
+            StorageVolume volume = storage == null || !playing.startsWith("/")
+                    ? null : storage.getStorageVolume(new File(playing));
+            File dir = volume != null && volume.isRemovable() ? volume.getDirectory() : null;
+            if (dir != null) busyVolume = dir.getPath() + '/';
+        }
+        return busyVolume != null && path.startsWith(busyVolume);
+    }
+
+    private void defer(int row) {
+        synchronized (lock) {
+            if (deferred < 0 || row < deferred) deferred = row;
+            if (playingPath == null) { // 已经停了，不用等
+                cursor = Math.min(cursor, deferred);
+                deferred = -1;
+            }
+        }
+    }
+
+    private boolean runnableLocked() {
+        return powered && !preparing;
+    }
+
+    // 每解码一块检查一次：不满足条件时在这里等；播放中按用掉的时间休息同样长。
+    // 释放了、或者开始播放同一个卷上的歌时返回 false，这首放弃，后者记下来停止播放后再分析
+    private boolean pace(long workNanos, String path, int row) throws InterruptedException {
+        boolean throttle;
+        String playingNow;
+        synchronized (lock) {
+            while (!released && !runnableLocked()) lock.wait();
+            if (released) return false;
+            throttle = playing;
+            playingNow = playingPath;
+        }
+        if (onBusyVolume(path, playingNow)) {
+            defer(row);
+            return false;
+        }
+        if (throttle) Thread.sleep(Math.max(1, workNanos / 1_000_000));
+        return true;
+    }
+
+    private void analyze(String path, long modified, int row) throws InterruptedException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            if (path.startsWith("android.resource://")) {
+                extractor.setDataSource(context, Uri.parse(path), null);
+            } else {
+                extractor.setDataSource(path);
+            }
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat f = extractor.getTrackFormat(i);
+                String mime = f.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = f;
+                    break;
+                }
+            }
+            if (format == null) throw new IOException("no audio track: " + path);
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            LoudnessMeter meter = new LoudnessMeter(sampleRate);
+            PeakWaveform waveform = new PeakWaveform(WAVEFORM_BUCKETS, durationUs * sampleRate / 1_000_000);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            long sliceStart = SystemClock.elapsedRealtimeNanos();
+            while (true) {
+                if (!inputDone) {
+                    int in = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (in >= 0) {
+                        int size = extractor.readSampleData(codec.getInputBuffer(in), 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(in, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int out = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat f = codec.getOutputFormat();
+                    if (f.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                            && f.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT) {
+                        throw new IOException("unsupported pcm encoding");
+                    }
+                    channels = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    if (f.getInteger(MediaFormat.KEY_SAMPLE_RATE) != sampleRate) {
+                        sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                        meter = new LoudnessMeter(sampleRate); // 还没有输出过数据，直接换
+                        waveform = new PeakWaveform(WAVEFORM_BUCKETS, durationUs * sampleRate / 1_000_000);
+                    }
+                    continue;
+                }
+                if (out < 0) continue;
+                if (info.size > 0) {
+                    ByteBuffer buffer = codec.getOutputBuffer(out);
+                    buffer.order(ByteOrder.nativeOrder());
+                    meter.process(buffer, info.offset, info.size, channels);
+                    waveform.process(buffer, info.offset, info.size, channels);
+                }
+                codec.releaseOutputBuffer(out, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+
+                long now = SystemClock.elapsedRealtimeNanos();
+                if (!pace(now - sliceStart, path, row)) return; // 这首下次再分析
+                sliceStart = SystemClock.elapsedRealtimeNanos();
+            }
+            double loudness = meter.integratedLoudness();
+            cache.put(path, modified, Double.isInfinite(loudness) ? Float.NaN : (float) loudness,
+                    meter.samplePeak(), waveform.toBytes());
+            analyzed.incrementAndGet();
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // 坏文件也记一条，不然每次启动都重试
+            e.printStackTrace();
+            failed.incrementAndGet();
+            cache.put(path, modified, Float.NaN, 0f, new byte[0]);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (Exception ignored) {
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
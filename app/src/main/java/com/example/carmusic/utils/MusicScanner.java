@@ -0,0 +1,97 @@
+package com.example.carmusic.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.example.carmusic.bean.MusicLibrary;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 后台扫描线程 -> 主线程的批量管道
+// 每批都是到目前为止的完整快照，主线程还没处理上一批时新快照直接替换它，
+// 主线程消息队列里同一时刻最多只有一条扫描消息
+public class MusicScanner {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public interface Listener {
+        void onBatch(MusicLibrary snapshot);  // 主线程回调
+        void onFinish(MusicLibrary library);  // 主线程回调，取消后不会回调
+        void onChanged(MusicLibrary library); // 主线程回调，扫描完成后 U 盘/SD 卡上的文件有增删
+    }
+
+    private final Context context;
+    private final int batchSize;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<MusicLibrary> pending = new AtomicReference<>();
+    private final Runnable deliverRunnable = this::deliverPending;
+    private volatile boolean cancelled = false;
+    private volatile MusicLibrary finished;
+    private MusicLibrary.Builder builder; // 产生 finished 的构建器，扫描完成后只在 FolderScanner 线程使用
+    private Thread thread;
+    private final FolderScanner.Listener foldersListener = this::onFoldersChanged;
+
+    public MusicScanner(Context context, int batchSize, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.batchSize = batchSize;
+        this.listener = listener;
+    }
+
+    public void start() {
+        thread = new Thread(() -> {
+            long start = PerfMetrics.begin(PerfMetrics.Metric.SCAN);
+            FolderScanner folders = FolderScanner.get(context);
+            int foldersVersion = folders.getVersion();
+            MusicLibrary.Builder scanBuilder = new MusicLibrary.Builder(256);
+            MusicLibrary library = MusicUtils.scanMusicData(context, scanBuilder, batchSize, this::offer);
+            if (library == null || cancelled) {
+                PerfMetrics.abandon(); // 取消的扫描不计入统计
+                return;
+            }
+            PerfMetrics.end(PerfMetrics.Metric.SCAN, start);
+            PerfMetrics.recordScan(start, library.size());
+            builder = scanBuilder;
+            finished = library;
+            // 扫描期间文件夹可能已经变过（比如标签补读完了），注册时补一次
+            folders.addListener(foldersListener, foldersVersion);
+            mainHandler.post(() -> {
+                if (!cancelled) listener.onFinish(library);
+            });
+        }, "MusicScanner");
+        thread.start();
+    }
+
+    // 扫描线程调用，不会阻塞：上一批还没送达时只替换内容，不再投递新消息
+    private boolean offer(MusicLibrary snapshot) {
+        if (cancelled) return false;
+        if (pending.getAndSet(snapshot) == null) mainHandler.post(deliverRunnable);
+        return true;
+    }
+
+    // FolderScanner 线程：目录增量更新后，新增的文件追加在完整结果后面，有删除或标签变化时替换文件夹扫描的部分
+    private void onFoldersChanged() {
+        MusicLibrary base = finished;
+        if (base == null || cancelled) return;
+        builder = MusicUtils.withFolders(context, builder, base);
+        MusicLibrary updated = builder.snapshot();
+        if (updated.isExtensionOf(base) && updated.size() == base.size()) return; // 没有变化
+        finished = updated;
+        mainHandler.post(() -> {
+            if (!cancelled) listener.onChanged(updated);
+        });
+    }
+
+    private void deliverPending() {
+        MusicLibrary snapshot = pending.getAndSet(null);
+        if (snapshot != null && !cancelled) listener.onBatch(snapshot);
+    }
+
+    // 在主线程调用（如 onDestroy），之后不会再有任何回调
+    public void cancel() {
+        cancelled = true;
+        FolderScanner.get(context).removeListener(foldersListener);
+        mainHandler.removeCallbacksAndMessages(null);
+        if (thread != null) thread.interrupt();
+    }
+
+    public boolean isCancelled() { return cancelled; }
+}
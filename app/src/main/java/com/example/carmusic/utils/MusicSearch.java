@@ -0,0 +1,101 @@
+package com.example.carmusic.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.example.carmusic.bean.MusicLibrary;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 边打字边搜索：查询在单独线程执行，打字比查询快时只处理最新的输入；
+// 新输入以上一次的输入开头时，在上一次结果里继续过滤
+public class MusicSearch {
+
+    public interface Callback {
+        // 主线程回调；rows 为 null 表示没有过滤，显示全部
+        void onResult(MusicLibrary library, int[] rows);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Callback callback;
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+
+    // 以下字段只在搜索线程访问
+    private SearchIndex index;
+    private String lastQuery;
+    private int[] lastResult;
+    private volatile long indexBytes; // 资源统计用，任意线程读
+
+    private static class Request {
+        final MusicLibrary library;
+        final String query;
+
+        Request(MusicLibrary library, String query) {
+            this.library = library;
+            this.query = query;
+        }
+    }
+
+    public MusicSearch(Callback callback) {
+        this.callback = callback;
+    }
+
+    public void query(MusicLibrary library, String text) {
+        if (pending.getAndSet(new Request(library, SearchIndex.normalize(text))) == null) {
+            executor.execute(this::runLatest);
+        }
+    }
+
+    public long indexBytes() { return indexBytes; }
+
+    // 界面退到后台时丢掉索引，回来后下一次查询时重建
+    public void trim() {
+        executor.execute(() -> {
+            index = null;
+            lastQuery = null;
+            lastResult = null;
+            indexBytes = 0;
+        });
+    }
+
+    public void release() {
+        pending.set(null);
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void runLatest() {
+        Request request = pending.getAndSet(null);
+        if (request == null) return;
+
+        if (request.query.isEmpty()) {
+            lastQuery = null;
+            lastResult = null;
+            deliver(request.library, null);
+            return;
+        }
+
+        // 曲库换了（扫描完成、重新扫描），索引重建，之前的结果不能再用
+        if (index == null || index.getLibrary() != request.library) {
+            index = SearchIndex.build(request.library);
+            indexBytes = index.estimatedBytes();
+            lastQuery = null;
+            lastResult = null;
+        }
+
+        int[] result;
+        if (lastQuery != null && request.query.startsWith(lastQuery)) {
+            result = index.refine(lastResult, request.query);
+        } else {
+            result = index.search(request.query);
+        }
+        lastQuery = request.query;
+        lastResult = result;
+        deliver(request.library, result);
+    }
+
+    private void deliver(MusicLibrary library, int[] rows) {
+        mainHandler.post(() -> callback.onResult(library, rows));
+    }
+}
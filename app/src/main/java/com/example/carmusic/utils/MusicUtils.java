@@ -1,74 +1,345 @@
 package com.example.carmusic.utils;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.net.Uri;
 import android.provider.MediaStore;
 import com.example.carmusic.R;
-import com.example.carmusic.bean.MusicBean;
-import java.util.ArrayList;
-import java.util.List;
+import com.example.carmusic.bean.MusicLibrary;
+import com.example.carmusic.tag.TagReader;
+import com.example.carmusic.tag.TrackTags;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class MusicUtils {
 
-    public static List<MusicBean> getMusicData(Context context) {
-        List<MusicBean> list = new ArrayList<>();
+    private static final int TAG_CHUNK = 256; // 每次并行读标签的行数
+    private static final String UNKNOWN = MediaStore.UNKNOWN_STRING; // MediaStore 的占位值 "<unknown>"
 
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.ALBUM_ID, // 必须查这一列
+            MediaStore.Audio.Media.TRACK
+    };
+
+    // 分批回调，每次拿到的是到目前为止的完整快照；返回 false 表示调用方已取消，扫描应尽快停止
+    public interface BatchCallback {
+        boolean onBatch(MusicLibrary snapshot);
+    }
+
+    public static MusicLibrary getMusicData(Context context) {
+        MusicLibrary library = scanMusicData(context, Integer.MAX_VALUE, snapshot -> true);
+        return library != null ? library : MusicLibrary.EMPTY;
+    }
+
+    // 流式扫描：每凑够 batchSize 首就回调一次，界面不必等全部扫完。被取消时返回 null
+    public static MusicLibrary scanMusicData(Context context, int batchSize, BatchCallback callback) {
+        return scanMusicData(context, new MusicLibrary.Builder(256), batchSize, callback);
+    }
+
+    // builder 必须是空的；扫描完成后调用方可以继续用它追加（见 withFolders）
+    public static MusicLibrary scanMusicData(Context context, MusicLibrary.Builder builder, int batchSize,
+                                             BatchCallback callback) {
         // 1. 加载内置音乐
-        loadRawMusic(context, list);
+        loadRawMusic(context, builder);
+        if (!callback.onBatch(builder.snapshot())) return null;
 
-        // 2. 扫描本地音乐
+        // 2. 本地音乐：优先读索引 + 增量，索引缺失或损坏时才全量扫描
         try {
-            loadExternalMusic(context, list);
+            if (!loadIndexedMusic(context, builder, batchSize, callback)) return null;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return list;
+
+        // 3. 直接遍历 U 盘/SD 卡，补上 MediaStore 还没收录的歌（没有设置目录、也没有可移动存储时跳过）
+        if (!FolderScanner.get(context).appendTo(builder, batchSize, callback)) return null;
+        MusicLibrary library = builder.snapshot();
+        return callback.onBatch(library) ? library : null;
     }
 
-    private static void loadRawMusic(Context context, List<MusicBean> list) {
+    // 文件夹有变化时更新曲库，返回的构建器的 snapshot() 就是新曲库；builder 当前的快照必须是 base。
+    // 只有新增文件时直接在 builder 上追加，新曲库是 base 的延伸，播放队列、浏览索引和列表都走增量；
+    // 有文件被删除或内容变了才重建：MediaStore 和内置音乐的行原样保留（ID 不为 0），文件夹扫描的行重新追加
+    public static MusicLibrary.Builder withFolders(Context context, MusicLibrary.Builder builder, MusicLibrary base) {
+        FolderScanner folders = FolderScanner.get(context);
+        if (folders.appendAdded(builder, base)) return builder;
+        MusicLibrary.Builder rebuilt = new MusicLibrary.Builder(base.size());
+        for (int i = 0; i < base.size(); i++) {
+            if (base.getId(i) != 0) rebuilt.addFrom(base, i);
+        }
+        folders.appendTo(rebuilt, Integer.MAX_VALUE, snapshot -> true);
+        return rebuilt;
+    }
+
+    private static void loadRawMusic(Context context, MusicLibrary.Builder builder) {
         // 这里的 resId 必须对应您 res/raw 下的真实文件
-        addRawSong(context, list, R.raw.haiz, "错过的烟火", "内置音乐");
-        addRawSong(context, list, R.raw.hongyan, "红颜如霜", "内置音乐");
-        addRawSong(context, list, R.raw.zhuiweida, "最伟大的作品", "内置音乐");
+        addRawSong(context, builder, R.raw.haiz, "错过的烟火", "内置音乐");
+        addRawSong(context, builder, R.raw.hongyan, "红颜如霜", "内置音乐");
+        addRawSong(context, builder, R.raw.zhuiweida, "最伟大的作品", "内置音乐");
     }
 
-    private static void addRawSong(Context context, List<MusicBean> list, int resId, String title, String artist) {
+    private static void addRawSong(Context context, MusicLibrary.Builder builder, int resId, String title, String artist) {
         String path = "android.resource://" + context.getPackageName() + "/" + resId;
-        long duration = 240000; // 这里的时长是估算的
+        long duration = rawDuration(context, resId);
         long albumResId = -1;   // 内置音乐没有系统专辑封面 ID
 
-        // 使用更新后的构造方法
-        list.add(new MusicBean(title, artist, path, duration, albumResId));
+        // id 取负数避免和 MediaStore 冲突
+        builder.add(-resId, title, artist, artist, path, duration, albumResId);
+    }
+
+    // raw 资源在 APK 里不压缩，直接按偏移读帧头算时长；读不出来时用估算值
+    private static long rawDuration(Context context, int resId) {
+        try (AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
+             FileInputStream in = afd.createInputStream()) {
+            TrackTags tags = TagReader.read(in.getChannel(), afd.getStartOffset(), afd.getLength());
+            if (tags != null && tags.getDurationMs() > 0) return tags.getDurationMs();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        return 240000;
+    }
+
+    private static boolean loadIndexedMusic(Context context, MusicLibrary.Builder builder,
+                                            int batchSize, BatchCallback callback) {
+        // 先记下各卷的 generation 再查询，查询期间发生的变化留到下次增量处理
+        String version = MediaStore.getVersion(context);
+        Map<String, Long> generations = new HashMap<>();
+        for (String volume : externalVolumes(context)) {
+            generations.put(volume, MediaStore.getGeneration(context, volume));
+        }
+        int rawCount = builder.size();
+
+        LibraryIndex index = LibraryIndex.load(context);
+        if (index == null || !version.equals(index.getMediaStoreVersion())) {
+            // 没有可用索引：边扫描边回调，完整扫完才重建索引
+            if (!loadExternalMusic(context, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, builder, null, null,
+                    batchSize, callback)) {
+                return false;
+            }
+            new LibraryIndex(version, generations, builder.snapshot(), rawCount).save(context);
+            return true;
+        }
+
+        MusicLibrary indexed = index.getLibrary();
+        if (!generations.equals(index.getGenerations()) || hasDeletions(context, indexed)) {
+            indexed = applyDelta(context, index, generations);
+            new LibraryIndex(version, generations, indexed).save(context);
+        }
+        // 索引已在内存里，复制进构建器，按批次回调
+        for (int i = 0; i < indexed.size(); i++) {
+            builder.addFrom(indexed, i);
+            if ((i + 1) % batchSize == 0 && !callback.onBatch(builder.snapshot())) return false;
+        }
+        return true;
+    }
+
+    // 当前挂载的外部卷（主存储 + U 盘/SD 卡），generation 各卷分开计数
+    private static Set<String> externalVolumes(Context context) {
+        Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+        return volumes.isEmpty() ? Set.of(MediaStore.VOLUME_EXTERNAL_PRIMARY) : volumes;
+    }
+
+    // 把上次索引之后的新增、修改、删除合并进曲库，保持原有顺序，新歌追加在末尾。
+    // 每个卷按自己的 generation 查增量；索引里没有的卷（新插入或拔出后重新挂载）整卷重新查询
+    private static MusicLibrary applyDelta(Context context, LibraryIndex index, Map<String, Long> generations) {
+        MusicLibrary.Builder changedBuilder = new MusicLibrary.Builder(64);
+        Set<Long> changedIds = new HashSet<>();
+        for (Map.Entry<String, Long> e : generations.entrySet()) {
+            Long indexed = index.getGenerations().get(e.getKey());
+            if (e.getValue().equals(indexed)) continue;
+            // generation 变小说明这个卷的数据库被重建过，和没见过的卷一样整卷查询
+            String selection = indexed == null || e.getValue() < indexed
+                    ? null : MediaStore.Audio.Media.GENERATION_MODIFIED + " > " + indexed;
+            loadExternalMusic(context, MediaStore.Audio.Media.getContentUri(e.getKey()), changedBuilder, changedIds,
+                    selection, Integer.MAX_VALUE, null);
+        }
+        MusicLibrary changed = changedBuilder.snapshot();
+
+        Set<Long> existing = queryIds(context);
+        MusicLibrary old = index.getLibrary();
+        MusicLibrary.Builder merged = new MusicLibrary.Builder(old.size() + changed.size());
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < old.size(); i++) {
+            long id = old.getId(i);
+            if (!existing.contains(id)) continue;        // 已删除
+            if (changedIds.contains(id)) {
+                int updated = changed.indexOfId(id);     // 修改后可能被时长过滤掉
+                if (updated >= 0) merged.addFrom(changed, updated);
+            } else {
+                merged.addFrom(old, i);
+            }
+            seen.add(id);
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            if (!seen.contains(changed.getId(i))) merged.addFrom(changed, i);
+        }
+        return merged.snapshot();
     }
 
-    private static void loadExternalMusic(Context context, List<MusicBean> list) {
-        String[] projection = {
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.DURATION,
-                MediaStore.Audio.Media.ALBUM_ID // 必须查这一列
-        };
+    // 只查 _ID 一列，判断索引里是否有已被删除的歌
+    private static boolean hasDeletions(Context context, MusicLibrary library) {
+        Set<Long> existing = queryIds(context);
+        for (int i = 0; i < library.size(); i++) {
+            if (!existing.contains(library.getId(i))) return true;
+        }
+        return false;
+    }
 
+    private static Set<Long> queryIds(Context context) {
+        Set<Long> ids = new HashSet<>();
         Cursor cursor = context.getContentResolver().query(
                 MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection, null, null, MediaStore.Audio.Media.IS_MUSIC);
-
+                new String[]{MediaStore.Audio.Media._ID}, null, null, null);
         if (cursor != null) {
+            while (cursor.moveToNext()) ids.add(cursor.getLong(0));
+            cursor.close();
+        }
+        return ids;
+    }
+
+    // touchedIds 不为空时记录查询到的所有 ID（包括被时长过滤掉的），用于增量合并；
+    // callback 不为空时每 batchSize 首回调一次。返回 false 表示被取消
+    private static boolean loadExternalMusic(Context context, Uri uri, MusicLibrary.Builder builder,
+                                             Set<Long> touchedIds, String selection, int batchSize,
+                                             BatchCallback callback) {
+        Cursor cursor = context.getContentResolver().query(uri,
+                PROJECTION, selection, null, MediaStore.Audio.Media.IS_MUSIC);
+        if (cursor == null) return true;
+
+        try {
+            // 列序号只取一次，循环里不再按列名查找
+            int idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
+            int titleCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
+            int artistCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
+            int albumNameCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
+            int dataCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
+            int durationCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
+            int albumCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
+            int trackCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TRACK);
+
+            // 攒一块行再并行读文件标签，块不超过一个批次，批次回调的时机不变
+            PendingRows rows = new PendingRows(builder, Math.min(batchSize, TAG_CHUNK), batchSize, callback);
             while (cursor.moveToNext()) {
-                String title = cursor.getString(0);
-                String artist = cursor.getString(1);
-                String path = cursor.getString(2);
-                long duration = cursor.getLong(3);
-                long albumResId = cursor.getLong(4); // 获取专辑 ID
-
-                if (duration > 10000) {
-                    if ("<unknown>".equals(artist)) artist = "未知歌手";
-                    // 存入 List
-                    list.add(new MusicBean(title, artist, path, duration, albumResId));
-                }
+                long id = cursor.getLong(idCol);
+                if (touchedIds != null) touchedIds.add(id);
+                rows.add(id, cursor.getString(titleCol), cursor.getString(artistCol), cursor.getString(albumNameCol),
+                        cursor.getString(dataCol), cursor.getLong(durationCol), cursor.getLong(albumCol), // 获取专辑 ID
+                        cursor.getInt(trackCol) % 1000); // TRACK 是 碟号*1000+曲号
+                if (rows.isFull() && !rows.flush()) return false;
             }
+            return rows.flush();
+        } finally {
             cursor.close();
         }
     }
-}
\ No newline at end of file
+
+    // 一块待入库的 MediaStore 行。数组在块之间复用
+    private static class PendingRows {
+        final MusicLibrary.Builder builder;
+        final int batchSize;
+        final BatchCallback callback;
+        final long[] ids;
+        final String[] titles;
+        final String[] artists;
+        final String[] albums;
+        final String[] paths;
+        final long[] durations;
+        final long[] albumResIds;
+        final int[] trackNumbers;
+        final String[] tagPaths;  // 需要读标签的行的路径，和 tagRows 对应
+        final int[] tagRows;
+        int count;
+        int added;
+
+        PendingRows(MusicLibrary.Builder builder, int capacity, int batchSize, BatchCallback callback) {
+            this.builder = builder;
+            this.batchSize = batchSize;
+            this.callback = callback;
+            ids = new long[capacity];
+            titles = new String[capacity];
+            artists = new String[capacity];
+            albums = new String[capacity];
+            paths = new String[capacity];
+            durations = new long[capacity];
+            albumResIds = new long[capacity];
+            trackNumbers = new int[capacity];
+            tagPaths = new String[capacity];
+            tagRows = new int[capacity];
+        }
+
+        void add(long id, String title, String artist, String album, String path, long duration, long albumResId,
+                 int trackNumber) {
+            ids[count] = id;
+            titles[count] = title;
+            artists[count] = artist;
+            albums[count] = album;
+            paths[count] = path;
+            durations[count] = duration;
+            albumResIds[count] = albumResId;
+            trackNumbers[count] = trackNumber;
+            count++;
+        }
+
+        // MediaStore 的信息缺失或是占位值时才去读文件：没有歌手/专辑、没有时长、没有专辑 ID（要找内嵌封面）
+        boolean needsTags(int i) {
+            return artists[i] == null || UNKNOWN.equals(artists[i]) || albums[i] == null || UNKNOWN.equals(albums[i])
+                    || durations[i] <= 0 || albumResIds[i] <= 0;
+        }
+
+        boolean isFull() { return count == ids.length; }
+
+        // 大多数行 MediaStore 的信息是全的，不碰文件；只有缺信息的行（拷到 SD 卡上没扫全的歌）并行读标签，
+        // 而且只补缺的字段。文件不在（SD 卡已拔出）时 TagReader 返回 null，沿用 MediaStore 的值
+        boolean flush() {
+            int n = count;
+            count = 0;
+            int tagCount = 0;
+            for (int i = 0; i < n; i++) {
+                if (!needsTags(i)) continue;
+                tagPaths[tagCount] = paths[i];
+                tagRows[tagCount++] = i;
+            }
+            TrackTags[] tags = TagReader.readAll(tagPaths, tagCount);
+            int nextTag = 0;
+            for (int i = 0; i < n; i++) {
+                TrackTags t = nextTag < tagCount && tagRows[nextTag] == i ? tags[nextTag++] : null;
+                String title = titles[i];
+                String artist = artists[i];
+                String album = albums[i];
+                long duration = durations[i];
+                int trackNumber = trackNumbers[i];
+                long artOffset = -1;
+                int artLength = 0;
+                if (t != null) {
+                    if (t.getArtist() != null && (artist == null || UNKNOWN.equals(artist))) artist = t.getArtist();
+                    if (t.getAlbum() != null && (album == null || UNKNOWN.equals(album))) album = t.getAlbum();
+                    if (t.getTitle() != null && title == null) title = t.getTitle();
+                    if (t.getDurationMs() > 0 && duration <= 0) duration = t.getDurationMs();
+                    if (trackNumber == 0) trackNumber = t.getTrackNumber();
+                    artOffset = t.getArtOffset();
+                    artLength = t.getArtLength();
+                }
+                if (duration <= 10000) continue;
+                if (UNKNOWN.equals(artist)) artist = "未知歌手";
+
+                // 歌手、专辑、文件夹在构建器里去重，同一个字符串只保留一份
+                builder.add(ids[i], title, artist, album, paths[i], duration, albumResIds[i],
+                        trackNumber, artOffset, artLength);
+                if (callback != null && ++added % batchSize == 0 && !callback.onBatch(builder.snapshot())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
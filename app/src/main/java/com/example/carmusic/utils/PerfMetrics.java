@@ -0,0 +1,189 @@
+package com.example.carmusic.utils;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.FrameMetrics;
+import android.view.Window;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 性能埋点：每个指标一个按 2 的幂分桶的直方图，记录时不分配对象；
+// 同一个埋点同时打 android.os.Trace，系统 trace 里能直接看到。
+// 结果通过 MusicService 的 dump 输出：adb shell dumpsys activity service com.example.carmusic/.service.MusicService
+public class PerfMetrics {
+
+    public enum Metric {
+        SCAN("scan"),                           // 整个扫描耗时
+        PREPARE("prepare"),                     // 单曲 prepareAsync -> onPrepared
+        SKIP_TO_AUDIO("skip_to_audio"),         // 点击播放/切歌 -> 开始出声
+        COLD_START_FIRST_FRAME("cold_start_first_frame"),
+        COLD_START_FIRST_AUDIO("cold_start_first_audio"),
+        ART_DECODE("art_decode"),               // 单张封面解码（含磁盘缓存读取）
+        FRAME_STALL("frame_stall");             // 超过 STALL_THRESHOLD 的帧
+
+        final String traceName;
+        final Histogram histogram = new Histogram();
+
+        Metric(String traceName) {
+            this.traceName = "carmusic:" + traceName;
+        }
+
+        // 已经在别处量好的耗时直接记入
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+    }
+
+    private static final long STALL_THRESHOLD_NS = 50_000_000L; // 50ms，约 3 帧
+
+    private static final AtomicLong lastScanRows = new AtomicLong();
+    private static final AtomicLong lastScanNanos = new AtomicLong();
+    private static final AtomicLong frameCount = new AtomicLong();
+    private static volatile boolean firstFrameRecorded = false;
+    private static volatile boolean firstAudioRecorded = false;
+    private static Handler metricsHandler;
+
+    // 同步区间：begin/end 必须在同一线程
+    public static long begin(Metric metric) {
+        Trace.beginSection(metric.traceName);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public static void end(Metric metric, long startNanos) {
+        Trace.endSection();
+        metric.histogram.record(SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    // 只结束 trace 区间，不计入直方图（中途取消的情况）
+    public static void abandon() {
+        Trace.endSection();
+    }
+
+    // 跨线程/跨回调的区间，用 cookie 区分同时进行的多个区间
+    public static long beginAsync(Metric metric, int cookie) {
+        Trace.beginAsyncSection(metric.traceName, cookie);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public static void endAsync(Metric metric, int cookie, long startNanos) {
+        Trace.endAsyncSection(metric.traceName, cookie);
+        metric.histogram.record(SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    public static void abandonAsync(Metric metric, int cookie) {
+        Trace.endAsyncSection(metric.traceName, cookie);
+    }
+
+    public static void recordScan(long startNanos, int rows) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        lastScanRows.set(rows);
+        lastScanNanos.set(nanos);
+    }
+
+    // 冷启动指标每个进程只记一次，起点是进程创建时间
+    public static void recordFirstFrame() {
+        if (firstFrameRecorded) return;
+        firstFrameRecorded = true;
+        recordSinceProcessStart(Metric.COLD_START_FIRST_FRAME);
+    }
+
+    public static void recordFirstAudio() {
+        if (firstAudioRecorded) return;
+        firstAudioRecorded = true;
+        recordSinceProcessStart(Metric.COLD_START_FIRST_AUDIO);
+    }
+
+    private static void recordSinceProcessStart(Metric metric) {
+        long ms = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        metric.histogram.record(ms * 1_000_000L);
+    }
+
+    // 主线程卡顿：只在真正绘制的帧上统计，界面静止或不可见时没有任何开销
+    private static final Window.OnFrameMetricsAvailableListener FRAME_LISTENER = (window, metrics, dropped) -> {
+        frameCount.incrementAndGet();
+        long total = metrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        if (total >= STALL_THRESHOLD_NS) Metric.FRAME_STALL.histogram.record(total);
+    };
+
+    public static void startFrameMonitor(Activity activity) {
+        activity.getWindow().addOnFrameMetricsAvailableListener(FRAME_LISTENER, handler());
+    }
+
+    public static void stopFrameMonitor(Activity activity) {
+        try {
+            activity.getWindow().removeOnFrameMetricsAvailableListener(FRAME_LISTENER);
+        } catch (IllegalArgumentException ignored) {
+            // 没有注册过
+        }
+    }
+
+    private static synchronized Handler handler() {
+        if (metricsHandler == null) {
+            HandlerThread thread = new HandlerThread("PerfMetrics", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            metricsHandler = new Handler(thread.getLooper());
+        }
+        return metricsHandler;
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println("PerfMetrics (ms):");
+        pw.printf("  %-24s %8s %8s %8s %8s %8s%n", "metric", "count", "avg", "p50", "p95", "max");
+        for (Metric metric : Metric.values()) {
+            Histogram h = metric.histogram;
+            long count = h.count.get();
+            if (count == 0) {
+                pw.printf("  %-24s %8d%n", metric.name().toLowerCase(), 0);
+                continue;
+            }
+            pw.printf("  %-24s %8d %8.1f %8.1f %8.1f %8.1f%n", metric.name().toLowerCase(), count,
+                    h.sum.get() / 1e6 / count, h.percentile(0.5) / 1e6, h.percentile(0.95) / 1e6, h.max.get() / 1e6);
+        }
+        long rows = lastScanRows.get();
+        long nanos = lastScanNanos.get();
+        if (nanos > 0) {
+            pw.printf("  last scan: %d rows in %.1f ms (%.0f rows/s)%n", rows, nanos / 1e6, rows * 1e9 / nanos);
+        }
+        pw.printf("  frames observed: %d, stalls >= %d ms: %d%n",
+                frameCount.get(), STALL_THRESHOLD_NS / 1_000_000, Metric.FRAME_STALL.histogram.count.get());
+    }
+
+    // 对数分桶直方图：第 i 个桶覆盖 [2^i, 2^(i+1)) 微秒，记录只做几次原子加
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) return;
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+                // 重试直到写入更大的值
+            }
+        }
+
+        // 取所在桶的上界，精度是 2 倍以内，足够看趋势和回归
+        double percentile(double p) {
+            long total = count.get();
+            long target = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) return Math.min((double) (1L << (i + 1)) * 1000, max.get());
+            }
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.carmusic.utils;
+
+import android.icu.text.Transliterator;
+import android.util.SparseArray;
+
+// 汉字转拼音：用系统自带的 ICU 转写（API 29+），按单字缓存结果，同一个字只转一次
+public class PinyinHelper {
+    private static final Transliterator TRANSLITERATOR =
+            Transliterator.getInstance("Han-Latin; Latin-ASCII; Lower");
+    private static final SparseArray<String> CACHE = new SparseArray<>();
+
+    // 单个字符的拼音（不带声调，小写）；不是汉字时返回 null
+    public static String toPinyin(char c) {
+        if (!isHan(c)) return null;
+        synchronized (CACHE) {
+            String pinyin = CACHE.get(c);
+            if (pinyin == null) {
+                pinyin = TRANSLITERATOR.transliterate(String.valueOf(c)).trim();
+                CACHE.put(c, pinyin);
+            }
+            return pinyin.isEmpty() ? null : pinyin;
+        }
+    }
+
+    // 资源统计用的估算：每个字一条（键、拼音字符串、数组槽位）
+    public static long cacheBytes() {
+        synchronized (CACHE) {
+            return CACHE.size() * 64L;
+        }
+    }
+
+    // 内存紧张时清掉，之后用到的字重新转写
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    // 全拼：最伟大的作品 -> zuiweidadezuopin；非汉字原样保留（转小写）
+    // 首字母：最伟大的作品 -> zwddzp
+    // 两个结果一次算出，避免重复转写
+    public static void appendPinyin(String text, StringBuilder full, StringBuilder initials) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String pinyin = toPinyin(c);
+            if (pinyin != null) {
+                full.append(pinyin);
+                initials.append(pinyin.charAt(0));
+            } else if (Character.isLetterOrDigit(c)) {
+                char lower = Character.toLowerCase(c);
+                full.append(lower);
+                // 英文单词只取词首字母
+                if (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)) || toPinyin(text.charAt(i - 1)) != null) {
+                    initials.append(lower);
+                }
+            }
+        }
+    }
+
+    public static boolean containsHan(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isHan(text.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    private static boolean isHan(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.carmusic.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import java.io.PrintWriter;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+// 进程内存的统一账本：各组件登记自己大约占了多少字节、被回收时怎么释放，按层级从外往里回收。
+// 界面和服务在同一个进程，onTrimMemory/onLowMemory 挂在 Application 上收一次就够了。
+// 界面退到后台只丢界面用的；运行中内存吃紧再丢能重建的缓存；快被杀时连播放的富余
+// （预加载的下一首、空闲的解码缓冲、预读）也放掉，只留当前这首继续播需要的东西。
+// 平时组件缓存长大后调用 check()，总量超过预算时先丢界面的、再丢缓存，不动播放相关的
+public final class ResourceGovernor implements ComponentCallbacks2 {
+
+    // 回收顺序从前往后；ESSENTIAL 只统计，从不回收
+    public enum Tier {
+        UI,        // 只有界面用：封面位图、波形
+        CACHE,     // 随时可以重建：浏览树、拼音
+        SPARE,     // 播放的富余：预加载的下一首、空闲缓冲、预读
+        ESSENTIAL  // 曲库、正在播放的缓冲
+    }
+
+    private static final long CHECK_DELAY_MS = 1000;
+
+    private static ResourceGovernor instance;
+
+    private final long budget;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean checkScheduled = new AtomicBoolean();
+    private final Runnable checkRunnable = this::enforceBudget;
+    // 统计，dump 用
+    private volatile int lastLevel = -1;
+    private volatile int trims;
+    private volatile int budgetTrims;
+
+    private static final class Entry {
+        final String name;
+        final Tier tier;
+        final LongSupplier bytes;
+        final Runnable trim;
+
+        Entry(String name, Tier tier, LongSupplier bytes, Runnable trim) {
+            this.name = name;
+            this.tier = tier;
+            this.bytes = bytes;
+            this.trim = trim;
+        }
+    }
+
+    public static synchronized ResourceGovernor get(Context context) {
+        if (instance == null) {
+            // 预算跟着 Java 堆上限走：2GB 的车机上通常是 192~256MB，取四分之一
+            instance = new ResourceGovernor(Runtime.getRuntime().maxMemory() / 4);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    ResourceGovernor(long budget) {
+        this.budget = budget;
+    }
+
+    // 同名的重复登记会替换旧的。bytes 要便宜、可以在任意线程调用；
+    // trim 在主线程调用，需要在别的线程释放时自己投递过去。ESSENTIAL 的 trim 可以为 null
+    public void register(String name, Tier tier, LongSupplier bytes, Runnable trim) {
+        unregister(name);
+        entries.add(new Entry(name, tier, bytes, trim));
+    }
+
+    public void unregister(String name) {
+        for (Entry e : entries) {
+            if (e.name.equals(name)) entries.remove(e);
+        }
+    }
+
+    // 组件缓存长大后调用，任意线程；一秒内的多次调用合并成一次检查
+    public void check() {
+        if (checkScheduled.compareAndSet(false, true)) mainHandler.postDelayed(checkRunnable, CHECK_DELAY_MS);
+    }
+
+    public long getBudget() { return budget; }
+
+    public long footprint() {
+        long total = 0;
+        for (Entry e : entries) total += e.bytes.getAsLong();
+        return total;
+    }
+
+    public long footprint(Tier tier) {
+        long total = 0;
+        for (Entry e : entries) {
+            if (e.tier == tier) total += e.bytes.getAsLong();
+        }
+        return total;
+    }
+
+    // 回收 deepest 和比它更外层的所有层级
+    public void trim(Tier deepest) {
+        for (Tier tier : Tier.values()) {
+            if (tier.ordinal() > deepest.ordinal()) break;
+            trimTier(tier);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        lastLevel = level;
+        trims++;
+        trim(tierForLevel(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        lastLevel = TRIM_MEMORY_COMPLETE;
+        trims++;
+        trim(Tier.SPARE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {}
+
+    // 前台运行中的级别（RUNNING_*）比 UI_HIDDEN 小，不能直接按数值比较
+    static Tier tierForLevel(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) return Tier.SPARE;       // 下一个就是我们
+        if (level >= TRIM_MEMORY_BACKGROUND) return Tier.CACHE;     // 进程已经在后台 LRU 列表里
+        if (level >= TRIM_MEMORY_UI_HIDDEN) return Tier.UI;         // 界面刚退到后台
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) return Tier.SPARE;
+        if (level >= TRIM_MEMORY_RUNNING_LOW) return Tier.CACHE;
+        return Tier.UI;                                             // RUNNING_MODERATE
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("ResourceGovernor: footprint=" + footprint() / 1024 + "KB budget=" + budget / 1024
+                + "KB lastLevel=" + lastLevel + " trims=" + trims + " budgetTrims=" + budgetTrims);
+        for (Entry e : entries) pw.println("  " + e.tier + " " + e.name + "=" + e.bytes.getAsLong() / 1024 + "KB");
+    }
+
+    // 超预算时按层级回收，只动 UI 和 CACHE。trim 可能是异步的，按回收前的大小扣减
+    private void enforceBudget() {
+        checkScheduled.set(false);
+        long total = footprint();
+        for (Tier tier : new Tier[]{Tier.UI, Tier.CACHE}) {
+            if (total <= budget) return;
+            total -= footprint(tier);
+            trimTier(tier);
+            budgetTrims++;
+        }
+    }
+
+    private void trimTier(Tier tier) {
+        if (tier == Tier.ESSENTIAL) return;
+        for (Entry e : entries) {
+            if (e.tier == tier && e.trim != null) e.trim.run();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.carmusic.utils;
+
+import com.example.carmusic.bean.MusicLibrary;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// 歌名/歌手搜索索引，同时收录全拼和拼音首字母："zwd" 可以搜到"最伟大的作品"
+// 每首歌把所有可搜索的写法拼成一个串，另外按字符建倒排表（升序的歌曲下标）。
+// 查询时取查询串里最稀有字符的倒排表作为候选，再逐个做子串匹配
+public class SearchIndex {
+    private static final char SEP = '\u0001'; // 各字段之间的分隔符，查询里不会出现
+
+    private final MusicLibrary library;
+    private final String[] haystacks;
+    private final Map<Character, int[]> postings;
+
+    private SearchIndex(MusicLibrary library, String[] haystacks, Map<Character, int[]> postings) {
+        this.library = library;
+        this.haystacks = haystacks;
+        this.postings = postings;
+    }
+
+    public MusicLibrary getLibrary() { return library; }
+
+    // 大约占用的字节数，资源统计用：每首歌的拼接串加上倒排表
+    public long estimatedBytes() {
+        long bytes = 16 + 4L * haystacks.length;
+        for (String h : haystacks) bytes += 24 + 2L * h.length();
+        for (int[] list : postings.values()) bytes += 48 + 16 + 4L * list.length;
+        return bytes;
+    }
+
+    public static SearchIndex build(MusicLibrary library) {
+        int n = library.size();
+        String[] haystacks = new String[n];
+        // 歌手是字典编码的，同一个歌手只转一次拼音
+        String[] artistKeys = new String[library.getArtistCount()];
+        Map<Character, IntList> lists = new HashMap<>();
+        int[] stamp = new int[Character.MAX_VALUE + 1]; // 记录字符最后出现在哪首歌，用于每首歌内去重
+
+        StringBuilder sb = new StringBuilder(128);
+        for (int i = 0; i < n; i++) {
+            int artistRef = library.getArtistRef(i);
+            String artistKey = artistKeys[artistRef];
+            if (artistKey == null) {
+                artistKey = keysOf(library.getArtistByRef(artistRef), new StringBuilder());
+                artistKeys[artistRef] = artistKey;
+            }
+
+            sb.setLength(0);
+            sb.append(keysOf(library.getTitle(i), new StringBuilder())).append(artistKey);
+            String haystack = sb.toString();
+            haystacks[i] = haystack;
+
+            for (int k = 0; k < haystack.length(); k++) {
+                char c = haystack.charAt(k);
+                if (c == SEP || stamp[c] == i + 1) continue;
+                stamp[c] = i + 1;
+                IntList list = lists.get(c);
+                if (list == null) {
+                    list = new IntList();
+                    lists.put(c, list);
+                }
+                list.add(i);
+            }
+        }
+
+        Map<Character, int[]> postings = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<Character, IntList> e : lists.entrySet()) postings.put(e.getKey(), e.getValue().toArray());
+        return new SearchIndex(library, haystacks, postings);
+    }
+
+    // 一个字段的所有写法：原文（规范化后）、全拼、首字母，各自以 SEP 开头
+    private static String keysOf(String text, StringBuilder out) {
+        String normalized = normalize(text);
+        out.append(SEP).append(normalized);
+        if (PinyinHelper.containsHan(normalized)) {
+            StringBuilder full = new StringBuilder();
+            StringBuilder initials = new StringBuilder();
+            PinyinHelper.appendPinyin(normalized, full, initials);
+            out.append(SEP).append(full).append(SEP).append(initials);
+        }
+        return out.toString();
+    }
+
+    // 小写、去掉空白，用户输入和索引内容走同一套规则
+    public static String normalize(String text) {
+        if (text == null) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == SEP) continue;
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    // 全量查询，query 需已 normalize 且非空；返回升序的歌曲下标
+    public int[] search(String query) {
+        int[] candidates = null;
+        for (int k = 0; k < query.length(); k++) {
+            int[] list = postings.get(query.charAt(k));
+            if (list == null) return new int[0];
+            if (candidates == null || list.length < candidates.length) candidates = list;
+        }
+        return refine(candidates, query);
+    }
+
+    // 在上一次的结果里继续过滤：查询串只是多打了字时，新结果一定是旧结果的子集
+    public int[] refine(int[] candidates, String query) {
+        int[] result = new int[candidates.length];
+        int count = 0;
+        for (int i : candidates) {
+            if (haystacks[i].contains(query)) result[count++] = i;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private static class IntList {
+        int[] values = new int[8];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int[] toArray() { return Arrays.copyOf(values, size); }
+    }
+}
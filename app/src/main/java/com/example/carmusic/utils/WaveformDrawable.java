@@ -0,0 +1,78 @@
+package com.example.carmusic.utils;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+// 进度条背景画成峰值波形：已播放的部分用 playedColor，其余用 restColor。
+// SeekBar 通过 level（0..10000）告诉它进度；还没有分析结果时退回一条细线
+public class WaveformDrawable extends Drawable {
+    private static final int MAX_LEVEL = 10000;
+
+    private final Paint played = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint rest = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int lineHeight;
+    private byte[] peaks;
+
+    public WaveformDrawable(int playedColor, int restColor, int lineHeightPx) {
+        played.setColor(playedColor);
+        rest.setColor(restColor);
+        lineHeight = Math.max(1, lineHeightPx);
+    }
+
+    // 主线程调用；同一份数据不重复刷新
+    public void setPeaks(byte[] peaks) {
+        if (peaks == this.peaks) return;
+        this.peaks = peaks;
+        invalidateSelf();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Rect b = getBounds();
+        if (b.isEmpty()) return;
+        float split = b.left + b.width() * (float) getLevel() / MAX_LEVEL;
+        float centerY = b.exactCenterY();
+        byte[] p = peaks;
+        if (p == null || p.length == 0) {
+            float top = centerY - lineHeight / 2f;
+            canvas.drawRect(b.left, top, split, top + lineHeight, played);
+            canvas.drawRect(split, top, b.right, top + lineHeight, rest);
+            return;
+        }
+        // 每根柱子占一格，留四分之一做间隔；柱子至少和细线一样高
+        float step = (float) b.width() / p.length;
+        float barWidth = Math.max(1f, step * 0.75f);
+        for (int i = 0; i < p.length; i++) {
+            float x = b.left + i * step;
+            float half = Math.max(lineHeight, (p[i] & 0xFF) / 255f * b.height()) / 2f;
+            canvas.drawRect(x, centerY - half, x + barWidth, centerY + half, x < split ? played : rest);
+        }
+    }
+
+    @Override
+    protected boolean onLevelChange(int level) {
+        invalidateSelf();
+        return true;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        played.setAlpha(alpha);
+        rest.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        played.setColorFilter(colorFilter);
+        rest.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() { return PixelFormat.TRANSLUCENT; }
+}
@@ -0,0 +1,120 @@
+package com.example.carmusic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.ComponentName;
+import android.os.Looper;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.carmusic.adapter.MusicAdapter;
+import com.example.carmusic.service.MusicService;
+import com.example.carmusic.service.PlaybackEngine;
+import com.example.carmusic.utils.FakeMediaProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowMediaPlayer;
+import org.robolectric.shadows.util.DataSource;
+
+// 端到端：MainActivity 绑定 Service -> 扫描 -> 列表显示 -> 点歌播放，走的都是正式代码
+@RunWith(RobolectricTestRunner.class)
+public class ScanPipelineTest {
+    private static final int RAW_SONGS = 3;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final Application app = RuntimeEnvironment.getApplication();
+    private FakeMediaProvider provider;
+    private ServiceController<MusicService> serviceController;
+    private ActivityController<MainActivity> activityController;
+
+    @Before
+    public void setUp() {
+        provider = FakeMediaProvider.install(new FakeMediaProvider.Spec()
+                .count(20_000).artists(300).unknownArtistEvery(40).shortClipEvery(25).missingAlbumEvery(60));
+        shadowOf(app).grantPermissions(Manifest.permission.READ_MEDIA_AUDIO, Manifest.permission.READ_EXTERNAL_STORAGE);
+        serviceController = Robolectric.buildService(MusicService.class).create();
+        MusicService service = serviceController.get();
+        shadowOf(app).setComponentNameAndServiceForBindService(
+                new ComponentName(app, MusicService.class), service.onBind(null));
+    }
+
+    @After
+    public void tearDown() {
+        if (activityController != null) activityController.pause().stop().destroy();
+        serviceController.destroy();
+    }
+
+    // 只验证行为（第一批先到、按顺序追加、总数正确），耗时由 core 的 JMH 基准负责
+    @Test
+    public void scan_fillsListAndPlaylist_inOrderedBatches() {
+        int expected = RAW_SONGS + provider.expectedRows().length;
+        // 扫描读到第 5000 行时停住，这时界面上应该已经有前面的批次
+        CountDownLatch resume = provider.holdAt(5000);
+        activityController = Robolectric.buildActivity(MainActivity.class).setup();
+        RecyclerView list = activityController.get().findViewById(R.id.rv_list);
+        List<int[]> inserts = new ArrayList<>();
+        waitUntil(() -> list.getAdapter() != null);
+        list.getAdapter().registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                inserts.add(new int[]{positionStart, itemCount});
+            }
+        });
+
+        waitUntil(() -> list.getAdapter().getItemCount() > RAW_SONGS);
+        int firstBatch = list.getAdapter().getItemCount();
+        resume.countDown();
+        waitUntil(() -> list.getAdapter().getItemCount() == expected);
+
+        assertTrue("first batch " + firstBatch, firstBatch < expected);
+        // 每次都接在上一次的末尾
+        int end = inserts.get(0)[0];
+        for (int[] insert : inserts) {
+            assertEquals(end, insert[0]);
+            end += insert[1];
+        }
+        assertEquals(expected, end);
+
+        // 列表和 Service 拿到的是同一份曲库：按列表位置点歌，播放的就是这一行
+        MusicAdapter adapter = (MusicAdapter) list.getAdapter();
+        MusicService service = serviceController.get();
+        int position = expected - 1;
+        int index = adapter.getLibraryIndex(position);
+        String path = adapter.getLibrary().getPath(index);
+        ShadowMediaPlayer.addMediaInfo(DataSource.toDataSource(path), new ShadowMediaPlayer.MediaInfo(180_000, 0));
+
+        service.play(index);
+
+        waitUntil(() -> service.getStatus().state == PlaybackEngine.State.PLAYING);
+        assertEquals(adapter.getLibrary().getId(index), service.getCurrentMusic().getId());
+        assertEquals(index, service.getStatus().index);
+    }
+
+    // 扫描和播放都在后台线程，结果通过主线程 Handler 回来，所以一边等一边执行主线程消息
+    private static void waitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT_MS * 1_000_000;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("timed out");
+            shadowOf(Looper.getMainLooper()).idle();
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.carmusic.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+// 分析结果缓存：按路径 + 修改时间命中，追加写入，截断的尾巴不影响前面的记录
+@RunWith(RobolectricTestRunner.class)
+public class AnalysisCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Context context = RuntimeEnvironment.getApplication();
+    private final File file = new File(context.getFilesDir(), "analysis.cache");
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void put_survivesReloadAndMissesWhenFileChanges() throws IOException {
+        File song = song("a.mp3");
+        AnalysisCache cache = new AnalysisCache(context);
+        cache.load();
+        cache.put(song.getPath(), cache.modified(song.getPath()), -12f, 0.9f, new byte[]{1, 2, 3});
+
+        AnalysisCache reloaded = new AnalysisCache(context);
+        assertNull(reloaded.get(song.getPath())); // load 之前查不到
+        reloaded.load();
+        AnalysisCache.Entry entry = reloaded.get(song.getPath());
+        assertEquals(-12f, entry.getLoudness(), 0);
+        assertArrayEquals(new byte[]{1, 2, 3}, entry.getWaveform());
+        assertEquals((float) Math.pow(10, -6 / 20.0), reloaded.gain(song.getPath()), 1e-6);
+
+        // 查询不 stat 文件，文件改过要等分析线程遍历时 validate 才丢掉旧结果
+        assertTrue(reloaded.validate(song.getPath(), reloaded.modified(song.getPath())));
+        assertTrue(song.setLastModified(song.lastModified() + 5000));
+        assertFalse(reloaded.validate(song.getPath(), reloaded.modified(song.getPath())));
+        assertNull(reloaded.get(song.getPath()));
+        assertEquals(1f, reloaded.gain(song.getPath()), 0);
+    }
+
+    @Test
+    public void load_dropsTruncatedTailAndKeepsAppending() throws IOException {
+        File a = song("a.mp3");
+        File b = song("b.mp3");
+        File c = song("c.mp3");
+        AnalysisCache cache = new AnalysisCache(context);
+        cache.load();
+        cache.put(a.getPath(), a.lastModified(), -20f, 0.5f, new byte[256]);
+        cache.put(b.getPath(), b.lastModified(), -10f, 1f, new byte[256]);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 7); // 写 b 的时候被杀
+        }
+
+        AnalysisCache reloaded = new AnalysisCache(context);
+        reloaded.load();
+        assertEquals(1, reloaded.size());
+        assertEquals(-20f, reloaded.get(a.getPath()).getLoudness(), 0);
+        assertNull(reloaded.get(b.getPath()));
+
+        reloaded.put(c.getPath(), c.lastModified(), -15f, 1f, new byte[0]);
+        AnalysisCache again = new AnalysisCache(context);
+        again.load();
+        assertEquals(2, again.size());
+        assertEquals(-15f, again.get(c.getPath()).getLoudness(), 0);
+    }
+
+    @Test
+    public void put_rewritesFileWhenMostRecordsAreStale() throws IOException {
+        File a = song("a.mp3");
+        AnalysisCache cache = new AnalysisCache(context);
+        cache.load();
+        cache.put(a.getPath(), a.lastModified(), 0, 1f, new byte[16]);
+        long record = file.length() - 8;
+        for (int i = 1; i < 100; i++) cache.put(a.getPath(), a.lastModified(), -i, 1f, new byte[16]);
+
+        AnalysisCache reloaded = new AnalysisCache(context);
+        reloaded.load();
+        assertEquals(-99f, reloaded.get(a.getPath()).getLoudness(), 0);
+        assertTrue(file.length() < 8 + 50 * record); // 中途重写过一次，只剩之后追加的记录
+    }
+
+    @Test
+    public void trimWaveforms_keepsGainAndReloadsWaveformFromFile() throws IOException {
+        File a = song("a.mp3");
+        File b = song("b.mp3");
+        AnalysisCache cache = new AnalysisCache(context);
+        cache.load();
+        cache.put(a.getPath(), a.lastModified(), -12f, 0.9f, new byte[]{1, 2, 3});
+        cache.put(b.getPath(), b.lastModified(), -15f, 1f, new byte[]{4, 5});
+        assertEquals(5, cache.waveformBytes());
+
+        cache.trimWaveforms();
+
+        assertEquals(0, cache.waveformBytes());
+        assertNull(cache.get(a.getPath()).getWaveform());
+        assertEquals((float) Math.pow(10, -6 / 20.0), cache.gain(a.getPath()), 1e-6);
+        assertArrayEquals(new byte[]{4, 5}, cache.waveform(b.getPath()));
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.waveform(a.getPath()));
+        assertEquals(5, cache.waveformBytes());
+    }
+
+    @Test
+    public void load_ignoresUnknownFile() throws IOException {
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        AnalysisCache cache = new AnalysisCache(context);
+        cache.load();
+        assertEquals(0, cache.size());
+        File a = song("a.mp3");
+        cache.put(a.getPath(), a.lastModified(), -9f, 1f, new byte[0]);
+        AnalysisCache reloaded = new AnalysisCache(context);
+        reloaded.load();
+        assertEquals(-9f, reloaded.get(a.getPath()).getLoudness(), 0);
+    }
+
+    private File song(String name) throws IOException {
+        File f = tmp.newFile(name);
+        Files.write(f.toPath(), new byte[]{0});
+        return f;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.carmusic.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.carmusic.bean.MusicLibrary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+// 浏览索引：中英文混排按拼音/字母排序分区、字母跳转、末尾追加时的增量更新
+@RunWith(RobolectricTestRunner.class)
+public class BrowseIndexTest {
+
+    @Test
+    public void artists_sortedIntoLetterSections() {
+        MusicLibrary library = new MusicLibrary.Builder(8)
+                .add(1, "t1", "周杰伦", "叶惠美", "/m/zhou/1.mp3", 1000, 0)
+                .add(2, "t2", "Adele", "25", "/m/adele/2.mp3", 1000, 0)
+                .add(3, "t3", "陈奕迅", "U87", "/m/chen/3.mp3", 1000, 0)
+                .add(4, "t4", "Beyond", "海阔天空", "/m/beyond/4.mp3", 1000, 0)
+                .add(5, "t5", "5566", "我难过", "/m/5566/5.mp3", 1000, 0)
+                .add(6, "t6", "Édith Piaf", "La vie", "/m/piaf/6.mp3", 1000, 0)
+                .snapshot();
+
+        BrowseIndex.Groups artists = BrowseIndex.build(library).get(BrowseIndex.Kind.ARTIST);
+
+        assertEquals(6, artists.size());
+        String[] names = new String[6];
+        for (int p = 0; p < 6; p++) names[p] = artists.nameAt(p);
+        assertArrayEquals(new String[]{"Adele", "Beyond", "陈奕迅", "Édith Piaf", "周杰伦", "5566"}, names);
+        assertEquals(2, artists.positionForSection('C' - 'A'));
+        assertEquals('Z' - 'A', artists.sectionForPosition(4));
+        assertEquals('#', BrowseIndex.sectionLabel(artists.sectionForPosition(5)));
+        assertTrue(artists.isSectionEmpty('D' - 'A'));
+        assertEquals(3, artists.positionForSection('D' - 'A')); // 空的字母落在下一个有组的字母上
+        assertEquals(1, artists.sectionSize('C' - 'A'));
+        assertEquals(0, artists.sectionSize('D' - 'A'));
+    }
+
+    @Test
+    public void update_extension_mergesNewGroupsKeepsOldOrder() {
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(4)
+                .add(1, "t1", "Coldplay", "A", "/m/1.mp3", 1000, 0)
+                .add(2, "t2", "王菲", "B", "/m/2.mp3", 1000, 0);
+        MusicLibrary first = builder.snapshot();
+        BrowseIndex index = BrowseIndex.build(first);
+        builder.add(3, "t3", "阿桑", "C", "/m/3.mp3", 1000, 0)
+                .add(4, "t4", "Coldplay", "D", "/m/4.mp3", 1000, 0)
+                .add(5, "t5", "Muse", "E", "/m/5.mp3", 1000, 0);
+        MusicLibrary second = builder.snapshot();
+
+        BrowseIndex updated = index.update(second);
+
+        assertSame(updated, updated.update(second));
+        BrowseIndex.Groups artists = updated.get(BrowseIndex.Kind.ARTIST);
+        assertEquals("阿桑", artists.nameAt(0));
+        assertEquals("Coldplay", artists.nameAt(1));
+        assertEquals(2, artists.trackCountAt(1));
+        assertEquals("Muse", artists.nameAt(2));
+        assertEquals("王菲", artists.nameAt(3));
+        assertEquals(2, index.get(BrowseIndex.Kind.ARTIST).size()); // 旧索引不变
+    }
+
+    @Test
+    public void tracksAndAlbums_orderedByTrackNumberAndAlbum() {
+        MusicLibrary library = new MusicLibrary.Builder(4)
+                .add(1, "三", "歌手", "B 专辑", "/m/b/3.mp3", 1000, 0, 3, -1, 0)
+                .add(2, "一", "歌手", "B 专辑", "/m/b/1.mp3", 1000, 0, 1, -1, 0)
+                .add(3, "无", "歌手", "A 专辑", "/m/a/x.mp3", 1000, 0, 0, -1, 0)
+                .add(4, "二", "歌手", "A 专辑", "/m/a/2.mp3", 1000, 0, 2, -1, 0)
+                .snapshot();
+        BrowseIndex index = BrowseIndex.build(library);
+
+        int artist = library.getArtistRef(0);
+        assertArrayEquals(new int[]{library.getAlbumRef(2), library.getAlbumRef(0)}, index.albumsOf(artist));
+        assertArrayEquals(new int[]{1, 0}, index.tracksOf(BrowseIndex.Kind.ALBUM, library.getAlbumRef(0)));
+        assertArrayEquals(new int[]{3, 2, 1, 0}, index.tracksOf(BrowseIndex.Kind.ARTIST, artist));
+        assertArrayEquals(new int[]{3, 2}, index.tracksOf(BrowseIndex.Kind.FOLDER, library.getFolderRef(2)));
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.carmusic.utils;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.robolectric.Robolectric;
+
+// 测试用的 MediaStore 替身：注册在 "media" authority 下，按 Spec 生成合成的音频行，
+// 覆盖真实曲库里常见的情况：大量重复歌手、<unknown> 歌手、10 秒以下的短音频、没有专辑 ID。
+// 支持扫描用到的全部查询：完整投影、只查 _ID、按 generation_modified 增量，以及 getVersion/getGeneration。
+// 行可以放在不同的外部卷上，每个卷的 generation 单独计数，和真实的 MediaStore 一样
+public class FakeMediaProvider extends ContentProvider {
+
+    public static final class Spec {
+        int count = 1000;
+        int artists = 50;
+        int unknownArtistEvery = 0; // 0 表示不生成
+        int shortClipEvery = 0;
+        int missingAlbumEvery = 0;
+
+        public Spec count(int count) { this.count = count; return this; }
+        public Spec artists(int artists) { this.artists = artists; return this; }
+        public Spec unknownArtistEvery(int n) { this.unknownArtistEvery = n; return this; }
+        public Spec shortClipEvery(int n) { this.shortClipEvery = n; return this; }
+        public Spec missingAlbumEvery(int n) { this.missingAlbumEvery = n; return this; }
+    }
+
+    private static final String GENERATION_SELECTION = MediaStore.Audio.Media.GENERATION_MODIFIED + " > ";
+
+    private Spec spec;
+    private String version = "fake-1";
+    private final Map<String, Long> volumeGenerations = new HashMap<>();
+    private int size;
+    private long[] ids = new long[0];
+    private String[] titles = new String[0];
+    private String[] artists = new String[0];
+    private String[] albums = new String[0];
+    private String[] paths = new String[0];
+    private long[] durations = new long[0];
+    private long[] albumIds = new long[0]; // 0 表示这一行的 ALBUM_ID 为 NULL
+    private long[] generations = new long[0];
+    private String[] volumes = new String[0];
+    private boolean[] deleted = new boolean[0];
+
+    // 按查询类型计数，用于断言走的是索引、增量还是全量
+    public int fullQueries;
+    public int deltaQueries;
+    public int idQueries;
+    public final Map<String, Integer> volumeQueries = new HashMap<>(); // 按单个卷的 URI 查询的次数
+    // 完整查询读到这一行时停住，直到 latch 放行；用来确定地观察"扫描还没完成"时的状态
+    private volatile int holdRow = -1;
+    private volatile CountDownLatch hold;
+
+    public static FakeMediaProvider install(Spec spec) {
+        FakeMediaProvider provider = Robolectric.setupContentProvider(FakeMediaProvider.class, MediaStore.AUTHORITY);
+        provider.spec = spec;
+        provider.append(spec.count);
+        return provider;
+    }
+
+    @Override
+    public boolean onCreate() { return true; }
+
+    // ===== 修改数据，模拟用户拷入、删除、编辑歌曲 =====
+
+    public synchronized void append(int count) {
+        append(MediaStore.VOLUME_EXTERNAL_PRIMARY, count);
+    }
+
+    // 拷到 U 盘/SD 卡上的歌：只推进这个卷的 generation
+    public synchronized void append(String volume, int count) {
+        long generation = bump(volume);
+        ensureCapacity(size + count);
+        for (int k = 0; k < count; k++) {
+            int i = size++;
+            ids[i] = 1000 + i;
+            titles[i] = "歌曲" + i;
+            artists[i] = every(spec.unknownArtistEvery, i) ? "<unknown>" : "歌手" + (i % spec.artists);
+            albums[i] = "专辑" + (i % (spec.artists * 3));
+            paths[i] = root(volume) + "/Music/歌手" + (i % spec.artists) + "/song_" + i + ".mp3";
+            durations[i] = every(spec.shortClipEvery, i) ? 5_000 : 180_000 + i % 1000;
+            albumIds[i] = every(spec.missingAlbumEvery, i) ? 0 : 1 + i % (spec.artists * 3);
+            generations[i] = generation;
+            volumes[i] = volume;
+        }
+    }
+
+    public synchronized void retitle(int row, String title) {
+        titles[row] = title;
+        generations[row] = bump(volumes[row]);
+    }
+
+    // 让这一行指向一个真实存在的文件，用于验证读文件标签的路径
+    public synchronized void relocate(int row, String path) {
+        paths[row] = path;
+        generations[row] = bump(volumes[row]);
+    }
+
+    public synchronized void delete(int row) {
+        deleted[row] = true;
+        bump(volumes[row]);
+    }
+
+    // 系统重建了媒体库（比如清除数据），已有索引必须作废
+    public synchronized void resetVersion(String version) {
+        this.version = version;
+    }
+
+    // 之后的完整查询在游标走到第 row 行（从 0 开始）时阻塞，countDown 后继续
+    public CountDownLatch holdAt(int row) {
+        CountDownLatch latch = new CountDownLatch(1);
+        hold = latch;
+        holdRow = row;
+        return latch;
+    }
+
+    public long idOf(int row) { return ids[row]; }
+    public String pathOf(int row) { return paths[row]; }
+
+    // 经过 MusicUtils 过滤后应该留下的行
+    public synchronized int[] expectedRows() {
+        int[] rows = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!deleted[i] && durations[i] > 10_000) rows[count++] = i;
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private long bump(String volume) {
+        long generation = volumeGenerations.getOrDefault(volume, 0L) + 1;
+        volumeGenerations.put(volume, generation);
+        return generation;
+    }
+
+    private static String root(String volume) {
+        return MediaStore.VOLUME_EXTERNAL_PRIMARY.equals(volume) ? "/storage/emulated/0" : "/storage/" + volume;
+    }
+
+    private static boolean every(int n, int i) {
+        return n > 0 && i % n == n - 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) return;
+        ids = Arrays.copyOf(ids, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        artists = Arrays.copyOf(artists, capacity);
+        albums = Arrays.copyOf(albums, capacity);
+        paths = Arrays.copyOf(paths, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        albumIds = Arrays.copyOf(albumIds, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+    }
+
+    // ===== ContentProvider =====
+
+    @Override
+    public synchronized Bundle call(String method, String arg, Bundle extras) {
+        Bundle out = new Bundle();
+        if ("get_version".equals(method)) {
+            out.putString(Intent.EXTRA_TEXT, version);
+        } else if ("get_generation".equals(method)) {
+            String volume = extras != null ? extras.getString(Intent.EXTRA_TEXT) : null;
+            out.putLong(Intent.EXTRA_INDEX, volumeGenerations.getOrDefault(volume, 0L));
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                     String sortOrder) {
+        long minGeneration = -1;
+        if (selection != null && selection.startsWith(GENERATION_SELECTION)) {
+            minGeneration = Long.parseLong(selection.substring(GENERATION_SELECTION.length()).trim());
+            deltaQueries++;
+        } else if (projection != null && projection.length == 1) {
+            idQueries++;
+        } else {
+            fullQueries++;
+        }
+
+        // content://media/<卷>/audio/media；"external" 是所有已挂载卷的合集
+        String volume = uri.getPathSegments().get(0);
+        if (MediaStore.VOLUME_EXTERNAL.equals(volume)) {
+            volume = null;
+        } else {
+            volumeQueries.merge(volume, 1, Integer::sum);
+        }
+
+        int[] rows = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (deleted[i] || generations[i] <= minGeneration) continue;
+            if (volume == null || volume.equals(volumes[i])) rows[count++] = i;
+        }
+        return new RowCursor(projection, Arrays.copyOf(rows, count), projection != null && projection.length > 1);
+    }
+
+    @Override
+    public String getType(Uri uri) { return null; }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    // 直接读内存里的列数组，不经过 MatrixCursor，避免测试本身的分配干扰预算
+    private class RowCursor extends AbstractCursor {
+        private final String[] columns;
+        private final int[] rows;
+        private final boolean holdable;
+
+        RowCursor(String[] columns, int[] rows, boolean holdable) {
+            this.columns = columns;
+            this.rows = rows;
+            this.holdable = holdable;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            CountDownLatch latch = hold;
+            if (holdable && latch != null && newPosition == holdRow) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        }
+
+        @Override public int getCount() { return rows.length; }
+        @Override public String[] getColumnNames() { return columns; }
+
+        @Override
+        public String getString(int column) {
+            int row = rows[getPosition()];
+            switch (columns[column]) {
+                case MediaStore.Audio.Media.TITLE: return titles[row];
+                case MediaStore.Audio.Media.ARTIST: return artists[row];
+                case MediaStore.Audio.Media.ALBUM: return albums[row];
+                case MediaStore.Audio.Media.DATA: return paths[row];
+                default: return isNull(column) ? null : String.valueOf(getLong(column));
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            int row = rows[getPosition()];
+            switch (columns[column]) {
+                case MediaStore.Audio.Media._ID: return ids[row];
+                case MediaStore.Audio.Media.DURATION: return durations[row];
+                case MediaStore.Audio.Media.ALBUM_ID: return albumIds[row];
+                default: return 0;
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return MediaStore.Audio.Media.ALBUM_ID.equals(columns[column]) && albumIds[rows[getPosition()]] == 0;
+        }
+
+        @Override public int getInt(int column) { return (int) getLong(column); }
+        @Override public short getShort(int column) { return (short) getLong(column); }
+        @Override public float getFloat(int column) { return getLong(column); }
+        @Override public double getDouble(int column) { return getLong(column); }
+    }
+}
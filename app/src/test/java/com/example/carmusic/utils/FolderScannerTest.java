@@ -0,0 +1,176 @@
+package com.example.carmusic.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import com.example.carmusic.bean.MusicLibrary;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+// 文件夹扫描：U 盘上的目录结构用临时目录模拟，MediaStore 用 FakeMediaProvider
+@RunWith(RobolectricTestRunner.class)
+public class FolderScannerTest {
+    private static final int RAW_SONGS = 3;
+    private static final int FRAME = 417;          // MPEG1 Layer III 128kbps 44.1kHz 一帧的字节数
+    private static final int LONG_FRAMES = 600;    // 约 15 秒
+    private static final int SHORT_FRAMES = 100;   // 不到 100KB，当成提示音
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Context context = RuntimeEnvironment.getApplication();
+
+    @After
+    public void tearDown() {
+        // FolderScanner 是进程单例，关掉文件夹扫描，不影响其它测试
+        FolderScanner.get(context).setRoots(Collections.emptyList());
+    }
+
+    @Test
+    public void scan_appendsAudioFilesAfterMediaStoreRows() throws Exception {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(20));
+        File root = tmp.newFolder("usb");
+        mp3(new File(root, "b.mp3"), "第二首", LONG_FRAMES);
+        mp3(new File(root, "a/歌.mp3"), "第一首", LONG_FRAMES);
+        mp3(new File(root, "a/deep/untagged.MP3"), null, LONG_FRAMES);
+        mp3(new File(root, "a/ding.mp3"), "提示音", SHORT_FRAMES);
+        mp3(new File(root, ".Trashes/gone.mp3"), "回收站", LONG_FRAMES);
+        Files.write(new File(root, "a/cover.jpg").toPath(), new byte[200 * 1024]);
+        FolderScanner scanner = FolderScanner.get(context);
+        scanner.setRoots(Collections.singleton(root.getPath()));
+
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(16);
+        MusicLibrary scanned = MusicUtils.scanMusicData(context, builder, Integer.MAX_VALUE, snapshot -> true);
+
+        int mediaStoreRows = RAW_SONGS + provider.expectedRows().length;
+        assertEquals(mediaStoreRows + 3, scanned.size());
+        // 按路径排序追加在最后；没有 MediaStore ID，按路径生成稳定 ID
+        assertEquals(new File(root, "a/deep/untagged.MP3").getPath(), scanned.getPath(mediaStoreRows));
+        assertEquals(new File(root, "a/歌.mp3").getPath(), scanned.getPath(mediaStoreRows + 1));
+        assertEquals(new File(root, "b.mp3").getPath(), scanned.getPath(mediaStoreRows + 2));
+        assertEquals(0, scanned.getId(mediaStoreRows + 2));
+        assertTrue(scanned.getStableId(mediaStoreRows + 2) != 0);
+
+        // 标签在后台补读，读完后重建文件夹扫描的行
+        awaitTags(scanner);
+        MusicLibrary library = MusicUtils.withFolders(context, builder, scanned).snapshot();
+
+        assertEquals(scanned.size(), library.size());
+        assertEquals("untagged", library.getTitle(mediaStoreRows));
+        assertEquals("deep", library.getAlbum(mediaStoreRows));
+        assertEquals("未知歌手", library.getArtist(mediaStoreRows));
+        assertEquals("第一首", library.getTitle(mediaStoreRows + 1));
+        assertEquals("第二首", library.getTitle(mediaStoreRows + 2));
+        assertEquals((long) LONG_FRAMES * FRAME * 8 / 128, library.getDuration(mediaStoreRows + 2));
+    }
+
+    @Test
+    public void rescan_picksUpAddedAndDeletedFiles() throws Exception {
+        FakeMediaProvider.install(new FakeMediaProvider.Spec().count(5));
+        File root = tmp.newFolder("sd");
+        mp3(new File(root, "one.mp3"), "一", LONG_FRAMES);
+        mp3(new File(root, "two.mp3"), "二", LONG_FRAMES);
+        FolderScanner scanner = FolderScanner.get(context);
+        scanner.setRoots(Collections.singleton(root.getPath()));
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(16);
+        MusicLibrary first = MusicUtils.scanMusicData(context, builder, Integer.MAX_VALUE, snapshot -> true);
+        awaitTags(scanner);
+        builder = MusicUtils.withFolders(context, builder, first);
+        first = builder.snapshot();
+
+        assertTrue(new File(root, "one.mp3").delete());
+        mp3(new File(root, "new/three.mp3"), "三", LONG_FRAMES);
+        scanner.setRoots(Collections.singleton(root.getPath()));
+        awaitTags(scanner);
+        MusicLibrary second = MusicUtils.withFolders(context, builder, first).snapshot();
+
+        assertFalse(second.isExtensionOf(first)); // 有删除，重建
+        assertEquals(first.size(), second.size()); // 删一首、加一首
+        assertEquals("三", second.getTitle(second.size() - 2));
+        assertEquals("二", second.getTitle(second.size() - 1));
+        // MediaStore 的行原样保留
+        assertEquals(first.getId(RAW_SONGS), second.getId(RAW_SONGS));
+    }
+
+    @Test
+    public void rescan_onlyAddedFiles_extendsLibrary() throws Exception {
+        FakeMediaProvider.install(new FakeMediaProvider.Spec().count(5));
+        File root = tmp.newFolder("sd");
+        mp3(new File(root, "one.mp3"), "一", LONG_FRAMES);
+        FolderScanner scanner = FolderScanner.get(context);
+        scanner.setRoots(Collections.singleton(root.getPath()));
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(16);
+        MusicLibrary first = MusicUtils.scanMusicData(context, builder, Integer.MAX_VALUE, snapshot -> true);
+        awaitTags(scanner);
+        builder = MusicUtils.withFolders(context, builder, first);
+        first = builder.snapshot();
+
+        mp3(new File(root, "two.mp3"), "二", LONG_FRAMES);
+        scanner.setRoots(Collections.singleton(root.getPath()));
+        MusicLibrary second = MusicUtils.withFolders(context, builder, first).snapshot();
+
+        // 只有新增：在原来的构建器上追加，播放队列和列表都能增量处理
+        assertTrue(second.isExtensionOf(first));
+        assertEquals(first.size() + 1, second.size());
+        assertEquals(new File(root, "two.mp3").getPath(), second.getPath(second.size() - 1));
+    }
+
+    @Test
+    public void noRoots_skipsFolderScan() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(10));
+        FolderScanner.get(context).setRoots(Collections.emptyList());
+
+        MusicLibrary library = MusicUtils.getMusicData(context);
+
+        assertEquals(RAW_SONGS + provider.expectedRows().length, library.size());
+    }
+
+    // 等最近一次遍历的标签补读完。先在 FolderScanner 线程排队，排在前面的遍历开始之后才检查
+    private static void awaitTags(FolderScanner scanner) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        FolderScanner.Listener listener = () -> {
+            if (!scanner.isTagging()) done.countDown();
+        };
+        scanner.addListener(listener, -1);
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            scanner.removeListener(listener);
+        }
+    }
+
+    // 最小的 MP3：可选的 ID3v2.3 标题 + 若干个 CBR 帧
+    private static void mp3(File file, String title, int frames) throws IOException {
+        file.getParentFile().mkdirs();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (title != null) {
+            byte[] text = title.getBytes(StandardCharsets.UTF_8);
+            int frameSize = 1 + text.length;
+            int tagSize = 10 + frameSize;
+            out.write(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, (byte) (tagSize >> 7), (byte) (tagSize & 0x7F)});
+            out.write(new byte[]{'T', 'I', 'T', '2', 0, 0, (byte) (frameSize >> 8), (byte) frameSize, 0, 0, 3});
+            out.write(text);
+        }
+        byte[] frame = new byte[FRAME];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        for (int i = 0; i < frames; i++) out.write(frame);
+        Files.write(file.toPath(), out.toByteArray());
+    }
+}
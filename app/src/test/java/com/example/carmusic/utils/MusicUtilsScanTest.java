@@ -0,0 +1,237 @@
+package com.example.carmusic.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.UserHandle;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+import android.provider.MediaStore;
+import com.example.carmusic.bean.MusicLibrary;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.StorageVolumeBuilder;
+
+// 扫描路径的正确性：数据来自 FakeMediaProvider，不需要设备
+@RunWith(RobolectricTestRunner.class)
+public class MusicUtilsScanTest {
+    private static final int RAW_SONGS = 3;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Context context = RuntimeEnvironment.getApplication();
+
+    @Test
+    public void fullScan_filtersAndNormalizesRows() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec()
+                .count(2000).artists(40).unknownArtistEvery(7).shortClipEvery(10).missingAlbumEvery(13));
+
+        MusicLibrary library = MusicUtils.getMusicData(context);
+
+        int[] expected = provider.expectedRows();
+        assertEquals(RAW_SONGS + expected.length, library.size());
+        Set<String> artists = new HashSet<>();
+        for (int k = 0; k < expected.length; k++) {
+            int row = expected[k];
+            int i = RAW_SONGS + k;
+            assertEquals(provider.idOf(row), library.getId(i));
+            assertEquals(provider.pathOf(row), library.getPath(i));
+            assertTrue(library.getDuration(i) > 10_000);
+            // <unknown> 换成中文，缺失的专辑 ID 读成 0，不会崩溃
+            if (row % 7 == 6) assertEquals("未知歌手", library.getArtist(i));
+            if (row % 13 == 12) assertEquals(0, library.getAlbumResId(i));
+            artists.add(library.getArtist(i));
+        }
+        // 重复的歌手只存一份（另加内置音乐的"内置音乐"）
+        assertEquals(artists.size() + 1, library.getArtistCount());
+        assertEquals(1, provider.fullQueries);
+    }
+
+    @Test
+    public void fullScan_fillsOnlyPlaceholderFieldsFromFileTags() throws IOException {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(20).unknownArtistEvery(2));
+        provider.relocate(0, taggedMp3("complete.mp3", "文件里的歌手").getPath());
+        provider.relocate(1, taggedMp3("unknown.mp3", "文件里的歌手").getPath());
+
+        MusicLibrary library = MusicUtils.getMusicData(context);
+
+        // 第 0 行信息齐全，不读文件也不被标签覆盖；第 1 行的 <unknown> 歌手由标签补上，其余字段仍是 MediaStore 的
+        int complete = library.indexOfId(provider.idOf(0));
+        int unknown = library.indexOfId(provider.idOf(1));
+        assertEquals("歌手0", library.getArtist(complete));
+        assertEquals("文件里的歌手", library.getArtist(unknown));
+        assertEquals("歌曲1", library.getTitle(unknown));
+        assertEquals("专辑1", library.getAlbum(unknown));
+    }
+
+    @Test
+    public void streamingScan_deliversCumulativeSnapshots() {
+        FakeMediaProvider.install(new FakeMediaProvider.Spec().count(1050));
+        List<MusicLibrary> batches = new ArrayList<>();
+
+        MusicLibrary library = MusicUtils.scanMusicData(context, 100, snapshot -> {
+            batches.add(snapshot);
+            return true;
+        });
+
+        assertNotNull(library);
+        // 内置音乐一批 + 每 100 首一批 + 最终快照
+        assertEquals(1 + 10 + 1, batches.size());
+        for (int k = 1; k < batches.size(); k++) {
+            assertTrue(batches.get(k).isExtensionOf(batches.get(k - 1)));
+        }
+        assertEquals(library.size(), batches.get(batches.size() - 1).size());
+    }
+
+    @Test
+    public void streamingScan_stopsWhenCancelled() {
+        FakeMediaProvider.install(new FakeMediaProvider.Spec().count(1000));
+        int[] calls = {0};
+
+        MusicLibrary library = MusicUtils.scanMusicData(context, 100, snapshot -> ++calls[0] < 3);
+
+        assertEquals(null, library);
+        assertEquals(3, calls[0]);
+    }
+
+    @Test
+    public void rescan_unchangedStore_readsIndexOnly() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(500));
+        MusicLibrary first = MusicUtils.getMusicData(context);
+
+        MusicLibrary second = MusicUtils.getMusicData(context);
+
+        assertEquals(1, provider.fullQueries);
+        assertEquals(0, provider.deltaQueries);
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.getStableId(i), second.getStableId(i));
+            assertEquals(first.getTitle(i), second.getTitle(i));
+        }
+    }
+
+    @Test
+    public void rescan_changedStore_appliesDelta() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(500));
+        MusicLibrary first = MusicUtils.getMusicData(context);
+        provider.retitle(5, "改过的歌名");
+        provider.delete(8);
+        provider.append(3);
+
+        MusicLibrary second = MusicUtils.getMusicData(context);
+
+        assertEquals(1, provider.fullQueries);
+        assertEquals(1, provider.deltaQueries);
+        assertEquals(first.size() - 1 + 3, second.size());
+        assertEquals("改过的歌名", second.getTitle(second.indexOfId(provider.idOf(5))));
+        assertEquals(-1, second.indexOfId(provider.idOf(8)));
+        // 原有顺序不变，新歌追加在末尾
+        assertEquals(provider.idOf(502), second.getId(second.size() - 1));
+    }
+
+    @Test
+    public void rescan_songsAddedOnRemovableVolume_areQueriedOnThatVolume() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(300));
+        mount(new StorageVolumeBuilder("emulated", new File("/storage/emulated/0"), "内部存储",
+                UserHandle.CURRENT, Environment.MEDIA_MOUNTED).setIsPrimary(true).build());
+        MusicLibrary first = MusicUtils.getMusicData(context);
+
+        // 插上 U 盘并拷入新歌：主存储的 generation 不变，新卷之前没见过，整卷查一次
+        mount(new StorageVolumeBuilder("public:8,1", new File("/storage/1234-ABCD"), "U 盘",
+                UserHandle.CURRENT, Environment.MEDIA_MOUNTED).setIsPrimary(false).setIsRemovable(true)
+                .setFsUuid("1234-ABCD").build());
+        provider.append("1234-abcd", 20);
+        MusicLibrary second = MusicUtils.getMusicData(context);
+
+        assertEquals(first.size() + 20, second.size());
+        assertEquals(provider.idOf(319), second.getId(second.size() - 1));
+        assertEquals(1, (int) provider.volumeQueries.get("1234-abcd"));
+        assertEquals(null, provider.volumeQueries.get(MediaStore.VOLUME_EXTERNAL_PRIMARY));
+
+        // 之后 U 盘上的变化只按这个卷自己的 generation 查增量
+        provider.append("1234-abcd", 5);
+        MusicLibrary third = MusicUtils.getMusicData(context);
+
+        assertEquals(second.size() + 5, third.size());
+        assertEquals(2, provider.fullQueries);
+        assertEquals(1, provider.deltaQueries);
+        assertEquals(null, provider.volumeQueries.get(MediaStore.VOLUME_EXTERNAL_PRIMARY));
+    }
+
+    @Test
+    public void rescan_newMediaStoreVersion_rebuildsIndex() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec().count(200));
+        MusicUtils.getMusicData(context);
+        provider.resetVersion("fake-2");
+
+        MusicUtils.getMusicData(context);
+
+        assertEquals(2, provider.fullQueries);
+    }
+
+    // 只验证 10 万首时的行为，耗时和分配量由 core 的 JMH 基准（LibraryLoadBenchmark、TagReadBenchmark）负责
+    @Test
+    public void fullScan_100k_streamsBatchesInOrder() {
+        FakeMediaProvider provider = FakeMediaProvider.install(new FakeMediaProvider.Spec()
+                .count(100_000).artists(2000).unknownArtistEvery(50).shortClipEvery(20).missingAlbumEvery(30));
+        List<MusicLibrary> batches = new ArrayList<>();
+
+        MusicLibrary library = MusicUtils.scanMusicData(context, 5000, snapshot -> {
+            batches.add(snapshot);
+            return true;
+        });
+
+        int expected = RAW_SONGS + provider.expectedRows().length;
+        assertNotNull(library);
+        assertEquals(expected, library.size());
+        // 第一批外部歌曲在扫描完成前就送出，之后每批都是上一批的延伸，大小按批次递增
+        assertEquals(RAW_SONGS + 5000, batches.get(1).size());
+        for (int k = 1; k < batches.size(); k++) {
+            assertTrue(batches.get(k).isExtensionOf(batches.get(k - 1)));
+            assertTrue(batches.get(k).size() >= batches.get(k - 1).size());
+        }
+        assertEquals(1 + (expected - RAW_SONGS) / 5000 + 1, batches.size());
+        assertEquals(expected, batches.get(batches.size() - 1).size());
+    }
+
+    // 只有 ID3v2.3 歌手帧的 MP3，后面跟 100 个 CBR 帧
+    private File taggedMp3(String name, String artist) throws IOException {
+        byte[] text = artist.getBytes(StandardCharsets.UTF_8);
+        int frameSize = 1 + text.length;
+        int tagSize = 10 + frameSize;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, (byte) (tagSize >> 7), (byte) (tagSize & 0x7F)});
+        out.write(new byte[]{'T', 'P', 'E', '1', 0, 0, (byte) (frameSize >> 8), (byte) frameSize, 0, 0, 3});
+        out.write(text);
+        byte[] frame = new byte[417];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        for (int i = 0; i < 100; i++) out.write(frame);
+        File file = tmp.newFile(name);
+        Files.write(file.toPath(), out.toByteArray());
+        return file;
+    }
+
+    private void mount(StorageVolume volume) {
+        shadowOf(context.getSystemService(StorageManager.class)).addStorageVolume(volume);
+    }
+}
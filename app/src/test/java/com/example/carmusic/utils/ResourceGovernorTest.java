@@ -0,0 +1,76 @@
+package com.example.carmusic.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ComponentCallbacks2;
+import android.os.Looper;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+// 资源调度：按 trim 级别逐层回收、曲库和当前播放永远不动、超预算时先丢界面的再丢缓存
+@RunWith(RobolectricTestRunner.class)
+public class ResourceGovernorTest {
+    private final List<String> trimmed = new ArrayList<>();
+
+    private ResourceGovernor governor(long budget, long ui, long cache, long spare) {
+        ResourceGovernor governor = new ResourceGovernor(budget);
+        governor.register("art", ResourceGovernor.Tier.UI, () -> trimmed.contains("art") ? 0 : ui, () -> trimmed.add("art"));
+        governor.register("browse", ResourceGovernor.Tier.CACHE, () -> cache, () -> trimmed.add("browse"));
+        governor.register("next", ResourceGovernor.Tier.SPARE, () -> spare, () -> trimmed.add("next"));
+        governor.register("library", ResourceGovernor.Tier.ESSENTIAL, () -> 1000, null);
+        return governor;
+    }
+
+    @Test
+    public void onTrimMemory_trimsTiersByLevel() {
+        ResourceGovernor governor = governor(Long.MAX_VALUE, 1, 1, 1);
+
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(List.of("art"), trimmed);
+
+        trimmed.clear();
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(List.of("art", "browse"), trimmed);
+
+        trimmed.clear();
+        governor.onLowMemory();
+        assertEquals(List.of("art", "browse", "next"), trimmed);
+    }
+
+    @Test
+    public void tierForLevel_runningLevelsAreNotComparedNumericallyWithUiHidden() {
+        assertEquals(ResourceGovernor.Tier.SPARE,
+                ResourceGovernor.tierForLevel(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(ResourceGovernor.Tier.UI, ResourceGovernor.tierForLevel(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(ResourceGovernor.Tier.CACHE, ResourceGovernor.tierForLevel(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(ResourceGovernor.Tier.SPARE, ResourceGovernor.tierForLevel(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void check_overBudget_trimsUiFirstAndStopsWhenUnder() {
+        ResourceGovernor governor = governor(1500, 600, 100, 100);
+        assertEquals(1800, governor.footprint());
+
+        governor.check();
+        governor.check(); // 合并成一次
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(2));
+
+        assertEquals(List.of("art"), trimmed);
+        assertEquals(1200, governor.footprint());
+    }
+
+    @Test
+    public void check_neverTrimsSpareOrEssential() {
+        ResourceGovernor governor = governor(100, 10, 10, 500);
+
+        governor.check();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(2));
+
+        assertEquals(List.of("art", "browse"), trimmed);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.carmusic.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// 从 10 万行合成数据构建曲库。配合 -prof gc 的 gc.alloc.rate.norm 可以看出每次加载的分配量
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LibraryLoadBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private SyntheticSource source;
+
+    @Setup
+    public void setup() {
+        source = new SyntheticSource(rows);
+    }
+
+    // 一次性加载（索引命中后的路径）
+    @Benchmark
+    public MusicLibrary loadColumnar() {
+        return source.load(0);
+    }
+
+    // 扫描时每 500 行发一次快照
+    @Benchmark
+    public MusicLibrary loadColumnarWithBatches() {
+        return source.load(500);
+    }
+
+    // 对照组：原来的 List<MusicBean>
+    @Benchmark
+    public List<MusicBean> loadBeanList() {
+        List<MusicBean> list = new ArrayList<>();
+        for (int i = 0; i < source.rows; i++) {
+            list.add(new MusicBean(source.ids[i], source.titles[i], source.artists[i], source.albums[i],
+                    source.paths[i], source.durations[i], source.albumIds[i]));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.carmusic.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+// 每首歌常驻内存的字节数：构建前后各做一次 GC 比较堆占用，结果在报告里的 bytesPerTrack 一列
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MemoryFootprintBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private SyntheticSource source;
+    private Object retained; // 测量期间保持引用
+
+    // EVENTS 类型的计数在各次测量迭代之间是累加的，这里预先除以迭代次数，报告里就是平均值
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double bytesPerTrack;
+        private int iterations;
+        private int rows;
+
+        @Setup(Level.Iteration)
+        public void reset(BenchmarkParams params) {
+            bytesPerTrack = 0;
+            iterations = params.getMeasurement().getCount();
+            rows = Integer.parseInt(params.getParam("rows"));
+        }
+
+        void record(long retainedBytes) {
+            bytesPerTrack = (double) retainedBytes / rows / iterations;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        source = new SyntheticSource(rows);
+    }
+
+    @Benchmark
+    public void columnar(Footprint footprint) {
+        long before = usedHeap();
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(0);
+        for (int i = 0; i < rows; i++) {
+            builder.add(source.ids[i], fresh(source.titles[i]), fresh(source.artists[i]), fresh(source.albums[i]),
+                    fresh(source.paths[i]), source.durations[i], source.albumIds[i]);
+        }
+        retained = builder.snapshot();
+        footprint.record(usedHeap() - before);
+        retained = null;
+    }
+
+    @Benchmark
+    public void beanList(Footprint footprint) {
+        long before = usedHeap();
+        List<MusicBean> list = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            list.add(new MusicBean(source.ids[i], fresh(source.titles[i]), fresh(source.artists[i]),
+                    fresh(source.albums[i]), fresh(source.paths[i]), source.durations[i], source.albumIds[i]));
+        }
+        retained = list;
+        footprint.record(usedHeap() - before);
+        retained = null;
+    }
+
+    // 从 Cursor 读出的每个字符串都是新对象（连底层数组一起），两种结构各自决定留下哪些
+    private static String fresh(String s) {
+        return new String(s.toCharArray());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.carmusic.bean;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// 播放列表上的常用操作：切歌、换列表后按 ID 找回当前歌、列表逐行读取、播放队列的随机和编辑
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueueBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private MusicLibrary library;
+    private MusicLibrary extended;
+    private long lastStableId;
+    private int position;
+    private PlayQueue queue;
+    private PlayQueue shuffled;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        SyntheticSource source = new SyntheticSource(rows);
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(rows);
+        for (int i = 0; i < rows - 1; i++) {
+            builder.add(source.ids[i], source.titles[i], source.artists[i], source.albums[i],
+                    source.paths[i], source.durations[i], source.albumIds[i]);
+        }
+        library = builder.snapshot();
+        builder.add(source.ids[rows - 1], source.titles[rows - 1], source.artists[rows - 1],
+                source.albums[rows - 1], source.paths[rows - 1], source.durations[rows - 1], source.albumIds[rows - 1]);
+        extended = builder.snapshot();
+        lastStableId = library.getStableId(library.size() - 1);
+        queue = PlayQueue.of(library).playRow(rows / 2);
+        shuffled = queue.withShuffle(true);
+    }
+
+    @Benchmark
+    public int skipNext() {
+        position = QueueNavigator.next(position, library.size());
+        return position;
+    }
+
+    @Benchmark
+    public int skipBackFive() {
+        position = QueueNavigator.step(position, -5, library.size());
+        return position;
+    }
+
+    // 扫描追加快照时的判断，应该是常数时间
+    @Benchmark
+    public boolean isExtension() {
+        return extended.isExtensionOf(library);
+    }
+
+    // 列表整个换掉时按稳定 ID 重新定位，最坏情况是最后一首
+    @Benchmark
+    public int relocateByStableId() {
+        return extended.indexOfStableId(lastStableId);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void iterateColumns(Blackhole bh) {
+        for (int i = 0, n = library.size(); i < n; i++) {
+            bh.consume(library.getTitle(i));
+            bh.consume(library.getArtist(i));
+        }
+    }
+
+    // 对照组：每行都新建 MusicBean
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void iterateBeans(Blackhole bh) {
+        for (MusicBean bean : library) {
+            bh.consume(bean.getTitle());
+            bh.consume(bean.getArtist());
+        }
+    }
+
+    // 打开随机：不管多少首都只建几段，不打乱数组
+    @Benchmark
+    public PlayQueue shuffleOn() {
+        return queue.withShuffle(true);
+    }
+
+    @Benchmark
+    public int shuffledRowAt() {
+        counter = (counter + 7919) % rows;
+        return shuffled.rowAt(counter);
+    }
+
+    // 插到下一首再拖到别处，旧快照不变，所以每次都从同一个队列开始
+    @Benchmark
+    public PlayQueue playNextThenMove() {
+        counter = (counter + 7919) % rows;
+        return shuffled.playNext(counter).move(shuffled.getPosition() + 1, counter);
+    }
+}
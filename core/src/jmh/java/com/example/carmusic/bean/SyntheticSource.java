@@ -0,0 +1,55 @@
+package com.example.carmusic.bean;
+
+import java.util.Random;
+
+// 模拟 MediaStore 查询结果的合成数据：固定种子，每次生成的内容完全相同，不同版本之间的结果才有可比性。
+// 歌手、专辑、文件夹的重复程度按真实车机曲库估计
+final class SyntheticSource {
+    final int rows;
+    final long[] ids;
+    final String[] titles;
+    final String[] artists;
+    final String[] albums;
+    final String[] paths;
+    final long[] durations;
+    final long[] albumIds;
+
+    SyntheticSource(int rows) {
+        this.rows = rows;
+        ids = new long[rows];
+        titles = new String[rows];
+        artists = new String[rows];
+        albums = new String[rows];
+        paths = new String[rows];
+        durations = new long[rows];
+        albumIds = new long[rows];
+
+        Random random = new Random(42);
+        int artistCount = Math.max(1, rows / 50);
+        int albumCount = Math.max(1, rows / 12);
+        int folderCount = Math.max(1, rows / 2000);
+        for (int i = 0; i < rows; i++) {
+            int album = random.nextInt(albumCount);
+            ids[i] = 1000 + i;
+            // 每次都新建字符串，和从 Cursor 读出来的情况一致，字典编码需要真的去比较内容
+            titles[i] = new String("Track " + i + " 第" + (i % 97) + "首");
+            artists[i] = new String("Artist " + (album % artistCount));
+            albums[i] = new String("Album " + album);
+            paths[i] = "/storage/emulated/0/Music/Folder" + random.nextInt(folderCount) + "/track_" + i + ".mp3";
+            durations[i] = 60_000 + random.nextInt(300_000);
+            albumIds[i] = album;
+        }
+    }
+
+    // 和 MusicUtils 扫描时一样逐行加入构建器
+    MusicLibrary load(int batchSize) {
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(0);
+        MusicLibrary last = MusicLibrary.EMPTY;
+        for (int i = 0; i < rows; i++) {
+            builder.add(ids[i], titles[i], artists[i], albums[i], paths[i], durations[i], albumIds[i]);
+            if (batchSize > 0 && builder.size() % batchSize == 0) last = builder.snapshot();
+        }
+        MusicLibrary library = builder.snapshot();
+        return library.size() > 0 ? library : last;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.carmusic.tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+// 扫描时读文件标签的开销，文件是真实写在磁盘上的（单元测试里 FakeMediaProvider 的路径并不存在，覆盖不到这部分）。
+// 车机上 10 万首全量扫描的目标是 3 秒以内、每首分配不超过 1KB：这里的 ms/op 除以 files 乘以 10 万，
+// 加上 LibraryLoadBenchmark 的构建时间，和这个目标对照；gc.alloc.rate.norm 除以 files 对照分配量
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TagReadBenchmark {
+    private static final int CHUNK = 256;  // 和 MusicUtils 每次交给 readAll 的行数一致
+    private static final int FRAME = 417;  // MPEG1 Layer III 128kbps 44.1kHz
+
+    @Param({"2000"})
+    public int files;
+
+    private File dir;
+    private String[] paths;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tagbench").toFile();
+        paths = new String[files];
+        for (int i = 0; i < files; i++) {
+            File file = new File(dir, "track_" + i + ".mp3");
+            Files.write(file.toPath(), mp3("Track " + i, "Artist " + (i % 40), "Album " + (i % 160)));
+            paths[i] = file.getPath();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (String path : paths) new File(path).delete();
+        dir.delete();
+    }
+
+    // 扫描的做法：按块并行读
+    @Benchmark
+    public void readAllInChunks(Blackhole bh) {
+        String[] chunk = new String[CHUNK];
+        for (int start = 0; start < files; start += CHUNK) {
+            int count = Math.min(CHUNK, files - start);
+            System.arraycopy(paths, start, chunk, 0, count);
+            bh.consume(TagReader.readAll(chunk, count));
+        }
+    }
+
+    // 对照组：单线程逐个读
+    @Benchmark
+    public void readSequential(Blackhole bh) {
+        for (String path : paths) bh.consume(TagReader.read(path));
+    }
+
+    // ID3v2.3 的标题、歌手、专辑 + 100 个 CBR 帧
+    private static byte[] mp3(String title, String artist, String album) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        textFrame(frames, "TIT2", title);
+        textFrame(frames, "TPE1", artist);
+        textFrame(frames, "TALB", album);
+        int tagSize = frames.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'I', 'D', '3', 3, 0, 0,
+                (byte) (tagSize >> 21 & 0x7F), (byte) (tagSize >> 14 & 0x7F),
+                (byte) (tagSize >> 7 & 0x7F), (byte) (tagSize & 0x7F)});
+        frames.writeTo(out);
+        byte[] frame = new byte[FRAME];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        for (int i = 0; i < 100; i++) out.write(frame);
+        return out.toByteArray();
+    }
+
+    private static void textFrame(ByteArrayOutputStream out, String id, String value) throws IOException {
+        byte[] text = value.getBytes(StandardCharsets.UTF_8);
+        int size = 1 + text.length;
+        out.write(id.getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[]{(byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size, 0, 0, 3});
+        out.write(text);
+    }
+}
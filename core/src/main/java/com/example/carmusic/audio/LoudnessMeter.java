@@ -0,0 +1,129 @@
+package com.example.carmusic.audio;
+
+import java.nio.ByteBuffer;
+
+// EBU R128 / ITU-R BS.1770 积分响度：K 计权（高架 + 高通两级双二阶），400ms 块、75% 重叠，
+// -70 LUFS 绝对门限 + 相对 -10 LU 门限。块响度按 0.1 LU 分箱累计，内存占用和曲目长度无关。
+// 只处理左右两个声道，输入是解码器输出的 16 位 PCM，处理过程中不分配对象
+public final class LoudnessMeter {
+    private static final double ABSOLUTE_GATE = -70;
+    private static final double RELATIVE_GATE = -10;
+    private static final double BIN_LU = 0.1;
+    private static final int BINS = (int) ((5 - ABSOLUTE_GATE) / BIN_LU); // 上限 +5 LUFS
+
+    // 两级滤波的系数，b0 b1 b2 a1 a2
+    private final double[] shelf = new double[5];
+    private final double[] highPass = new double[5];
+    // 每个声道两级各两个状态
+    private final double[] state = new double[2 * 4];
+
+    private final int subBlockFrames; // 100ms
+    private final double[] subBlocks = new double[4]; // 最近 4 个子块的能量和
+    private int subBlockCount;
+    private int subBlockFill;
+    private double subBlockEnergy;
+
+    private final long[] binCounts = new long[BINS];
+    private final double[] binEnergy = new double[BINS];
+    private int peak;
+
+    public LoudnessMeter(int sampleRate) {
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        shelf[0] = (vh + vb * k / q + k * k) / a0;
+        shelf[1] = 2 * (k * k - vh) / a0;
+        shelf[2] = (vh - vb * k / q + k * k) / a0;
+        shelf[3] = 2 * (k * k - 1) / a0;
+        shelf[4] = (1 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        highPass[0] = 1;
+        highPass[1] = -2;
+        highPass[2] = 1;
+        highPass[3] = 2 * (k * k - 1) / a0;
+        highPass[4] = (1 - k / q + k * k) / a0;
+
+        subBlockFrames = Math.max(1, sampleRate / 10);
+    }
+
+    // src 里 [offset, offset + bytes) 的 16 位 PCM（本机字节序），单声道按双声道都有声音算
+    public void process(ByteBuffer src, int offset, int bytes, int channels) {
+        int stride = 2 * channels;
+        int frames = bytes / stride;
+        int pos = offset;
+        for (int i = 0; i < frames; i++, pos += stride) {
+            short left = src.getShort(pos);
+            short right = channels > 1 ? src.getShort(pos + 2) : left;
+            peak = Math.max(peak, Math.max(Math.abs((int) left), Math.abs((int) right)));
+            double l = filter(0, left / 32768.0);
+            double r = filter(1, right / 32768.0);
+            subBlockEnergy += l * l + r * r;
+            if (++subBlockFill == subBlockFrames) endSubBlock();
+        }
+    }
+
+    // 积分响度（LUFS）；有效内容不足一个块或全是静音时返回负无穷
+    public double integratedLoudness() {
+        long count = 0;
+        double energy = 0;
+        for (int i = 0; i < BINS; i++) {
+            count += binCounts[i];
+            energy += binEnergy[i];
+        }
+        if (count == 0) return Double.NEGATIVE_INFINITY;
+        double threshold = loudness(energy / count) + RELATIVE_GATE;
+        int first = Math.max(0, (int) Math.floor((threshold - ABSOLUTE_GATE) / BIN_LU));
+        count = 0;
+        energy = 0;
+        for (int i = first; i < BINS; i++) {
+            count += binCounts[i];
+            energy += binEnergy[i];
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : loudness(energy / count);
+    }
+
+    // 采样峰值，0..1
+    public float samplePeak() { return peak / 32768f; }
+
+    // 调到 targetLufs 需要的线性增益，不让峰值超过满幅；测不出响度时返回 1
+    public static float gainFor(double loudness, float peak, double targetLufs) {
+        if (Double.isNaN(loudness) || Double.isInfinite(loudness)) return 1f;
+        double gain = Math.pow(10, (targetLufs - loudness) / 20);
+        if (peak > 0) gain = Math.min(gain, 1 / peak);
+        return (float) gain;
+    }
+
+    private double filter(int channel, double x) {
+        int s = channel * 4;
+        double y = shelf[0] * x + state[s];
+        state[s] = shelf[1] * x - shelf[3] * y + state[s + 1];
+        state[s + 1] = shelf[2] * x - shelf[4] * y;
+        double z = highPass[0] * y + state[s + 2];
+        state[s + 2] = highPass[1] * y - highPass[3] * z + state[s + 3];
+        state[s + 3] = highPass[2] * y - highPass[4] * z;
+        return z;
+    }
+
+    private void endSubBlock() {
+        subBlocks[subBlockCount % 4] = subBlockEnergy;
+        subBlockCount++;
+        subBlockEnergy = 0;
+        subBlockFill = 0;
+        if (subBlockCount < 4) return;
+        double blockEnergy = (subBlocks[0] + subBlocks[1] + subBlocks[2] + subBlocks[3]) / (4.0 * subBlockFrames);
+        double l = loudness(blockEnergy);
+        if (!(l > ABSOLUTE_GATE)) return;
+        int bin = Math.min(BINS - 1, (int) ((l - ABSOLUTE_GATE) / BIN_LU));
+        binCounts[bin]++;
+        binEnergy[bin] += blockEnergy;
+    }
+
+    private static double loudness(double meanSquare) {
+        return -0.691 + 10 * Math.log10(meanSquare);
+    }
+}
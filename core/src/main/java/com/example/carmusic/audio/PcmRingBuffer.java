@@ -0,0 +1,125 @@
+package com.example.carmusic.audio;
+
+import java.nio.ByteBuffer;
+
+// 解码线程写、输出线程读的 PCM 环形缓冲区：16 位立体声交错存放，数组在构造时一次分配，之后读写都不分配对象。
+// 位置以"帧"计，从曲目开头算起。已经播放过的数据保留 history 帧不被覆盖，
+// seek 的目标还在缓冲区里时（往回不超过 history，往前不超过已解码的部分）只移动读指针，不用重新解码
+public final class PcmRingBuffer {
+    public static final int CHANNELS = 2;
+
+    private final short[] data;
+    private final int capacity; // 帧
+    private final int history;  // 帧
+    private long start;         // reset 之后第一帧的位置，比它早的数据无效
+    private long read;
+    private long write;
+    private boolean endOfStream;
+    private boolean closed;
+    private int generation;     // 每次 reset 加一，写入方拿着旧的代号写入会失败
+
+    public PcmRingBuffer(int capacityFrames, int historyFrames) {
+        if (historyFrames < 0 || historyFrames >= capacityFrames) throw new IllegalArgumentException("history");
+        data = new short[capacityFrames * CHANNELS];
+        capacity = capacityFrames;
+        history = historyFrames;
+    }
+
+    public int capacityFrames() { return capacity; }
+
+    // 清空并从 frame 开始重新写，返回新的代号；等待中的写入方会被唤醒并失败
+    public synchronized int reset(long frame) {
+        start = frame;
+        read = frame;
+        write = frame;
+        endOfStream = false;
+        generation++;
+        notifyAll();
+        return generation;
+    }
+
+    public synchronized int generation() { return generation; }
+
+    // 关闭后所有写入失败、等待都会返回；reopen 之后可以给下一首重新使用
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized int reopen() {
+        closed = false;
+        return reset(0);
+    }
+
+    // 解码线程调用：写入 src 里 [offset, offset + bytes) 的 16 位 PCM（本机字节序，channels 个声道），
+    // 单声道复制成双声道，多于两个声道只取前两个。空间不够时等待读取方。
+    // 期间发生了 reset 或 close 返回 false，这块数据作废
+    public boolean write(ByteBuffer src, int offset, int bytes, int channels, int expectedGeneration)
+            throws InterruptedException {
+        int stride = 2 * channels;
+        int frames = bytes / stride;
+        int done = 0;
+        while (done < frames) {
+            synchronized (this) {
+                while (!closed && expectedGeneration == generation && write - read >= capacity - history) wait();
+                if (closed || expectedGeneration != generation) return false;
+                int n = (int) Math.min(capacity - history - (write - read), frames - done);
+                int pos = offset + done * stride;
+                for (int i = 0; i < n; i++, pos += stride) {
+                    short left = src.getShort(pos);
+                    int slot = (int) ((write + i) % capacity) * CHANNELS;
+                    data[slot] = left;
+                    data[slot + 1] = channels > 1 ? src.getShort(pos + 2) : left;
+                }
+                write += n;
+                done += n;
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    public synchronized void markEndOfStream(int expectedGeneration) {
+        if (expectedGeneration != generation) return;
+        endOfStream = true;
+        notifyAll();
+    }
+
+    // 解码线程在流结束后等待 seek（reset）或关闭
+    public synchronized void awaitReset(int expectedGeneration) throws InterruptedException {
+        while (!closed && expectedGeneration == generation) wait();
+    }
+
+    // 输出线程调用：最多读 frames 帧到 dst[dstFrame...]，不等待，返回实际读到的帧数
+    public synchronized int read(short[] dst, int dstFrame, int frames) {
+        int n = (int) Math.min(frames, write - read);
+        int copied = 0;
+        while (copied < n) {
+            int slot = (int) ((read + copied) % capacity);
+            int run = Math.min(n - copied, capacity - slot); // 到数组末尾为止的连续一段
+            System.arraycopy(data, slot * CHANNELS, dst, (dstFrame + copied) * CHANNELS, run * CHANNELS);
+            copied += run;
+        }
+        read += n;
+        if (n > 0) notifyAll();
+        return n;
+    }
+
+    // 输出线程在欠载时等待新数据，最多等 timeoutMs
+    public synchronized void awaitData(long timeoutMs) throws InterruptedException {
+        if (write == read && !endOfStream && !closed) wait(timeoutMs);
+    }
+
+    // 目标还在缓冲区里时移动读指针并返回 true；否则什么都不做，由调用方 reset 后重新解码
+    public synchronized boolean seekWithin(long frame) {
+        if (frame < Math.max(start, write - capacity) || frame > write) return false;
+        read = frame;
+        notifyAll();
+        return true;
+    }
+
+    public synchronized long readPosition() { return read; }
+    public synchronized long available() { return write - read; }
+    public synchronized boolean isEndOfStream() { return endOfStream; }
+    public synchronized boolean isDrained() { return endOfStream && read == write; }
+}
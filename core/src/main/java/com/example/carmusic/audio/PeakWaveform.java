@@ -0,0 +1,35 @@
+package com.example.carmusic.audio;
+
+import java.nio.ByteBuffer;
+
+// 降采样的峰值波形：把整首歌按预计的总帧数分成固定个数的桶，每桶记最大绝对值，输出 0..255。
+// 预计帧数来自文件头里的时长，实际更长时多出来的部分算进最后一桶
+public final class PeakWaveform {
+    private final int[] peaks;
+    private final long totalFrames;
+    private long frames;
+
+    public PeakWaveform(int buckets, long expectedFrames) {
+        peaks = new int[buckets];
+        totalFrames = Math.max(1, expectedFrames);
+    }
+
+    public void process(ByteBuffer src, int offset, int bytes, int channels) {
+        int stride = 2 * channels;
+        int count = bytes / stride;
+        int pos = offset;
+        for (int i = 0; i < count; i++, pos += stride) {
+            int bucket = (int) Math.min(peaks.length - 1, frames * peaks.length / totalFrames);
+            int v = Math.abs((int) src.getShort(pos));
+            if (channels > 1) v = Math.max(v, Math.abs((int) src.getShort(pos + 2)));
+            if (v > peaks[bucket]) peaks[bucket] = v;
+            frames++;
+        }
+    }
+
+    public byte[] toBytes() {
+        byte[] out = new byte[peaks.length];
+        for (int i = 0; i < peaks.length; i++) out[i] = (byte) Math.min(255, peaks[i] * 255 / 32767);
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.carmusic.bean;
+
+import java.io.Serializable;
+
+public class MusicBean implements Serializable {
+    private long id;         // MediaStore 的 _ID，内置音乐为负数
+    private String title;
+    private String artist;
+    private String album;
+    private String path;
+    private long duration;
+    private long albumResId; // ✅ 统一变量名为 albumResId
+    private int trackNumber;
+    private long artOffset = -1; // 内嵌封面在文件里的偏移，-1 表示没有
+    private int artLength;
+
+    public MusicBean() {
+    }
+
+    // 构造方法
+    public MusicBean(String title, String artist, String path, long duration, long albumResId) {
+        this.title = title;
+        this.artist = artist;
+        this.path = path;
+        this.duration = duration;
+        this.albumResId = albumResId;
+    }
+
+    public MusicBean(long id, String title, String artist, String path, long duration, long albumResId) {
+        this(title, artist, path, duration, albumResId);
+        this.id = id;
+    }
+
+    public MusicBean(long id, String title, String artist, String album, String path, long duration, long albumResId) {
+        this(id, title, artist, path, duration, albumResId);
+        this.album = album;
+    }
+
+    public MusicBean(long id, String title, String artist, String album, String path, long duration, long albumResId,
+                     int trackNumber, long artOffset, int artLength) {
+        this(id, title, artist, album, path, duration, albumResId);
+        this.trackNumber = trackNumber;
+        this.artOffset = artOffset;
+        this.artLength = artLength;
+    }
+
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+
+    public String getArtist() { return artist; }
+    public void setArtist(String artist) { this.artist = artist; }
+
+    public String getAlbum() { return album; }
+    public void setAlbum(String album) { this.album = album; }
+
+    public String getPath() { return path; }
+    public void setPath(String path) { this.path = path; }
+
+    public long getDuration() { return duration; }
+    public void setDuration(long duration) { this.duration = duration; }
+
+    // ✅ Getter 方法名必须叫 getAlbumResId，才能配合 MainActivity
+    public long getAlbumResId() { return albumResId; }
+    public void setAlbumResId(long albumResId) { this.albumResId = albumResId; }
+
+    public int getTrackNumber() { return trackNumber; }
+    public void setTrackNumber(int trackNumber) { this.trackNumber = trackNumber; }
+
+    public long getArtOffset() { return artOffset; }
+    public void setArtOffset(long artOffset) { this.artOffset = artOffset; }
+
+    public int getArtLength() { return artLength; }
+    public void setArtLength(int artLength) { this.artLength = artLength; }
+}
\ No newline at end of file
@@ -0,0 +1,328 @@
+package com.example.carmusic.bean;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 列式存储的只读曲库快照：每一列是一个基本类型数组，歌手/专辑/文件夹做字典编码，
+// 相同的字符串在整个曲库里只存一份。快照不可变，在线程间传递只需要传引用
+// 加歌的同时按歌手/专辑/文件夹分组，浏览时不用再遍历整个曲库
+public class MusicLibrary extends AbstractList<MusicBean> implements RandomAccess {
+    private static final AtomicInteger NEXT_SOURCE = new AtomicInteger();
+
+    public static final MusicLibrary EMPTY = new Builder(0).snapshot();
+
+    private final int source; // 同一个 Builder 产生的快照 source 相同
+    private final int size;
+    private final long[] ids;
+    private final long[] durations;
+    private final long[] albumResIds;
+    private final int[] trackNumbers;
+    private final long[] artOffsets; // 内嵌封面的偏移和长度，-1 表示没有
+    private final int[] artLengths;
+    private final String[] titles;
+    private final String[] fileNames;
+    private final int[] artistRefs;
+    private final int[] albumRefs;
+    private final int[] folderRefs; // -1 表示路径里没有 '/'
+    private final String[] artistDict;
+    private final String[] albumDict;
+    private final String[] folderDict;
+    private final int artistCount;
+    private final int albumCount;
+    private final int folderCount;
+    private final RowGroups artistGroups;
+    private final RowGroups albumGroups;
+    private final RowGroups folderGroups;
+    private long estimatedBytes = -1; // 第一次查询时算出；并发时可能算两次，结果相同
+
+    private MusicLibrary(Builder b) {
+        source = b.source;
+        size = b.size;
+        ids = b.ids;
+        durations = b.durations;
+        albumResIds = b.albumResIds;
+        trackNumbers = b.trackNumbers;
+        artOffsets = b.artOffsets;
+        artLengths = b.artLengths;
+        titles = b.titles;
+        fileNames = b.fileNames;
+        artistRefs = b.artistRefs;
+        albumRefs = b.albumRefs;
+        folderRefs = b.folderRefs;
+        artistDict = b.artists.values;
+        albumDict = b.albums.values;
+        folderDict = b.folders.values;
+        artistCount = b.artists.count;
+        albumCount = b.albums.count;
+        folderCount = b.folders.count;
+        artistGroups = b.artistGroups.snapshot();
+        albumGroups = b.albumGroups.snapshot();
+        folderGroups = b.folderGroups.snapshot();
+    }
+
+    @Override public int size() { return size; }
+
+    // 兼容 List<MusicBean> 的用法，每次调用都会新建对象；热路径请用下面的按下标访问
+    @Override
+    public MusicBean get(int i) {
+        checkIndex(i);
+        return new MusicBean(ids[i], titles[i], getArtist(i), getAlbum(i), getPath(i), durations[i], albumResIds[i],
+                trackNumbers[i], artOffsets[i], artLengths[i]);
+    }
+
+    public long getId(int i) { checkIndex(i); return ids[i]; }
+    public String getTitle(int i) { checkIndex(i); return titles[i]; }
+    public String getArtist(int i) { checkIndex(i); return artistDict[artistRefs[i]]; }
+    public String getAlbum(int i) { checkIndex(i); return albumDict[albumRefs[i]]; }
+    public long getDuration(int i) { checkIndex(i); return durations[i]; }
+    public long getAlbumResId(int i) { checkIndex(i); return albumResIds[i]; }
+    public String getFileName(int i) { checkIndex(i); return fileNames[i]; }
+    public int getTrackNumber(int i) { checkIndex(i); return trackNumbers[i]; }
+    public long getArtOffset(int i) { checkIndex(i); return artOffsets[i]; }
+    public int getArtLength(int i) { checkIndex(i); return artLengths[i]; }
+
+    public String getFolder(int i) {
+        checkIndex(i);
+        return folderRefs[i] < 0 ? null : folderDict[folderRefs[i]];
+    }
+
+    public String getPath(int i) {
+        checkIndex(i);
+        return folderRefs[i] < 0 ? fileNames[i] : folderDict[folderRefs[i]] + '/' + fileNames[i];
+    }
+
+    public long getStableId(int i) {
+        checkIndex(i);
+        return ids[i] != 0 ? ids[i] : stableId(0, getPath(i));
+    }
+
+    // 字典编号，分组、序列化时使用
+    public int getArtistRef(int i) { checkIndex(i); return artistRefs[i]; }
+    public int getAlbumRef(int i) { checkIndex(i); return albumRefs[i]; }
+    public int getFolderRef(int i) { checkIndex(i); return folderRefs[i]; }
+    public int getArtistCount() { return artistCount; }
+    public int getAlbumCount() { return albumCount; }
+    public int getFolderCount() { return folderCount; }
+    public String getArtistByRef(int ref) { return artistDict[ref]; }
+    public String getAlbumByRef(int ref) { return albumDict[ref]; }
+    public String getFolderByRef(int ref) { return folderDict[ref]; }
+
+    // 按字典编号分组的行号：第 ref 组就是 getArtistByRef(ref) 的所有歌，按行号升序
+    public RowGroups getArtistGroups() { return artistGroups; }
+    public RowGroups getAlbumGroups() { return albumGroups; }
+    public RowGroups getFolderGroups() { return folderGroups; } // 不含路径里没有 '/' 的行
+
+    // 大约占用的堆内存（字节），资源统计用：列数组按容量算，字符串按 UTF-16 加对象头估算。
+    // 同一个 Builder 的快照共用数组，分别统计会重复计算
+    public long estimatedBytes() {
+        long bytes = estimatedBytes;
+        if (bytes >= 0) return bytes;
+        bytes = (long) ids.length * (4 * 8 + 5 * 4 + 2 * 4);
+        for (int i = 0; i < size; i++) bytes += stringBytes(titles[i]) + stringBytes(fileNames[i]);
+        for (int i = 0; i < artistCount; i++) bytes += stringBytes(artistDict[i]);
+        for (int i = 0; i < albumCount; i++) bytes += stringBytes(albumDict[i]);
+        for (int i = 0; i < folderCount; i++) bytes += stringBytes(folderDict[i]);
+        bytes += artistGroups.estimatedBytes() + albumGroups.estimatedBytes() + folderGroups.estimatedBytes();
+        estimatedBytes = bytes;
+        return bytes;
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : 24 + 2L * s.length();
+    }
+
+    // 同一个 Builder 后来生成的快照只会在末尾追加，前面的行完全相同
+    public boolean isExtensionOf(MusicLibrary other) {
+        return other != null && source == other.source && size >= other.size;
+    }
+
+    public int indexOfId(long id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) return i;
+        }
+        return -1;
+    }
+
+    public int indexOfStableId(long stableId) {
+        for (int i = 0; i < size; i++) {
+            if (getStableId(i) == stableId) return i;
+        }
+        return -1;
+    }
+
+    // MediaStore 行用 _ID，没有 ID 的（如直接扫描文件夹得到的）按路径生成
+    public static long stableId(long id, String path) {
+        if (id != 0) return id;
+        return path == null ? 0 : ((long) path.hashCode() << 32) | (path.length() & 0xFFFFFFFFL);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+    }
+
+    // 只追加的构建器。snapshot() 不复制数组：扩容时换新数组，旧快照继续引用旧数组，
+    // 新行只写在旧快照的 size 之后，所以已发出的快照永远不会变
+    // 构建器本身只能在一个线程里使用
+    public static class Builder {
+        private final int source = NEXT_SOURCE.incrementAndGet();
+        private int size;
+        private long[] ids;
+        private long[] durations;
+        private long[] albumResIds;
+        private int[] trackNumbers;
+        private long[] artOffsets;
+        private int[] artLengths;
+        private String[] titles;
+        private String[] fileNames;
+        private int[] artistRefs;
+        private int[] albumRefs;
+        private int[] folderRefs;
+        private final Dictionary artists = new Dictionary();
+        private final Dictionary albums = new Dictionary();
+        private final Dictionary folders = new Dictionary();
+        private final RowGroups.Builder artistGroups = new RowGroups.Builder();
+        private final RowGroups.Builder albumGroups = new RowGroups.Builder();
+        private final RowGroups.Builder folderGroups = new RowGroups.Builder();
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            ids = new long[capacity];
+            durations = new long[capacity];
+            albumResIds = new long[capacity];
+            trackNumbers = new int[capacity];
+            artOffsets = new long[capacity];
+            artLengths = new int[capacity];
+            titles = new String[capacity];
+            fileNames = new String[capacity];
+            artistRefs = new int[capacity];
+            albumRefs = new int[capacity];
+            folderRefs = new int[capacity];
+        }
+
+        public int size() { return size; }
+
+        public Builder add(MusicBean bean) {
+            return add(bean.getId(), bean.getTitle(), bean.getArtist(), bean.getAlbum(), bean.getPath(),
+                    bean.getDuration(), bean.getAlbumResId(), bean.getTrackNumber(), bean.getArtOffset(), bean.getArtLength());
+        }
+
+        public Builder add(long id, String title, String artist, String album, String path,
+                           long duration, long albumResId) {
+            return add(id, title, artist, album, path, duration, albumResId, 0, -1, 0);
+        }
+
+        public Builder add(long id, String title, String artist, String album, String path,
+                           long duration, long albumResId, int trackNumber, long artOffset, int artLength) {
+            String folder = null;
+            String fileName = path;
+            int slash = path == null ? -1 : path.lastIndexOf('/');
+            if (slash >= 0) {
+                folder = path.substring(0, slash);
+                fileName = path.substring(slash + 1);
+            }
+            return add(id, title, artist, album, folder, fileName, duration, albumResId, trackNumber, artOffset, artLength);
+        }
+
+        public Builder add(long id, String title, String artist, String album, String folder,
+                           String fileName, long duration, long albumResId) {
+            return add(id, title, artist, album, folder, fileName, duration, albumResId, 0, -1, 0);
+        }
+
+        public Builder add(long id, String title, String artist, String album, String folder, String fileName,
+                           long duration, long albumResId, int trackNumber, long artOffset, int artLength) {
+            ensureCapacity(size + 1);
+            ids[size] = id;
+            durations[size] = duration;
+            albumResIds[size] = albumResId;
+            trackNumbers[size] = trackNumber;
+            artOffsets[size] = artOffset;
+            artLengths[size] = artLength;
+            titles[size] = title;
+            fileNames[size] = fileName;
+            artistRefs[size] = artists.intern(artist);
+            // 同名的不同专辑分开：有 MediaStore 专辑 ID 的按 ID，没有的（文件夹扫描、内置音乐）按歌手 + 专辑名
+            albumRefs[size] = albums.intern(albumResId > 0
+                    ? Long.valueOf(albumResId) : new AlbumKey(artistRefs[size], album), album);
+            folderRefs[size] = folder == null ? -1 : folders.intern(folder);
+            artistGroups.add(artistRefs[size], size);
+            albumGroups.add(albumRefs[size], size);
+            if (folderRefs[size] >= 0) folderGroups.add(folderRefs[size], size);
+            size++;
+            return this;
+        }
+
+        // 从另一个快照复制一行，字符串直接复用，不重新分配
+        public Builder addFrom(MusicLibrary lib, int i) {
+            return add(lib.getId(i), lib.getTitle(i), lib.getArtist(i), lib.getAlbum(i),
+                    lib.getFolder(i), lib.getFileName(i), lib.getDuration(i), lib.getAlbumResId(i),
+                    lib.getTrackNumber(i), lib.getArtOffset(i), lib.getArtLength(i));
+        }
+
+        public MusicLibrary snapshot() { return new MusicLibrary(this); }
+
+        private void ensureCapacity(int min) {
+            if (min <= ids.length) return;
+            int cap = Math.max(min, ids.length + (ids.length >> 1));
+            ids = Arrays.copyOf(ids, cap);
+            durations = Arrays.copyOf(durations, cap);
+            albumResIds = Arrays.copyOf(albumResIds, cap);
+            trackNumbers = Arrays.copyOf(trackNumbers, cap);
+            artOffsets = Arrays.copyOf(artOffsets, cap);
+            artLengths = Arrays.copyOf(artLengths, cap);
+            titles = Arrays.copyOf(titles, cap);
+            fileNames = Arrays.copyOf(fileNames, cap);
+            artistRefs = Arrays.copyOf(artistRefs, cap);
+            albumRefs = Arrays.copyOf(albumRefs, cap);
+            folderRefs = Arrays.copyOf(folderRefs, cap);
+        }
+    }
+
+    // 字符串字典，编号从 0 开始按首次出现顺序分配；null 当作空串
+    private static class Dictionary {
+        private final Map<Object, Integer> refs = new HashMap<>();
+        private String[] values = new String[16];
+        private int count;
+
+        int intern(String s) {
+            return intern(s == null ? "" : s, s);
+        }
+
+        // 按 key 区分，存的是第一次出现时的 s；key 不同而 s 相同时各占一个编号
+        int intern(Object key, String s) {
+            if (s == null) s = "";
+            Integer ref = refs.get(key);
+            if (ref != null) return ref;
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count] = s;
+            refs.put(key, count);
+            return count++;
+        }
+    }
+
+    // 没有专辑 ID 时的专辑键
+    private static final class AlbumKey {
+        final int artist;
+        final String album;
+
+        AlbumKey(int artist, String album) {
+            this.artist = artist;
+            this.album = album == null ? "" : album;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AlbumKey)) return false;
+            AlbumKey other = (AlbumKey) o;
+            return artist == other.artist && album.equals(other.album);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * artist + album.hashCode();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.carmusic.bean;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// 播放队列：不可变快照，所有修改都返回新对象（写时复制），任何线程拿到的都是完整的一份。
+// 队列不存曲目本身，只存"曲库行号"的序列，而且按段存：一段是某个行号区间在某个排列下的连续一截。
+// 自然顺序就是一段，随机播放是同一区间换一个伪随机排列（Feistel 置换，按需计算，不生成数组），
+// 插入、移动、删除只在段的边界切开。段放在持久化的隐式 treap 里（按元素个数定位，路径复制），
+// 所以 10 万首的队列上所有操作都是 O(log 段数)，旧快照不受影响
+public final class PlayQueue {
+
+    public enum Repeat { OFF, ALL, ONE }
+
+    public static final PlayQueue EMPTY = of(MusicLibrary.EMPTY);
+
+    private final MusicLibrary library;
+    private final Node root;
+    private final int position; // 当前播放的队列下标，-1 表示没有
+    private final Repeat repeat;
+    private final long shuffleSeed; // 0 表示不随机
+
+    private PlayQueue(MusicLibrary library, Node root, int position, Repeat repeat, long shuffleSeed) {
+        this.library = library;
+        this.root = root;
+        this.position = position;
+        this.repeat = repeat;
+        this.shuffleSeed = shuffleSeed;
+    }
+
+    // 曲库的自然顺序，还没有当前歌；默认列表循环，播完最后一首回到开头
+    public static PlayQueue of(MusicLibrary library) {
+        int n = library.size();
+        return new PlayQueue(library, n == 0 ? null : Node.leaf(0, n, 0, 0, n), -1, Repeat.ALL, 0);
+    }
+
+    public MusicLibrary getLibrary() { return library; }
+    public int size() { return Node.size(root); }
+    public int getPosition() { return position; }
+    public Repeat getRepeat() { return repeat; }
+    public boolean isShuffled() { return shuffleSeed != 0; }
+    public long getShuffleSeed() { return shuffleSeed; }
+
+    // 队列第 index 项对应的曲库行号
+    public int rowAt(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        Node t = root;
+        while (true) {
+            int leftSize = Node.size(t.left);
+            if (index < leftSize) {
+                t = t.left;
+            } else if (index < leftSize + t.count) {
+                return t.row(index - leftSize);
+            } else {
+                index -= leftSize + t.count;
+                t = t.right;
+            }
+        }
+    }
+
+    public int currentRow() { return position < 0 ? -1 : rowAt(position); }
+
+    // 播完一首后的下一项：单曲循环还是自己；到末尾时列表循环回到开头，否则返回 -1。
+    // 还没有当前歌（例如当前歌不在新曲库里）时从头开始
+    public int autoNextIndex() {
+        int size = size();
+        if (size == 0) return -1;
+        if (position < 0) return 0;
+        if (repeat == Repeat.ONE) return position;
+        if (position + 1 < size) return position + 1;
+        return repeat == Repeat.ALL ? 0 : -1;
+    }
+
+    // 手动上一首/下一首，首尾相接
+    public int stepIndex(int delta) {
+        return QueueNavigator.step(position, delta, size());
+    }
+
+    public PlayQueue withPosition(int index) {
+        if (index < -1 || index >= size()) throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        return index == position ? this : new PlayQueue(library, root, index, repeat, shuffleSeed);
+    }
+
+    public PlayQueue withRepeat(Repeat repeat) {
+        return repeat == this.repeat ? this : new PlayQueue(library, root, position, repeat, shuffleSeed);
+    }
+
+    // 从曲库里点了一首：回到曲库的顺序（随机模式下重新打乱），之前插入和调整的顺序作废
+    public PlayQueue playRow(int row) {
+        checkRow(row);
+        return context(row, shuffleSeed == 0 ? 0 : newSeed());
+    }
+
+    // 打开随机：当前歌放在最前面，其余按新的排列；关闭：回到曲库顺序，位置跟着当前歌走
+    public PlayQueue withShuffle(boolean shuffle) {
+        if (shuffle == isShuffled()) return this;
+        return context(currentRow(), shuffle ? newSeed() : 0);
+    }
+
+    // 插到当前歌后面
+    public PlayQueue playNext(int row) {
+        checkRow(row);
+        return insert(position + 1, row);
+    }
+
+    // 加到队列末尾
+    public PlayQueue enqueue(int row) {
+        checkRow(row);
+        return insert(size(), row);
+    }
+
+    // 拖动排序：把 from 项移到 to（移动之后它的下标是 to）
+    public PlayQueue move(int from, int to) {
+        int size = size();
+        if (from < 0 || from >= size || to < 0 || to >= size) throw new IndexOutOfBoundsException();
+        if (from == to) return this;
+        Node[] a = Node.split(root, from);
+        Node[] b = Node.split(a[1], 1);
+        Node rest = Node.merge(a[0], b[1]);
+        Node[] c = Node.split(rest, to);
+        Node moved = Node.merge(Node.merge(c[0], b[0]), c[1]);
+        int pos = position;
+        if (pos == from) pos = to;
+        else if (from < pos && to >= pos) pos--;
+        else if (from > pos && to <= pos) pos++;
+        return new PlayQueue(library, moved, pos, repeat, shuffleSeed);
+    }
+
+    // 正在播放的那一项不能删，原样返回
+    public PlayQueue remove(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException();
+        if (index == position) return this;
+        Node[] a = Node.split(root, index);
+        Node[] b = Node.split(a[1], 1);
+        int pos = index < position ? position - 1 : position;
+        return new PlayQueue(library, Node.merge(a[0], b[1]), pos, repeat, shuffleSeed);
+    }
+
+    // 曲库换了新快照。只在末尾追加、并且当前歌已经在队列里时，新增的行作为一段接到队列后面
+    // （随机模式下这一段单独打乱），插入和调整的顺序都保留；否则按 currentRow（新曲库里的行号，-1 表示找不到）重建
+    public PlayQueue withLibrary(MusicLibrary updated, int currentRow) {
+        if (updated == library) return this;
+        int oldSize = library.size();
+        if (updated.isExtensionOf(library) && (position >= 0 || currentRow < 0)) {
+            int added = updated.size() - oldSize;
+            Node tail = added == 0 ? null : Node.leaf(oldSize, added, shuffleSeed == 0 ? 0 : newSeed(), 0, added);
+            return new PlayQueue(updated, Node.merge(root, tail), position, repeat, shuffleSeed);
+        }
+        PlayQueue rebuilt = new PlayQueue(updated, null, -1, repeat, 0);
+        if (currentRow >= 0) rebuilt.checkRow(currentRow);
+        return rebuilt.context(currentRow, shuffleSeed == 0 ? 0 : newSeed());
+    }
+
+    // 熄火前保存的队列：currentRow 是当前歌在新曲库里的行号，anchorRow 是当时打乱时排在最前面的那首（找不到为 -1）。
+    // 曲库没变、队列没编辑过时按同一个 seed 排出同样的顺序，回到原来的下标；对不上时以当前歌为锚点用同一个 seed 重排
+    public static PlayQueue restore(MusicLibrary library, int currentRow, Repeat repeat, long seed,
+                                    int anchorRow, int position) {
+        PlayQueue base = new PlayQueue(library, null, -1, repeat, 0);
+        base.checkRow(currentRow);
+        if (seed != 0 && anchorRow >= 0 && anchorRow < library.size()) {
+            PlayQueue same = base.context(anchorRow, seed);
+            if (position >= 0 && position < same.size() && same.rowAt(position) == currentRow) {
+                return same.withPosition(position);
+            }
+        }
+        return base.context(currentRow, seed);
+    }
+
+    // 整个曲库按 seed 排列（0 为自然顺序）；随机时 current 单独放在最前面
+    private PlayQueue context(int current, long seed) {
+        int n = library.size();
+        if (n == 0) return new PlayQueue(library, null, -1, repeat, seed);
+        if (seed == 0) {
+            return new PlayQueue(library, Node.leaf(0, n, 0, 0, n), current, repeat, 0);
+        }
+        if (current < 0) return new PlayQueue(library, Node.leaf(0, n, seed, 0, n), -1, repeat, seed);
+        int q = Shuffle.inverse(n, seed, current);
+        Node head = Node.leaf(current, 1, 0, 0, 1);
+        Node before = q == 0 ? null : Node.leaf(0, n, seed, 0, q);
+        Node after = q == n - 1 ? null : Node.leaf(0, n, seed, q + 1, n - q - 1);
+        return new PlayQueue(library, Node.merge(Node.merge(head, before), after), 0, repeat, seed);
+    }
+
+    private PlayQueue insert(int index, int row) {
+        Node[] parts = Node.split(root, index);
+        Node inserted = Node.merge(Node.merge(parts[0], Node.leaf(row, 1, 0, 0, 1)), parts[1]);
+        int pos = position >= index ? position + 1 : position;
+        return new PlayQueue(library, inserted, pos, repeat, shuffleSeed);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= library.size()) throw new IndexOutOfBoundsException("row " + row + ", size " + library.size());
+    }
+
+    private static long newSeed() {
+        long seed;
+        do {
+            seed = ThreadLocalRandom.current().nextLong();
+        } while (seed == 0);
+        return seed;
+    }
+
+    // treap 节点：一段 = 行号区间 [rowBase, rowBase + range) 在 seed 排列下的第 from 到 from + count - 1 项
+    private static final class Node {
+        final int rowBase;
+        final int range;
+        final long seed;
+        final int from;
+        final int count;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size; // 子树里的元素个数
+
+        private Node(int rowBase, int range, long seed, int from, int count, int priority, Node left, Node right) {
+            this.rowBase = rowBase;
+            this.range = range;
+            this.seed = seed;
+            this.from = from;
+            this.count = count;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + count + size(right);
+        }
+
+        static Node leaf(int rowBase, int range, long seed, int from, int count) {
+            return new Node(rowBase, range, seed, from, count, ThreadLocalRandom.current().nextInt(), null, null);
+        }
+
+        static int size(Node t) { return t == null ? 0 : t.size; }
+
+        int row(int offset) {
+            int i = from + offset;
+            return rowBase + (seed == 0 ? i : Shuffle.permute(range, seed, i));
+        }
+
+        Node with(Node left, Node right) {
+            return left == this.left && right == this.right ? this
+                    : new Node(rowBase, range, seed, from, count, priority, left, right);
+        }
+
+        Node segment(int from, int count, Node left, Node right) {
+            return new Node(rowBase, range, seed, from, count, priority, left, right);
+        }
+
+        static Node merge(Node a, Node b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.priority >= b.priority) return a.with(a.left, merge(a.right, b));
+            return b.with(merge(a, b.left), b.right);
+        }
+
+        // 前 k 个元素和其余部分；k 落在某一段中间时把这段切成两段
+        static Node[] split(Node t, int k) {
+            if (t == null) return new Node[2];
+            int leftSize = size(t.left);
+            if (k <= leftSize) {
+                Node[] l = split(t.left, k);
+                return new Node[]{l[0], t.with(l[1], t.right)};
+            }
+            if (k >= leftSize + t.count) {
+                Node[] r = split(t.right, k - leftSize - t.count);
+                return new Node[]{t.with(t.left, r[0]), r[1]};
+            }
+            int cut = k - leftSize;
+            Node head = t.segment(t.from, cut, t.left, null);
+            Node tail = leaf(t.rowBase, t.range, t.seed, t.from + cut, t.count - cut);
+            return new Node[]{head, merge(tail, t.right)};
+        }
+    }
+
+    // [0, n) 上的伪随机置换：偶数位宽的 4 轮 Feistel 网络，结果超出 n 时继续加密（cycle walking），
+    // 定义域不超过 4n，平均几轮就落回范围内。正反两个方向都是 O(1)，不需要数组
+    static final class Shuffle {
+        private static final int ROUNDS = 4;
+
+        static int permute(int n, long seed, int i) {
+            if (n <= 1) return i;
+            int half = halfBits(n);
+            int x = i;
+            do {
+                x = encrypt(x, half, seed);
+            } while (x >= n);
+            return x;
+        }
+
+        static int inverse(int n, long seed, int v) {
+            if (n <= 1) return v;
+            int half = halfBits(n);
+            int x = v;
+            do {
+                x = decrypt(x, half, seed);
+            } while (x >= n);
+            return x;
+        }
+
+        private static int halfBits(int n) {
+            int bits = 32 - Integer.numberOfLeadingZeros(n - 1);
+            return Math.max(1, (bits + 1) / 2);
+        }
+
+        private static int encrypt(int x, int half, long seed) {
+            int mask = (1 << half) - 1;
+            int l = x >>> half;
+            int r = x & mask;
+            for (int k = 0; k < ROUNDS; k++) {
+                int next = l ^ (round(r, seed, k) & mask);
+                l = r;
+                r = next;
+            }
+            return (l << half) | r;
+        }
+
+        private static int decrypt(int x, int half, long seed) {
+            int mask = (1 << half) - 1;
+            int l = x >>> half;
+            int r = x & mask;
+            for (int k = ROUNDS - 1; k >= 0; k--) {
+                int prev = r ^ (round(l, seed, k) & mask);
+                r = l;
+                l = prev;
+            }
+            return (l << half) | r;
+        }
+
+        // splitmix64 的混合函数
+        private static int round(int value, long seed, int k) {
+            long z = seed + (k + 1) * 0x9E3779B97F4A7C15L + value;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return (int) (z ^ (z >>> 31));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.carmusic.bean;
+
+// 播放列表里的前后跳转，和 Android 无关，放在 core 里可以直接在 JVM 上测试和跑基准
+public class QueueNavigator {
+
+    // 从 current 跳 delta 首（可以是负数），首尾相接；列表为空时返回 -1
+    public static int step(int current, int delta, int size) {
+        if (size <= 0) return -1;
+        return Math.floorMod(current + delta, size);
+    }
+
+    // 自动续播的下一首；只有一首歌时返回它自己，由调用方决定是否单曲循环
+    public static int next(int current, int size) {
+        return step(current, 1, size);
+    }
+}
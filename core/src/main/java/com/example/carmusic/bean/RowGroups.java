@@ -0,0 +1,75 @@
+package com.example.carmusic.bean;
+
+import java.util.Arrays;
+
+// 按字典编号分组的行号表：第 g 组是所有编号为 g 的行，按行号升序。
+// 和 MusicLibrary.Builder 一样只追加：snapshot() 只复制每组的长度和数组引用（O(组数)），
+// 行号数组本身不复制，新行写在旧快照的长度之后，已发出的快照永远不会变
+public final class RowGroups {
+    public static final RowGroups EMPTY = new Builder().snapshot();
+
+    private final int[][] rows;
+    private final int[] counts;
+    private final int total;
+
+    private RowGroups(int[][] rows, int[] counts, int total) {
+        this.rows = rows;
+        this.counts = counts;
+        this.total = total;
+    }
+
+    public int groupCount() { return counts.length; }
+
+    // 所有组加起来的行数
+    public int total() { return total; }
+
+    public int size(int group) { return counts[group]; }
+
+    public int row(int group, int k) {
+        if (k < 0 || k >= counts[group]) throw new IndexOutOfBoundsException("k " + k + ", size " + counts[group]);
+        return rows[group][k];
+    }
+
+    public int[] rows(int group) { return Arrays.copyOf(rows[group], counts[group]); }
+
+    // 行号数组按容量算，加上每组的数组头
+    long estimatedBytes() {
+        long bytes = 16L + 8L * counts.length;
+        for (int[] list : rows) bytes += list == null ? 0 : 16 + 4L * list.length;
+        return bytes;
+    }
+
+    // 构建器只能在一个线程里使用
+    public static final class Builder {
+        private int[][] rows = new int[16][];
+        private int[] counts = new int[16];
+        private int groupCount;
+        private int total;
+
+        public void add(int group, int row) {
+            if (group >= rows.length) {
+                int cap = Math.max(group + 1, rows.length * 2);
+                rows = Arrays.copyOf(rows, cap);
+                counts = Arrays.copyOf(counts, cap);
+            }
+            int[] list = rows[group];
+            int count = counts[group];
+            if (list == null) {
+                list = new int[4];
+                rows[group] = list;
+            } else if (count == list.length) {
+                // 换新数组，旧快照继续引用旧的
+                list = Arrays.copyOf(list, count * 2);
+                rows[group] = list;
+            }
+            list[count] = row;
+            counts[group] = count + 1;
+            groupCount = Math.max(groupCount, group + 1);
+            total++;
+        }
+
+        public RowGroups snapshot() {
+            return new RowGroups(Arrays.copyOf(rows, groupCount), Arrays.copyOf(counts, groupCount), total);
+        }
+    }
+}
@@ -0,0 +1,702 @@
+package com.example.carmusic.tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 直接解析文件头里的标签：ID3v2/ID3v1 + MPEG 帧头（MP3）、FLAC 的 STREAMINFO/Vorbis 注释/PICTURE、MP4 的 moov。
+// 只用 FileChannel 按位置读需要的几十到几百字节，不解码音频，也不把内嵌封面读进内存（只记偏移和长度）。
+// 每个线程复用一个实例和它的缓冲区
+public class TagReader {
+    private static final int BUF_SIZE = 16 * 1024;
+    private static final int MAX_TEXT = 4096;            // 单个文本字段最多读这么多
+    private static final int MAX_COMMENT = 64 * 1024;    // FLAC Vorbis 注释块最多读这么多
+    private static final int PICTURE_HEADER = 1024;      // 封面帧里定位图片数据所需的头部
+    private static final int SYNC_SEARCH = 64 * 1024;    // 标签之后找第一个 MPEG 帧的范围
+    private static final int FRONT_COVER = 3;
+
+    // ID3v2.3/2.4 帧 ID
+    private static final int TIT2 = 0x54495432;
+    private static final int TPE1 = 0x54504531;
+    private static final int TALB = 0x54414C42;
+    private static final int TRCK = 0x5452434B;
+    private static final int TLEN = 0x544C454E;
+    private static final int APIC = 0x41504943;
+    // ID3v2.2 帧 ID（3 字节）
+    private static final int TT2 = 0x545432;
+    private static final int TP1 = 0x545031;
+    private static final int TAL = 0x54414C;
+    private static final int TRK = 0x54524B;
+    private static final int TLE = 0x544C45;
+    private static final int PIC = 0x504943;
+    // 文件和 atom 标识
+    private static final int FLAC = 0x664C6143;      // "fLaC"
+    private static final int FTYP = 0x66747970;
+    private static final int MOOV = 0x6D6F6F76;
+    private static final int MVHD = 0x6D766864;
+    private static final int UDTA = 0x75647461;
+    private static final int META = 0x6D657461;
+    private static final int HDLR = 0x68646C72;
+    private static final int ILST = 0x696C7374;
+    private static final int DATA = 0x64617461;
+    private static final int MP4_NAM = 0xA96E616D;   // "©nam"
+    private static final int MP4_ART = 0xA9415254;   // "©ART"
+    private static final int MP4_ALB = 0xA9616C62;   // "©alb"
+    private static final int TRKN = 0x74726B6E;
+    private static final int COVR = 0x636F7672;
+    private static final int XING = 0x58696E67;
+    private static final int INFO = 0x496E666F;
+    private static final int VBRI = 0x56425249;
+
+    private static final int[][] BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // MPEG1 Layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},    // MPEG1 Layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},     // MPEG1 Layer III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},    // MPEG2/2.5 Layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},         // MPEG2/2.5 Layer II/III
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    // 国内的 MP3 很多把 GBK 编码的中文写进声明为 ISO-8859-1 的字段
+    private static final Charset GBK = Charset.isSupported("GBK") ? Charset.forName("GBK") : StandardCharsets.ISO_8859_1;
+
+    private static final ThreadLocal<TagReader> READERS = ThreadLocal.withInitial(TagReader::new);
+
+    // 读标签是阻塞 I/O，不能放进 ForkJoin 公共池占住别处的并行流；单独一个有界线程池，守护线程不拖住进程退出
+    private static final int IO_THREADS = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final ExecutorService IO = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread thread = new Thread(r, "TagReader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
+    private FileChannel channel;
+    private long base;
+    private long length;
+    private int artType;
+    private long foundSize;   // findAtom 找到的 atom 的大小和头长度
+    private int foundHeader;
+
+    private TagReader() {
+    }
+
+    // 文件不存在或无法识别时返回 null；MediaStore 里常有 SD 卡已拔出的行，这里不抛异常
+    public static TrackTags read(String path) {
+        File file = new File(path);
+        if (!file.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel, 0, channel.size());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 读取 channel 中 [offset, offset + length) 这一段，用于打包在 APK 里的 raw 资源
+    public static TrackTags read(FileChannel channel, long offset, long length) throws IOException {
+        return READERS.get().parse(channel, offset, length);
+    }
+
+    // 在 IO 线程池里并行读取前 count 个文件，结果和 paths 一一对应。调用线程被中断时没读完的位置是 null
+    public static TrackTags[] readAll(String[] paths, int count) {
+        TrackTags[] result = new TrackTags[count];
+        if (count == 0) return result;
+        AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<>(IO_THREADS);
+        for (int w = Math.min(IO_THREADS, count); w > 0; w--) {
+            workers.add(() -> {
+                for (int i; (i = next.getAndIncrement()) < count; ) result[i] = read(paths[i]);
+                return null;
+            });
+        }
+        try {
+            IO.invokeAll(workers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    private TrackTags parse(FileChannel channel, long offset, long length) throws IOException {
+        this.channel = channel;
+        this.base = offset;
+        this.length = length;
+        artType = -1;
+        TrackTags tags = new TrackTags();
+        try {
+            ByteBuffer b = readAt(0, 10);
+            if (b == null) return null;
+            long start = 0;
+            if (b.get(0) == 'I' && b.get(1) == 'D' && b.get(2) == '3') {
+                int major = b.get(3);
+                int flags = b.get(5) & 0xFF;
+                int size = syncsafe(b, 6);
+                start = 10L + size + ((flags & 0x10) != 0 ? 10 : 0);
+                if (major >= 2 && major <= 4) readId3v2(tags, major, flags, 10L + size);
+            }
+
+            b = readAt(start, 8);
+            if (b == null) return start > 0 ? tags : null;
+            if (b.getInt(0) == FLAC) {
+                readFlac(tags, start + 4);
+            } else if (b.getInt(4) == FTYP) {
+                readMp4(tags, start);
+            } else {
+                readMpeg(tags, start);
+            }
+        } catch (RuntimeException e) {
+            // 文件损坏，返回已经读到的部分
+        } finally {
+            this.channel = null;
+        }
+        return tags;
+    }
+
+    // 读 [pos, pos + n)，位置相对音轨开头；越界或读不满时返回 null。返回的缓冲区在下一次调用时失效
+    private ByteBuffer readAt(long pos, int n) throws IOException {
+        if (pos < 0 || n < 0 || pos + n > length) return null;
+        ByteBuffer b = n <= buf.capacity() ? buf : ByteBuffer.allocate(n);
+        b.clear();
+        b.limit(n);
+        b.order(ByteOrder.BIG_ENDIAN);
+        while (b.hasRemaining()) {
+            if (channel.read(b, base + pos + b.position()) < 0) return null;
+        }
+        b.flip();
+        return b;
+    }
+
+    // ===== ID3v2 =====
+
+    private void readId3v2(TrackTags tags, int major, int flags, long end) throws IOException {
+        long pos = 10;
+        boolean tagUnsync = (flags & 0x80) != 0;
+        if ((flags & 0x40) != 0 && major >= 3) {
+            ByteBuffer b = readAt(pos, 4);
+            if (b == null) return;
+            pos += major == 3 ? 4 + b.getInt(0) : syncsafe(b, 0);
+        }
+
+        int headerSize = major == 2 ? 6 : 10;
+        while (pos + headerSize <= end) {
+            ByteBuffer b = readAt(pos, headerSize);
+            if (b == null) return;
+            int id;
+            int frameSize;
+            int frameFlags = 0;
+            if (major == 2) {
+                id = uint24(b, 0);
+                frameSize = uint24(b, 3);
+            } else {
+                id = b.getInt(0);
+                frameSize = major == 4 ? syncsafe(b, 4) : b.getInt(4);
+                frameFlags = b.getShort(8) & 0xFFFF;
+            }
+            if (id == 0 || frameSize <= 0 || pos + headerSize + frameSize > end) return; // 到了填充区或者标签损坏
+
+            long body = pos + headerSize;
+            int bodySize = frameSize;
+            boolean unsync = tagUnsync;
+            boolean skip = false;
+            if (major == 3) {
+                skip = (frameFlags & 0x00C0) != 0; // 压缩或加密
+            } else if (major == 4) {
+                skip = (frameFlags & 0x000C) != 0;
+                unsync |= (frameFlags & 0x0002) != 0;
+                if ((frameFlags & 0x0001) != 0) { // 数据长度指示
+                    body += 4;
+                    bodySize -= 4;
+                }
+            }
+            pos += headerSize + frameSize;
+            if (skip || bodySize <= 0) continue;
+
+            switch (id) {
+                case TIT2:
+                case TT2:
+                    if (tags.title == null) tags.title = readTextFrame(body, bodySize, unsync);
+                    break;
+                case TPE1:
+                case TP1:
+                    if (tags.artist == null) tags.artist = readTextFrame(body, bodySize, unsync);
+                    break;
+                case TALB:
+                case TAL:
+                    if (tags.album == null) tags.album = readTextFrame(body, bodySize, unsync);
+                    break;
+                case TRCK:
+                case TRK:
+                    if (tags.trackNumber == 0) tags.trackNumber = leadingInt(readTextFrame(body, bodySize, unsync));
+                    break;
+                case TLEN:
+                case TLE:
+                    // 只作为兜底，很多编码器写的 TLEN 不准，后面能从帧头算出时长会覆盖它
+                    if (tags.durationMs == 0) tags.durationMs = leadingInt(readTextFrame(body, bodySize, unsync));
+                    break;
+                case APIC:
+                case PIC:
+                    // 去同步过的帧，数据偏移和原文件对不上，放弃
+                    if (!unsync) readId3Picture(tags, body, bodySize, id == PIC);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private String readTextFrame(long body, int size, boolean unsync) throws IOException {
+        ByteBuffer b = readAt(body, Math.min(size, MAX_TEXT));
+        if (b == null) return null;
+        byte[] bytes = new byte[b.remaining()];
+        b.get(bytes);
+        int n = unsync ? removeUnsync(bytes) : bytes.length;
+        if (n < 2) return null;
+        return decode(bytes[0], bytes, 1, n - 1);
+    }
+
+    private void readId3Picture(TrackTags tags, long body, int size, boolean v22) throws IOException {
+        ByteBuffer b = readAt(body, Math.min(size, PICTURE_HEADER));
+        if (b == null) return;
+        int n = b.remaining();
+        int encoding = b.get(0);
+        int p = 1;
+        if (v22) {
+            p += 3; // 图片格式，固定 3 字节
+        } else {
+            while (p < n && b.get(p) != 0) p++; // MIME 类型
+            p++;
+        }
+        if (p >= n) return;
+        int pictureType = b.get(p++) & 0xFF;
+        if (encoding == 1 || encoding == 2) {
+            while (p + 1 < n && (b.get(p) != 0 || b.get(p + 1) != 0)) p += 2;
+            p += 2;
+        } else {
+            while (p < n && b.get(p) != 0) p++;
+            p++;
+        }
+        if (p > n || p >= size) return; // 描述太长，超出了读到的范围
+        offerArt(tags, pictureType, body + p, size - p);
+    }
+
+    // ===== MPEG 音频（MP3） =====
+
+    private void readMpeg(TrackTags tags, long start) throws IOException {
+        long end = length;
+        if (length >= 128) {
+            ByteBuffer b = readAt(length - 128, 128);
+            if (b != null && b.get(0) == 'T' && b.get(1) == 'A' && b.get(2) == 'G') {
+                readId3v1(tags, b);
+                end -= 128;
+            }
+        }
+        long duration = mpegDuration(start, end);
+        if (duration > 0) tags.durationMs = duration;
+    }
+
+    private void readId3v1(TrackTags tags, ByteBuffer b) {
+        byte[] raw = new byte[128];
+        b.get(raw);
+        if (tags.title == null) tags.title = id3v1String(raw, 3);
+        if (tags.artist == null) tags.artist = id3v1String(raw, 33);
+        if (tags.album == null) tags.album = id3v1String(raw, 63);
+        // ID3v1.1：注释的倒数第二字节为 0 时，最后一字节是音轨号
+        if (tags.trackNumber == 0 && raw[125] == 0 && raw[126] != 0) tags.trackNumber = raw[126] & 0xFF;
+    }
+
+    private static String id3v1String(byte[] raw, int offset) {
+        int end = offset + 30;
+        while (end > offset && (raw[end - 1] == 0 || raw[end - 1] == ' ')) end--;
+        int nul = offset;
+        while (nul < end && raw[nul] != 0) nul++;
+        return nul > offset ? decodeLegacy(raw, offset, nul - offset) : null;
+    }
+
+    // 找到第一个合法帧：有 Xing/Info 或 VBRI 头时用总帧数算（VBR），否则按码率算（CBR）
+    private long mpegDuration(long start, long end) throws IOException {
+        long limit = Math.min(end - 4, start + SYNC_SEARCH);
+        long pos = start;
+        while (pos < limit) {
+            int n = (int) Math.min(BUF_SIZE, end - pos);
+            ByteBuffer b = readAt(pos, n);
+            if (b == null) return 0;
+            for (int i = 0; i + 4 <= n && pos + i < limit; i++) {
+                if ((b.get(i) & 0xFF) != 0xFF || (b.get(i + 1) & 0xE0) != 0xE0) continue;
+                int header = b.getInt(i);
+                if (frameLength(header) <= 0) continue;
+                long duration = durationFrom(pos + i, header, end);
+                if (duration > 0) return duration;
+                b = readAt(pos, n); // durationFrom 用过缓冲区，重新读回当前窗口
+                if (b == null) return 0;
+            }
+            pos += n - 3;
+        }
+        return 0;
+    }
+
+    private long durationFrom(long frame, int header, long end) throws IOException {
+        // 下一帧也必须是同一流的帧头，防止把标签或封面里的 0xFFE 误当成同步字
+        long next = frame + frameLength(header);
+        if (next + 4 <= end) {
+            ByteBuffer b = readAt(next, 4);
+            if (b == null || (b.getInt(0) & 0xFFFE0C00) != (header & 0xFFFE0C00)) return 0;
+        }
+
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        boolean mpeg1 = version == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        int sampleRate = sampleRate(header);
+        int samplesPerFrame = layer == 3 ? 384 : (layer == 2 || mpeg1) ? 1152 : 576;
+
+        int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        ByteBuffer b = readAt(frame + 4 + sideInfo, 12);
+        if (b != null) {
+            int magic = b.getInt(0);
+            if ((magic == XING || magic == INFO) && (b.getInt(4) & 1) != 0) {
+                long frames = b.getInt(8) & 0xFFFFFFFFL;
+                if (frames > 0) return frames * samplesPerFrame * 1000 / sampleRate;
+            }
+        }
+        b = readAt(frame + 4 + 32, 18);
+        if (b != null && b.getInt(0) == VBRI) {
+            long frames = b.getInt(14) & 0xFFFFFFFFL;
+            if (frames > 0) return frames * samplesPerFrame * 1000 / sampleRate;
+        }
+        // 字节数 * 8 / kbps = 毫秒
+        return (end - frame) * 8 / bitrateKbps(header);
+    }
+
+    // 帧长（字节），帧头不合法时返回 -1
+    private static int frameLength(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int rateIndex = (header >>> 10) & 3;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) return -1;
+        int bitrate = bitrateKbps(header) * 1000;
+        int sampleRate = sampleRate(header);
+        int padding = (header >>> 9) & 1;
+        if (layer == 3) return (12 * bitrate / sampleRate + padding) * 4;
+        if (layer == 1 && version != 3) return 72 * bitrate / sampleRate + padding;
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    private static int bitrateKbps(int header) {
+        int layer = (header >>> 17) & 3;
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        int row = mpeg1 ? 3 - layer : (layer == 3 ? 3 : 4);
+        return BITRATES[row][(header >>> 12) & 0xF];
+    }
+
+    private static int sampleRate(int header) {
+        int version = (header >>> 19) & 3;
+        int rate = SAMPLE_RATES[(header >>> 10) & 3];
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    // ===== FLAC =====
+
+    private void readFlac(TrackTags tags, long pos) throws IOException {
+        while (pos + 4 <= length) {
+            ByteBuffer b = readAt(pos, 4);
+            if (b == null) return;
+            int header = b.getInt(0);
+            boolean last = header < 0;
+            int type = (header >>> 24) & 0x7F;
+            int size = header & 0xFFFFFF;
+            long body = pos + 4;
+            if (type == 0) {
+                readStreamInfo(tags, body);
+            } else if (type == 4) {
+                readVorbisComment(tags, body, size);
+            } else if (type == 6) {
+                readFlacPicture(tags, body, size);
+            }
+            if (last || type == 127) return;
+            pos = body + size;
+        }
+    }
+
+    private void readStreamInfo(TrackTags tags, long body) throws IOException {
+        ByteBuffer b = readAt(body, 18);
+        if (b == null) return;
+        int sampleRate = ((b.get(10) & 0xFF) << 12) | ((b.get(11) & 0xFF) << 4) | ((b.get(12) & 0xFF) >>> 4);
+        long totalSamples = ((long) (b.get(13) & 0x0F) << 32) | (b.getInt(14) & 0xFFFFFFFFL);
+        if (sampleRate > 0 && totalSamples > 0) tags.durationMs = totalSamples * 1000 / sampleRate;
+    }
+
+    private void readVorbisComment(TrackTags tags, long body, int size) throws IOException {
+        ByteBuffer b = readAt(body, Math.min(size, MAX_COMMENT));
+        if (b == null) return;
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        int n = b.remaining();
+        byte[] a = b.array();
+        int p = 4 + b.getInt(0); // 跳过 vendor 字符串
+        if (p < 4 || p + 4 > n) return;
+        long count = b.getInt(p) & 0xFFFFFFFFL;
+        p += 4;
+        for (long i = 0; i < count && p + 4 <= n; i++) {
+            int len = b.getInt(p);
+            p += 4;
+            if (len < 0 || p + len > n) return;
+            int eq = p;
+            while (eq < p + len && a[eq] != '=') eq++;
+            int valueStart = eq + 1;
+            int valueLen = p + len - valueStart;
+            if (valueLen > 0) {
+                if (tags.title == null && keyIs(a, p, eq, "TITLE")) {
+                    tags.title = new String(a, valueStart, valueLen, StandardCharsets.UTF_8);
+                } else if (tags.artist == null && keyIs(a, p, eq, "ARTIST")) {
+                    tags.artist = new String(a, valueStart, valueLen, StandardCharsets.UTF_8);
+                } else if (tags.album == null && keyIs(a, p, eq, "ALBUM")) {
+                    tags.album = new String(a, valueStart, valueLen, StandardCharsets.UTF_8);
+                } else if (tags.trackNumber == 0 && keyIs(a, p, eq, "TRACKNUMBER")) {
+                    tags.trackNumber = leadingInt(a, valueStart, valueLen);
+                }
+            }
+            p += len;
+        }
+    }
+
+    private void readFlacPicture(TrackTags tags, long body, int size) throws IOException {
+        ByteBuffer b = readAt(body, Math.min(size, PICTURE_HEADER));
+        if (b == null) return;
+        int n = b.remaining();
+        int pictureType = b.getInt(0);
+        int mimeLength = b.getInt(4);
+        int p = 8 + mimeLength;
+        if (mimeLength < 0 || p + 4 > n) return;
+        int descriptionLength = b.getInt(p);
+        p += 4 + descriptionLength;
+        if (descriptionLength < 0 || p + 20 > n) return;
+        p += 16; // 宽、高、色深、索引色数
+        int dataLength = b.getInt(p);
+        p += 4;
+        if (dataLength > 0 && p + (long) dataLength <= size) offerArt(tags, pictureType, body + p, dataLength);
+    }
+
+    // ===== MP4 / M4A =====
+
+    private void readMp4(TrackTags tags, long start) throws IOException {
+        // moov 经常在巨大的 mdat 后面，逐个 atom 按大小跳过，每次只读 16 字节
+        long moov = findAtom(start, length, MOOV);
+        if (moov < 0) return;
+        long moovEnd = moov + foundSize;
+        long moovBody = moov + foundHeader;
+
+        long mvhd = findAtom(moovBody, moovEnd, MVHD);
+        if (mvhd >= 0) readMovieHeader(tags, mvhd + foundHeader, foundSize - foundHeader);
+
+        long udta = findAtom(moovBody, moovEnd, UDTA);
+        if (udta < 0) return;
+        long udtaEnd = udta + foundSize;
+        long meta = findAtom(udta + foundHeader, udtaEnd, META);
+        if (meta < 0) return;
+        long metaEnd = meta + foundSize;
+        long metaBody = meta + foundHeader;
+        // meta 通常是 full box（多 4 字节版本号），QuickTime 写的则不是：看后面紧跟的是不是 hdlr
+        ByteBuffer b = readAt(metaBody, 8);
+        if (b == null) return;
+        if (b.getInt(4) != HDLR) metaBody += 4;
+        long ilst = findAtom(metaBody, metaEnd, ILST);
+        if (ilst < 0) return;
+        readItemList(tags, ilst + foundHeader, ilst + foundSize);
+    }
+
+    private void readMovieHeader(TrackTags tags, long body, long size) throws IOException {
+        ByteBuffer b = readAt(body, (int) Math.min(32, size));
+        if (b == null || b.remaining() < 20) return;
+        long timescale;
+        long duration;
+        if (b.get(0) == 1) {
+            if (b.remaining() < 32) return;
+            timescale = b.getInt(20) & 0xFFFFFFFFL;
+            duration = b.getLong(24);
+        } else {
+            timescale = b.getInt(12) & 0xFFFFFFFFL;
+            duration = b.getInt(16) & 0xFFFFFFFFL;
+        }
+        if (timescale > 0 && duration > 0) tags.durationMs = duration * 1000 / timescale;
+    }
+
+    private void readItemList(TrackTags tags, long pos, long end) throws IOException {
+        while (pos + 8 <= end) {
+            ByteBuffer b = readAt(pos, 8);
+            if (b == null) return;
+            long itemSize = b.getInt(0) & 0xFFFFFFFFL;
+            int type = b.getInt(4);
+            if (itemSize < 8 || pos + itemSize > end) return;
+            long itemEnd = pos + itemSize;
+
+            long data = findAtom(pos + 8, itemEnd, DATA);
+            if (data >= 0 && foundSize > 16) {
+                long payload = data + 16; // size, "data", 类型标识, locale
+                int payloadLength = (int) Math.min(foundSize - 16, Integer.MAX_VALUE);
+                switch (type) {
+                    case MP4_NAM:
+                        if (tags.title == null) tags.title = readUtf8(payload, payloadLength);
+                        break;
+                    case MP4_ART:
+                        if (tags.artist == null) tags.artist = readUtf8(payload, payloadLength);
+                        break;
+                    case MP4_ALB:
+                        if (tags.album == null) tags.album = readUtf8(payload, payloadLength);
+                        break;
+                    case TRKN:
+                        ByteBuffer t = readAt(payload, 4);
+                        if (t != null) tags.trackNumber = t.getShort(2) & 0xFFFF;
+                        break;
+                    case COVR:
+                        offerArt(tags, FRONT_COVER, payload, payloadLength);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            pos = itemEnd;
+        }
+    }
+
+    // 在 [from, to) 的同级 atom 里找指定类型，返回起始位置，大小和头长度放在 foundSize/foundHeader
+    private long findAtom(long from, long to, int type) throws IOException {
+        long pos = from;
+        while (pos + 8 <= to) {
+            ByteBuffer b = readAt(pos, (int) Math.min(16, to - pos));
+            if (b == null) return -1;
+            long size = b.getInt(0) & 0xFFFFFFFFL;
+            int atomType = b.getInt(4);
+            int header = 8;
+            if (size == 1) { // 64 位大小
+                if (b.remaining() < 16) return -1;
+                size = b.getLong(8);
+                header = 16;
+            } else if (size == 0) { // 一直到父 atom 结尾
+                size = to - pos;
+            }
+            if (size < header || pos + size > to) return -1;
+            if (atomType == type) {
+                foundSize = size;
+                foundHeader = header;
+                return pos;
+            }
+            pos += size;
+        }
+        return -1;
+    }
+
+    private String readUtf8(long pos, int size) throws IOException {
+        ByteBuffer b = readAt(pos, Math.min(size, MAX_TEXT));
+        if (b == null) return null;
+        String s = new String(b.array(), 0, b.remaining(), StandardCharsets.UTF_8).trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    // ===== 公共 =====
+
+    // 有多张图时优先用封面（类型 3），否则用第一张
+    private void offerArt(TrackTags tags, int pictureType, long offset, long size) {
+        if (size <= 0 || size > Integer.MAX_VALUE) return;
+        if (tags.hasArt() && (pictureType != FRONT_COVER || artType == FRONT_COVER)) return;
+        tags.artOffset = offset;
+        tags.artLength = (int) size;
+        artType = pictureType;
+    }
+
+    // 取第一个值：2.4 的多值字段以结束符分隔
+    private static String decode(int encoding, byte[] b, int off, int len) {
+        String s;
+        if (encoding == 1 || encoding == 2) {
+            int end = off;
+            while (end + 1 < off + len && (b[end] != 0 || b[end + 1] != 0)) end += 2;
+            s = new String(b, off, end - off, encoding == 1 ? StandardCharsets.UTF_16 : StandardCharsets.UTF_16BE);
+        } else {
+            int end = off;
+            while (end < off + len && b[end] != 0) end++;
+            s = encoding == 3 ? new String(b, off, end - off, StandardCharsets.UTF_8) : decodeLegacy(b, off, end - off);
+        }
+        s = s.trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    // 声明为 ISO-8859-1 的字段：纯 ASCII 直接用，是合法 UTF-8 就按 UTF-8，否则按 GBK
+    private static String decodeLegacy(byte[] b, int off, int len) {
+        boolean ascii = true;
+        for (int i = off; i < off + len && ascii; i++) ascii = b[i] >= 0;
+        if (ascii) return new String(b, off, len, StandardCharsets.ISO_8859_1);
+        return new String(b, off, len, isUtf8(b, off, len) ? StandardCharsets.UTF_8 : GBK);
+    }
+
+    private static boolean isUtf8(byte[] b, int off, int len) {
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            int c = b[i] & 0xFF;
+            int extra = c < 0x80 ? 0 : (c & 0xE0) == 0xC0 ? 1 : (c & 0xF0) == 0xE0 ? 2 : (c & 0xF8) == 0xF0 ? 3 : -1;
+            if (extra < 0 || i + extra >= end + (extra == 0 ? 1 : 0)) return false;
+            for (int k = 1; k <= extra; k++) {
+                if ((b[i + k] & 0xC0) != 0x80) return false;
+            }
+            i += extra + 1;
+        }
+        return true;
+    }
+
+    // 去同步：0xFF 后面插入的 0x00 去掉，返回新长度
+    private static int removeUnsync(byte[] b) {
+        int out = 0;
+        for (int i = 0; i < b.length; i++) {
+            b[out++] = b[i];
+            if ((b[i] & 0xFF) == 0xFF && i + 1 < b.length && b[i + 1] == 0) i++;
+        }
+        return out;
+    }
+
+    private static boolean keyIs(byte[] a, int start, int end, String key) {
+        if (end - start != key.length()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.toUpperCase((char) a[start + i]) != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // "3/12" -> 3
+    private static int leadingInt(String s) {
+        if (s == null) return 0;
+        int value = 0;
+        for (int i = 0; i < s.length() && value < 100_000_000; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int leadingInt(byte[] a, int off, int len) {
+        int value = 0;
+        for (int i = off; i < off + len && value < 100_000_000; i++) {
+            if (a[i] < '0' || a[i] > '9') break;
+            value = value * 10 + (a[i] - '0');
+        }
+        return value;
+    }
+
+    private static int syncsafe(ByteBuffer b, int i) {
+        return (b.get(i) & 0x7F) << 21 | (b.get(i + 1) & 0x7F) << 14 | (b.get(i + 2) & 0x7F) << 7 | (b.get(i + 3) & 0x7F);
+    }
+
+    private static int uint24(ByteBuffer b, int i) {
+        return (b.get(i) & 0xFF) << 16 | (b.get(i + 1) & 0xFF) << 8 | (b.get(i + 2) & 0xFF);
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.carmusic.tag;
+
+// 从文件头直接读出的标签。没读到的字段保持默认值：字符串为 null，数字为 0，封面偏移为 -1
+public class TrackTags {
+    String title;
+    String artist;
+    String album;
+    int trackNumber;
+    long durationMs;
+    long artOffset = -1; // 内嵌封面图片数据相对音轨开头的偏移
+    int artLength;
+
+    public String getTitle() { return title; }
+    public String getArtist() { return artist; }
+    public String getAlbum() { return album; }
+    public int getTrackNumber() { return trackNumber; }
+    public long getDurationMs() { return durationMs; }
+    public long getArtOffset() { return artOffset; }
+    public int getArtLength() { return artLength; }
+
+    public boolean hasArt() { return artOffset >= 0 && artLength > 0; }
+}
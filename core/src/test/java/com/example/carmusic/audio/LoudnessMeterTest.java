@@ -0,0 +1,82 @@
+package com.example.carmusic.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+// 用合成的 1kHz 正弦检查 K 计权和门限：按 BS.1770 的定义，双声道 1kHz 正弦的响度等于它的峰值电平
+public class LoudnessMeterTest {
+
+    @Test
+    public void sine_readsItsPeakLevel() {
+        for (int rate : new int[]{44100, 48000}) {
+            LoudnessMeter meter = new LoudnessMeter(rate);
+            feed(meter, rate, 10, -23, 2);
+            assertEquals(-23, meter.integratedLoudness(), 0.1);
+            assertEquals(Math.pow(10, -23 / 20.0), meter.samplePeak(), 0.001);
+        }
+    }
+
+    @Test
+    public void mono_countsAsBothChannels() {
+        LoudnessMeter meter = new LoudnessMeter(48000);
+        feed(meter, 48000, 5, -18, 1);
+        assertEquals(-18, meter.integratedLoudness(), 0.1);
+    }
+
+    @Test
+    public void gating_ignoresSilenceAndQuietPassages() {
+        LoudnessMeter meter = new LoudnessMeter(48000);
+        feed(meter, 48000, 10, -20, 2);
+        feed(meter, 48000, 10, -200, 2);  // 静音，低于绝对门限
+        feed(meter, 48000, 10, -40, 2);   // 低于相对门限
+        assertEquals(-20, meter.integratedLoudness(), 0.2);
+    }
+
+    @Test
+    public void silence_hasNoLoudnessAndUnityGain() {
+        LoudnessMeter meter = new LoudnessMeter(48000);
+        feed(meter, 48000, 2, -200, 2);
+        assertTrue(Double.isInfinite(meter.integratedLoudness()));
+        assertEquals(1f, LoudnessMeter.gainFor(meter.integratedLoudness(), meter.samplePeak(), -18), 0);
+    }
+
+    @Test
+    public void gainFor_attenuatesLoudTracksAndStopsAtFullScale() {
+        assertEquals(Math.pow(10, -6 / 20.0), LoudnessMeter.gainFor(-12, 1f, -18), 1e-6);
+        // 安静的歌需要 +10dB，但峰值 0.5 只留了 6dB 余量
+        assertEquals(2f, LoudnessMeter.gainFor(-28, 0.5f, -18), 1e-6);
+    }
+
+    @Test
+    public void waveform_bucketsPeaksOverExpectedLength() {
+        PeakWaveform waveform = new PeakWaveform(4, 400);
+        ByteBuffer pcm = ByteBuffer.allocate(400 * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < 400; i++) pcm.putShort(i * 2, (short) (i < 100 ? 32767 : i < 200 ? -16384 : 0));
+        waveform.process(pcm, 0, 400 * 2, 1);
+        byte[] out = waveform.toBytes();
+        assertEquals(255, out[0] & 0xFF);
+        assertEquals(127, out[1] & 0xFF);
+        assertEquals(0, out[2]);
+        assertEquals(0, out[3]);
+    }
+
+    // seconds 秒 1kHz 正弦，峰值 dbfs，分成 1024 帧一块送入，和解码器输出一样
+    private static void feed(LoudnessMeter meter, int rate, int seconds, double dbfs, int channels) {
+        double amplitude = 32767 * Math.pow(10, dbfs / 20);
+        ByteBuffer chunk = ByteBuffer.allocate(1024 * 2 * channels).order(ByteOrder.nativeOrder());
+        long total = (long) rate * seconds;
+        for (long frame = 0; frame < total; ) {
+            int n = (int) Math.min(1024, total - frame);
+            for (int i = 0; i < n; i++) {
+                short v = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * (frame + i) / rate));
+                for (int c = 0; c < channels; c++) chunk.putShort((i * channels + c) * 2, v);
+            }
+            meter.process(chunk, 0, n * 2 * channels, channels);
+            frame += n;
+        }
+    }
+}
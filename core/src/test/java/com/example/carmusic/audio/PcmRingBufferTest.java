@@ -0,0 +1,134 @@
+package com.example.carmusic.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+// 环形缓冲区：读写、单声道展开、缓冲区内 seek、reset 让旧数据作废
+public class PcmRingBufferTest {
+
+    @Test
+    public void write_thenRead_returnsStereoFramesInOrder() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 2);
+        int gen = ring.generation();
+        assertTrue(ring.write(stereo(0, 5), 0, 5 * 4, 2, gen));
+
+        short[] out = new short[10];
+        assertEquals(5, ring.read(out, 0, 10));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, out[i * 2]);
+            assertEquals(-i, out[i * 2 + 1]);
+        }
+        assertEquals(5, ring.readPosition());
+        assertEquals(0, ring.read(out, 0, 10));
+    }
+
+    @Test
+    public void write_mono_duplicatesToBothChannels() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 2);
+        ByteBuffer mono = ByteBuffer.allocate(6).order(ByteOrder.nativeOrder());
+        mono.putShort(0, (short) 7).putShort(2, (short) 8).putShort(4, (short) 9);
+        assertTrue(ring.write(mono, 2, 4, 1, ring.generation()));
+
+        short[] out = new short[4];
+        assertEquals(2, ring.read(out, 0, 2));
+        assertEquals(8, out[0]);
+        assertEquals(8, out[1]);
+        assertEquals(9, out[2]);
+        assertEquals(9, out[3]);
+    }
+
+    @Test
+    public void wrapsAround_andKeepsHistoryForBackwardSeek() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 3);
+        int gen = ring.generation();
+        short[] out = new short[16];
+        assertTrue(ring.write(stereo(0, 5), 0, 5 * 4, 2, gen));
+        assertEquals(5, ring.read(out, 0, 5));
+        assertTrue(ring.write(stereo(5, 5), 0, 5 * 4, 2, gen)); // 写到 10，覆盖了 0、1
+
+        assertFalse(ring.seekWithin(1));   // 已经被覆盖
+        assertFalse(ring.seekWithin(11));  // 还没解码到
+        assertTrue(ring.seekWithin(3));    // 留着的历史
+        assertEquals(7, ring.read(out, 0, 16));
+        for (int i = 0; i < 7; i++) assertEquals(3 + i, out[i * 2]);
+        assertTrue(ring.seekWithin(8));
+        assertEquals(8, ring.readPosition());
+    }
+
+    @Test
+    public void write_blocksWhenFull_untilReaderFreesSpace() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 1);
+        int gen = ring.generation();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                done.set(ring.write(stereo(0, 6), 0, 6 * 4, 2, gen));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        writer.start();
+        while (ring.available() < 3) Thread.sleep(1); // 容量 4 减去历史 1
+        Thread.sleep(20);
+        assertEquals(3, ring.available());
+
+        short[] out = new short[12];
+        int read = 0;
+        while (read < 6) read += ring.read(out, read, 6 - read);
+        writer.join(1000);
+        assertTrue(done.get());
+        for (int i = 0; i < 6; i++) assertEquals(i, out[i * 2]);
+    }
+
+    @Test
+    public void reset_discardsDataAndRejectsStaleWriter() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 1);
+        int gen = ring.generation();
+        AtomicBoolean result = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            try {
+                result.set(ring.write(stereo(0, 10), 0, 10 * 4, 2, gen));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        writer.start();
+        while (ring.available() < 3) Thread.sleep(1);
+
+        int newGen = ring.reset(1000);
+        writer.join(1000);
+        assertFalse(result.get());
+        assertEquals(0, ring.available());
+        assertEquals(1000, ring.readPosition());
+        assertFalse(ring.write(stereo(0, 1), 0, 4, 2, gen));
+        assertTrue(ring.write(stereo(1000, 1), 0, 4, 2, newGen));
+        assertFalse(ring.seekWithin(999));
+    }
+
+    @Test
+    public void endOfStream_drainsAfterLastRead() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 2);
+        int gen = ring.generation();
+        ring.write(stereo(0, 2), 0, 8, 2, gen);
+        ring.markEndOfStream(gen - 1); // 旧代号的结束标记无效
+        assertFalse(ring.isEndOfStream());
+        ring.markEndOfStream(gen);
+        assertFalse(ring.isDrained());
+        ring.read(new short[4], 0, 2);
+        assertTrue(ring.isDrained());
+    }
+
+    // 左声道 first..first+frames-1，右声道取负
+    private static ByteBuffer stereo(int first, int frames) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames * 4).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < frames; i++) {
+            buffer.putShort(i * 4, (short) (first + i));
+            buffer.putShort(i * 4 + 2, (short) -(first + i));
+        }
+        return buffer;
+    }
+}
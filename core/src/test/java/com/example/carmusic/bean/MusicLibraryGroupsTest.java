@@ -0,0 +1,77 @@
+package com.example.carmusic.bean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+// 加歌时顺带分组：每组的行号、文件夹分组跳过没有目录的行、追加后旧快照的分组不变
+public class MusicLibraryGroupsTest {
+
+    @Test
+    public void add_groupsRowsByDictionaryRef() {
+        MusicLibrary library = new MusicLibrary.Builder(4)
+                .add(1, "a", "歌手甲", "专辑一", "/music/x/a.mp3", 1000, 0)
+                .add(2, "b", "歌手乙", "专辑二", "/music/y/b.mp3", 1000, 0)
+                .add(3, "c", "歌手甲", "专辑二", "/music/x/c.mp3", 1000, 0)
+                .add(4, "d", "歌手甲", "专辑一", "android.resource://pkg/1", 1000, 0)
+                .snapshot();
+
+        RowGroups artists = library.getArtistGroups();
+        assertEquals(2, artists.groupCount());
+        assertArrayEquals(new int[]{0, 2, 3}, artists.rows(library.getArtistRef(0)));
+        assertArrayEquals(new int[]{1}, artists.rows(library.getArtistRef(1)));
+        // 没有专辑 ID，按歌手 + 专辑名：歌手乙和歌手甲的"专辑二"是两张
+        assertArrayEquals(new int[]{0, 3}, library.getAlbumGroups().rows(library.getAlbumRef(0)));
+        assertArrayEquals(new int[]{1}, library.getAlbumGroups().rows(library.getAlbumRef(1)));
+
+        RowGroups folders = library.getFolderGroups();
+        assertEquals(3, folders.groupCount()); // /music/x、/music/y、android.resource://pkg
+        assertArrayEquals(new int[]{0, 2}, folders.rows(library.getFolderRef(0)));
+        assertEquals(4, folders.total());
+    }
+
+    @Test
+    public void add_keepsSameNamedAlbumsApart() {
+        MusicLibrary library = new MusicLibrary.Builder(6)
+                .add(1, "a", "歌手甲", "精选", "/m/a.mp3", 1000, 7)
+                .add(2, "b", "歌手乙", "精选", "/m/b.mp3", 1000, 8)
+                .add(3, "c", "歌手乙", "精选", "/m/c.mp3", 1000, 8)
+                .add(4, "d", "歌手甲", "精选", "/m/d.mp3", 1000, 7)
+                .add(0, "e", "歌手甲", "精选", "/usb/e.mp3", 1000, -1)  // 没有专辑 ID：按歌手 + 专辑名
+                .add(0, "f", "歌手乙", "精选", "/usb/f.mp3", 1000, -1)
+                .snapshot();
+
+        assertEquals(4, library.getAlbumCount());
+        assertArrayEquals(new int[]{0, 3}, library.getAlbumGroups().rows(library.getAlbumRef(0)));
+        assertArrayEquals(new int[]{1, 2}, library.getAlbumGroups().rows(library.getAlbumRef(1)));
+        assertArrayEquals(new int[]{4}, library.getAlbumGroups().rows(library.getAlbumRef(4)));
+        assertArrayEquals(new int[]{5}, library.getAlbumGroups().rows(library.getAlbumRef(5)));
+        assertEquals("精选", library.getAlbumByRef(library.getAlbumRef(5)));
+    }
+
+    @Test
+    public void snapshot_isNotAffectedByLaterAdds() {
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(1);
+        for (int i = 0; i < 5; i++) builder.add(i + 1, "t" + i, "同一个", "专辑", "/m/" + i + ".mp3", 1000, 0);
+        MusicLibrary first = builder.snapshot();
+        for (int i = 5; i < 100; i++) builder.add(i + 1, "t" + i, i % 2 == 0 ? "同一个" : "另一个", "专辑", "/m/" + i + ".mp3", 1000, 0);
+        MusicLibrary second = builder.snapshot();
+
+        assertEquals(1, first.getArtistGroups().groupCount());
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, first.getArtistGroups().rows(0));
+        assertEquals(5 + 47, second.getArtistGroups().size(0));
+        assertEquals(48, second.getArtistGroups().size(1));
+        assertEquals(98, second.getArtistGroups().row(0, 51));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void row_beyondSnapshotSize_throws() {
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(1);
+        builder.add(1, "t", "a", "b", "/m/1.mp3", 1000, 0);
+        MusicLibrary first = builder.snapshot();
+        builder.add(2, "t", "a", "b", "/m/2.mp3", 1000, 0);
+
+        first.getArtistGroups().row(0, 1);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.carmusic.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// 播放队列：置换是双射、随机后当前歌在最前、插入/移动/删除后位置跟着当前歌、旧快照不变
+public class PlayQueueTest {
+
+    @Test
+    public void shuffle_permutationIsBijection() {
+        for (int n : new int[]{1, 2, 3, 7, 64, 1000, 4097}) {
+            long seed = 0x5EED + n;
+            boolean[] seen = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                int v = PlayQueue.Shuffle.permute(n, seed, i);
+                assertFalse("n=" + n + " 重复 " + v, seen[v]);
+                seen[v] = true;
+                assertEquals(i, PlayQueue.Shuffle.inverse(n, seed, v));
+            }
+        }
+    }
+
+    @Test
+    public void withShuffle_keepsCurrentFirstAndEveryRowOnce() {
+        PlayQueue queue = PlayQueue.of(library(500)).playRow(123).withShuffle(true);
+
+        assertTrue(queue.isShuffled());
+        assertEquals(0, queue.getPosition());
+        assertEquals(123, queue.currentRow());
+        assertEveryRowOnce(queue, 500);
+        int unchanged = 0;
+        for (int i = 1; i < 500; i++) if (queue.rowAt(i) == i - 1) unchanged++;
+        assertTrue(unchanged < 50); // 确实打乱了
+
+        PlayQueue off = queue.withShuffle(false);
+        assertEquals(123, off.getPosition());
+        assertEquals(123, off.currentRow());
+        for (int i = 0; i < 500; i++) assertEquals(i, off.rowAt(i));
+    }
+
+    @Test
+    public void playRow_whileShuffled_startsNewOrderFromRow() {
+        PlayQueue queue = PlayQueue.of(library(50)).playRow(0).withShuffle(true).playRow(42);
+
+        assertEquals(0, queue.getPosition());
+        assertEquals(42, queue.currentRow());
+        assertEveryRowOnce(queue, 50);
+    }
+
+    @Test
+    public void playNextAndEnqueue_insertAroundCurrent() {
+        PlayQueue queue = PlayQueue.of(library(10)).playRow(3).playNext(8).enqueue(1);
+
+        assertEquals(12, queue.size());
+        assertEquals(3, queue.getPosition());
+        assertEquals(3, queue.currentRow());
+        assertEquals(8, queue.rowAt(4));
+        assertEquals(4, queue.rowAt(5));
+        assertEquals(1, queue.rowAt(11));
+        assertEquals(4, queue.autoNextIndex());
+    }
+
+    @Test
+    public void moveAndRemove_keepPositionOnCurrent() {
+        PlayQueue queue = PlayQueue.of(library(10)).playRow(5);
+
+        PlayQueue moved = queue.move(8, 1);
+        assertEquals(6, moved.getPosition());
+        assertEquals(5, moved.currentRow());
+        assertEquals(8, moved.rowAt(1));
+        assertEquals(1, moved.rowAt(2));
+
+        PlayQueue current = queue.move(5, 9);
+        assertEquals(9, current.getPosition());
+        assertEquals(5, current.currentRow());
+        assertEquals(6, current.rowAt(5));
+
+        PlayQueue removed = queue.remove(2);
+        assertEquals(9, removed.size());
+        assertEquals(4, removed.getPosition());
+        assertEquals(5, removed.currentRow());
+        assertSame(queue, queue.remove(5)); // 正在播放的不删
+    }
+
+    @Test
+    public void repeatModes_decideAutoNext() {
+        PlayQueue last = PlayQueue.of(library(4)).playRow(3);
+
+        assertEquals(0, last.autoNextIndex()); // 默认列表循环
+        assertEquals(-1, last.withRepeat(PlayQueue.Repeat.OFF).autoNextIndex());
+        assertEquals(3, last.withRepeat(PlayQueue.Repeat.ONE).autoNextIndex());
+        assertEquals(0, last.withRepeat(PlayQueue.Repeat.ONE).stepIndex(1)); // 手动切歌不受单曲循环影响
+    }
+
+    @Test
+    public void withLibrary_extensionKeepsEditsAndAppendsNewRows() {
+        MusicLibrary.Builder builder = builder(20);
+        MusicLibrary first = builder.snapshot();
+        PlayQueue queue = PlayQueue.of(first).playRow(2).playNext(10);
+        for (int i = 20; i < 25; i++) builder.add(i + 1, "t" + i, "a", "b", "/m/" + i + ".mp3", 1000, 0);
+
+        PlayQueue extended = queue.withLibrary(builder.snapshot(), -1);
+
+        assertEquals(26, extended.size());
+        assertEquals(2, extended.currentRow());
+        assertEquals(10, extended.rowAt(3));
+        assertEquals(24, extended.rowAt(25));
+    }
+
+    @Test
+    public void withLibrary_replacedRestartsFromCurrent() {
+        PlayQueue queue = PlayQueue.of(library(20)).playRow(2).playNext(10);
+
+        PlayQueue replaced = queue.withLibrary(library(8), 6);
+
+        assertEquals(8, replaced.size());
+        assertEquals(6, replaced.getPosition());
+        assertEquals(6, replaced.currentRow());
+    }
+
+    @Test
+    public void edits_leaveOldSnapshotUntouched() {
+        PlayQueue before = PlayQueue.of(library(30)).playRow(4).withShuffle(true);
+        int[] rows = new int[30];
+        for (int i = 0; i < 30; i++) rows[i] = before.rowAt(i);
+
+        before.playNext(7).move(0, 20).remove(3).enqueue(9).withShuffle(false);
+
+        assertEquals(30, before.size());
+        assertEquals(0, before.getPosition());
+        for (int i = 0; i < 30; i++) assertEquals(rows[i], before.rowAt(i));
+    }
+
+    @Test
+    public void manyEdits_onLargeQueueStayFast() {
+        PlayQueue queue = PlayQueue.of(library(100_000)).playRow(50_000).withShuffle(true);
+        long start = System.nanoTime();
+        for (int i = 0; i < 20_000; i++) {
+            queue = queue.playNext(i % 100_000);
+            queue = queue.move(queue.getPosition() + 1, (i * 7919) % queue.size());
+            queue.rowAt((i * 104729) % queue.size());
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(120_000, queue.size());
+        assertEquals(50_000, queue.currentRow());
+        assertTrue("耗时 " + elapsedMs + "ms", elapsedMs < 2000);
+    }
+
+    @Test
+    public void restore_sameSeedAndAnchor_reproducesOrderAndPosition() {
+        PlayQueue before = PlayQueue.of(library(300)).playRow(40).withShuffle(true).withRepeat(PlayQueue.Repeat.ALL);
+        before = before.withPosition(17);
+
+        PlayQueue after = PlayQueue.restore(library(300), before.currentRow(), before.getRepeat(),
+                before.getShuffleSeed(), before.rowAt(0), before.getPosition());
+
+        assertEquals(17, after.getPosition());
+        assertEquals(PlayQueue.Repeat.ALL, after.getRepeat());
+        for (int i = 0; i < 300; i++) assertEquals(before.rowAt(i), after.rowAt(i));
+    }
+
+    @Test
+    public void restore_positionNoLongerMatches_reanchorsOnCurrentWithSameSeed() {
+        PlayQueue before = PlayQueue.of(library(300)).playRow(40).withShuffle(true).withPosition(17);
+
+        // 曲库少了一首，原来的下标对不上了
+        PlayQueue after = PlayQueue.restore(library(299), 5, PlayQueue.Repeat.OFF,
+                before.getShuffleSeed(), before.rowAt(0), before.getPosition());
+
+        assertTrue(after.isShuffled());
+        assertEquals(before.getShuffleSeed(), after.getShuffleSeed());
+        assertEquals(0, after.getPosition());
+        assertEquals(5, after.currentRow());
+        assertEveryRowOnce(after, 299);
+    }
+
+    private static void assertEveryRowOnce(PlayQueue queue, int rows) {
+        assertEquals(rows, queue.size());
+        boolean[] seen = new boolean[rows];
+        for (int i = 0; i < rows; i++) {
+            int row = queue.rowAt(i);
+            assertFalse("重复 " + row, seen[row]);
+            seen[row] = true;
+        }
+    }
+
+    private static MusicLibrary library(int rows) {
+        return builder(rows).snapshot();
+    }
+
+    private static MusicLibrary.Builder builder(int rows) {
+        MusicLibrary.Builder builder = new MusicLibrary.Builder(rows);
+        for (int i = 0; i < rows; i++) builder.add(i + 1, "t" + i, "a", "b", "/m/" + i + ".mp3", 1000, 0);
+        return builder;
+    }
+}
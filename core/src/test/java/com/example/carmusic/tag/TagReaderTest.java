@@ -0,0 +1,296 @@
+package com.example.carmusic.tag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// 用代码拼出最小的 MP3/FLAC/M4A 文件，检查标签、时长和封面偏移
+public class TagReaderTest {
+    private static final int MP3_HEADER = 0xFFFB9000; // MPEG1 Layer III 128kbps 44.1kHz 立体声
+    private static final int MP3_FRAME = 417;
+    private static final byte[] COVER = "JPEG-COVER".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void mp3_id3v23_readsFramesAndCbrDuration() throws IOException {
+        Bytes id3 = new Bytes();
+        id3.frame23("TIT2", text(1, "夜空中最亮的星"));
+        id3.frame23("TPE1", legacy("逃跑计划", Charset.forName("GBK")));
+        id3.frame23("TALB", text(3, "世界"));
+        id3.frame23("TRCK", text(0, "3/12"));
+        id3.frame23("APIC", picture(0, 4, "back"));    // 先出现的封底
+        long coverStart = 10 + id3.size() + 10 + apicHeaderLength("front");
+        id3.frame23("APIC", picture(0, 3, "front"));
+        Bytes file = new Bytes().id3Header(3, id3.toByteArray(), 0);
+        long audioStart = file.size();
+        file.mpegFrames(100, MP3_HEADER, MP3_FRAME);
+        file.id3v1("ignored", "ignored", "ignored", 9);
+
+        TrackTags tags = TagReader.read(file.writeTo(tmp.newFile("a.mp3")).getPath());
+
+        assertNotNull(tags);
+        assertEquals("夜空中最亮的星", tags.getTitle());
+        assertEquals("逃跑计划", tags.getArtist());
+        assertEquals("世界", tags.getAlbum());
+        assertEquals(3, tags.getTrackNumber());
+        assertEquals(100L * MP3_FRAME * 8 / 128, tags.getDurationMs());
+        assertTrue(tags.hasArt());
+        assertEquals(coverStart, tags.getArtOffset());
+        assertEquals(COVER.length, tags.getArtLength());
+        assertTrue(audioStart > coverStart);
+    }
+
+    @Test
+    public void mp3_xingHeader_usesFrameCount() throws IOException {
+        Bytes file = new Bytes();
+        // 第一帧是 Xing 帧：帧头 + 32 字节边信息 + "Xing" + flags + 帧数
+        Bytes first = new Bytes().i32(MP3_HEADER).zeros(32).ascii("Xing").i32(1).i32(1000);
+        first.zeros(MP3_FRAME - first.size());
+        file.raw(first.toByteArray());
+        file.mpegFrames(2, MP3_HEADER, MP3_FRAME);
+
+        TrackTags tags = TagReader.read(file.writeTo(tmp.newFile("vbr.mp3")).getPath());
+
+        assertEquals(1000L * 1152 * 1000 / 44100, tags.getDurationMs());
+        assertFalse(tags.hasArt());
+    }
+
+    @Test
+    public void mp3_id3v1Only_fallsBackToV1Fields() throws IOException {
+        Bytes file = new Bytes().mpegFrames(10, MP3_HEADER, MP3_FRAME);
+        file.id3v1("Song", "Band", "Record", 7);
+
+        TrackTags tags = TagReader.read(file.writeTo(tmp.newFile("v1.mp3")).getPath());
+
+        assertEquals("Song", tags.getTitle());
+        assertEquals("Band", tags.getArtist());
+        assertEquals("Record", tags.getAlbum());
+        assertEquals(7, tags.getTrackNumber());
+        assertEquals(10L * MP3_FRAME * 8 / 128, tags.getDurationMs());
+    }
+
+    @Test
+    public void mp3_id3v24_syncsafeSizes() throws IOException {
+        Bytes id3 = new Bytes();
+        id3.frame24("TIT2", text(3, "Title"));
+        id3.frame24("TLEN", text(3, "5000"));
+        Bytes file = new Bytes().id3Header(4, id3.toByteArray(), 0);
+        file.zeros(200); // 没有音频帧时用 TLEN
+
+        TrackTags tags = TagReader.read(file.writeTo(tmp.newFile("v24.mp3")).getPath());
+
+        assertEquals("Title", tags.getTitle());
+        assertEquals(5000, tags.getDurationMs());
+    }
+
+    @Test
+    public void flac_readsStreamInfoCommentsAndPicture() throws IOException {
+        Bytes file = new Bytes().ascii("fLaC");
+        Bytes info = new Bytes().zeros(10);
+        long total = 44100L * 200;
+        info.i64((44100L << 44) | (1L << 41) | (15L << 36) | total).zeros(16);
+        file.i32(34).raw(info.toByteArray());
+
+        Bytes comments = new Bytes().le32(6).ascii("vendor").le32(3);
+        comments.comment("title=晴天").comment("ARTIST=周杰伦").comment("TrackNumber=2/10");
+        file.i32((4 << 24) | comments.size()).raw(comments.toByteArray());
+
+        Bytes picture = new Bytes().i32(3).i32(10).ascii("image/jpeg").i32(0).zeros(16).i32(COVER.length);
+        long coverStart = file.size() + 4 + picture.size();
+        picture.raw(COVER);
+        file.i32(0x80000000 | (6 << 24) | picture.size()).raw(picture.toByteArray());
+        file.zeros(100);
+
+        TrackTags tags = TagReader.read(file.writeTo(tmp.newFile("a.flac")).getPath());
+
+        assertEquals("晴天", tags.getTitle());
+        assertEquals("周杰伦", tags.getArtist());
+        assertNull(tags.getAlbum());
+        assertEquals(2, tags.getTrackNumber());
+        assertEquals(200_000, tags.getDurationMs());
+        assertEquals(coverStart, tags.getArtOffset());
+        assertEquals(COVER.length, tags.getArtLength());
+    }
+
+    @Test
+    public void mp4_moovAfterMdat() throws IOException {
+        Bytes file = new Bytes();
+        file.atom("ftyp", new Bytes().ascii("M4A ").i32(0).ascii("M4A isom").toByteArray());
+        file.atom("mdat", new byte[5000]);
+
+        Bytes mvhd = new Bytes().i32(0).i32(0).i32(0).i32(1000).i32(123_456).zeros(80);
+        Bytes ilst = new Bytes();
+        ilst.atom("©nam", data(1, "Song".getBytes(StandardCharsets.UTF_8)));
+        ilst.atom("©alb", data(1, "专辑".getBytes(StandardCharsets.UTF_8)));
+        ilst.atom("trkn", data(0, new byte[]{0, 0, 0, 5, 0, 12, 0, 0}));
+        Bytes meta = new Bytes().i32(0);
+        meta.atom("hdlr", new Bytes().i32(0).i32(0).ascii("mdirappl").zeros(9).toByteArray());
+        meta.atom("ilst", ilst.toByteArray());
+        Bytes udta = new Bytes().atom("meta", meta.toByteArray());
+        Bytes moov = new Bytes().atom("mvhd", mvhd.toByteArray()).atom("udta", udta.toByteArray());
+        file.atom("moov", moov.toByteArray());
+
+        TrackTags tags = TagReader.read(file.writeTo(tmp.newFile("a.m4a")).getPath());
+
+        assertEquals("Song", tags.getTitle());
+        assertEquals("专辑", tags.getAlbum());
+        assertEquals(5, tags.getTrackNumber());
+        assertEquals(123_456, tags.getDurationMs());
+    }
+
+    @Test
+    public void embeddedRange_offsetsAreRelativeToTrack() throws IOException {
+        // 模拟 APK 里的 raw 资源：音轨前面还有别的数据
+        Bytes track = new Bytes().mpegFrames(20, MP3_HEADER, MP3_FRAME);
+        Bytes container = new Bytes().zeros(777).raw(track.toByteArray()).zeros(333);
+        File file = container.writeTo(tmp.newFile("container.bin"));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            TrackTags tags = TagReader.read(channel, 777, track.size());
+            assertEquals(20L * MP3_FRAME * 8 / 128, tags.getDurationMs());
+        }
+    }
+
+    @Test
+    public void missingAndGarbageFiles() throws IOException {
+        assertNull(TagReader.read(new File(tmp.getRoot(), "missing.mp3").getPath()));
+        Bytes junk = new Bytes().ascii("ID3").raw(new byte[]{3, 0, 0, 0x7F, 0x7F, 0x7F, 0x7F}).zeros(20);
+        TrackTags tags = TagReader.read(junk.writeTo(tmp.newFile("junk.mp3")).getPath());
+        assertNotNull(tags);
+        assertNull(tags.getTitle());
+        assertEquals(0, tags.getDurationMs());
+    }
+
+    @Test
+    public void readAll_keepsOrder() throws IOException {
+        String[] paths = new String[40];
+        for (int i = 0; i < paths.length; i++) {
+            Bytes file = new Bytes().mpegFrames(i + 1, MP3_HEADER, MP3_FRAME);
+            paths[i] = file.writeTo(tmp.newFile(i + ".mp3")).getPath();
+        }
+        paths[7] = new File(tmp.getRoot(), "gone.mp3").getPath();
+
+        TrackTags[] tags = TagReader.readAll(paths, paths.length);
+
+        for (int i = 0; i < paths.length; i++) {
+            if (i == 7) {
+                assertNull(tags[i]);
+            } else {
+                assertEquals((i + 1L) * MP3_FRAME * 8 / 128, tags[i].getDurationMs());
+            }
+        }
+    }
+
+    // ===== 拼文件用的工具 =====
+
+    private static byte[] text(int encoding, String s) {
+        Charset charset = encoding == 1 ? StandardCharsets.UTF_16 : encoding == 3 ? StandardCharsets.UTF_8
+                : StandardCharsets.ISO_8859_1;
+        return new Bytes().u8(encoding).raw(s.getBytes(charset)).toByteArray();
+    }
+
+    private static byte[] legacy(String s, Charset charset) {
+        return new Bytes().u8(0).raw(s.getBytes(charset)).toByteArray();
+    }
+
+    private static int apicHeaderLength(String description) {
+        return 1 + "image/jpeg".length() + 1 + 1 + description.length() + 1;
+    }
+
+    private static byte[] picture(int encoding, int pictureType, String description) {
+        return new Bytes().u8(encoding).ascii("image/jpeg").u8(0).u8(pictureType)
+                .ascii(description).u8(0).raw(COVER).toByteArray();
+    }
+
+    private static byte[] data(int type, byte[] payload) {
+        return new Bytes().atom("data", new Bytes().i32(type).i32(0).raw(payload).toByteArray()).toByteArray();
+    }
+
+    private static class Bytes {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        int size() { return bytes.size(); }
+        byte[] toByteArray() { return bytes.toByteArray(); }
+
+        Bytes u8(int v) { return run(() -> out.writeByte(v)); }
+        Bytes i32(int v) { return run(() -> out.writeInt(v)); }
+        Bytes i64(long v) { return run(() -> out.writeLong(v)); }
+        Bytes le32(int v) { return run(() -> out.writeInt(Integer.reverseBytes(v))); }
+        Bytes raw(byte[] b) { return run(() -> out.write(b)); }
+        Bytes zeros(int n) { return raw(new byte[n]); }
+        Bytes ascii(String s) { return raw(s.getBytes(StandardCharsets.ISO_8859_1)); }
+
+        Bytes comment(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            return le32(b.length).raw(b);
+        }
+
+        Bytes frame23(String id, byte[] body) { return ascii(id).i32(body.length).u8(0).u8(0).raw(body); }
+        Bytes frame24(String id, byte[] body) { return ascii(id).i32(syncsafe(body.length)).u8(0).u8(0).raw(body); }
+
+        Bytes id3Header(int major, byte[] body, int flags) {
+            return ascii("ID3").u8(major).u8(0).u8(flags).i32(syncsafe(body.length)).raw(body);
+        }
+
+        Bytes id3v1(String title, String artist, String album, int track) {
+            ascii("TAG").raw(fixed(title, 30)).raw(fixed(artist, 30)).raw(fixed(album, 30)).ascii("2024");
+            return zeros(28).u8(0).u8(track).u8(255);
+        }
+
+        Bytes mpegFrames(int count, int header, int frameLength) {
+            for (int i = 0; i < count; i++) i32(header).zeros(frameLength - 4);
+            return this;
+        }
+
+        Bytes atom(String type, byte[] body) {
+            return i32(8 + body.length).ascii(type).raw(body);
+        }
+
+        File writeTo(File file) throws IOException {
+            Files.write(file.toPath(), toByteArray());
+            return file;
+        }
+
+        private Bytes run(IoAction action) {
+            try {
+                action.run();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        private static byte[] fixed(String s, int length) {
+            byte[] b = new byte[length];
+            byte[] src = s.getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(src, 0, b, 0, Math.min(src.length, length));
+            return b;
+        }
+
+        private static int syncsafe(int v) {
+            return (v & 0x7F) | ((v << 1) & 0x7F00) | ((v << 2) & 0x7F0000) | ((v << 3) & 0x7F000000);
+        }
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+}
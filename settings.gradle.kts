@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "Carmusic"
 include(":app")
+include(":core")